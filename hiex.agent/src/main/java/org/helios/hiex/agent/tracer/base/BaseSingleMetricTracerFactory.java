@@ -25,6 +25,7 @@
 package org.helios.hiex.agent.tracer.base;
 
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -130,7 +131,6 @@ public class BaseSingleMetricTracerFactory extends ASingleInstanceTracerFactory
 		DEBUG = getParameter(PARAM_DEBUG, false);
 		metricRecordingAdministrator = agent.IAgent_getMetricRecordingAdministrator();
 		dataAccumulatorFactory = agent.IAgent_getDataAccumulatorFactory();
-		//metricRecordingAdministrator.addMetricGroup(metricKey, metrics)
 		reentrancy = calculateReentrancyLevel(ReentrancyLevel.kNone);
 		reentrancyName = getParameter("reentrancy", "kNone");
 		initializeScheduler();
@@ -193,6 +193,34 @@ public class BaseSingleMetricTracerFactory extends ASingleInstanceTracerFactory
 		return false;
 	}
 	
+	/**
+	 * Builds a full metric name from a resource and a metric and adds it to the passed group of metric names
+	 * @param resource The metric resource
+	 * @param metric The metric name
+	 * @param metricNames The group of metric names to add to
+	 * @return the full metric name
+	 */
+	protected static String metricName(String resource, String metric, Collection<String> metricNames) {
+		String name = resource + ":" + metric;
+		metricNames.add(name);
+		return name;
+	}
+
+	/**
+	 * Registers a group of metrics with the metric recording administrator in one call.
+	 * @param groupKey The metric group key
+	 * @param metricNames The full names of the metrics in the group
+	 */
+	protected void registerMetricGroup(String groupKey, Collection<String> metricNames) {
+		if(metricNames.isEmpty()) return;
+		try {
+			metricRecordingAdministrator.addMetricGroup(groupKey, metricNames.toArray(new String[metricNames.size()]));
+			log.info("Registered [", metricNames.size(), "] metrics in group [", groupKey, "]");
+		} catch (Exception e) {
+			log.warn("Failed to register metric group [", groupKey, "]", e);
+		}
+	}
+	
 	/**
 	 * Checks the parameters for a schedule and registers if found.
 	 */
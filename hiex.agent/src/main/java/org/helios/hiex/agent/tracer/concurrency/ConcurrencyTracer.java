@@ -0,0 +1,124 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.agent.tracer.concurrency;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.helios.hiex.agent.tracer.base.BaseSingleMetricTracerFactory;
+import org.helios.hiex.agent.tracer.ctile.IntervalPublisher;
+import org.helios.hiex.util.concurrency.StripedGauge;
+
+import com.wily.introscope.agent.IAgent;
+import com.wily.introscope.agent.stat.IIntegerFluctuatingCounterDataAccumulator;
+import com.wily.introscope.agent.trace.InvocationData;
+import com.wily.introscope.agent.trace.ProbeIdentification;
+import com.wily.util.properties.AttributeListing;
+
+/**
+ * <p>Title: ConcurrencyTracer</p>
+ * <p>Description: Tracer that gauges the concurrent executions of a crosscut. Each call is counted in flight in a striped cell
+ * (see {@link StripedGauge}) from start to finish, and every schedule period the tracer publishes the current, average and peak
+ * number of calls in flight. The peak sums the cells' own high-water marks, so it can overstate calls that peaked in different
+ * cells at different times. Read next to the crosscut's elapsed time percentiles, a latency rise with more calls in flight points
+ * at queueing, and a latency rise with the same number in flight points at a slower dependency.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.agent.tracer.concurrency.ConcurrencyTracer</code></p>
+ */
+
+public class ConcurrencyTracer extends BaseSingleMetricTracerFactory {
+	/** The striped in-flight gauge */
+	protected final StripedGauge gauge;
+	/** The timestamp of the last heartbeat, or -1 before the first */
+	protected long lastTimestamp = -1;
+
+	/** The number of calls in flight at the end of the interval */
+	protected final IIntegerFluctuatingCounterDataAccumulator currentCounter;
+	/** The average number of calls in flight during the interval */
+	protected final IIntegerFluctuatingCounterDataAccumulator averageCounter;
+	/** The peak number of calls in flight during the interval */
+	protected final IIntegerFluctuatingCounterDataAccumulator peakCounter;
+
+	/**
+	 * Creates a new ConcurrencyTracer
+	 * @param agent A reference to the agent
+	 * @param parameters The tracer configuration parameters
+	 * @param probe The crosscut details
+	 * @param sampleTracedObject A sample instance of the crosscut method's class
+	 */
+	public ConcurrencyTracer(IAgent agent, AttributeListing parameters, ProbeIdentification probe, Object sampleTracedObject) {
+		super(agent, parameters, probe, sampleTracedObject);
+		gauge = new StripedGauge();
+		String name = getFormattedName();
+		List<String> metricNames = new ArrayList<String>();
+		currentCounter = IntervalPublisher.counter(dataAccumulatorFactory, metricName(name, "In Flight", metricNames));
+		averageCounter = IntervalPublisher.counter(dataAccumulatorFactory, metricName(name, "Average In Flight", metricNames));
+		peakCounter = IntervalPublisher.counter(dataAccumulatorFactory, metricName(name, "Peak In Flight", metricNames));
+		registerMetricGroup(name, metricNames);
+		if(schedulePeriod < 1) {
+			log.warn("No schedule period configured. Concurrency metrics will not be published.");
+		}
+		log.info("Gauging concurrency over [", gauge.getCellCount(), "] cells");
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.wily.introscope.agent.trace.ITracer#ITracer_startTrace(int, com.wily.introscope.agent.trace.InvocationData)
+	 */
+	@Override
+	public void ITracer_startTrace(int tracerIndex, InvocationData data) {
+		data.storeWallClockStartTime();
+		gauge.start(data.getWallClockStartTime());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.wily.introscope.agent.trace.ITracer#ITracer_finishTrace(int, com.wily.introscope.agent.trace.InvocationData)
+	 */
+	@Override
+	public void ITracer_finishTrace(int tracerIndex, InvocationData data) {
+		gauge.finish(data.getWallClockStartTime() + data.getWallClockElapsedTimeAsInt());
+	}
+
+	/**
+	 * Publishes the interval's current, average and peak calls in flight
+	 * @param timestamp The heartbeat timestamp
+	 * @see com.wily.util.heartbeat.ITimestampedRunnable#ITimestampedRunnable_execute(long)
+	 */
+	@Override
+	public void ITimestampedRunnable_execute(long timestamp) {
+		long[] interval = gauge.interval(timestamp);
+		long elapsed = lastTimestamp < 0 || timestamp <= lastTimestamp ? schedulePeriod : timestamp - lastTimestamp;
+		lastTimestamp = timestamp;
+		double average = StripedGauge.average(interval[StripedGauge.BUSY], elapsed);
+		IntervalPublisher.publish(currentCounter, interval[StripedGauge.CURRENT]);
+		IntervalPublisher.publish(averageCounter, Math.round(average));
+		IntervalPublisher.publish(peakCounter, interval[StripedGauge.PEAK]);
+		if(DEBUG) {
+			log.info("Concurrency current [", interval[StripedGauge.CURRENT], "] average [", average, "] peak [", interval[StripedGauge.PEAK], "] over [", elapsed, "] ms");
+		}
+	}
+}
@@ -26,24 +26,24 @@ package org.helios.hiex.agent.tracer.ctile;
 
 import gnu.trove.list.array.TIntArrayList;
 
+import java.text.SimpleDateFormat;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 import org.helios.hiex.util.FlexiLogger;
-import org.helios.hiex.util.collections.StatsIntArray;
-import org.helios.hiex.util.collections.SynchronizedTIntArrayList;
+import org.helios.hiex.util.collections.LongSelection;
+import org.helios.hiex.util.collections.LongSummary;
+import org.helios.hiex.util.collections.StripedIntRecorder;
+import org.helios.hiex.util.concurrency.WriterReaderPhaser;
+import org.helios.hiex.util.math.LogLinearHistogram;
 import org.helios.hiex.util.math.SimpleMath;
+import org.helios.hiex.util.math.TDigest;
 
 import com.wily.introscope.agent.stat.DataAccumulatorFactory;
-import com.wily.introscope.agent.stat.IDataAccumulator;
-import com.wily.introscope.agent.stat.IIntegerFluctuatingCounterDataAccumulator;
-import com.wily.introscope.agent.stat.ILongAverageDataAccumulator;
+import com.wily.introscope.agent.stat.IIntegerAverageDataAccumulator;
+import com.wily.introscope.agent.stat.IStringEveryEventDataAccumulator;
 
 /**
  * <p>Title: CtileMetricAccumulator</p>
@@ -53,135 +53,719 @@ import com.wily.introscope.agent.stat.ILongAverageDataAccumulator;
  * <p><code>org.helios.hiex.agent.tracer.ctile.CtileMetricAccumulator</code></p>
  */
 public class CtileMetricAccumulator  {
-	/** The interval accumulator pair used to accumulate elapsed times during an interval window. */
-	protected final SynchronizedTIntArrayList[] intervalAccumulators = new SynchronizedTIntArrayList[] {
-			new SynchronizedTIntArrayList(), new SynchronizedTIntArrayList() };
-	/** The boolean alternator used to switch between interval accumulators on alternating intervals */
-	protected final AtomicBoolean alternator;
+	/** The interval accumulator pair used to accumulate elapsed times during an interval window, or null for modes that record elsewhere. */
+	protected final StripedIntRecorder[] intervalAccumulators;
+	/** The phaser used to switch between interval accumulators on alternating intervals */
+	protected final WriterReaderPhaser phaser;
 	/** Indicates if the percentile calc. elapsed time should be traced */
 	protected final boolean tracePerformance;
 	/** Indicates if debug output should be traced */
 	protected final boolean debug;
-	/** The percentile to calculate */
-	protected final int percentile;
+	/** The percentiles to calculate, in ascending order */
+	protected final float[] percentiles;
+	/** The unit elapsed times are recorded in */
+	protected final TimeUnit recordUnit;
+	/** The unit elapsed time metrics are published in */
+	protected final TimeUnit publishUnit;
+	/** The number of publish units per record unit */
+	protected final double unitFactor;
 	/** The agent logging channel */
 	protected final FlexiLogger log;
+	/** The rolling windows configuration, or null if no rolling windows are published */
+	protected RollingWindows rollingWindows = null;
+	/** The ring of compact per period digests. Only accessed by the reader. */
+	protected TDigest[] windowRing = null;
+	/** The ring index the next period digest is stored at */
+	protected int ringIndex = 0;
+	/** The digest the ring is merged into to calculate the windowed percentiles */
+	protected TDigest windowDigest = null;
+	/** The scratch digest raw period values are summarized into */
+	protected TDigest periodDigest = null;
+	/** The dense integer id of the metric this accumulator traces, or -1 if not yet assigned */
+	protected int metricId = -1;
+	/** The resolved name of the metric this accumulator traces */
+	protected String metricName = null;
+	/** The number of consecutive calculated intervals without any elapsed times. Only accessed by the reader. */
+	protected int idlePeriods = 0;
+	/** The accumulator this one replaced, whose buffered elapsed times are absorbed at the next calculation, or null */
+	protected volatile CtileMetricAccumulator predecessor = null;
+	/** The reader owned slot array interval statistics are written into, reused every interval */
+	protected int[] slots = null;
+	/** The pre-bound average elapsed time accumulator of the metric, or null if not bound */
+	protected IIntegerAverageDataAccumulator averageAccumulator = null;
+	/** The heatmap bucket boundaries, or null if no heatmap is published */
+	protected HeatmapBuckets heatmap = null;
+	/** The heatmap bucket count pair, indexed by phase, or null if no heatmap is published */
+	protected AtomicIntegerArray[] heatmapCounts = null;
+	/** The interval log each calculated interval is appended to, or null */
+	protected IntervalLog intervalLog = null;
+	/** The expected interval between calls in the record unit that coordinated omission corrected percentiles are calculated for, or 0 if not corrected */
+	protected long expectedInterval = 0;
+	/** The slowest invocation heap pair, indexed by phase, or null if exemplars are not retained */
+	protected ExemplarHeap[] exemplarHeaps = null;
+	/** The slowest invocations of the last calculated interval, slowest first */
+	protected volatile ExemplarHeap.Exemplar[] lastExemplars = ExemplarHeap.EMPTY;
+	/** The pre-bound exemplar string accumulators, indexed by rank, or null if not bound */
+	protected IStringEveryEventDataAccumulator[] exemplarAccumulators = null;
+	/** The exemplar start time format, created on the first published exemplar. Only accessed by the reader. */
+	protected SimpleDateFormat exemplarTimeFormat = null;
+	/** The elapsed times of uncalculated intervals carried into the next calculation, or null. Only accessed by the reader. */
+	protected long[] carried = null;
+	/** The heatmap bucket counts of uncalculated intervals carried into the next calculation, or null. Only accessed by the reader. */
+	protected int[] carriedHeatmap = null;
+	/** The slowest invocations of uncalculated intervals carried into the next calculation, or null. Only accessed by the reader. */
+	protected ExemplarHeap.Exemplar[] carriedExemplars = null;
+
+	/** The start time format of published exemplars */
+	public static final String EXEMPLAR_TIME_FORMAT = "HH:mm:ss.SSS";
 	
 	
 	
 
 	/**
 	 * Creates a new CtileMetricAccumulator
-	 * @param alternator The interval alternator.
-	 * @param percentile The percentile to calculate on.
+	 * @param percentiles The percentiles to calculate on, in ascending order.
+	 * @param phaser The interval phaser.
+	 * @param recordUnit The unit elapsed times are recorded in.
+	 * @param publishUnit The unit elapsed time metrics are published in.
+	 * @param tracePerformance  Indicates if the percentile calc. elapsed time should be traced
+	 * @param debug Indicates if debug output should be traced
+	 * @param log The agent logger.
+	 */
+	public CtileMetricAccumulator(float[] percentiles, WriterReaderPhaser phaser, TimeUnit recordUnit, TimeUnit publishUnit, boolean tracePerformance, boolean debug, FlexiLogger log) {
+		this(percentiles, phaser, recordUnit, publishUnit, tracePerformance, debug, log, new StripedIntRecorder[] { new StripedIntRecorder(), new StripedIntRecorder() });
+	}
+
+	/**
+	 * Creates a new CtileMetricAccumulator for a mode that records into its own structures
+	 * @param percentiles The percentiles to calculate on, in ascending order.
+	 * @param phaser The interval phaser.
+	 * @param recordUnit The unit elapsed times are recorded in.
+	 * @param publishUnit The unit elapsed time metrics are published in.
 	 * @param tracePerformance  Indicates if the percentile calc. elapsed time should be traced
 	 * @param debug Indicates if debug output should be traced
 	 * @param log The agent logger.
+	 * @param intervalAccumulators The int interval accumulator pair, or null if the mode overrides every method that uses it
 	 */
-	public CtileMetricAccumulator(int percentile, AtomicBoolean alternator, boolean tracePerformance, boolean debug, FlexiLogger log) {
-		this.percentile = percentile;
-		this.alternator = alternator;
+	protected CtileMetricAccumulator(float[] percentiles, WriterReaderPhaser phaser, TimeUnit recordUnit, TimeUnit publishUnit, boolean tracePerformance, boolean debug, FlexiLogger log, StripedIntRecorder[] intervalAccumulators) {
+		this.intervalAccumulators = intervalAccumulators;
+		this.percentiles = percentiles;
+		this.phaser = phaser;
+		this.recordUnit = recordUnit;
+		this.publishUnit = publishUnit;
+		unitFactor = (double)recordUnit.toNanos(1) / publishUnit.toNanos(1);
 		this.tracePerformance = tracePerformance;
 		this.debug = debug;
 		this.log = log;
 	}
 
 	/**
-	 * The current interval's interval Accumulator.
-	 * @return the current SynchronizedTIntArrayList
+	 * Assigns the metric this accumulator traces. Must be called before the accumulator is published to writers.
+	 * @param metricId The dense integer id of the metric
+	 * @param metricName The resolved name of the metric
 	 */
-	public SynchronizedTIntArrayList getIntervalAccumulator() {
-		if (alternator.get()) {
-			return intervalAccumulators[1];
-		} else {
+	public void setMetric(int metricId, String metricName) {
+		this.metricId = metricId;
+		this.metricName = metricName;
+	}
 
-			return intervalAccumulators[0];
+	/**
+	 * Resolves and holds the data accumulators this accumulator records to, so recording never goes back to the factory.
+	 * Must be called after {@link #setMetric(int, String)} and before the accumulator is published to writers.
+	 * @param factory The agent's data accumulator factory
+	 */
+	public void bindAccumulators(DataAccumulatorFactory factory) {
+		averageAccumulator = (IIntegerAverageDataAccumulator)factory.safeGetIntegerAverageDataAccumulator(metricName + MethodTimerCtile.AVERAGE_ELAPSED_SUFFIX);
+		if(exemplarHeaps!=null) {
+			exemplarAccumulators = new IStringEveryEventDataAccumulator[exemplarHeaps[0].getCapacity()];
+			for(int i = 0; i < exemplarAccumulators.length; i++) {
+				exemplarAccumulators[i] = (IStringEveryEventDataAccumulator)factory.safeGetStringEveryEventDataAccumulator(metricName + MethodTimerCtile.EXEMPLAR_SEGMENT + (i + 1));
+			}
 		}
 	}
 
 	/**
-	 * The alternate interval's interval Accumulator.
-	 * @return the alternate SynchronizedTIntArrayList
+	 * Records an elapsed time to the pre-bound average elapsed time accumulator, if bound and not shut off
+	 * @param timeMs The elapsed time in ms
 	 */
-	public SynchronizedTIntArrayList getAltIntervalAccumulator() {
-		if (alternator.get()) {
-			return intervalAccumulators[0];
-		} else {
-			return intervalAccumulators[1];
+	public void recordAverage(int timeMs) {
+		IIntegerAverageDataAccumulator average = averageAccumulator;
+		if (average!=null && !average.IDataAccumulator_isShutOff()) {
+			average.IIntegerAggregatingDataAccumulator_recordDataPoint(timeMs);
 		}
 	}
 
+	/**
+	 * Returns the number of consecutive calculated intervals without any elapsed times
+	 * @return the number of idle periods
+	 */
+	public int getIdlePeriods() {
+		return idlePeriods;
+	}
+
+	/**
+	 * Returns the dense integer id of the metric this accumulator traces
+	 * @return the metric id, or -1 if not yet assigned
+	 */
+	public int getMetricId() {
+		return metricId;
+	}
+
+	/**
+	 * Returns the resolved name of the metric this accumulator traces
+	 * @return the metric name
+	 */
+	public String getMetricName() {
+		return metricName;
+	}
+
+	/**
+	 * Enables rolling window percentiles. Must be called before the accumulator is published to writers.
+	 * @param rollingWindows The rolling windows configuration
+	 */
+	public void setRollingWindows(RollingWindows rollingWindows) {
+		this.rollingWindows = rollingWindows;
+		windowRing = new TDigest[rollingWindows.getRingSize()];
+		windowDigest = new TDigest(rollingWindows.getCompression());
+		periodDigest = new TDigest(rollingWindows.getCompression());
+	}
+
+	/**
+	 * Enables the heatmap bucket counts. Must be called before the accumulator is published to writers.
+	 * @param heatmap The heatmap bucket boundaries
+	 */
+	public void setHeatmap(HeatmapBuckets heatmap) {
+		this.heatmap = heatmap;
+		heatmapCounts = new AtomicIntegerArray[] {
+				new AtomicIntegerArray(heatmap.getBucketCount()), new AtomicIntegerArray(heatmap.getBucketCount()) };
+	}
+
+	/**
+	 * Enables appending each calculated interval to an interval log. Must be called before the accumulator is published to writers.
+	 * @param intervalLog The interval log
+	 */
+	public void setIntervalLog(IntervalLog intervalLog) {
+		this.intervalLog = intervalLog;
+	}
+
+	/**
+	 * Enables coordinated omission corrected percentiles, for the modes that support them.
+	 * Must be called before the accumulator is published to writers.
+	 * @param expectedInterval The expected interval between calls in the record unit
+	 */
+	public void setExpectedInterval(long expectedInterval) {
+		this.expectedInterval = expectedInterval;
+	}
+
+	/**
+	 * Enables retaining the slowest invocations of each interval. Must be called before {@link #bindAccumulators(DataAccumulatorFactory)}
+	 * and before the accumulator is published to writers.
+	 * @param count The number of slowest invocations retained per interval
+	 */
+	public void setExemplars(int count) {
+		exemplarHeaps = new ExemplarHeap[] { new ExemplarHeap(count), new ExemplarHeap(count) };
+	}
+
+	/**
+	 * Indicates if an invocation with the passed elapsed time would be retained as one of the current interval's slowest.
+	 * Callers only collect an invocation's details for {@link #addExemplar(ExemplarHeap.Exemplar)} when this returns true.
+	 * @param time The elapsed time in the record unit
+	 * @return true if the elapsed time is above the current interval's fastest retained invocation
+	 */
+	public boolean admitsExemplar(long time) {
+		ExemplarHeap[] heaps = exemplarHeaps;
+		return heaps!=null && heaps[phaser.activeIndex()].admits(time);
+	}
+
+	/**
+	 * Offers an invocation to the current interval's slowest invocations, in a phaser critical section so the interval
+	 * rollover waits for it to complete
+	 * @param exemplar The invocation
+	 */
+	public void addExemplar(ExemplarHeap.Exemplar exemplar) {
+		ExemplarHeap[] heaps = exemplarHeaps;
+		if(heaps==null) return;
+		final long phase = phaser.writerCriticalSectionEnter();
+		try {
+			heaps[WriterReaderPhaser.phaseIndex(phase)].offer(exemplar);
+		} finally {
+			phaser.writerCriticalSectionExit(phase);
+		}
+	}
+
+	/**
+	 * Returns the slowest invocations of the last calculated interval
+	 * @return the slowest invocations, slowest first, empty if none were retained
+	 */
+	public ExemplarHeap.Exemplar[] getLastExemplars() {
+		return lastExemplars;
+	}
+
+	/**
+	 * Indicates if this accumulator calculates coordinated omission corrected percentiles. Corrections back fill synthetic
+	 * elapsed times into a histogram or digest, so the modes that buffer raw elapsed times do not support them.
+	 * @return false
+	 */
+	public boolean isCorrectable() {
+		return false;
+	}
+
+	/**
+	 * Returns the zeroed histogram the closing interval's elapsed times are recorded into for the interval log
+	 * @return the interval log histogram, or null if no interval log is enabled
+	 */
+	protected LogLinearHistogram logHistogram() {
+		return intervalLog==null ? null : intervalLog.histogram();
+	}
+
+	/**
+	 * The current interval's interval Accumulator.
+	 * @return the current StripedIntRecorder. Must not be called in modes without the int accumulator pair.
+	 */
+	public StripedIntRecorder getIntervalAccumulator() {
+		return intervalAccumulators[phaser.activeIndex()];
+	}
+
+	/**
+	 * The alternate interval's interval Accumulator. Owned by the reader between phase flips.
+	 * @return the alternate StripedIntRecorder. Must not be called in modes without the int accumulator pair.
+	 */
+	public StripedIntRecorder getAltIntervalAccumulator() {
+		return intervalAccumulators[phaser.inactiveIndex()];
+	}
+
 
 	
 
 	/**
 	 * Adds an elapsed time to the current interval accumulator.
-	 * @param time The elapsed time of the method invocation.
+	 * The write, and the heatmap bucket increment if enabled, are wrapped in a phaser critical section so the interval rollover waits for them to complete.
+	 * @param time The elapsed time of the method invocation in the record unit.
+	 */
+	public void addElapsedTime(long time) {
+		final long phase = phaser.writerCriticalSectionEnter();
+		try {
+			final int phaseIndex = WriterReaderPhaser.phaseIndex(phase);
+			record(phaseIndex, time);
+			if(heatmapCounts!=null) {
+				heatmapCounts[phaseIndex].incrementAndGet(heatmap.bucketOf(time));
+			}
+		} finally {
+			phaser.writerCriticalSectionExit(phase);
+		}
+	}
+
+	/**
+	 * Records an elapsed time in the interval accumulator for the passed phase.
+	 * @param phaseIndex The phase index of the interval accumulator to record into
+	 * @param time The elapsed time of the method invocation in the record unit.
 	 */
-	public void addElapsedTime(int time) {
-		getIntervalAccumulator().add(time);
+	protected void record(int phaseIndex, long time) {
+		intervalAccumulators[phaseIndex].add(toInt(time));
 	}
 
 
 	/**
-	 * 
+	 * Calculates the last interval's statistics into this accumulator's reused slot array and publishes them.
+	 * Slots the calculation does not write, such as all the slots of an empty interval, are published as zero.
+	 * @param publisher The tracer's publication stage
+	 * @param timestamp The heartbeat timestamp of the tick, recorded with the interval in the interval log
+	 * @return the published slot values, owned by this accumulator until the next interval
 	 */
-	public Map<String, Number> calcAndPublishInterval(Map<String, String> metricNameMap) throws Exception {				
-		if(metricNameMap.size()<1) return Collections.emptyMap();
-		Map<String, Number> results = new HashMap<String, Number>(metricNameMap.size());
-		long start = System.currentTimeMillis();		
-		SynchronizedTIntArrayList lastInterval = getAltIntervalAccumulator();
-		if (lastInterval.size() < 2) {
-			lastInterval.reset();
-			// Need to publish zero out metrics here.
-			return results;
+	public int[] calcAndPublishInterval(IntervalPublisher publisher, long timestamp) {
+		int[] values = slots;
+		if(values==null || values.length!=publisher.getSlotCount()) {
+			values = slots = publisher.newSlots();
+		} else {
+			Arrays.fill(values, 0);
 		}
+		long start = System.currentTimeMillis();
 		try {
-			TIntArrayList lastIntervalValues = new TIntArrayList(lastInterval.toArray());
-			lastInterval.reset();
-			StatsIntArray statsArray = new StatsIntArray(lastIntervalValues.toArray());
-			
-			
-			// The nth percentile elapsed time threshold
-			int ctile = statsArray.percentileRankValue(percentile);
-			int total = statsArray.size();
-			int below = statsArray.grep(new PercentileDiscriminator(ctile)).size();
-			int above = total - below;
-
-			if(metricNameMap.containsKey(MethodTimerCtile.PERCENTILE_ELAPSED)) {
-				results.put(MethodTimerCtile.PERCENTILE_ELAPSED, ctile);
-			}
-			if(metricNameMap.containsKey(MethodTimerCtile.COUNT_LTOE_PERCENTILE)) {
-				results.put(MethodTimerCtile.COUNT_LTOE_PERCENTILE, below);				
-			}
-			if(metricNameMap.containsKey(MethodTimerCtile.COUNT_GT_PERCENTILE)) {
-				results.put(MethodTimerCtile.COUNT_GT_PERCENTILE, above);				
-			}
-			if(metricNameMap.containsKey(MethodTimerCtile.PERCENT_LTOE_PERCENTILE)) {
-				results.put(MethodTimerCtile.PERCENT_LTOE_PERCENTILE, SimpleMath.ipercent(below, total));				
+			absorbCarried();
+			idlePeriods = calcInterval(publisher, values)==0 ? idlePeriods + 1 : 0;
+			if(intervalLog!=null) {
+				intervalLog.append(timestamp, metricId, metricName);
 			}
-			if(metricNameMap.containsKey(MethodTimerCtile.PERCENT_GT_PERCENTILE)) {
-				results.put(MethodTimerCtile.PERCENT_GT_PERCENTILE, SimpleMath.ipercent(above, total));				
+		} catch (Exception e) {
+			log.warn("Failed to calculate interval percentiles", e);
+			Arrays.fill(values, 0);
+		}
+		if(heatmapCounts!=null) {
+			drainHeatmap(publisher, values);
+		}
+		if(tracePerformance && publisher.perfSlot!=IntervalPublisher.NO_SLOT) {
+			values[publisher.perfSlot] = toInt(System.currentTimeMillis()-start);
+		}
+		publisher.publish(values);
+		if(exemplarHeaps!=null) {
+			drainExemplars();
+		}
+		return values;
+	}
+
+	/**
+	 * Moves the last interval's buffered elapsed times, heatmap bucket counts and slowest invocations out of the phaser's inactive
+	 * buffers into reader owned carried state, which the next calculation absorbs. Called by the reader, before the next phase flip,
+	 * for an accumulator whose interval is not calculated, so the buffers writers switch to at the next flip are empty and the
+	 * uncalculated interval is published with the next one rather than mixed into the interval after it.
+	 */
+	public void carryOver() {
+		carryLastInterval();
+		if(heatmapCounts!=null) {
+			AtomicIntegerArray counts = heatmapCounts[phaser.inactiveIndex()];
+			if(carriedHeatmap==null) carriedHeatmap = new int[counts.length()];
+			for(int i = 0; i < counts.length(); i++) {
+				carriedHeatmap[i] += counts.getAndSet(i, 0);
 			}
-			if(metricNameMap.containsKey(MethodTimerCtile.MEAN_ELAPSED)) {
-				int mean = statsArray.mean();
-				results.put(MethodTimerCtile.MEAN_ELAPSED, mean);
-				if(metricNameMap.containsKey(MethodTimerCtile.STDDEV_ELAPSED)) {
-					results.put(MethodTimerCtile.STDDEV_ELAPSED, statsArray.stddev());
-				}
+		}
+		if(exemplarHeaps!=null) {
+			ExemplarHeap heap = exemplarHeaps[phaser.inactiveIndex()];
+			// Offered back so only the heap's capacity of them is carried however many intervals are carried over
+			absorbCarriedExemplars(heap);
+			carriedExemplars = heap.drain();
+		}
+	}
+
+	/**
+	 * Moves the elapsed times buffered during the last interval into reader owned carried state
+	 */
+	protected void carryLastInterval() {
+		absorbCarried();
+		long[] values = drainLastInterval();
+		carried = values.length==0 ? null : values;
+	}
+
+	/**
+	 * Records the carried elapsed times into the last interval's buffers, ahead of its calculation
+	 */
+	protected void absorbCarried() {
+		long[] values = carried;
+		if(values==null) return;
+		carried = null;
+		int phaseIndex = phaser.inactiveIndex();
+		for(long v: values) {
+			record(phaseIndex, v);
+		}
+	}
+
+	/**
+	 * Offers the carried slowest invocations to a heap
+	 * @param heap The heap, owned by the reader
+	 */
+	protected void absorbCarriedExemplars(ExemplarHeap heap) {
+		ExemplarHeap.Exemplar[] exemplars = carriedExemplars;
+		if(exemplars==null) return;
+		carriedExemplars = null;
+		for(ExemplarHeap.Exemplar e: exemplars) {
+			heap.offer(e);
+		}
+	}
+
+	/**
+	 * Moves the last interval's and any carried slowest invocations to {@link #getLastExemplars()} and publishes them to the exemplar string
+	 * accumulators, slowest first, as <code>elapsed unit at HH:mm:ss.SSS on [thread] args [summary]</code>
+	 */
+	protected void drainExemplars() {
+		ExemplarHeap heap = exemplarHeaps[phaser.inactiveIndex()];
+		absorbCarriedExemplars(heap);
+		ExemplarHeap.Exemplar[] exemplars = heap.drain();
+		lastExemplars = exemplars;
+		IStringEveryEventDataAccumulator[] strings = exemplarAccumulators;
+		if(strings==null || exemplars.length==0) return;
+		SimpleDateFormat format = exemplarTimeFormat;
+		if(format==null) {
+			format = new SimpleDateFormat(EXEMPLAR_TIME_FORMAT);
+			exemplarTimeFormat = format;
+		}
+		String unit = " " + MethodTimerCtile.unitLabel(publishUnit);
+		for(int i = 0; i < exemplars.length && i < strings.length; i++) {
+			IStringEveryEventDataAccumulator string = strings[i];
+			if(string==null || string.IDataAccumulator_isShutOff()) continue;
+			ExemplarHeap.Exemplar e = exemplars[i];
+			StringBuilder b = new StringBuilder().append(publish(e.getElapsed())).append(unit)
+				.append(" at ").append(format.format(new Date(e.getStartTime()))).append(" on [").append(e.getThreadName()).append("]");
+			if(e.getArguments()!=null) b.append(" args [").append(e.getArguments()).append("]");
+			string.IStringEveryEventDataAccumulator_addString(b.toString());
+		}
+	}
+
+	/**
+	 * Moves the last interval's and any carried heatmap bucket counts into the heatmap slots and zeros them for the interval after next
+	 * @param publisher The tracer's publication stage, which assigns the slots
+	 * @param values The slot values to write into
+	 */
+	protected void drainHeatmap(IntervalPublisher publisher, int[] values) {
+		AtomicIntegerArray counts = heatmapCounts[phaser.inactiveIndex()];
+		int[] s = publisher.heatmapSlots;
+		int[] c = carriedHeatmap;
+		carriedHeatmap = null;
+		for(int i = 0; i < counts.length(); i++) {
+			int count = counts.getAndSet(i, 0);
+			if(c!=null) count += c[i];
+			if(s!=null) values[s[i]] = count;
+		}
+	}
+
+	/**
+	 * Calculates the statistics of the last interval's elapsed times into the passed slots. Every configured percentile is
+	 * selected in place in the drained snapshot in one partitioning pass, and the counts at or below, mean and standard
+	 * deviation are taken in one further pass.
+	 * @param publisher The tracer's publication stage, which assigns the slots
+	 * @param values The zeroed slot values to write into
+	 * @return the number of elapsed times in the interval
+	 * @throws Exception thrown on any calculation error
+	 */
+	protected long calcInterval(IntervalPublisher publisher, int[] values) throws Exception {
+		int[] lastIntervalValues = getAltIntervalAccumulator().drain();
+		LogLinearHistogram logged = logHistogram();
+		if(logged!=null) {
+			for(int v: lastIntervalValues) logged.recordValue(v);
+		}
+		if(rollingWindows!=null) {
+			rollWindows(periodDigest(lastIntervalValues), publisher, values);
+		}
+		if(lastIntervalValues.length < 2) {
+			if(lastIntervalValues.length==1) populateSingle(publisher, values, lastIntervalValues[0]);
+			return lastIntervalValues.length;
+		}
+		int total = lastIntervalValues.length;
+		// The nth percentile elapsed time thresholds, selected in place in the drained snapshot
+		long[] ctiles = LongSelection.of(lastIntervalValues).percentileRankValues(percentiles);
+		// One pass for the counts at or below each threshold, the mean and the standard deviation
+		LongSummary summary = LongSummary.summarize(lastIntervalValues, ctiles);
+		populateSlots(publisher, values, ctiles, total, summary.getCountsAtOrBelow(), summary.getMean(), summary.getStdDeviation());
+		return total;
+	}
+
+	/**
+	 * Shrinks the interval buffers whose capacity far exceeds their recent use
+	 * @return the number of buffers shrunk or released
+	 */
+	public int trimBuffers() {
+		return intervalAccumulators[0].trim() + intervalAccumulators[1].trim();
+	}
+
+	/**
+	 * Returns the approximate number of bytes retained by this accumulator's interval buffers, rolling window ring and carried elapsed times
+	 * @return the retained bytes
+	 */
+	public long getRetainedBytes() {
+		return intervalAccumulators[0].getRetainedBytes() + intervalAccumulators[1].getRetainedBytes() + getWindowBytes() + getCarriedBytes();
+	}
+
+	/**
+	 * Returns the approximate number of bytes retained by the carried elapsed times
+	 * @return the retained bytes, 0 if nothing is carried
+	 */
+	protected long getCarriedBytes() {
+		long[] values = carried;
+		return values==null ? 0 : (long)values.length * 8;
+	}
+
+	/**
+	 * Returns the approximate number of bytes retained by the rolling window ring and digests
+	 * @return the retained bytes, 0 if no rolling windows are configured
+	 */
+	protected long getWindowBytes() {
+		if(rollingWindows==null) return 0;
+		long bytes = windowDigest.getEstimatedFootprintInBytes() + periodDigest.getEstimatedFootprintInBytes();
+		for(TDigest digest: windowRing) {
+			if(digest!=null) bytes += digest.getEstimatedFootprintInBytes();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Indicates if the memory this accumulator retains is bounded regardless of traffic
+	 * @return false, every elapsed time is buffered
+	 */
+	public boolean isBounded() {
+		return false;
+	}
+
+	/**
+	 * Drains the elapsed times buffered during the last interval. Only called by the reader.
+	 * @return the drained elapsed times in the record unit
+	 */
+	protected long[] drainLastInterval() {
+		// Modes without the pair that do not buffer elapsed times have nothing to drain
+		if(intervalAccumulators==null) return new long[0];
+		int[] values = getAltIntervalAccumulator().drain();
+		long[] longValues = new long[values.length];
+		for(int i = 0; i < values.length; i++) {
+			longValues[i] = values[i];
+		}
+		return longValues;
+	}
+
+	/**
+	 * Makes this accumulator the replacement of another for the same metric. This accumulator takes over the rolling window
+	 * ring, heatmap bucket counts, exemplar heaps and carried state and absorbs the elapsed times the predecessor buffered or carried at the next calculation.
+	 * Must be called by the reader, after an interval calculation and before the accumulator is published to writers.
+	 * @param predecessor The accumulator being replaced
+	 */
+	public void replace(CtileMetricAccumulator predecessor) {
+		if(rollingWindows!=null && predecessor.rollingWindows!=null && predecessor.windowRing.length==windowRing.length) {
+			windowRing = predecessor.windowRing;
+			ringIndex = predecessor.ringIndex;
+		}
+		if(heatmapCounts!=null && predecessor.heatmapCounts!=null && predecessor.heatmapCounts[0].length()==heatmapCounts[0].length()) {
+			// Writers still on the predecessor keep counting into the same buckets
+			heatmapCounts = predecessor.heatmapCounts;
+			carriedHeatmap = predecessor.carriedHeatmap;
+		}
+		if(exemplarHeaps!=null && predecessor.exemplarHeaps!=null && predecessor.exemplarHeaps[0].getCapacity()==exemplarHeaps[0].getCapacity()) {
+			// Writers still on the predecessor keep offering to the same heaps
+			exemplarHeaps = predecessor.exemplarHeaps;
+			carriedExemplars = predecessor.carriedExemplars;
+		}
+		this.predecessor = predecessor;
+	}
+
+	/**
+	 * Writes the computed interval statistics into the slots of each configured sub metric.
+	 * The elapsed time statistics are passed in the record unit and published in the publish unit.
+	 * @param publisher The tracer's publication stage, which assigns the slots
+	 * @param values The slot values to write into
+	 * @param ctiles The nth percentile elapsed time thresholds, indexed by percentile
+	 * @param total The total number of elapsed times in the interval
+	 * @param below The number of elapsed times at or below each percentile threshold
+	 * @param mean The mean elapsed time
+	 * @param stddev The standard deviation of the elapsed times
+	 */
+	protected void populateSlots(IntervalPublisher publisher, int[] values, long[] ctiles, int total, int[] below, double mean, double stddev) {
+		int[] s = null;
+		if((s = publisher.percentileSlots)!=null) {
+			for(int i = 0; i < percentiles.length; i++) values[s[i]] = toInt(publish(ctiles[i]));
+		}
+		if((s = publisher.countLtoeSlots)!=null) {
+			for(int i = 0; i < percentiles.length; i++) values[s[i]] = below[i];
+		}
+		if((s = publisher.countGtSlots)!=null) {
+			for(int i = 0; i < percentiles.length; i++) values[s[i]] = total - below[i];
+		}
+		if((s = publisher.percentLtoeSlots)!=null) {
+			for(int i = 0; i < percentiles.length; i++) values[s[i]] = SimpleMath.ipercent(below[i], total);
+		}
+		if((s = publisher.percentGtSlots)!=null) {
+			for(int i = 0; i < percentiles.length; i++) values[s[i]] = SimpleMath.ipercent(total - below[i], total);
+		}
+		if(publisher.meanSlot!=IntervalPublisher.NO_SLOT) {
+			values[publisher.meanSlot] = toInt(publish(mean));
+			if(publisher.stddevSlot!=IntervalPublisher.NO_SLOT) {
+				values[publisher.stddevSlot] = toInt(publish(stddev));
 			}
-			if(metricNameMap.containsKey(MethodTimerCtile.COUNT_ELAPSED)) {
-				results.put(MethodTimerCtile.COUNT_ELAPSED, total);
+		}
+		if(publisher.countSlot!=IntervalPublisher.NO_SLOT) {
+			values[publisher.countSlot] = total;
+		}
+	}
+
+	/**
+	 * Writes the statistics of an interval with a single elapsed time into the slots. Every percentile and the mean are the
+	 * elapsed time, and every count at or below is 1.
+	 * @param publisher The tracer's publication stage, which assigns the slots
+	 * @param values The slot values to write into
+	 * @param value The elapsed time in the record unit
+	 */
+	protected void populateSingle(IntervalPublisher publisher, int[] values, long value) {
+		long[] ctiles = new long[percentiles.length];
+		Arrays.fill(ctiles, value);
+		int[] below = new int[percentiles.length];
+		Arrays.fill(below, 1);
+		populateSlots(publisher, values, ctiles, 1, below, value, 0);
+	}
+
+	/**
+	 * Writes the coordinated omission corrected percentiles into the corrected percentile slots
+	 * @param publisher The tracer's publication stage, which assigns the slots
+	 * @param values The slot values to write into
+	 * @param ctiles The corrected nth percentile elapsed time thresholds in the record unit, indexed by percentile
+	 */
+	protected void populateCorrectedSlots(IntervalPublisher publisher, int[] values, long[] ctiles) {
+		int[] s = publisher.correctedSlots;
+		for(int i = 0; i < percentiles.length; i++) values[s[i]] = toInt(publish(ctiles[i]));
+	}
+
+	/**
+	 * Stores a compact copy of the closing period's digest in the window ring, replacing the oldest period, and writes
+	 * the percentiles of each rolling window. The windows are nested so the ring is merged once, oldest window last,
+	 * and the cost depends on the ring size and compression, not on the number of elapsed times the windows cover.
+	 * @param period The closing period's digest
+	 * @param publisher The tracer's publication stage, which assigns the slots
+	 * @param values The slot values to write into
+	 */
+	protected void rollWindows(TDigest period, IntervalPublisher publisher, int[] values) {
+		windowRing[ringIndex] = period.compactCopy();
+		ringIndex = (ringIndex + 1) % windowRing.length;
+		windowDigest.reset();
+		int[] periods = rollingWindows.getPeriods();
+		int merged = 0;
+		for(int w = 0; w < periods.length; w++) {
+			// Each window merges only the periods the smaller windows did not cover
+			for(; merged < periods[w]; merged++) {
+				TDigest digest = windowRing[(ringIndex - 1 - merged + windowRing.length) % windowRing.length];
+				if(digest!=null) windowDigest.add(digest);
 			}
-			if(tracePerformance && metricNameMap.containsKey(MethodTimerCtile.PERCENTILE_PERF)) {
-				results.put(MethodTimerCtile.PERCENTILE_PERF, System.currentTimeMillis()-start);
+			if(windowDigest.getTotalCount()==0 || publisher.windowSlots==null) continue;
+			int[] s = publisher.windowSlots[w];
+			for(int i = 0; i < percentiles.length; i++) {
+				values[s[i]] = toInt(publish(Math.round(windowDigest.quantile(percentiles[i] / 100D))));
 			}
-			return results;
-		} catch (Exception e) {
-			log.warn("Failed to calculate interval percentiles", e);
-			return Collections.emptyMap();
 		}
+	}
+
+	/**
+	 * Summarizes a period's raw elapsed times into the scratch period digest
+	 * @param values The period's elapsed times
+	 * @return the scratch period digest
+	 */
+	protected TDigest periodDigest(int[] values) {
+		periodDigest.reset();
+		for(int v: values) {
+			periodDigest.add(v);
+		}
+		return periodDigest;
+	}
+
+	/**
+	 * Summarizes a period's raw long elapsed times into the scratch period digest
+	 * @param values The period's elapsed times
+	 * @return the scratch period digest
+	 */
+	protected TDigest periodDigest(long[] values) {
+		periodDigest.reset();
+		for(long v: values) {
+			periodDigest.add(v);
+		}
+		return periodDigest;
+	}
 
+	/**
+	 * Converts an elapsed time in the record unit to the publish unit
+	 * @param time The elapsed time in the record unit
+	 * @return the elapsed time in the publish unit
+	 */
+	protected long publish(long time) {
+		return unitFactor==1D ? time : Math.round(time * unitFactor);
+	}
+
+	/**
+	 * Converts an elapsed time statistic in the record unit to the publish unit
+	 * @param time The elapsed time statistic in the record unit
+	 * @return the elapsed time statistic in the publish unit
+	 */
+	protected long publish(double time) {
+		return Math.round(time * unitFactor);
+	}
+
+	/**
+	 * Narrows a long to an int, saturating at {@link Integer#MAX_VALUE}
+	 * @param value The value to narrow
+	 * @return the narrowed value
+	 */
+	protected static int toInt(long value) {
+		return value > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int)value;
 	}
 
 	/**
@@ -213,19 +797,6 @@ public class CtileMetricAccumulator  {
 
 	}
 
-	/**
-	 * @param total
-	 * @param part
-	 * @return
-	 */
-	private int calcPercent(float total, float part) {
-		if (total == 0 || part == 0) {
-			return 0;
-		}
-		float p = part / total * 100;
-		return (int) p;
-	}
-
 }
 
 //if (debug) {
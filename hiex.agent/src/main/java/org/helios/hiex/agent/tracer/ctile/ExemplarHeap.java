@@ -0,0 +1,211 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.agent.tracer.ctile;
+
+/**
+ * <p>Title: ExemplarHeap</p>
+ * <p>Description: A bounded min-heap of the slowest invocations of a metric in an interval. The heap publishes the elapsed
+ * time at its root as a volatile floor once it is full, so an invocation at or below the floor is rejected by
+ * {@link #admits(long)} with one volatile read and no lock, and only invocations slower than every retained one pay for
+ * collecting their details and taking the heap's monitor. Since the floor only rises during an interval, few invocations
+ * beyond the first <code>N</code> are admitted.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.agent.tracer.ctile.ExemplarHeap</code></p>
+ */
+public class ExemplarHeap {
+	/** The retained exemplars, a min-heap on elapsed time. Guarded by this heap. */
+	protected final Exemplar[] heap;
+	/** The number of retained exemplars. Guarded by this heap. */
+	protected int size = 0;
+	/** The elapsed time at or below which invocations are not admitted, -1 until the heap is full */
+	protected volatile long floor = -1;
+
+	/** The most exemplars retained per interval */
+	public static final int MAX_EXEMPLARS = 100;
+	/** An empty exemplar array */
+	public static final Exemplar[] EMPTY = new Exemplar[0];
+
+	/**
+	 * Creates a new ExemplarHeap
+	 * @param capacity The number of slowest invocations to retain
+	 */
+	public ExemplarHeap(int capacity) {
+		if(capacity < 1 || capacity > MAX_EXEMPLARS) throw new IllegalArgumentException("Capacity must be 1-" + MAX_EXEMPLARS + " [" + capacity + "]", new Throwable());
+		heap = new Exemplar[capacity];
+	}
+
+	/**
+	 * Indicates if an invocation with the passed elapsed time would currently be retained
+	 * @param elapsed The elapsed time
+	 * @return true if the elapsed time is above the floor
+	 */
+	public boolean admits(long elapsed) {
+		return elapsed > floor;
+	}
+
+	/**
+	 * Retains an invocation if it is slower than the fastest retained invocation, or the heap is not full
+	 * @param exemplar The invocation
+	 * @return true if the invocation was retained
+	 */
+	public synchronized boolean offer(Exemplar exemplar) {
+		// Re-checked under the monitor, the floor may have risen since the caller checked it
+		if(exemplar.elapsed <= floor) return false;
+		if(size < heap.length) {
+			int i = size++;
+			while(i > 0) {
+				int parent = (i - 1) >>> 1;
+				if(heap[parent].elapsed <= exemplar.elapsed) break;
+				heap[i] = heap[parent];
+				i = parent;
+			}
+			heap[i] = exemplar;
+		} else {
+			siftDown(exemplar);
+		}
+		if(size==heap.length) {
+			floor = heap[0].elapsed;
+		}
+		return true;
+	}
+
+	/**
+	 * Replaces the root with the passed exemplar and restores the heap order
+	 * @param exemplar The exemplar replacing the root
+	 */
+	protected void siftDown(Exemplar exemplar) {
+		int i = 0;
+		int half = size >>> 1;
+		while(i < half) {
+			int child = (i << 1) + 1;
+			if(child + 1 < size && heap[child + 1].elapsed < heap[child].elapsed) child++;
+			if(exemplar.elapsed <= heap[child].elapsed) break;
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = exemplar;
+	}
+
+	/**
+	 * Removes the retained exemplars and reopens the heap to all invocations
+	 * @return the retained exemplars, slowest first
+	 */
+	public synchronized Exemplar[] drain() {
+		if(size==0) return EMPTY;
+		Exemplar[] slowest = new Exemplar[size];
+		// Pop the fastest into the back of the array
+		for(int i = size - 1; i >= 0; i--) {
+			slowest[i] = heap[0];
+			Exemplar last = heap[--size];
+			heap[size] = null;
+			if(size > 0) siftDown(last);
+		}
+		floor = -1;
+		return slowest;
+	}
+
+	/**
+	 * Returns the number of exemplars retained
+	 * @return the number of exemplars retained
+	 */
+	public int getCapacity() {
+		return heap.length;
+	}
+
+	/**
+	 * <p>Title: Exemplar</p>
+	 * <p>Description: The details of one slow invocation.</p>
+	 * <p><code>org.helios.hiex.agent.tracer.ctile.ExemplarHeap.Exemplar</code></p>
+	 */
+	public static final class Exemplar {
+		/** The elapsed time in the record unit */
+		protected final long elapsed;
+		/** The invocation start time in ms since the epoch */
+		protected final long startTime;
+		/** The name of the invoking thread */
+		protected final String threadName;
+		/** The invocation argument summary, or null */
+		protected final String arguments;
+
+		/**
+		 * Creates a new Exemplar
+		 * @param elapsed The elapsed time in the record unit
+		 * @param startTime The invocation start time in ms since the epoch
+		 * @param threadName The name of the invoking thread
+		 * @param arguments The invocation argument summary, or null
+		 */
+		public Exemplar(long elapsed, long startTime, String threadName, String arguments) {
+			this.elapsed = elapsed;
+			this.startTime = startTime;
+			this.threadName = threadName;
+			this.arguments = arguments;
+		}
+
+		/**
+		 * Returns the elapsed time in the record unit
+		 * @return the elapsed time
+		 */
+		public long getElapsed() {
+			return elapsed;
+		}
+
+		/**
+		 * Returns the invocation start time
+		 * @return the start time in ms since the epoch
+		 */
+		public long getStartTime() {
+			return startTime;
+		}
+
+		/**
+		 * Returns the name of the invoking thread
+		 * @return the thread name
+		 */
+		public String getThreadName() {
+			return threadName;
+		}
+
+		/**
+		 * Returns the invocation argument summary
+		 * @return the argument summary, or null if arguments are not captured
+		 */
+		public String getArguments() {
+			return arguments;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			StringBuilder b = new StringBuilder("Exemplar [elapsed=").append(elapsed).append(", start=").append(startTime)
+				.append(", thread=").append(threadName);
+			if(arguments!=null) b.append(", args=").append(arguments);
+			return b.append("]").toString();
+		}
+	}
+}
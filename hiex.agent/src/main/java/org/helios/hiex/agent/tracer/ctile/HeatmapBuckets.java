@@ -0,0 +1,119 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.agent.tracer.ctile;
+
+import java.util.Arrays;
+
+/**
+ * <p>Title: HeatmapBuckets</p>
+ * <p>Description: A fixed set of ascending elapsed time bucket boundaries for publishing an interval's distribution as bucket
+ * counts. Bucket <code>i</code> counts elapsed times above boundary <code>i-1</code> and at or below boundary <code>i</code>,
+ * and the last bucket counts elapsed times above the highest boundary. An elapsed time is mapped to its bucket by indexing the
+ * first candidate bucket by the time's power of 2 and stepping over the few boundaries in that octave, so the cost does not
+ * depend on the size of the time and, for exponential boundaries, is one or two comparisons.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.agent.tracer.ctile.HeatmapBuckets</code></p>
+ */
+public class HeatmapBuckets {
+	/** The ascending bucket boundaries in the record unit */
+	protected final long[] boundaries;
+	/** The first bucket an elapsed time can fall in, indexed by the number of significant bits of the time */
+	protected final int[] octaveStart = new int[65];
+
+	/** The most boundaries supported */
+	public static final int MAX_BOUNDARIES = 64;
+
+	/**
+	 * Creates a new HeatmapBuckets
+	 * @param boundaries The strictly ascending, positive bucket boundaries in the record unit
+	 */
+	public HeatmapBuckets(long... boundaries) {
+		if(boundaries==null || boundaries.length==0) throw new IllegalArgumentException("At least one boundary is required", new Throwable());
+		if(boundaries.length > MAX_BOUNDARIES) throw new IllegalArgumentException("Too many boundaries [" + boundaries.length + "]. The maximum is [" + MAX_BOUNDARIES + "]", new Throwable());
+		for(int i = 0; i < boundaries.length; i++) {
+			if(boundaries[i] < 1 || (i > 0 && boundaries[i] <= boundaries[i-1])) {
+				throw new IllegalArgumentException("Boundaries must be positive and strictly ascending " + Arrays.toString(boundaries), new Throwable());
+			}
+		}
+		this.boundaries = boundaries.clone();
+		int bucket = 0;
+		for(int bits = 0; bits < octaveStart.length; bits++) {
+			// The smallest time with this many significant bits
+			long lowest = bits==0 ? 0 : 1L << (bits-1);
+			while(bucket < boundaries.length && boundaries[bucket] < lowest) bucket++;
+			octaveStart[bits] = bucket;
+		}
+	}
+
+	/**
+	 * Builds exponential boundaries, <code>start * factor^i</code> rounded, skipping any that round to a repeated value
+	 * @param start The first boundary
+	 * @param factor The factor between consecutive boundaries, &gt; 1
+	 * @param count The number of boundaries
+	 * @return the boundaries
+	 */
+	public static long[] exponential(long start, double factor, int count) {
+		if(start < 1) throw new IllegalArgumentException("Start must be > 0 [" + start + "]", new Throwable());
+		if(factor <= 1) throw new IllegalArgumentException("Factor must be > 1 [" + factor + "]", new Throwable());
+		if(count < 1 || count > MAX_BOUNDARIES) throw new IllegalArgumentException("Count must be 1-" + MAX_BOUNDARIES + " [" + count + "]", new Throwable());
+		long[] b = new long[count];
+		int size = 0;
+		double value = start;
+		for(int i = 0; i < count; i++, value *= factor) {
+			long rounded = Math.round(value);
+			if(size==0 || rounded > b[size-1]) b[size++] = rounded;
+		}
+		return Arrays.copyOf(b, size);
+	}
+
+	/**
+	 * Returns the bucket index of an elapsed time
+	 * @param time The elapsed time in the record unit
+	 * @return the bucket index, from 0 to the number of boundaries
+	 */
+	public int bucketOf(long time) {
+		if(time < 0) time = 0;
+		int bucket = octaveStart[64 - Long.numberOfLeadingZeros(time)];
+		while(bucket < boundaries.length && time > boundaries[bucket]) bucket++;
+		return bucket;
+	}
+
+	/**
+	 * Returns the number of buckets, one more than the number of boundaries
+	 * @return the number of buckets
+	 */
+	public int getBucketCount() {
+		return boundaries.length + 1;
+	}
+
+	/**
+	 * Returns the bucket boundaries
+	 * @return a copy of the ascending bucket boundaries in the record unit
+	 */
+	public long[] getBoundaries() {
+		return boundaries.clone();
+	}
+}
@@ -0,0 +1,154 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.agent.tracer.ctile;
+
+import java.util.concurrent.TimeUnit;
+
+import org.helios.hiex.util.FlexiLogger;
+import org.helios.hiex.util.collections.LongSelection;
+import org.helios.hiex.util.collections.LongSummary;
+import org.helios.hiex.util.collections.StripedLongRecorder;
+import org.helios.hiex.util.concurrency.WriterReaderPhaser;
+import org.helios.hiex.util.math.LogLinearHistogram;
+
+/**
+ * <p>Title: HighResCtileMetricAccumulator</p>
+ * <p>Description: Exact mode CtileMetricAccumulator that buffers long elapsed times, for elapsed times recorded in
+ * microseconds or nanoseconds which would overflow or be truncated as ints. The percentiles and summary statistics
+ * are calculated on the long values and converted to the publish unit only when published.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.agent.tracer.ctile.HighResCtileMetricAccumulator</code></p>
+ */
+public class HighResCtileMetricAccumulator extends CtileMetricAccumulator {
+	/** The interval accumulator pair used to accumulate long elapsed times during an interval window, or null for modes that record elsewhere. */
+	protected final StripedLongRecorder[] longIntervalAccumulators;
+
+	/**
+	 * Creates a new HighResCtileMetricAccumulator
+	 * @param percentiles The percentiles to calculate on, in ascending order.
+	 * @param phaser The interval phaser.
+	 * @param recordUnit The unit elapsed times are recorded in.
+	 * @param publishUnit The unit elapsed time metrics are published in.
+	 * @param tracePerformance  Indicates if the percentile calc. elapsed time should be traced
+	 * @param debug Indicates if debug output should be traced
+	 * @param log The agent logger.
+	 */
+	public HighResCtileMetricAccumulator(float[] percentiles, WriterReaderPhaser phaser, TimeUnit recordUnit, TimeUnit publishUnit, boolean tracePerformance, boolean debug, FlexiLogger log) {
+		this(percentiles, phaser, recordUnit, publishUnit, tracePerformance, debug, log, new StripedLongRecorder[] { new StripedLongRecorder(), new StripedLongRecorder() });
+	}
+
+	/**
+	 * Creates a new HighResCtileMetricAccumulator for a mode that records into its own structures
+	 * @param percentiles The percentiles to calculate on, in ascending order.
+	 * @param phaser The interval phaser.
+	 * @param recordUnit The unit elapsed times are recorded in.
+	 * @param publishUnit The unit elapsed time metrics are published in.
+	 * @param tracePerformance  Indicates if the percentile calc. elapsed time should be traced
+	 * @param debug Indicates if debug output should be traced
+	 * @param log The agent logger.
+	 * @param longIntervalAccumulators The long interval accumulator pair, or null if the mode overrides every method that uses it
+	 */
+	protected HighResCtileMetricAccumulator(float[] percentiles, WriterReaderPhaser phaser, TimeUnit recordUnit, TimeUnit publishUnit, boolean tracePerformance, boolean debug, FlexiLogger log, StripedLongRecorder[] longIntervalAccumulators) {
+		super(percentiles, phaser, recordUnit, publishUnit, tracePerformance, debug, log, null);
+		this.longIntervalAccumulators = longIntervalAccumulators;
+	}
+
+	/**
+	 * The alternate interval's long interval Accumulator. Owned by the reader between phase flips.
+	 * @return the alternate StripedLongRecorder
+	 */
+	public StripedLongRecorder getAltLongIntervalAccumulator() {
+		return longIntervalAccumulators[phaser.inactiveIndex()];
+	}
+
+	/**
+	 * Records an elapsed time in the long interval accumulator for the passed phase.
+	 * @param phaseIndex The phase index of the interval accumulator to record into
+	 * @param time The elapsed time of the method invocation in the record unit.
+	 */
+	@Override
+	protected void record(int phaseIndex, long time) {
+		longIntervalAccumulators[phaseIndex].add(time);
+	}
+
+	/**
+	 * Calculates the statistics of the last interval's long elapsed times into the passed slots.
+	 * @param publisher The tracer's publication stage, which assigns the slots
+	 * @param values The zeroed slot values to write into
+	 * @return the number of elapsed times in the interval
+	 * @throws Exception thrown on any calculation error
+	 * @see org.helios.hiex.agent.tracer.ctile.CtileMetricAccumulator#calcInterval(org.helios.hiex.agent.tracer.ctile.IntervalPublisher, int[])
+	 */
+	@Override
+	protected long calcInterval(IntervalPublisher publisher, int[] values) throws Exception {
+		long[] lastIntervalValues = getAltLongIntervalAccumulator().drain();
+		LogLinearHistogram logged = logHistogram();
+		if(logged!=null) {
+			for(long v: lastIntervalValues) logged.recordValue(v);
+		}
+		if(rollingWindows!=null) {
+			rollWindows(periodDigest(lastIntervalValues), publisher, values);
+		}
+		if(lastIntervalValues.length < 2) {
+			if(lastIntervalValues.length==1) populateSingle(publisher, values, lastIntervalValues[0]);
+			return lastIntervalValues.length;
+		}
+		long[] ctiles = LongSelection.percentileRankValues(lastIntervalValues, percentiles);
+		LongSummary summary = LongSummary.summarize(lastIntervalValues, ctiles);
+		populateSlots(publisher, values, ctiles, lastIntervalValues.length, summary.getCountsAtOrBelow(), summary.getMean(), summary.getStdDeviation());
+		return lastIntervalValues.length;
+	}
+
+	/**
+	 * Shrinks the long interval buffers whose capacity far exceeds their recent use
+	 * @return the number of buffers shrunk or released
+	 * @see org.helios.hiex.agent.tracer.ctile.CtileMetricAccumulator#trimBuffers()
+	 */
+	@Override
+	public int trimBuffers() {
+		return longIntervalAccumulators[0].trim() + longIntervalAccumulators[1].trim();
+	}
+
+	/**
+	 * Returns the approximate number of bytes retained by the long interval buffers, rolling window ring and carried elapsed times
+	 * @return the retained bytes
+	 * @see org.helios.hiex.agent.tracer.ctile.CtileMetricAccumulator#getRetainedBytes()
+	 */
+	@Override
+	public long getRetainedBytes() {
+		return longIntervalAccumulators[0].getRetainedBytes() + longIntervalAccumulators[1].getRetainedBytes() + getWindowBytes() + getCarriedBytes();
+	}
+
+	/**
+	 * Drains the long elapsed times buffered during the last interval
+	 * @return the drained elapsed times in the record unit
+	 * @see org.helios.hiex.agent.tracer.ctile.CtileMetricAccumulator#drainLastInterval()
+	 */
+	@Override
+	protected long[] drainLastInterval() {
+		return getAltLongIntervalAccumulator().drain();
+	}
+}
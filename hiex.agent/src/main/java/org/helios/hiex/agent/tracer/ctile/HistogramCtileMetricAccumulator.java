@@ -0,0 +1,256 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.agent.tracer.ctile;
+
+import java.util.concurrent.TimeUnit;
+
+import org.helios.hiex.util.FlexiLogger;
+import org.helios.hiex.util.concurrency.WriterReaderPhaser;
+import org.helios.hiex.util.math.LogLinearHistogram;
+
+/**
+ * <p>Title: HistogramCtileMetricAccumulator</p>
+ * <p>Description: CtileMetricAccumulator that records elapsed times into a pair of fixed memory
+ * {@link LogLinearHistogram}s instead of buffering every elapsed time. Recording is a bucket index computation and
+ * a counter increment. The percentile, mean, standard deviation and count above/below values published for an interval
+ * are derived from the buckets and are within the histogram's relative error of the exact values
+ * (see {@link LogLinearHistogram#getRelativeError()}, e.g. 1/128 for 2 significant digits).</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.agent.tracer.ctile.HistogramCtileMetricAccumulator</code></p>
+ */
+public class HistogramCtileMetricAccumulator extends CtileMetricAccumulator {
+	/** The interval histogram pair used to accumulate elapsed times during an interval window. */
+	protected final LogLinearHistogram[] intervalHistograms;
+	/** The percentiles to calculate as doubles, in ascending order */
+	protected final double[] percentileValues;
+	/** The scratch histogram the coordinated omission corrected interval is calculated in, created on first use. Only accessed by the reader. */
+	protected LogLinearHistogram correctedHistogram = null;
+	/** The histogram uncalculated intervals are carried in, created on first use. Only accessed by the reader. */
+	protected LogLinearHistogram carriedHistogram = null;
+
+	/**
+	 * Creates a new HistogramCtileMetricAccumulator
+	 * @param percentiles The percentiles to calculate on, in ascending order.
+	 * @param phaser The interval phaser.
+	 * @param recordUnit The unit elapsed times are recorded in.
+	 * @param publishUnit The unit elapsed time metrics are published in.
+	 * @param highestTrackableValue The highest trackable elapsed time in the record unit. Larger elapsed times are recorded as this value.
+	 * @param significantDigits The number of significant digits maintained by the histograms.
+	 * @param tracePerformance  Indicates if the percentile calc. elapsed time should be traced
+	 * @param debug Indicates if debug output should be traced
+	 * @param log The agent logger.
+	 */
+	public HistogramCtileMetricAccumulator(float[] percentiles, WriterReaderPhaser phaser, TimeUnit recordUnit, TimeUnit publishUnit, long highestTrackableValue, int significantDigits, boolean tracePerformance, boolean debug, FlexiLogger log) {
+		super(percentiles, phaser, recordUnit, publishUnit, tracePerformance, debug, log, null);
+		percentileValues = new double[percentiles.length];
+		for(int i = 0; i < percentiles.length; i++) {
+			percentileValues[i] = percentiles[i];
+		}
+		intervalHistograms = new LogLinearHistogram[] {
+				new LogLinearHistogram(highestTrackableValue, significantDigits),
+				new LogLinearHistogram(highestTrackableValue, significantDigits)
+		};
+	}
+
+	/**
+	 * The current interval's histogram.
+	 * @return the current LogLinearHistogram
+	 */
+	public LogLinearHistogram getIntervalHistogram() {
+		return intervalHistograms[phaser.activeIndex()];
+	}
+
+	/**
+	 * The alternate interval's histogram. Owned by the reader between phase flips.
+	 * @return the alternate LogLinearHistogram
+	 */
+	public LogLinearHistogram getAltIntervalHistogram() {
+		return intervalHistograms[phaser.inactiveIndex()];
+	}
+
+	/**
+	 * Indicates if this accumulator calculates coordinated omission corrected percentiles
+	 * @return true
+	 * @see org.helios.hiex.agent.tracer.ctile.CtileMetricAccumulator#isCorrectable()
+	 */
+	@Override
+	public boolean isCorrectable() {
+		return true;
+	}
+
+	/**
+	 * Calculates the coordinated omission corrected percentiles of the last interval into the corrected percentile slots.
+	 * Calculated even for a single elapsed time, since a single stall is what the correction accounts for.
+	 * @param lastInterval The last interval's histogram
+	 * @param publisher The tracer's publication stage, which assigns the slots
+	 * @param values The slot values to write into
+	 */
+	protected void calcCorrected(LogLinearHistogram lastInterval, IntervalPublisher publisher, int[] values) {
+		LogLinearHistogram corrected = correctedHistogram;
+		if(corrected==null) {
+			corrected = correctedHistogram = new LogLinearHistogram(lastInterval);
+		} else {
+			corrected.reset();
+		}
+		corrected.addCorrected(lastInterval, expectedInterval);
+		populateCorrectedSlots(publisher, values, corrected.getValuesAtPercentiles(percentileValues, corrected.getTotalCount()));
+	}
+
+	/**
+	 * The interval histograms are fixed size, so there is nothing to shrink
+	 * @return zero
+	 * @see org.helios.hiex.agent.tracer.ctile.CtileMetricAccumulator#trimBuffers()
+	 */
+	@Override
+	public int trimBuffers() {
+		return 0;
+	}
+
+	/**
+	 * Returns the approximate number of bytes retained by the interval, corrected and carried histograms and the rolling window ring
+	 * @return the retained bytes
+	 * @see org.helios.hiex.agent.tracer.ctile.CtileMetricAccumulator#getRetainedBytes()
+	 */
+	@Override
+	public long getRetainedBytes() {
+		LogLinearHistogram corrected = correctedHistogram, carriedOver = carriedHistogram;
+		return intervalHistograms[0].getEstimatedFootprintInBytes() + intervalHistograms[1].getEstimatedFootprintInBytes() + getWindowBytes()
+				+ (corrected==null ? 0 : corrected.getEstimatedFootprintInBytes()) + (carriedOver==null ? 0 : carriedOver.getEstimatedFootprintInBytes());
+	}
+
+	/**
+	 * Indicates if the memory this accumulator retains is bounded regardless of traffic
+	 * @return true, the histograms are fixed size
+	 * @see org.helios.hiex.agent.tracer.ctile.CtileMetricAccumulator#isBounded()
+	 */
+	@Override
+	public boolean isBounded() {
+		return true;
+	}
+
+	/**
+	 * Records an elapsed time in the interval histogram for the passed phase.
+	 * @param phaseIndex The phase index of the interval histogram to record into
+	 * @param time The elapsed time of the method invocation in the record unit.
+	 */
+	@Override
+	protected void record(int phaseIndex, long time) {
+		intervalHistograms[phaseIndex].recordValue(time);
+	}
+
+	/**
+	 * Records the elapsed times the replaced accumulator buffered or carried before writers switched to this one, if any
+	 * @param lastInterval The last interval's histogram
+	 */
+	protected void absorbPredecessor(LogLinearHistogram lastInterval) {
+		CtileMetricAccumulator replaced = predecessor;
+		if(replaced==null) return;
+		predecessor = null;
+		replaced.absorbCarried();
+		for(long v: replaced.drainLastInterval()) {
+			lastInterval.recordValue(v);
+		}
+	}
+
+	/**
+	 * Moves the last interval's histogram, and the elapsed times of any replaced accumulator, into the carried histogram
+	 * @see org.helios.hiex.agent.tracer.ctile.CtileMetricAccumulator#carryLastInterval()
+	 */
+	@Override
+	protected void carryLastInterval() {
+		LogLinearHistogram lastInterval = getAltIntervalHistogram();
+		absorbPredecessor(lastInterval);
+		if(carriedHistogram==null) {
+			carriedHistogram = new LogLinearHistogram(lastInterval);
+		}
+		carriedHistogram.add(lastInterval);
+		lastInterval.reset();
+	}
+
+	/**
+	 * Adds the carried histogram to the last interval's histogram
+	 * @see org.helios.hiex.agent.tracer.ctile.CtileMetricAccumulator#absorbCarried()
+	 */
+	@Override
+	protected void absorbCarried() {
+		LogLinearHistogram carriedOver = carriedHistogram;
+		if(carriedOver==null || carriedOver.getTotalCount()==0) return;
+		getAltIntervalHistogram().add(carriedOver);
+		carriedOver.reset();
+	}
+
+	/**
+	 * Calculates the interval statistics from the alternate interval histogram's buckets into the passed slots.
+	 * All the configured percentiles are read in one pass over the buckets.
+	 * @param publisher The tracer's publication stage, which assigns the slots
+	 * @param values The zeroed slot values to write into
+	 * @return the number of elapsed times in the interval
+	 * @throws Exception thrown on any calculation error
+	 * @see org.helios.hiex.agent.tracer.ctile.CtileMetricAccumulator#calcInterval(org.helios.hiex.agent.tracer.ctile.IntervalPublisher, int[])
+	 */
+	@Override
+	protected long calcInterval(IntervalPublisher publisher, int[] values) throws Exception {
+		LogLinearHistogram lastInterval = getAltIntervalHistogram();
+		try {
+			absorbPredecessor(lastInterval);
+			LogLinearHistogram logged = logHistogram();
+			if(logged!=null) {
+				logged.add(lastInterval);
+			}
+			if(rollingWindows!=null) {
+				periodDigest.reset();
+				lastInterval.addTo(periodDigest);
+				rollWindows(periodDigest, publisher, values);
+			}
+			long total = lastInterval.getTotalCount();
+			if(total > 0 && expectedInterval > 0 && publisher.correctedSlots!=null) {
+				calcCorrected(lastInterval, publisher, values);
+			}
+			if(total < 2) {
+				// The single elapsed time's bucket, reported at its highest equivalent value like the percentiles
+				if(total==1) populateSingle(publisher, values, lastInterval.getMaxValue());
+				return total;
+			}
+			long[] ctiles = lastInterval.getValuesAtPercentiles(percentileValues, total);
+			long[] belowValues = lastInterval.getCountsAtOrBelow(ctiles);
+			int[] below = new int[percentiles.length];
+			for(int i = 0; i < percentiles.length; i++) {
+				below[i] = toInt(belowValues[i]);
+			}
+			double mean = 0, stddev = 0;
+			if(publisher.meanSlot!=IntervalPublisher.NO_SLOT) {
+				mean = lastInterval.getMean();
+				if(publisher.stddevSlot!=IntervalPublisher.NO_SLOT) {
+					stddev = lastInterval.getStdDeviation();
+				}
+			}
+			populateSlots(publisher, values, ctiles, toInt(total), below, mean, stddev);
+			return total;
+		} finally {
+			lastInterval.reset();
+		}
+	}
+}
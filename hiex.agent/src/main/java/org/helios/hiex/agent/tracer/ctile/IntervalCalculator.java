@@ -0,0 +1,319 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.agent.tracer.ctile;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.helios.hiex.util.FlexiLogger;
+import org.helios.hiex.util.concurrency.WriterReaderPhaser;
+
+import com.wily.introscope.agent.stat.DataAccumulatorFactory;
+import com.wily.introscope.agent.stat.IIntegerFluctuatingCounterDataAccumulator;
+
+/**
+ * <p>Title: IntervalCalculator</p>
+ * <p>Description: Calculates and publishes a ctile tracer's intervals on a bounded, agent wide worker pool instead of the agent's
+ * heartbeat thread. The heartbeat only hands the tick to the pool. The tick's coordinator flips the phaser and then works through
+ * the accumulators together with up to <code>parallelism - 1</code> helpers, each claiming the next accumulator from a shared cursor.
+ * No accumulator is claimed once the tick's deadline has passed. The coordinator moves the buffers of each unclaimed accumulator into
+ * its carried state, so the next interval's buffers start empty and the carried interval is published with the next one, and the next
+ * tick starts with them. A tick that arrives while the previous one is still running is skipped.
+ * The tracer's maintenance runs after each tick, before the next tick can start.
+ * The wall time, parallelism, carried over and skipped counts of each tick are published.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.agent.tracer.ctile.IntervalCalculator</code></p>
+ */
+public class IntervalCalculator implements Runnable {
+	/** The tracer whose intervals are calculated */
+	protected final MethodTimerCtile tracer;
+	/** The maximum number of threads working on one tick */
+	protected final int parallelism;
+	/** The maximum time a tick may spend claiming accumulators in ms */
+	protected final long deadline;
+	/** The agent logger */
+	protected final FlexiLogger log;
+	/** Set while a tick is queued or running */
+	protected final AtomicBoolean running = new AtomicBoolean(false);
+	/** The next accumulator position to claim in the current tick, or {@link #CLOSED} */
+	protected final AtomicInteger cursor = new AtomicInteger(CLOSED);
+	/** The number of claimed accumulators completed in the current tick */
+	protected final AtomicInteger completed = new AtomicInteger(0);
+	/** The number of threads that calculated at least one accumulator in the current tick */
+	protected final AtomicInteger workers = new AtomicInteger(0);
+	/** The number of ticks skipped since the last published tick */
+	protected final AtomicInteger skipped = new AtomicInteger(0);
+	/** The helper task */
+	protected final Runnable helper = new Runnable() {
+		public void run() {
+			work();
+		}
+	};
+	/** The accumulators of the current tick, indexed by metric id */
+	protected volatile CtileMetricAccumulator[] tickAccumulators = new CtileMetricAccumulator[0];
+	/** The number of accumulators in the current tick */
+	protected volatile int tickCount = 0;
+	/** The metric id the current tick starts at */
+	protected volatile int tickOffset = 0;
+	/** The heartbeat timestamp of the current tick. Only written while no tick is running. */
+	protected volatile long tickTimestamp = 0;
+	/** The time after which no accumulator is claimed in the current tick */
+	protected volatile long tickDeadline = 0;
+	/** The tick wall time counter */
+	protected final IIntegerFluctuatingCounterDataAccumulator wallTimeCounter;
+	/** The tick parallelism counter */
+	protected final IIntegerFluctuatingCounterDataAccumulator parallelismCounter;
+	/** The carried over accumulators counter */
+	protected final IIntegerFluctuatingCounterDataAccumulator carriedOverCounter;
+	/** The skipped ticks counter */
+	protected final IIntegerFluctuatingCounterDataAccumulator skippedCounter;
+
+	/** The cursor value of a tick that accepts no more claims */
+	protected static final int CLOSED = Integer.MAX_VALUE >> 1;
+	/** The number of threads in the agent wide calculation pool */
+	public static final int POOL_SIZE = Math.max(1, Runtime.getRuntime().availableProcessors());
+	/** The agent wide calculation pool, created on first use */
+	private static ThreadPoolExecutor pool = null;
+
+	/**
+	 * Creates a new IntervalCalculator
+	 * @param tracer The tracer whose intervals are calculated
+	 * @param parallelism The maximum number of threads working on one tick. Capped at the pool size.
+	 * @param deadline The maximum time a tick may spend claiming accumulators in ms
+	 * @param metricPrefix The metric name prefix of the tick statistics
+	 * @param factory The agent's data accumulator factory, or null to not publish the tick statistics
+	 * @param log The agent logger
+	 */
+	public IntervalCalculator(MethodTimerCtile tracer, int parallelism, long deadline, String metricPrefix, DataAccumulatorFactory factory, FlexiLogger log) {
+		if(parallelism < 1) throw new IllegalArgumentException("Parallelism must be > 0 [" + parallelism + "]", new Throwable());
+		if(deadline < 1) throw new IllegalArgumentException("Deadline must be > 0 [" + deadline + "]", new Throwable());
+		this.tracer = tracer;
+		this.parallelism = Math.min(parallelism, POOL_SIZE);
+		this.deadline = deadline;
+		this.log = log;
+		wallTimeCounter = IntervalPublisher.counter(factory, metricPrefix + "Wall Time (ms)");
+		parallelismCounter = IntervalPublisher.counter(factory, metricPrefix + "Parallelism");
+		carriedOverCounter = IntervalPublisher.counter(factory, metricPrefix + "Carried Over");
+		skippedCounter = IntervalPublisher.counter(factory, metricPrefix + "Skipped Ticks");
+	}
+
+	/**
+	 * Returns the agent wide calculation pool, creating it on first use. The pool's threads are daemons and time out when idle.
+	 * @return the calculation pool
+	 */
+	protected static synchronized ThreadPoolExecutor getPool() {
+		if(pool==null) {
+			final AtomicInteger serial = new AtomicInteger(0);
+			pool = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(POOL_SIZE * 64), new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "CtileIntervalCalculator#" + serial.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			pool.allowCoreThreadTimeOut(true);
+		}
+		return pool;
+	}
+
+	/**
+	 * Hands a tick to the calculation pool. Called on the agent heartbeat thread, which never waits for the calculation.
+	 * @param timestamp The heartbeat timestamp, recorded with the tick's intervals in the interval log
+	 */
+	public void tick(long timestamp) {
+		if(!running.compareAndSet(false, true)) {
+			skipped.incrementAndGet();
+			return;
+		}
+		tickTimestamp = timestamp;
+		try {
+			getPool().execute(this);
+		} catch (RejectedExecutionException e) {
+			running.set(false);
+			skipped.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Runs a tick as its coordinator.
+	 * @see java.lang.Runnable#run()
+	 */
+	public void run() {
+		long start = System.currentTimeMillis();
+		int count = 0, claimed = 0, threads = 0;
+		try {
+			getPhaser().readerLock();
+			try {
+				// Switches writers to the other interval accumulators and waits for in-flight writers of the closing interval
+				getPhaser().flipPhase();
+				// Read the count before the array so every counted id is present
+				count = getMetricCount();
+				tickAccumulators = getAccumulators();
+				tickCount = count;
+				tickDeadline = start + deadline;
+				completed.set(0);
+				workers.set(0);
+				cursor.set(0);
+				int helpers = Math.min(parallelism, count) - 1;
+				for(int i = 0; i < helpers; i++) {
+					try {
+						getPool().execute(helper);
+					} catch (RejectedExecutionException e) {
+						break;
+					}
+				}
+				work();
+				// Accept no more claims, then wait for the helpers to finish the accumulators they claimed
+				claimed = Math.min(cursor.getAndSet(CLOSED), count);
+				while(completed.get() < claimed) {
+					LockSupport.parkNanos(100000L);
+				}
+				threads = workers.get();
+				carryOver(claimed, count);
+				// The next tick starts with the accumulators this tick carried over
+				if(count > 0) {
+					tickOffset = (tickOffset + claimed) % count;
+				}
+			} finally {
+				getPhaser().readerUnlock();
+			}
+			maintain();
+			if(claimed < count) {
+				log.warn("Interval calculation deadline of [", deadline, "] ms passed. Carried over [", (count - claimed), "] of [", count, "] metrics.");
+			}
+		} catch (Throwable t) {
+			log.error("Interval calculation failure", t);
+		} finally {
+			running.set(false);
+		}
+		IntervalPublisher.publish(wallTimeCounter, (int)(System.currentTimeMillis() - start));
+		IntervalPublisher.publish(parallelismCounter, threads);
+		IntervalPublisher.publish(carriedOverCounter, count - claimed);
+		IntervalPublisher.publish(skippedCounter, skipped.getAndSet(0));
+	}
+
+	/**
+	 * Claims and calculates accumulators of the current tick until none are left, the tick is closed or the deadline has passed.
+	 */
+	protected void work() {
+		boolean counted = false;
+		while(System.currentTimeMillis() < tickDeadline) {
+			int position = cursor.getAndIncrement();
+			int count = tickCount;
+			if(position >= count) return;
+			if(!counted) {
+				workers.incrementAndGet();
+				counted = true;
+			}
+			CtileMetricAccumulator acc = tickAccumulators[(tickOffset + position) % count];
+			try {
+				// Evicted metric ids are empty until reused
+				if(acc!=null) acc.calcAndPublishInterval(getPublisher(), tickTimestamp);
+			} catch (Throwable t) {
+				log.error("Interval Calc Percentile Failure for [" , acc.getMetricName(), "]", t);
+			} finally {
+				completed.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Moves the buffers of the current tick's unclaimed accumulators into their carried state. Called by the coordinator under the reader lock.
+	 * @param claimed The number of claimed accumulators
+	 * @param count The number of accumulators in the tick
+	 */
+	protected void carryOver(int claimed, int count) {
+		for(int position = claimed; position < count; position++) {
+			CtileMetricAccumulator acc = tickAccumulators[(tickOffset + position) % count];
+			try {
+				if(acc!=null) acc.carryOver();
+			} catch (Throwable t) {
+				log.error("Interval Carry Over Failure for [" , acc.getMetricName(), "]", t);
+			}
+		}
+	}
+
+	/**
+	 * Returns the phaser of the tracer's interval accumulators
+	 * @return the phaser
+	 */
+	protected WriterReaderPhaser getPhaser() {
+		return tracer.phaser;
+	}
+
+	/**
+	 * Returns the number of the tracer's metric ids
+	 * @return the metric count
+	 */
+	protected int getMetricCount() {
+		return tracer.registry.getMetricCount();
+	}
+
+	/**
+	 * Returns the tracer's accumulators, indexed by metric id
+	 * @return the accumulators
+	 */
+	protected CtileMetricAccumulator[] getAccumulators() {
+		return tracer.registry.getAccumulators();
+	}
+
+	/**
+	 * Returns the tracer's interval publisher
+	 * @return the publisher
+	 */
+	protected IntervalPublisher getPublisher() {
+		return tracer.publisher;
+	}
+
+	/**
+	 * Runs the tracer's maintenance after a tick
+	 */
+	protected void maintain() {
+		tracer.maintain();
+	}
+
+	/**
+	 * Returns the maximum number of threads working on one tick
+	 * @return the parallelism
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Returns the maximum time a tick may spend claiming accumulators
+	 * @return the deadline in ms
+	 */
+	public long getDeadline() {
+		return deadline;
+	}
+}
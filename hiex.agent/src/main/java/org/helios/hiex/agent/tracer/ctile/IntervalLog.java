@@ -0,0 +1,329 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.agent.tracer.ctile;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.helios.hiex.util.FlexiLogger;
+import org.helios.hiex.util.math.LogLinearHistogram;
+
+/**
+ * <p>Title: IntervalLog</p>
+ * <p>Description: A rolling, memory mapped log of each metric's interval distribution, kept for post-mortem analysis of the
+ * intervals behind the published percentiles. Each calculated interval's elapsed times are recorded into a per thread
+ * {@link LogLinearHistogram}, sparsely encoded and appended, with the interval timestamp and the metric id, to the current
+ * segment file through a {@link MappedByteBuffer}. Appending is a memory copy with no system call. When a record does not fit
+ * in the current segment a new segment is mapped, and the oldest segments are deleted once the configured total size is reached.</p>
+ * <p>Segment layout, big endian:<ul>
+ * <li>Header: <code>int magic, int version, long created, long period ms, utf resource, utf record unit, long highest trackable value, int significant digits</code></li>
+ * <li>Metric record, written the first time a metric id is used in a segment: <code>byte 1, int metric id, utf metric name</code></li>
+ * <li>Interval record: <code>byte 2, long timestamp, int metric id, int length, byte[length] encoded histogram</code> (see {@link LogLinearHistogram#encodeInto(ByteBuffer)})</li>
+ * <li>A zero byte, or the end of the segment, ends the records. Segments are zero filled when mapped.</li>
+ * </ul>
+ * <code>utf</code> is an unsigned short byte length followed by UTF-8 bytes.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.agent.tracer.ctile.IntervalLog</code></p>
+ */
+public class IntervalLog {
+	/** The directory segments are written to */
+	protected final File directory;
+	/** The file name prefix of this log's segments */
+	protected final String prefix;
+	/** The resource of the tracer the log records, written to each segment header */
+	protected final String resource;
+	/** The size of each segment in bytes */
+	protected final int segmentBytes;
+	/** The number of segments retained */
+	protected final int maxSegments;
+	/** The schedule period in ms */
+	protected final long period;
+	/** The unit elapsed times are recorded in */
+	protected final TimeUnit recordUnit;
+	/** The highest trackable value of the interval histograms */
+	protected final long highestTrackableValue;
+	/** The significant digits of the interval histograms */
+	protected final int significantDigits;
+	/** The agent logger */
+	protected final FlexiLogger log;
+	/** The segment files, oldest first. Guarded by this log. */
+	protected final LinkedList<File> segments = new LinkedList<File>();
+	/** The current segment's channel, or null. Guarded by this log. */
+	protected FileChannel channel = null;
+	/** The current segment's mapped buffer, or null. Guarded by this log. */
+	protected MappedByteBuffer buffer = null;
+	/** The metric names defined in the current segment, indexed by metric id. Guarded by this log. */
+	protected String[] definedNames = new String[16];
+	/** The number of segments created by this log */
+	protected int segmentSequence = 0;
+	/** The per calculation thread interval histogram */
+	protected final ThreadLocal<LogLinearHistogram> histograms;
+	/** The per calculation thread encoding buffer */
+	protected final ThreadLocal<ByteBuffer> encodeBuffers;
+	/** The number of interval records appended */
+	protected final AtomicLong records = new AtomicLong(0);
+	/** The number of interval records dropped because they could not be written */
+	protected final AtomicLong dropped = new AtomicLong(0);
+
+	/** The segment magic number, <code>HXIL</code> */
+	public static final int MAGIC = 0x4858494C;
+	/** The segment format version */
+	public static final int VERSION = 1;
+	/** The record type that ends a segment's records */
+	public static final byte RECORD_END = 0;
+	/** The record type that defines a metric id's name */
+	public static final byte RECORD_METRIC = 1;
+	/** The record type of an interval's encoded histogram */
+	public static final byte RECORD_INTERVAL = 2;
+	/** The segment file suffix */
+	public static final String SEGMENT_SUFFIX = ".hlog";
+	/** The string encoding */
+	public static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Creates a new IntervalLog. Segments left in the directory by an earlier run with the same prefix count towards the total size.
+	 * @param directory The directory to write segments to. Created if it does not exist.
+	 * @param resource The resource of the tracer the log records. Also used, sanitized, as the segment file name prefix.
+	 * @param segmentBytes The size of each segment in bytes
+	 * @param maxBytes The total size of the retained segments in bytes
+	 * @param period The schedule period in ms
+	 * @param recordUnit The unit elapsed times are recorded in
+	 * @param highestTrackableValue The highest trackable value of the interval histograms in the record unit
+	 * @param significantDigits The significant digits of the interval histograms
+	 * @param log The agent logger
+	 * @throws IOException thrown if the directory cannot be created
+	 */
+	public IntervalLog(File directory, String resource, long segmentBytes, long maxBytes, long period, TimeUnit recordUnit, final long highestTrackableValue, final int significantDigits, FlexiLogger log) throws IOException {
+		if(segmentBytes < 4096 || segmentBytes > Integer.MAX_VALUE) throw new IllegalArgumentException("Segment size must be 4K-2G [" + segmentBytes + "]", new Throwable());
+		if(!directory.isDirectory() && !directory.mkdirs()) throw new IOException("Failed to create interval log directory [" + directory + "]");
+		this.directory = directory;
+		this.resource = resource;
+		this.prefix = resource.replaceAll("[^A-Za-z0-9_\\-]+", "_");
+		this.segmentBytes = (int)segmentBytes;
+		this.maxSegments = (int)Math.max(1, maxBytes / segmentBytes);
+		this.period = period;
+		this.recordUnit = recordUnit;
+		this.highestTrackableValue = highestTrackableValue;
+		this.significantDigits = significantDigits;
+		this.log = log;
+		histograms = new ThreadLocal<LogLinearHistogram>() {
+			protected LogLinearHistogram initialValue() {
+				return new LogLinearHistogram(highestTrackableValue, significantDigits);
+			}
+		};
+		encodeBuffers = new ThreadLocal<ByteBuffer>() {
+			protected ByteBuffer initialValue() {
+				return ByteBuffer.allocate(histograms.get().getMaxEncodedLength());
+			}
+		};
+		File[] existing = directory.listFiles(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return name.startsWith(prefix + ".") && name.endsWith(SEGMENT_SUFFIX);
+			}
+		});
+		if(existing!=null) {
+			// The segment names sort by creation time
+			Arrays.sort(existing);
+			segments.addAll(Arrays.asList(existing));
+		}
+	}
+
+	/**
+	 * Returns the calling thread's interval histogram, zeroed, for an accumulator to record its closing interval into
+	 * before calling {@link #append(long, int, String)}
+	 * @return the calling thread's interval histogram
+	 */
+	public LogLinearHistogram histogram() {
+		LogLinearHistogram histogram = histograms.get();
+		histogram.reset();
+		return histogram;
+	}
+
+	/**
+	 * Encodes the calling thread's interval histogram and appends it to the log, unless it is empty
+	 * @param timestamp The timestamp of the tick that calculated the interval
+	 * @param metricId The metric id
+	 * @param metricName The metric name
+	 */
+	public void append(long timestamp, int metricId, String metricName) {
+		LogLinearHistogram histogram = histograms.get();
+		if(histogram.getTotalCount()==0) return;
+		ByteBuffer encoded = encodeBuffers.get();
+		encoded.clear();
+		histogram.encodeInto(encoded);
+		encoded.flip();
+		histogram.reset();
+		write(timestamp, metricId, metricName, encoded);
+	}
+
+	/**
+	 * Writes an interval record, and the metric's name record if it is not yet defined in the current segment
+	 * @param timestamp The interval timestamp
+	 * @param metricId The metric id
+	 * @param metricName The metric name
+	 * @param encoded The encoded histogram
+	 */
+	protected synchronized void write(long timestamp, int metricId, String metricName, ByteBuffer encoded) {
+		try {
+			byte[] name = null;
+			if(buffer==null || !defined(metricId, metricName)) {
+				name = utf(metricName);
+			}
+			int needed = 1 + 8 + 4 + 4 + encoded.remaining() + (name==null ? 0 : 1 + 4 + 2 + name.length);
+			if(buffer==null || buffer.remaining() < needed + 1) {
+				rotate();
+				if(name==null) {
+					name = utf(metricName);
+					needed += 1 + 4 + 2 + name.length;
+				}
+				if(buffer.remaining() < needed + 1) {
+					dropped.incrementAndGet();
+					return;
+				}
+			}
+			if(name!=null) {
+				buffer.put(RECORD_METRIC).putInt(metricId).putShort((short)name.length).put(name);
+				if(metricId >= definedNames.length) {
+					definedNames = Arrays.copyOf(definedNames, Math.max(metricId + 1, definedNames.length << 1));
+				}
+				definedNames[metricId] = metricName;
+			}
+			buffer.put(RECORD_INTERVAL).putLong(timestamp).putInt(metricId).putInt(encoded.remaining()).put(encoded);
+			records.incrementAndGet();
+		} catch (Exception e) {
+			dropped.incrementAndGet();
+			log.warn("Failed to append to interval log [", directory, "]", e);
+			closeSegment();
+		}
+	}
+
+	/**
+	 * Indicates if a metric id's current name is defined in the current segment
+	 * @param metricId The metric id
+	 * @param metricName The metric name
+	 * @return true if the name is defined
+	 */
+	protected boolean defined(int metricId, String metricName) {
+		return metricId < definedNames.length && metricName.equals(definedNames[metricId]);
+	}
+
+	/**
+	 * Maps a new segment, writes its header and deletes the oldest segments past the retained number
+	 * @throws IOException thrown if the segment cannot be created or mapped
+	 */
+	protected void rotate() throws IOException {
+		closeSegment();
+		String name = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date()) + "-" + (segmentSequence++);
+		File file = new File(directory, prefix + "." + name + SEGMENT_SUFFIX);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			channel = raf.getChannel();
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+		} catch (IOException e) {
+			raf.close();
+			channel = null;
+			throw e;
+		}
+		buffer.putInt(MAGIC).putInt(VERSION).putLong(System.currentTimeMillis()).putLong(period);
+		byte[] r = utf(resource);
+		buffer.putShort((short)r.length).put(r);
+		byte[] u = utf(recordUnit.name());
+		buffer.putShort((short)u.length).put(u);
+		buffer.putLong(highestTrackableValue).putInt(significantDigits);
+		Arrays.fill(definedNames, null);
+		segments.addLast(file);
+		while(segments.size() > maxSegments) {
+			File oldest = segments.removeFirst();
+			if(!oldest.delete()) {
+				log.warn("Failed to delete interval log segment [", oldest, "]");
+			}
+		}
+	}
+
+	/**
+	 * Closes the current segment. The mapping is released when the buffer is collected.
+	 */
+	protected void closeSegment() {
+		buffer = null;
+		if(channel!=null) {
+			try { channel.close(); } catch (Exception e) {}
+			channel = null;
+		}
+	}
+
+	/**
+	 * Closes the log
+	 */
+	public synchronized void close() {
+		closeSegment();
+	}
+
+	/**
+	 * Encodes a string as UTF-8, truncated to fit an unsigned short length
+	 * @param value The string
+	 * @return the UTF-8 bytes
+	 */
+	protected static byte[] utf(String value) {
+		byte[] bytes = value.getBytes(UTF8);
+		return bytes.length > 0xFFFF ? Arrays.copyOf(bytes, 0xFFFF) : bytes;
+	}
+
+	/**
+	 * Returns the number of interval records appended
+	 * @return the number of interval records appended
+	 */
+	public long getRecords() {
+		return records.get();
+	}
+
+	/**
+	 * Returns the number of interval records dropped
+	 * @return the number of interval records dropped
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Returns the directory segments are written to
+	 * @return the segment directory
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+}
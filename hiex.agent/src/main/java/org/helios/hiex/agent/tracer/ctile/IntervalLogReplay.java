@@ -0,0 +1,492 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.agent.tracer.ctile;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.helios.hiex.util.math.LogLinearHistogram;
+
+/**
+ * <p>Title: IntervalLogReplay</p>
+ * <p>Description: Standalone tool that recomputes percentiles after the fact from the segments written by {@link IntervalLog}.
+ * Each segment is memory mapped read only and its records are streamed by a pool thread, which decodes the intervals that pass the
+ * time range and metric filter straight into a per segment histogram for each metric and window. The per segment histograms are
+ * then merged, so any percentile set, window size or metric filter can be applied without touching the agent that wrote the log.</p>
+ * <p>Usage: <code>java -cp hiex.agent.jar org.helios.hiex.agent.tracer.ctile.IntervalLogReplay -dir &lt;directory or segment&gt;
+ * [-p 50,90,99,99.9] [-window 1m] [-metric &lt;regex&gt;] [-from &lt;time&gt;] [-to &lt;time&gt;] [-threads &lt;n&gt;]</code></p>
+ * <p>The metric filter is a regular expression found in <code>resource:metric name</code>. Times are epoch ms,
+ * <code>yyyy-MM-dd HH:mm[:ss]</code>, or <code>HH:mm[:ss]</code> today. The range includes <code>-from</code> and excludes
+ * <code>-to</code>. Windows are in seconds unless suffixed with <code>s</code>, <code>m</code> or <code>h</code>, and are aligned to
+ * the epoch. With no window, each metric's intervals in the range are merged into one row. Values are reported in the record unit
+ * in each segment header. A segment that ends in a torn or corrupt record, such as the live segment of a crashed agent, is replayed up
+ * to the last complete record, counted as truncated and reported, and the other segments are replayed as usual.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.agent.tracer.ctile.IntervalLogReplay</code></p>
+ */
+public class IntervalLogReplay {
+	/** The segment files to replay */
+	protected final File[] segments;
+	/** The metric filter, or null for all metrics */
+	protected final Pattern filter;
+	/** The start of the time range, inclusive */
+	protected final long from;
+	/** The end of the time range, exclusive */
+	protected final long to;
+	/** The window size in ms, or 0 to merge the whole range */
+	protected final long window;
+	/** The number of segments replayed concurrently */
+	protected final int threads;
+	/** The record unit of each metric, keyed by metric */
+	protected final Map<String, String> units = new HashMap<String, String>();
+	/** The number of interval records merged */
+	protected final AtomicLong records = new AtomicLong(0);
+	/** The number of interval records skipped because their histogram configuration differs from earlier segments' */
+	protected final AtomicLong incompatible = new AtomicLong(0);
+	/** The number of segments replayed only up to a torn or corrupt record */
+	protected final AtomicLong truncated = new AtomicLong(0);
+
+	/** The window key used when the whole range is merged */
+	public static final long ALL_WINDOWS = Long.MIN_VALUE;
+	/** The default percentiles reported */
+	public static final String DEFAULT_PERCENTILES = "50,90,99,99.9";
+	/** The timestamp format of the report */
+	public static final String TIMESTAMP_FORMAT = "yyyy-MM-dd HH:mm:ss";
+
+	/**
+	 * Creates a new IntervalLogReplay
+	 * @param segments The segment files to replay
+	 * @param filter The metric filter, found in <code>resource:metric name</code>, or null for all metrics
+	 * @param from The start of the time range, inclusive
+	 * @param to The end of the time range, exclusive
+	 * @param window The window size in ms, or 0 to merge the whole range
+	 * @param threads The number of segments replayed concurrently
+	 */
+	public IntervalLogReplay(File[] segments, Pattern filter, long from, long to, long window, int threads) {
+		if(window < 0) throw new IllegalArgumentException("Window must be >= 0 [" + window + "]", new Throwable());
+		if(threads < 1) throw new IllegalArgumentException("Threads must be > 0 [" + threads + "]", new Throwable());
+		this.segments = segments.clone();
+		this.filter = filter;
+		this.from = from;
+		this.to = to;
+		this.window = window;
+		this.threads = threads;
+	}
+
+	/**
+	 * Replays the segments and merges the matching intervals
+	 * @return each matching metric's merged histograms keyed by window start ({@link #ALL_WINDOWS} with no window), keyed by metric
+	 * @throws Exception thrown if a segment cannot be read
+	 */
+	public SortedMap<String, SortedMap<Long, LogLinearHistogram>> replay() throws Exception {
+		SortedMap<String, SortedMap<Long, LogLinearHistogram>> merged = new TreeMap<String, SortedMap<Long, LogLinearHistogram>>();
+		if(segments.length==0) return merged;
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, segments.length));
+		try {
+			CompletionService<Map<String, Map<Long, LogLinearHistogram>>> completion = new ExecutorCompletionService<Map<String, Map<Long, LogLinearHistogram>>>(executor);
+			for(final File segment: segments) {
+				completion.submit(new Callable<Map<String, Map<Long, LogLinearHistogram>>>() {
+					public Map<String, Map<Long, LogLinearHistogram>> call() throws Exception {
+						return scan(segment);
+					}
+				});
+			}
+			// Merge each segment's histograms as soon as it completes, while the other segments are still being scanned
+			for(int i = 0; i < segments.length; i++) {
+				merge(merged, completion.take().get());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		return merged;
+	}
+
+	/**
+	 * Merges a segment's histograms into the replay's
+	 * @param merged The replay's histograms
+	 * @param partial The segment's histograms
+	 */
+	protected void merge(SortedMap<String, SortedMap<Long, LogLinearHistogram>> merged, Map<String, Map<Long, LogLinearHistogram>> partial) {
+		for(Map.Entry<String, Map<Long, LogLinearHistogram>> metric: partial.entrySet()) {
+			SortedMap<Long, LogLinearHistogram> windows = merged.get(metric.getKey());
+			if(windows==null) {
+				windows = new TreeMap<Long, LogLinearHistogram>();
+				merged.put(metric.getKey(), windows);
+			}
+			for(Map.Entry<Long, LogLinearHistogram> w: metric.getValue().entrySet()) {
+				LogLinearHistogram histogram = windows.get(w.getKey());
+				if(histogram==null) {
+					windows.put(w.getKey(), w.getValue());
+				} else {
+					try {
+						histogram.add(w.getValue());
+					} catch (IllegalArgumentException e) {
+						incompatible.addAndGet(w.getValue().getTotalCount());
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Streams a segment's records and decodes the matching intervals into a histogram per metric and window.
+	 * Each interval is decoded into a scratch histogram and only added to its window once the whole record has decoded, so
+	 * a torn or corrupt record stops the segment, which is counted as truncated, without leaving part of the record behind.
+	 * @param segment The segment file
+	 * @return the segment's histograms keyed by window start, keyed by metric, up to the first torn or corrupt record
+	 * @throws IOException thrown if the segment cannot be mapped or does not start with an interval log header
+	 */
+	protected Map<String, Map<Long, LogLinearHistogram>> scan(File segment) throws IOException {
+		Map<String, Map<Long, LogLinearHistogram>> histograms = new HashMap<String, Map<Long, LogLinearHistogram>>();
+		RandomAccessFile raf = new RandomAccessFile(segment, "r");
+		try {
+			MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			if(buffer.remaining() < 8 || buffer.getInt()!=IntervalLog.MAGIC) throw new IOException("Not an interval log segment [" + segment + "]");
+			int version = buffer.getInt();
+			if(version!=IntervalLog.VERSION) throw new IOException("Unsupported interval log version [" + version + "] in [" + segment + "]");
+			// The record being read, for the report if it is torn or corrupt
+			int offset = buffer.position();
+			try {
+				buffer.getLong();
+				buffer.getLong();
+				String resource = getUtf(buffer);
+				String unit = getUtf(buffer);
+				long highestTrackableValue = buffer.getLong();
+				int significantDigits = buffer.getInt();
+				LogLinearHistogram scratch = new LogLinearHistogram(highestTrackableValue, significantDigits);
+				// The metric names, and if each matches the filter, by metric id in this segment
+				String[] names = new String[16];
+				Boolean[] matches = new Boolean[16];
+				while(buffer.hasRemaining()) {
+					offset = buffer.position();
+					byte type = buffer.get();
+					if(type==IntervalLog.RECORD_END) break;
+					if(type==IntervalLog.RECORD_METRIC) {
+						int metricId = buffer.getInt();
+						if(metricId < 0) {
+							truncate(segment, offset, "negative metric id [" + metricId + "]");
+							break;
+						}
+						if(metricId >= names.length) {
+							names = Arrays.copyOf(names, Math.max(metricId + 1, names.length << 1));
+							matches = Arrays.copyOf(matches, names.length);
+						}
+						names[metricId] = resource + ":" + getUtf(buffer);
+						matches[metricId] = filter==null || filter.matcher(names[metricId]).find();
+					} else if(type==IntervalLog.RECORD_INTERVAL) {
+						long timestamp = buffer.getLong();
+						int metricId = buffer.getInt();
+						int length = buffer.getInt();
+						if(metricId < 0) {
+							truncate(segment, offset, "negative metric id [" + metricId + "]");
+							break;
+						}
+						if(length < 0 || length > buffer.remaining()) {
+							truncate(segment, offset, "interval length [" + length + "] past the end of the segment");
+							break;
+						}
+						int end = buffer.position() + length;
+						if(timestamp < from || timestamp >= to || metricId >= names.length || names[metricId]==null || !matches[metricId]) {
+							buffer.position(end);
+							continue;
+						}
+						Map<Long, LogLinearHistogram> windows = histograms.get(names[metricId]);
+						if(windows==null) {
+							windows = new HashMap<Long, LogLinearHistogram>();
+							histograms.put(names[metricId], windows);
+							synchronized(units) {
+								units.put(names[metricId], unit);
+							}
+						}
+						Long key = window==0 ? ALL_WINDOWS : timestamp - (timestamp % window);
+						LogLinearHistogram histogram = windows.get(key);
+						if(histogram==null) {
+							histogram = new LogLinearHistogram(highestTrackableValue, significantDigits);
+							windows.put(key, histogram);
+						}
+						// Bound the decode to the record, so a corrupt encoding cannot read into the next record
+						buffer.limit(end);
+						scratch.decodeFrom(buffer);
+						buffer.limit(buffer.capacity());
+						buffer.position(end);
+						histogram.add(scratch);
+						scratch.reset();
+						records.incrementAndGet();
+					} else {
+						truncate(segment, offset, "unknown record type [" + type + "]");
+						break;
+					}
+				}
+			} catch (BufferUnderflowException e) {
+				truncate(segment, offset, "torn record");
+			} catch (IllegalArgumentException e) {
+				truncate(segment, offset, e.getMessage());
+			}
+		} finally {
+			raf.close();
+		}
+		return histograms;
+	}
+
+	/**
+	 * Counts and reports a segment that is only replayed up to a torn or corrupt record
+	 * @param segment The segment file
+	 * @param offset The offset of the torn or corrupt record
+	 * @param reason The reason the record cannot be read
+	 */
+	protected void truncate(File segment, int offset, String reason) {
+		truncated.incrementAndGet();
+		System.err.println("Truncated [" + segment + "] at [" + offset + "]: " + reason);
+	}
+
+	/**
+	 * Reads a length prefixed UTF-8 string
+	 * @param buffer The buffer positioned at the string's length
+	 * @return the string
+	 */
+	protected static String getUtf(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+		buffer.get(bytes);
+		return new String(bytes, IntervalLog.UTF8);
+	}
+
+	/**
+	 * Writes the merged histograms as tab separated rows of window start, metric, unit, count, min, mean, max and the percentiles
+	 * @param merged The merged histograms
+	 * @param percentiles The percentiles to report
+	 * @param out The stream to write to
+	 */
+	public void report(SortedMap<String, SortedMap<Long, LogLinearHistogram>> merged, float[] percentiles, PrintStream out) {
+		double[] p = new double[percentiles.length];
+		StringBuilder b = new StringBuilder("Start\tMetric\tUnit\tCount\tMin\tMean\tMax");
+		for(int i = 0; i < percentiles.length; i++) {
+			p[i] = percentiles[i];
+			b.append("\tp").append(MethodTimerCtile.formatPercentile(percentiles[i]));
+		}
+		out.println(b);
+		SimpleDateFormat format = new SimpleDateFormat(TIMESTAMP_FORMAT);
+		for(Map.Entry<String, SortedMap<Long, LogLinearHistogram>> metric: merged.entrySet()) {
+			for(Map.Entry<Long, LogLinearHistogram> w: metric.getValue().entrySet()) {
+				LogLinearHistogram histogram = w.getValue();
+				long total = histogram.getTotalCount();
+				b.setLength(0);
+				b.append(w.getKey()==ALL_WINDOWS ? "*" : format.format(new Date(w.getKey()))).append('\t').append(metric.getKey())
+					.append('\t').append(units.get(metric.getKey())).append('\t').append(total)
+					.append('\t').append(histogram.getMinValue()).append('\t').append(String.format("%.2f", histogram.getMean()))
+					.append('\t').append(histogram.getMaxValue());
+				for(long v: histogram.getValuesAtPercentiles(p, total)) {
+					b.append('\t').append(v);
+				}
+				out.println(b);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of interval records merged
+	 * @return the number of interval records merged
+	 */
+	public long getRecords() {
+		return records.get();
+	}
+
+	/**
+	 * Returns the number of elapsed times skipped because their histogram configuration differs from earlier segments'
+	 * @return the number of incompatible elapsed times
+	 */
+	public long getIncompatible() {
+		return incompatible.get();
+	}
+
+	/**
+	 * Returns the number of segments replayed only up to a torn or corrupt record
+	 * @return the number of truncated segments
+	 */
+	public long getTruncated() {
+		return truncated.get();
+	}
+
+	/**
+	 * Lists the interval log segments in a directory, or returns the passed segment
+	 * @param path The directory or segment file
+	 * @return the segment files
+	 */
+	public static File[] listSegments(File path) {
+		if(!path.isDirectory()) return new File[]{path};
+		File[] files = path.listFiles(new FileFilter() {
+			public boolean accept(File file) {
+				return file.isFile() && file.getName().endsWith(IntervalLog.SEGMENT_SUFFIX);
+			}
+		});
+		if(files==null) return new File[0];
+		Arrays.sort(files);
+		return files;
+	}
+
+	/**
+	 * Parses a time as epoch ms, <code>yyyy-MM-dd HH:mm[:ss]</code>, or <code>HH:mm[:ss]</code> today
+	 * @param value The time
+	 * @return the time in epoch ms
+	 */
+	public static long parseTime(String value) {
+		String s = value.trim();
+		if(s.matches("\\d{9,}")) return Long.parseLong(s);
+		for(String pattern: new String[]{"yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd HH:mm", "HH:mm:ss", "HH:mm"}) {
+			SimpleDateFormat format = new SimpleDateFormat(pattern);
+			format.setLenient(false);
+			ParsePosition position = new ParsePosition(0);
+			Date date = format.parse(s, position);
+			if(date==null || position.getIndex()!=s.length()) continue;
+			if(!pattern.startsWith("HH")) return date.getTime();
+			Calendar time = Calendar.getInstance();
+			time.setTime(date);
+			Calendar today = Calendar.getInstance();
+			today.set(Calendar.HOUR_OF_DAY, time.get(Calendar.HOUR_OF_DAY));
+			today.set(Calendar.MINUTE, time.get(Calendar.MINUTE));
+			today.set(Calendar.SECOND, time.get(Calendar.SECOND));
+			today.set(Calendar.MILLISECOND, 0);
+			return today.getTimeInMillis();
+		}
+		throw new IllegalArgumentException("Invalid time [" + value + "]", new Throwable());
+	}
+
+	/**
+	 * Parses a duration in seconds unless suffixed with <code>s</code>, <code>m</code> or <code>h</code>
+	 * @param value The duration
+	 * @return the duration in ms
+	 */
+	public static long parseDuration(String value) {
+		String s = value.trim().toLowerCase();
+		long multiplier = 1000L;
+		if(s.endsWith("s") || s.endsWith("m") || s.endsWith("h")) {
+			char suffix = s.charAt(s.length()-1);
+			multiplier = suffix=='h' ? 3600000L : suffix=='m' ? 60000L : 1000L;
+			s = s.substring(0, s.length()-1).trim();
+		}
+		try {
+			long duration = Long.parseLong(s) * multiplier;
+			if(duration < 0) throw new NumberFormatException();
+			return duration;
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid duration [" + value + "]", new Throwable());
+		}
+	}
+
+	/**
+	 * Parses a comma separated list of percentiles
+	 * @param value The percentiles
+	 * @return the percentiles in ascending order
+	 */
+	public static float[] parsePercentiles(String value) {
+		List<Float> list = new ArrayList<Float>();
+		for(String s: value.split(",")) {
+			s = s.trim();
+			if(s.length()==0) continue;
+			float p = Float.parseFloat(s);
+			if(p <= 0 || p > 100) throw new IllegalArgumentException("Invalid percentile [" + s + "]", new Throwable());
+			list.add(p);
+		}
+		float[] percentiles = new float[list.size()];
+		for(int i = 0; i < percentiles.length; i++) {
+			percentiles[i] = list.get(i);
+		}
+		Arrays.sort(percentiles);
+		return percentiles;
+	}
+
+	/**
+	 * Prints the usage and exits
+	 */
+	protected static void usage() {
+		System.err.println("Usage: IntervalLogReplay -dir <directory or segment> [-p " + DEFAULT_PERCENTILES + "] [-window <duration>] [-metric <regex>] [-from <time>] [-to <time>] [-threads <n>]");
+		System.err.println("  Times are epoch ms, yyyy-MM-dd HH:mm[:ss] or HH:mm[:ss] today. Durations are seconds unless suffixed with s, m or h.");
+		System.exit(1);
+	}
+
+	/**
+	 * Replays interval log segments and prints the recomputed percentiles
+	 * @param args See {@link #usage()}
+	 */
+	public static void main(String[] args) {
+		Map<String, String> options = new HashMap<String, String>();
+		for(int i = 0; i < args.length; i++) {
+			if(!args[i].startsWith("-") || i + 1 >= args.length) usage();
+			options.put(args[i].substring(1).toLowerCase(), args[++i]);
+		}
+		if(!options.containsKey("dir")) usage();
+		try {
+			File[] segments = listSegments(new File(options.get("dir")));
+			float[] percentiles = parsePercentiles(options.containsKey("p") ? options.get("p") : DEFAULT_PERCENTILES);
+			Pattern filter = options.containsKey("metric") ? Pattern.compile(options.get("metric")) : null;
+			long from = options.containsKey("from") ? parseTime(options.get("from")) : Long.MIN_VALUE;
+			long to = options.containsKey("to") ? parseTime(options.get("to")) : Long.MAX_VALUE;
+			long window = options.containsKey("window") ? parseDuration(options.get("window")) : 0;
+			int threads = options.containsKey("threads") ? Integer.parseInt(options.get("threads")) : Runtime.getRuntime().availableProcessors();
+			IntervalLogReplay replay = new IntervalLogReplay(segments, filter, from, to, window, threads);
+			long start = System.currentTimeMillis();
+			SortedMap<String, SortedMap<Long, LogLinearHistogram>> merged = replay.replay();
+			replay.report(merged, percentiles, System.out);
+			System.err.println("Merged " + replay.getRecords() + " intervals from " + segments.length + " segments in " + (System.currentTimeMillis() - start) + " ms");
+			if(replay.getIncompatible() > 0) {
+				System.err.println("Skipped " + replay.getIncompatible() + " elapsed times recorded with a different histogram configuration");
+			}
+			if(replay.getTruncated() > 0) {
+				System.err.println("Truncated " + replay.getTruncated() + " segments at a torn or corrupt record");
+			}
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			usage();
+		} catch (Exception e) {
+			e.printStackTrace(System.err);
+			System.exit(2);
+		}
+	}
+}
@@ -0,0 +1,238 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.agent.tracer.ctile;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.wily.introscope.agent.stat.DataAccumulatorFactory;
+import com.wily.introscope.agent.stat.IIntegerFluctuatingCounterDataAccumulator;
+import com.wily.introscope.agent.stat.ILongAverageDataAccumulator;
+
+/**
+ * <p>Title: IntervalPublisher</p>
+ * <p>Description: The publication stage of a ctile tracer. Each configured sub metric is assigned a fixed slot index and its
+ * data accumulator is resolved once, when the publisher is created. The accumulators write an interval's statistics into a
+ * reused primitive slot array and the publisher copies the slots straight into the data accumulators, so publishing an
+ * interval allocates nothing. Slots that are not written, such as those of an empty interval, are published as zero.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.agent.tracer.ctile.IntervalPublisher</code></p>
+ */
+public class IntervalPublisher {
+	/** The full sub metric names, indexed by slot */
+	protected final String[] slotNames;
+	/** The fluctuating counters, indexed by slot. Entries are null for the performance slot or if no factory was supplied. */
+	protected final IIntegerFluctuatingCounterDataAccumulator[] counters;
+	/** The calculation performance accumulator, or null */
+	protected final ILongAverageDataAccumulator perfAccumulator;
+	/** The percentile elapsed time slots, indexed by percentile, or null if not configured */
+	protected final int[] percentileSlots;
+	/** The coordinated omission corrected percentile elapsed time slots, indexed by percentile, or null if not configured */
+	protected final int[] correctedSlots;
+	/** The count at or below percentile slots, indexed by percentile, or null if not configured */
+	protected final int[] countLtoeSlots;
+	/** The count above percentile slots, indexed by percentile, or null if not configured */
+	protected final int[] countGtSlots;
+	/** The percentage at or below percentile slots, indexed by percentile, or null if not configured */
+	protected final int[] percentLtoeSlots;
+	/** The percentage above percentile slots, indexed by percentile, or null if not configured */
+	protected final int[] percentGtSlots;
+	/** The rolling window percentile slots, indexed by window and percentile, or null if no windows are configured */
+	protected final int[][] windowSlots;
+	/** The heatmap bucket count slots, indexed by bucket, or null if no heatmap is configured */
+	protected final int[] heatmapSlots;
+	/** The mean elapsed time slot */
+	protected final int meanSlot;
+	/** The standard deviation slot */
+	protected final int stddevSlot;
+	/** The count slot */
+	protected final int countSlot;
+	/** The sampling rate slot */
+	protected final int sampleRateSlot;
+	/** The calculation performance slot */
+	protected final int perfSlot;
+
+	/** The slot index of a sub metric that is not configured */
+	public static final int NO_SLOT = -1;
+
+	/**
+	 * Creates a new IntervalPublisher
+	 * @param percentileCount The number of configured percentiles
+	 * @param metricNameMap The map of constants to configured percentile independent sub metric names
+	 * @param ctileMetricNameMap The map of constants to configured per percentile sub metric names, indexed by percentile
+	 * @param rollingWindows The rolling windows configuration, or null
+	 * @param heatmapNames The full heatmap bucket count metric names, indexed by bucket, or null
+	 * @param factory The agent's data accumulator factory, or null to calculate without publishing
+	 */
+	public IntervalPublisher(int percentileCount, Map<String, String> metricNameMap, Map<String, String[]> ctileMetricNameMap, RollingWindows rollingWindows, String[] heatmapNames, DataAccumulatorFactory factory) {
+		List<String> names = new ArrayList<String>();
+		percentileSlots = ctileSlots(ctileMetricNameMap.get(MethodTimerCtile.PERCENTILE_ELAPSED), percentileCount, names);
+		correctedSlots = ctileSlots(ctileMetricNameMap.get(MethodTimerCtile.CORRECTED_PERCENTILE_ELAPSED), percentileCount, names);
+		countLtoeSlots = ctileSlots(ctileMetricNameMap.get(MethodTimerCtile.COUNT_LTOE_PERCENTILE), percentileCount, names);
+		countGtSlots = ctileSlots(ctileMetricNameMap.get(MethodTimerCtile.COUNT_GT_PERCENTILE), percentileCount, names);
+		percentLtoeSlots = ctileSlots(ctileMetricNameMap.get(MethodTimerCtile.PERCENT_LTOE_PERCENTILE), percentileCount, names);
+		percentGtSlots = ctileSlots(ctileMetricNameMap.get(MethodTimerCtile.PERCENT_GT_PERCENTILE), percentileCount, names);
+		if(rollingWindows!=null) {
+			String[][] windowNames = rollingWindows.getMetricNames();
+			windowSlots = new int[windowNames.length][];
+			for(int w = 0; w < windowNames.length; w++) {
+				windowSlots[w] = ctileSlots(windowNames[w], percentileCount, names);
+			}
+		} else {
+			windowSlots = null;
+		}
+		heatmapSlots = heatmapNames==null ? null : ctileSlots(heatmapNames, heatmapNames.length, names);
+		meanSlot = slot(metricNameMap.get(MethodTimerCtile.MEAN_ELAPSED), names);
+		stddevSlot = slot(metricNameMap.get(MethodTimerCtile.STDDEV_ELAPSED), names);
+		countSlot = slot(metricNameMap.get(MethodTimerCtile.COUNT_ELAPSED), names);
+		sampleRateSlot = slot(metricNameMap.get(MethodTimerCtile.SAMPLE_RATE), names);
+		perfSlot = slot(metricNameMap.get(MethodTimerCtile.PERCENTILE_PERF), names);
+		slotNames = names.toArray(new String[names.size()]);
+		counters = new IIntegerFluctuatingCounterDataAccumulator[slotNames.length];
+		if(factory!=null) {
+			for(int i = 0; i < slotNames.length; i++) {
+				if(i!=perfSlot) {
+					counters[i] = (IIntegerFluctuatingCounterDataAccumulator)factory.safeGetIntegerFluctuatingCounterDataAccumulator(slotNames[i]);
+				}
+			}
+			perfAccumulator = perfSlot==NO_SLOT ? null : (ILongAverageDataAccumulator)factory.safeGetLongAverageDataAccumulator(slotNames[perfSlot]);
+		} else {
+			perfAccumulator = null;
+		}
+	}
+
+	/**
+	 * Resolves a fluctuating counter outside the slot table, such as a tracer statistic
+	 * @param factory The agent's data accumulator factory, or null
+	 * @param metricName The full metric name
+	 * @return the counter or null if the factory is null
+	 */
+	public static IIntegerFluctuatingCounterDataAccumulator counter(DataAccumulatorFactory factory, String metricName) {
+		return factory==null ? null : (IIntegerFluctuatingCounterDataAccumulator)factory.safeGetIntegerFluctuatingCounterDataAccumulator(metricName);
+	}
+
+	/**
+	 * Sets a fluctuating counter if it is resolved and not shut off
+	 * @param counter The counter, or null
+	 * @param value The value
+	 */
+	public static void publish(IIntegerFluctuatingCounterDataAccumulator counter, int value) {
+		if(counter!=null && !counter.IDataAccumulator_isShutOff()) {
+			counter.IIntegerCounterDataAccumulator_setValue(value);
+		}
+	}
+
+	/**
+	 * Sets a fluctuating counter to a long value, saturating at {@link Integer#MAX_VALUE}, if it is resolved and not shut off
+	 * @param counter The counter, or null
+	 * @param value The value
+	 */
+	public static void publish(IIntegerFluctuatingCounterDataAccumulator counter, long value) {
+		publish(counter, value > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int)value);
+	}
+
+	/**
+	 * Assigns the next slot to a sub metric
+	 * @param name The full sub metric name, or null if not configured
+	 * @param names The slot names assigned so far
+	 * @return the assigned slot or {@link #NO_SLOT} if the name is null
+	 */
+	protected static int slot(String name, List<String> names) {
+		if(name==null) return NO_SLOT;
+		names.add(name);
+		return names.size()-1;
+	}
+
+	/**
+	 * Assigns the next slots to a per percentile sub metric
+	 * @param ctileNames The full sub metric names indexed by percentile, or null if not configured
+	 * @param percentileCount The number of configured percentiles
+	 * @param names The slot names assigned so far
+	 * @return the assigned slots indexed by percentile, or null if the names are null
+	 */
+	protected static int[] ctileSlots(String[] ctileNames, int percentileCount, List<String> names) {
+		if(ctileNames==null) return null;
+		int[] slots = new int[percentileCount];
+		for(int i = 0; i < percentileCount; i++) {
+			slots[i] = slot(ctileNames[i], names);
+		}
+		return slots;
+	}
+
+	/**
+	 * Returns the number of slots
+	 * @return the number of slots
+	 */
+	public int getSlotCount() {
+		return slotNames.length;
+	}
+
+	/**
+	 * Returns the slot assigned to a sub metric. A linear search intended for diagnostics, not the publication path.
+	 * @param metricName The full sub metric name
+	 * @return the slot or {@link #NO_SLOT} if the sub metric is not configured
+	 */
+	public int getSlot(String metricName) {
+		for(int i = 0; i < slotNames.length; i++) {
+			if(slotNames[i].equals(metricName)) return i;
+		}
+		return NO_SLOT;
+	}
+
+	/**
+	 * Returns the full sub metric name of a slot
+	 * @param slot The slot
+	 * @return the full sub metric name
+	 */
+	public String getSlotName(int slot) {
+		return slotNames[slot];
+	}
+
+	/**
+	 * Creates a new zeroed slot array
+	 * @return a new slot array
+	 */
+	public int[] newSlots() {
+		return new int[slotNames.length];
+	}
+
+	/**
+	 * Publishes an interval's slot values to the pre-resolved data accumulators that are not shut off
+	 * @param values The slot values
+	 */
+	public void publish(int[] values) {
+		for(int i = 0; i < counters.length; i++) {
+			IIntegerFluctuatingCounterDataAccumulator counter = counters[i];
+			if(counter!=null && !counter.IDataAccumulator_isShutOff()) {
+				counter.IIntegerCounterDataAccumulator_setValue(values[i]);
+			}
+		}
+		if(perfAccumulator!=null && !perfAccumulator.IDataAccumulator_isShutOff()) {
+			perfAccumulator.ILongAggregatingDataAccumulator_recordDataPoint(values[perfSlot]);
+		}
+	}
+}
@@ -0,0 +1,146 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.agent.tracer.ctile;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Title: MemoryGovernor</p>
+ * <p>Description: Tracks the buffer memory retained by a ctile tracer's accumulators against the tracer's byte budget and an
+ * optional agent wide budget shared by all ctile tracers. When either budget is exceeded, the governor selects the heaviest
+ * unbounded accumulators whose replacement by a bounded representation reclaims the excess.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.agent.tracer.ctile.MemoryGovernor</code></p>
+ */
+public class MemoryGovernor {
+	/** The tracer's byte budget. 0 is unbounded. */
+	protected final long budget;
+	/** The retained bytes this tracer last contributed to the agent wide total */
+	protected long reported = 0;
+	/** The number of times the governor selected accumulators to bound */
+	protected long triggers = 0;
+
+	/** The bytes retained by all the governed ctile tracers in the agent */
+	private static final AtomicLong agentRetained = new AtomicLong(0);
+	/** The agent wide byte budget. 0 is unbounded. */
+	private static volatile long agentBudget = 0;
+
+	/**
+	 * Creates a new MemoryGovernor
+	 * @param budget The tracer's byte budget. 0 is unbounded.
+	 */
+	public MemoryGovernor(long budget) {
+		if(budget < 0) throw new IllegalArgumentException("Budget must be >= 0 [" + budget + "]", new Throwable());
+		this.budget = budget;
+	}
+
+	/**
+	 * Sets the agent wide byte budget shared by all ctile tracers
+	 * @param budget The agent wide byte budget. 0 is unbounded.
+	 */
+	public static void setAgentBudget(long budget) {
+		agentBudget = Math.max(0, budget);
+	}
+
+	/**
+	 * Returns the agent wide byte budget
+	 * @return the agent wide byte budget. 0 is unbounded.
+	 */
+	public static long getAgentBudget() {
+		return agentBudget;
+	}
+
+	/**
+	 * Returns the bytes retained by all the governed ctile tracers in the agent, as last reported
+	 * @return the agent wide retained bytes
+	 */
+	public static long getAgentRetained() {
+		return agentRetained.get();
+	}
+
+	/**
+	 * Reports the tracer's retained bytes and returns the number of bytes by which the tracer or the agent exceeds its budget.
+	 * Called by one thread at a time per governor.
+	 * @param retained The bytes currently retained by the tracer's accumulators
+	 * @return the bytes to reclaim, or 0 or less if within budget
+	 */
+	public long report(long retained) {
+		long agentTotal = agentRetained.addAndGet(retained - reported);
+		reported = retained;
+		long excess = budget > 0 ? retained - budget : 0;
+		long ab = agentBudget;
+		if(ab > 0) {
+			excess = Math.max(excess, agentTotal - ab);
+		}
+		return excess;
+	}
+
+	/**
+	 * Selects the heaviest candidates that together reclaim the excess. Each selected candidate is expected to shrink to
+	 * the passed bounded size.
+	 * @param retained The bytes retained by each candidate. Candidates that cannot be bounded should be passed as -1.
+	 * @param boundedBytes The bytes retained by a candidate once bounded
+	 * @param excess The bytes to reclaim
+	 * @return the indexes of the selected candidates, heaviest first
+	 */
+	public int[] select(long[] retained, long boundedBytes, long excess) {
+		if(excess <= 0) return new int[0];
+		long[] remaining = retained.clone();
+		int[] selected = new int[remaining.length];
+		int count = 0;
+		long reclaimed = 0;
+		while(reclaimed < excess) {
+			int heaviest = -1;
+			for(int i = 0; i < remaining.length; i++) {
+				if(remaining[i] > boundedBytes && (heaviest==-1 || remaining[i] > remaining[heaviest])) heaviest = i;
+			}
+			if(heaviest==-1) break;
+			reclaimed += remaining[heaviest] - boundedBytes;
+			remaining[heaviest] = -1;
+			selected[count++] = heaviest;
+		}
+		if(count > 0) triggers++;
+		int[] result = new int[count];
+		System.arraycopy(selected, 0, result, 0, count);
+		return result;
+	}
+
+	/**
+	 * Returns the tracer's byte budget
+	 * @return the byte budget. 0 is unbounded.
+	 */
+	public long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Returns the number of times the governor selected accumulators to bound
+	 * @return the number of governor triggers
+	 */
+	public long getTriggers() {
+		return triggers;
+	}
+}
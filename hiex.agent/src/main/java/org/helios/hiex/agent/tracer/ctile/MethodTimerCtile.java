@@ -3,24 +3,37 @@
  */
 package org.helios.hiex.agent.tracer.ctile;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import gnu.trove.list.array.TIntArrayList;
+
 import org.helios.hiex.agent.tracer.base.BaseSingleMetricTracerFactory;
+import org.helios.hiex.util.collections.DirectSegmentPool;
+import org.helios.hiex.util.collections.IdentityIntCache;
+import org.helios.hiex.util.concurrency.NanoTimerStack;
+import org.helios.hiex.util.concurrency.WriterReaderPhaser;
+import org.helios.hiex.util.math.LogLinearHistogram;
+import org.helios.hiex.util.math.TDigest;
 
 import com.wily.introscope.agent.IAgent;
 import com.wily.introscope.agent.stat.DataAccumulatorFactory;
 import com.wily.introscope.agent.stat.IDataAccumulator;
 import com.wily.introscope.agent.stat.IIntegerAverageDataAccumulator;
+import com.wily.introscope.agent.stat.IIntegerFluctuatingCounterDataAccumulator;
 import com.wily.introscope.agent.trace.ASingleMetricTracerFactory;
 import com.wily.introscope.agent.trace.INameFormatter;
 import com.wily.introscope.agent.trace.InvocationData;
@@ -53,30 +66,187 @@ import com.wily.util.properties.AttributeListing;
  * <p><code>org.helios.hiex.agent.tracer.ctile.MethodTimerCtile</code></p>
  */
 public class MethodTimerCtile extends BaseSingleMetricTracerFactory {
-	/** The percentile to calculate */
-	protected int percentile = 0;
-	/** Metric name --> interval and data accumulators map */
-	protected final Map<String, CtileMetricAccumulator> accumulators = new ConcurrentHashMap<String, CtileMetricAccumulator>(100);
-	/** Alternator */
-	protected AtomicBoolean alternator = new AtomicBoolean(false);
+	/** The percentiles to calculate, in ascending order */
+	protected float[] percentiles = null;
+	/** The interval accumulators by metric name and id */
+	protected MetricRegistry registry = null;
+	/** The phaser used to roll over the interval accumulators without losing in-flight elapsed times */
+	protected final WriterReaderPhaser phaser = new WriterReaderPhaser();
 	/** Trace performance flag */
 	protected boolean tracePerformance = false;
-	/** The map of constants to configured sub metric names */
+	/** The map of constants to configured percentile independent sub metric names */
 	protected final Map<String, String> metricNameMap = new HashMap<String, String>();
+	/** The map of constants to configured per percentile sub metric names, indexed by percentile */
+	protected final Map<String, String[]> ctileMetricNameMap = new HashMap<String, String[]>();
 	/** The pbd defined resource pattern */
 	protected String formattedResource = null;
-	/** The name of the percentile based resource segment */
-	protected String percentileResourceName = null;
+	/** The percentile based resource names, indexed by percentile */
+	protected String[] percentileResourceNames = null;
 	/** The name of the summary percentile based resource segment */
 	protected String summaryPercentileResourceName = null;
+	/** The accumulator mode */
+	protected String mode = null;
+	/** The highest trackable elapsed time in histogram mode */
+	protected long highestTrackableValue = 0;
+	/** The number of significant digits maintained in histogram mode */
+	protected int significantDigits = 0;
+	/** The digest compression in sketch mode */
+	protected int compression = 0;
+	/** The target number of samples per interval in sampling mode */
+	protected int sampleSize = 0;
+	/** The unit elapsed times are recorded in */
+	protected TimeUnit recordUnit = TimeUnit.MILLISECONDS;
+	/** The unit elapsed time metrics are published in */
+	protected TimeUnit publishUnit = TimeUnit.MILLISECONDS;
+	/** Indicates if elapsed times are timed with System.nanoTime rather than the agent's ms wall clock */
+	protected boolean highRes = false;
+	/** The rolling percentile windows, or null if none are configured */
+	protected RollingWindows rollingWindows = null;
+	/** The heatmap bucket boundaries, or null if no heatmap is published */
+	protected HeatmapBuckets heatmap = null;
+	/** The full heatmap bucket count metric names, indexed by bucket, or null if no heatmap is published */
+	protected String[] heatmapNames = null;
+	/** The interval log, or null if intervals are not logged */
+	protected IntervalLog intervalLog = null;
+	/** The expected interval between calls in the record unit that coordinated omission corrected percentiles are published for, or 0 if not published */
+	protected long expectedInterval = 0;
+	/** The number of slowest invocations retained per metric per interval, 0 if none */
+	protected int exemplarCount = 0;
+	/** The indexes of the invocation arguments summarized in exemplars, or null if arguments are not captured */
+	protected int[] exemplarArgs = null;
+	/** The per thread nano time start time stacks used in high resolution mode */
+	protected final NanoTimerStack timerStack = new NanoTimerStack();
+	/** The publication stage the interval statistics are published through */
+	protected IntervalPublisher publisher = null;
+	/** The off heartbeat interval calculator, or null if intervals are calculated on the heartbeat thread */
+	protected IntervalCalculator calculator = null;
+	/** The number of consecutive idle periods after which an accumulator is evicted. 0 disables eviction. */
+	protected int idlePeriods = 0;
+	/** The number of maintenance passes run */
+	protected long maintenancePasses = 0;
+	/** The evicted metrics counter */
+	protected IIntegerFluctuatingCounterDataAccumulator evictedCounter = null;
+	/** The shrunk buffers counter */
+	protected IIntegerFluctuatingCounterDataAccumulator shrunkCounter = null;
+	/** The live metrics counter */
+	protected IIntegerFluctuatingCounterDataAccumulator metricsCounter = null;
+	/** The folded names counter */
+	protected IIntegerFluctuatingCounterDataAccumulator foldedCounter = null;
+	/** The buffer memory governor, or null if memory is not governed */
+	protected MemoryGovernor governor = null;
+	/** The bytes retained by a metric's accumulator once switched to a histogram */
+	protected long boundedBytes = 0;
+	/** The retained memory counter */
+	protected IIntegerFluctuatingCounterDataAccumulator retainedCounter = null;
+	/** The governor triggers counter */
+	protected IIntegerFluctuatingCounterDataAccumulator triggersCounter = null;
+	/** The bounded metrics counter */
+	protected IIntegerFluctuatingCounterDataAccumulator boundedCounter = null;
+	/** Probe information --> metric id cache, or null if the metric name cannot be resolved from the probe alone */
+	protected IdentityIntCache probeMetricIds = null;
 	
 	/** The key of the percentile parameter */
 	public static final String PERCENTILE_PARAM = "percentile";
+	/** The key of the multiple percentiles parameter, a comma separated list such as <code>50,90,99,99.9</code> */
+	public static final String PERCENTILES_PARAM = "percentiles";
 	/** The key of the performance parameter */
 	public static final String PERCENTILE_PERF = "performance";
+	/** The key of the accumulator mode parameter */
+	public static final String MODE_PARAM = "mode";
+	/** The key of the histogram mode highest trackable value parameter */
+	public static final String MAX_TRACKABLE_PARAM = "maxtrackable";
+	/** The key of the histogram mode significant digits parameter */
+	public static final String SIGNIFICANT_DIGITS_PARAM = "significantdigits";
+	/** The key of the sampling mode target samples per interval parameter */
+	public static final String SAMPLE_SIZE_PARAM = "samplesize";
+	/** The key of the rolling windows parameter, a comma separated list of durations such as <code>1m,5m,15m</code> */
+	public static final String WINDOWS_PARAM = "windows";
+	/** The key of the heatmap parameter, a comma separated list of bucket boundaries such as <code>10,50,250,1000</code>, or
+	 * <code>exp:start,factor,count</code> for exponential boundaries, in the publish unit */
+	public static final String HEATMAP_PARAM = "heatmap";
+	/** The heatmap parameter prefix of exponential boundaries */
+	public static final String HEATMAP_EXP_PREFIX = "exp:";
+	/** The key of the sketch mode and rolling window compression parameter */
+	public static final String COMPRESSION_PARAM = "compression";
+	/** The key of the timing resolution parameter, the unit elapsed times are recorded in: <code>ms</code>, <code>us</code> or <code>ns</code> */
+	public static final String RESOLUTION_PARAM = "resolution";
+	/** The key of the publish unit parameter, the unit elapsed time metrics are published in. Defaults to the resolution. */
+	public static final String UNIT_PARAM = "unit";
+	
+	/** The key of the interval calculation threads parameter. 0 calculates on the agent heartbeat thread. */
+	public static final String CALC_THREADS_PARAM = "calcthreads";
+	/** The key of the interval calculation deadline parameter in ms */
+	public static final String CALC_DEADLINE_PARAM = "calcdeadline";
+	
+	/** The key of the cardinality cap parameter, the maximum number of distinct metric names traced. 0 is unbounded. */
+	public static final String MAX_METRICS_PARAM = "maxmetrics";
+	/** The key of the tracer memory budget parameter, in bytes or suffixed with <code>k</code>, <code>m</code> or <code>g</code>. 0 is unbounded. */
+	public static final String MEM_BUDGET_PARAM = "membudget";
+	/** The key of the agent wide memory budget parameter shared by all ctile tracers. 0 is unbounded. */
+	public static final String AGENT_MEM_BUDGET_PARAM = "agentmembudget";
+	/** The key of the off heap segment pool parameter, the bytes of free segments the agent wide pool retains for reuse */
+	public static final String OFFHEAP_POOL_PARAM = "offheappool";
+	/** The key of the interval log parameter, the directory each metric's interval histograms are logged to. Relative to the agent profile's directory. */
+	public static final String INTERVAL_LOG_PARAM = "intervallog";
+	/** The key of the interval log segment size parameter, in bytes or suffixed with <code>k</code>, <code>m</code> or <code>g</code> */
+	public static final String INTERVAL_LOG_SEGMENT_PARAM = "intervallogsegment";
+	/** The key of the interval log total size parameter, in bytes or suffixed with <code>k</code>, <code>m</code> or <code>g</code> */
+	public static final String INTERVAL_LOG_MAX_PARAM = "intervallogmax";
+	/** The default interval log segment size (16 MB) */
+	public static final String DEFAULT_INTERVAL_LOG_SEGMENT = "16m";
+	/** The default interval log total size (256 MB) */
+	public static final String DEFAULT_INTERVAL_LOG_MAX = "256m";
+	/** The system property naming the agent profile, whose directory relative interval log directories are resolved against */
+	public static final String AGENT_PROFILE_PROP = "com.wily.introscope.agentProfile";
+	/** The key of the expected interval parameter, the interval between calls in the publish unit that coordinated omission
+	 * corrected percentiles are published for, in histogram and sketch modes */
+	public static final String EXPECTED_INTERVAL_PARAM = "expectedinterval";
+	/** The key of the exemplars parameter, the number of slowest invocations retained and published per metric per interval */
+	public static final String EXEMPLARS_PARAM = "exemplars";
+	/** The key of the exemplar arguments parameter, a comma separated list of the indexes of the invocation arguments summarized in exemplars */
+	public static final String EXEMPLAR_ARGS_PARAM = "exemplarargs";
+	/** The longest argument summarized in exemplars, in characters. Longer arguments are truncated. */
+	public static final int MAX_EXEMPLAR_ARG_LENGTH = 64;
+	/** The metric name segment of the exemplar string metrics, followed by the rank */
+	public static final String EXEMPLAR_SEGMENT = "|Slowest Calls:Call ";
+	/** The key of the idle periods parameter, the number of periods without traffic after which a metric's accumulator is evicted */
+	public static final String IDLE_PERIODS_PARAM = "idleperiods";
+	
+	/** The accumulator mode that buffers every elapsed time and calculates exact values */
+	public static final String MODE_EXACT = "exact";
+	/** The accumulator mode that records elapsed times into fixed memory log-linear histograms */
+	public static final String MODE_HISTOGRAM = "histogram";
+	/** The accumulator mode that records elapsed times into bounded size, mergeable t-digest sketches */
+	public static final String MODE_SKETCH = "sketch";
+	/** The accumulator mode that counts every elapsed time but buffers an adaptive sample of them */
+	public static final String MODE_SAMPLING = "sampling";
+	/** The accumulator mode that buffers every elapsed time in pooled off heap segments and calculates exact values off heap */
+	public static final String MODE_OFFHEAP = "offheap";
+	/** The default target number of samples per interval in sampling mode */
+	public static final int DEFAULT_SAMPLE_SIZE = 10000;
+	/** The suffix of the per metric average elapsed time metric */
+	public static final String AVERAGE_ELAPSED_SUFFIX = ":Average Elapsed Time (ms)";
+	/** The default number of interval calculation threads, calculating on the agent heartbeat thread unless the pool is opted in to */
+	public static final int DEFAULT_CALC_THREADS = 0;
+	/** The default number of idle periods after which a metric's accumulator is evicted. 0 never evicts unless eviction is opted in to. */
+	public static final int DEFAULT_IDLE_PERIODS = 0;
+	/** The default maximum number of distinct metric names traced. 0 is unbounded unless the cap is opted in to. */
+	public static final int DEFAULT_MAX_METRICS = 0;
+	/** The default tracer memory budget. 0 is unbounded, so memory is not governed unless a budget is opted in to. */
+	public static final String DEFAULT_MEM_BUDGET = "0";
+	/** The resource segment of the overflow metric */
+	public static final String OTHER_SEGMENT = "Other";
+	/** The number of maintenance passes between buffer shrinks */
+	public static final int TRIM_PERIODS = 10;
+	/** The default percentile */
+	public static final String DEFAULT_PERCENTILE = "90";
+	/** The default highest trackable elapsed time in histogram mode (1 hour in ms) */
+	public static final long DEFAULT_MAX_TRACKABLE = 3600000L;
 
 	/** The counter key of the percentile elapsed time */
 	public static final String PERCENTILE_ELAPSED = "percentileelapsed";
+	/** The counter key of the coordinated omission corrected percentile elapsed time */
+	public static final String CORRECTED_PERCENTILE_ELAPSED = "correctedelapsed";
 	/** The counter key of the count at or below percentile */
 	public static final String COUNT_LTOE_PERCENTILE = "countltoe";
 	/** The counter key of the count above percentile */
@@ -93,6 +263,15 @@ public class MethodTimerCtile extends BaseSingleMetricTracerFactory {
 	public static final String COUNT_ELAPSED = "count";
 	/** The counter key of the standard deviation */
 	public static final String STDDEV_ELAPSED = "stddev";
+	/** The counter key of the effective sampling rate in sampling mode, published as 1 in N calls */
+	public static final String SAMPLE_RATE = "samplerate";
+	
+	/** The resource tokens that resolve to the same value for every invocation of a probe */
+	public static final Set<String> PROBE_TOKENS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(new String[]{
+			"{method}", "{classname}", "{packagename}", "{packageandclassname}"
+	})));
+	/** The resource token pattern */
+	protected static final Pattern TOKEN_PATTERN = Pattern.compile("\\{.*?}");
 	
 	/** Valid sub names that we can generate an accumulator for */
 	public static final Set<String> SUB_NAMES = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(new String[]{
@@ -115,11 +294,93 @@ public class MethodTimerCtile extends BaseSingleMetricTracerFactory {
 	public MethodTimerCtile(IAgent agent, AttributeListing parameters, ProbeIdentification probe, Object sampleTracedObject) {
 		super(agent, parameters, probe, sampleTracedObject);		
 		formattedResource = this.getFormattedName();				
-		percentile = getParameter(PERCENTILE_PARAM, 90);
+		percentiles = parsePercentiles(getParameter(PERCENTILES_PARAM, getParameter(PERCENTILE_PARAM, DEFAULT_PERCENTILE)));
 		tracePerformance = getParameter(PERCENTILE_PERF, false);
-		percentileResourceName = "Percentile " + percentile;
-		summaryPercentileResourceName = getCtileResourceName(formattedResource, percentileResourceName);
+		mode = getParameter(MODE_PARAM, MODE_EXACT).toLowerCase();
+		if(!MODE_EXACT.equals(mode) && !MODE_HISTOGRAM.equals(mode) && !MODE_SKETCH.equals(mode) && !MODE_SAMPLING.equals(mode) && !MODE_OFFHEAP.equals(mode)) {
+			log.warn("Unrecognized mode [", mode, "]. Defaulting to [", MODE_EXACT, "]");
+			mode = MODE_EXACT;
+		}
+		recordUnit = parseTimeUnit(getParameter(RESOLUTION_PARAM, "ms"), TimeUnit.MILLISECONDS);
+		publishUnit = parseTimeUnit(getParameter(UNIT_PARAM, null), recordUnit);
+		highRes = recordUnit!=TimeUnit.MILLISECONDS;
+		if(MODE_OFFHEAP.equals(mode)) {
+			if(recordUnit==TimeUnit.NANOSECONDS) {
+				log.warn("Mode [", MODE_OFFHEAP, "] buffers ints. Elapsed times over [", Integer.MAX_VALUE, "] ns will be capped.");
+			}
+			long pooled = parseBytes(getParameter(OFFHEAP_POOL_PARAM, null), -1);
+			if(pooled >= 0) {
+				DirectSegmentPool.getInstance().setMaxPooledBytes(pooled);
+			}
+		}
+		// The highest trackable value is configured in ms
+		highestTrackableValue = recordUnit.convert(getParameter(MAX_TRACKABLE_PARAM, DEFAULT_MAX_TRACKABLE), TimeUnit.MILLISECONDS);
+		significantDigits = getParameter(SIGNIFICANT_DIGITS_PARAM, LogLinearHistogram.DEFAULT_SIGNIFICANT_DIGITS);
+		compression = getParameter(COMPRESSION_PARAM, (int)TDigest.DEFAULT_COMPRESSION);
+		if(compression < TDigest.MIN_COMPRESSION) {
+			log.warn("Compression [", compression, "] below minimum. Defaulting to [", (int)TDigest.MIN_COMPRESSION, "]");
+			compression = (int)TDigest.MIN_COMPRESSION;
+		}
+		sampleSize = getParameter(SAMPLE_SIZE_PARAM, DEFAULT_SAMPLE_SIZE);
+		if(sampleSize < 2) {
+			log.warn("Sample size [", sampleSize, "] too small. Defaulting to [", DEFAULT_SAMPLE_SIZE, "]");
+			sampleSize = DEFAULT_SAMPLE_SIZE;
+		}
+		percentileResourceNames = new String[percentiles.length];
+		for(int i = 0; i < percentiles.length; i++) {
+			percentileResourceNames[i] = getCtileResourceName(formattedResource, "Percentile " + formatPercentile(percentiles[i]));
+		}
+		summaryPercentileResourceName = percentiles.length==1 ? percentileResourceNames[0] : getCtileResourceName(formattedResource, "Percentiles");
 		initPatterns();
+		expectedInterval = initExpectedInterval(getParameter(EXPECTED_INTERVAL_PARAM, null));
+		initExemplars(getParameter(EXEMPLARS_PARAM, 0), getParameter(EXEMPLAR_ARGS_PARAM, null));
+		rollingWindows = initRollingWindows(getParameter(WINDOWS_PARAM, null));
+		heatmap = initHeatmap(getParameter(HEATMAP_PARAM, null));
+		registerMetricGroup(summaryPercentileResourceName.substring(0, summaryPercentileResourceName.length()-1), subMetricNames());
+		idlePeriods = Math.max(0, getParameter(IDLE_PERIODS_PARAM, DEFAULT_IDLE_PERIODS));
+		evictedCounter = IntervalPublisher.counter(dataAccumulatorFactory, summaryMetricPrefix("Maintenance") + "Evicted Metrics");
+		shrunkCounter = IntervalPublisher.counter(dataAccumulatorFactory, summaryMetricPrefix("Maintenance") + "Shrunk Buffers");
+		metricsCounter = IntervalPublisher.counter(dataAccumulatorFactory, summaryMetricPrefix("Maintenance") + "Metrics");
+		foldedCounter = IntervalPublisher.counter(dataAccumulatorFactory, summaryMetricPrefix("Maintenance") + "Folded Names");
+		String otherMetricName = getCtileResourceName(formattedResource, OTHER_SEGMENT);
+		registry = new MetricRegistry(getParameter(MAX_METRICS_PARAM, DEFAULT_MAX_METRICS), otherMetricName.substring(0, otherMetricName.length()-1), log) {
+			@Override
+			protected CtileMetricAccumulator newAccumulator(int metricId, String metricName) {
+				CtileMetricAccumulator cma = newCtileMetricAccumulator();
+				cma.setMetric(metricId, metricName);
+				cma.bindAccumulators(dataAccumulatorFactory);
+				return cma;
+			}
+		};
+		long agentBudget = parseBytes(getParameter(AGENT_MEM_BUDGET_PARAM, null), 0);
+		if(agentBudget > 0) {
+			MemoryGovernor.setAgentBudget(agentBudget);
+		}
+		long budget = parseBytes(getParameter(MEM_BUDGET_PARAM, DEFAULT_MEM_BUDGET), 0);
+		if(budget > 0 || MemoryGovernor.getAgentBudget() > 0) {
+			governor = new MemoryGovernor(budget);
+			boundedBytes = new LogLinearHistogram(highestTrackableValue, significantDigits).getEstimatedFootprintInBytes() * 2;
+			retainedCounter = IntervalPublisher.counter(dataAccumulatorFactory, summaryMetricPrefix("Memory") + "Retained (KB)");
+			triggersCounter = IntervalPublisher.counter(dataAccumulatorFactory, summaryMetricPrefix("Memory") + "Governor Triggers");
+			boundedCounter = IntervalPublisher.counter(dataAccumulatorFactory, summaryMetricPrefix("Memory") + "Bounded Metrics");
+		}
+		intervalLog = initIntervalLog(getParameter(INTERVAL_LOG_PARAM, null));
+		publisher = new IntervalPublisher(percentiles.length, metricNameMap, ctileMetricNameMap, rollingWindows, heatmapNames, dataAccumulatorFactory);
+		int calcThreads = getParameter(CALC_THREADS_PARAM, DEFAULT_CALC_THREADS);
+		if(calcThreads > 0 && schedulePeriod > 0) {
+			long deadline = getParameter(CALC_DEADLINE_PARAM, Math.max(1L, schedulePeriod / 2));
+			if(deadline < 1) {
+				log.warn("Calculation deadline [", deadline, "] must be > 0. Defaulting to [", Math.max(1L, schedulePeriod / 2), "]");
+				deadline = Math.max(1L, schedulePeriod / 2);
+			}
+			calculator = new IntervalCalculator(this, calcThreads, deadline, summaryMetricPrefix("Interval Calculation"), dataAccumulatorFactory, log);
+			log.info("Calculating intervals with up to [", calculator.getParallelism(), "] threads and a deadline of [", deadline, "] ms");
+		}
+		if(isProbeConstant(formattedResource)) {
+			probeMetricIds = new IdentityIntCache();
+		} else {
+			log.info("Resource [", formattedResource, "] is resolved per invocation. Metric names will not be cached.");
+		}
 		if (DEBUG) {			
 			dataAccumulatorFactory.safeGetLongConstantDataAccumulator(summaryPercentileResourceName + "|Debug:Percentile Period (ms)", schedulePeriod);
 		}
@@ -132,19 +393,22 @@ public class MethodTimerCtile extends BaseSingleMetricTracerFactory {
 		// ======
 		// Standard Metrics
 		// ======
-		metricNameMap.put(PERCENTILE_ELAPSED, summaryPercentileResourceName + getParameter(PERCENTILE_ELAPSED, "Average Elapsed Time (ms)"));
+		ctileMetricNameMap.put(PERCENTILE_ELAPSED, ctileMetricNames(getParameter(PERCENTILE_ELAPSED, "Average Elapsed Time (ms)")));
 
 		
 		// ======
 		// Optional Metrics
 		// ======
-		metricMapIfNotNull(COUNT_LTOE_PERCENTILE, COUNT_LTOE_PERCENTILE, summaryPercentileResourceName);
-		metricMapIfNotNull(COUNT_GT_PERCENTILE, COUNT_GT_PERCENTILE, summaryPercentileResourceName);
-		metricMapIfNotNull(PERCENT_LTOE_PERCENTILE, PERCENT_LTOE_PERCENTILE, summaryPercentileResourceName);
-		metricMapIfNotNull(PERCENT_GT_PERCENTILE, PERCENT_GT_PERCENTILE, summaryPercentileResourceName);
+		ctileMetricMapIfNotNull(COUNT_LTOE_PERCENTILE, COUNT_LTOE_PERCENTILE);
+		ctileMetricMapIfNotNull(COUNT_GT_PERCENTILE, COUNT_GT_PERCENTILE);
+		ctileMetricMapIfNotNull(PERCENT_LTOE_PERCENTILE, PERCENT_LTOE_PERCENTILE);
+		ctileMetricMapIfNotNull(PERCENT_GT_PERCENTILE, PERCENT_GT_PERCENTILE);
 		metricMapIfNotNull(MEAN_ELAPSED, MEAN_ELAPSED, summaryPercentileResourceName);
 		metricMapIfNotNull(COUNT_ELAPSED, COUNT_ELAPSED, summaryPercentileResourceName);
 		metricMapIfNotNull(STDDEV_ELAPSED, STDDEV_ELAPSED, summaryPercentileResourceName);
+		if(MODE_SAMPLING.equals(mode)) {
+			metricMapIfNotNull(SAMPLE_RATE, SAMPLE_RATE, summaryPercentileResourceName);
+		}
 		
 		// ======
 		// Performance Metrics
@@ -174,6 +438,405 @@ public class MethodTimerCtile extends BaseSingleMetricTracerFactory {
 		}
 	}
 
+	/**
+	 * Interrogates the parameter map for optional per percentile metric keys and adds them to the ctile metric map if they are defined.
+	 * @param key The metric key
+	 * @param paramName The parameter key
+	 */
+	protected void ctileMetricMapIfNotNull(String key, String paramName) {
+		String value = getParameter(paramName, null);
+		if(value!=null) {
+			ctileMetricNameMap.put(key, ctileMetricNames(value));
+		}
+	}
+	
+	/**
+	 * Builds the full metric names of a sub metric for each configured percentile
+	 * @param metricName The sub metric name
+	 * @return an array of full metric names, indexed by percentile
+	 */
+	protected String[] ctileMetricNames(String metricName) {
+		String[] names = new String[percentileResourceNames.length];
+		for(int i = 0; i < names.length; i++) {
+			names[i] = percentileResourceNames[i] + metricName;
+		}
+		return names;
+	}
+	
+	/**
+	 * Builds the prefix of a tracer level statistic's metric name, a segment below the summary percentile resource
+	 * @param segment The resource segment
+	 * @return the metric name prefix, ending in <code>:</code>
+	 */
+	protected String summaryMetricPrefix(String segment) {
+		return summaryPercentileResourceName.substring(0, summaryPercentileResourceName.length()-1) + "|" + segment + ":";
+	}
+	
+	/**
+	 * Collects the full names of every configured sub metric the tracer publishes
+	 * @return the sub metric names
+	 */
+	protected Set<String> subMetricNames() {
+		Set<String> names = new TreeSet<String>(metricNameMap.values());
+		for(String[] ctileNames: ctileMetricNameMap.values()) {
+			names.addAll(Arrays.asList(ctileNames));
+		}
+		if(rollingWindows!=null) {
+			for(String[] windowNames: rollingWindows.getMetricNames()) {
+				names.addAll(Arrays.asList(windowNames));
+			}
+		}
+		if(heatmapNames!=null) {
+			names.addAll(Arrays.asList(heatmapNames));
+		}
+		return names;
+	}
+	
+	/**
+	 * Determines if the metric name resolved from the passed resource is the same for every invocation of a probe.
+	 * This is the case when the default name formatter is used and the resource only contains probe level tokens.
+	 * @param resource The pbd defined resource pattern
+	 * @return true if metric names can be cached per probe
+	 */
+	protected boolean isProbeConstant(String resource) {
+		if(getCustomNameFormatter()!=null) return false;
+		Matcher m = TOKEN_PATTERN.matcher(resource);
+		while(m.find()) {
+			if(!PROBE_TOKENS.contains(m.group().toLowerCase())) return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Parses a comma separated list of percentiles. Invalid or out of range entries are logged and skipped.
+	 * @param value The comma separated list of percentiles
+	 * @return the distinct percentiles in ascending order
+	 */
+	protected float[] parsePercentiles(String value) {
+		Set<Float> parsed = new TreeSet<Float>();
+		for(String s: value.split(",")) {
+			s = s.trim();
+			if(s.length()==0) continue;
+			try {
+				float p = Float.parseFloat(s);
+				if(p <= 0 || p > 100) {
+					log.warn("Percentile [", s, "] out of range (0-100]. Ignoring.");
+				} else {
+					parsed.add(p);
+				}
+			} catch (NumberFormatException e) {
+				log.warn("Invalid percentile [", s, "]. Ignoring.");
+			}
+		}
+		if(parsed.isEmpty()) {
+			log.warn("No valid percentiles in [", value, "]. Defaulting to [", DEFAULT_PERCENTILE, "]");
+			parsed.add(Float.parseFloat(DEFAULT_PERCENTILE));
+		}
+		float[] ctiles = new float[parsed.size()];
+		int i = 0;
+		for(Float p: parsed) {
+			ctiles[i++] = p;
+		}
+		return ctiles;
+	}
+	
+	/**
+	 * Parses the rolling windows parameter and builds the windowed percentile metric names. Each window is rounded up to a
+	 * whole number of schedule periods. Durations are in seconds unless suffixed with <code>s</code>, <code>m</code> or <code>h</code>.
+	 * @param value The comma separated list of window durations, or null
+	 * @return the rolling windows, or null if none are configured or the tracer is not scheduled
+	 */
+	protected RollingWindows initRollingWindows(String value) {
+		if(value==null) return null;
+		if(schedulePeriod < 1) {
+			log.warn("Rolling windows [", value, "] require a schedule period. Ignoring.");
+			return null;
+		}
+		Map<Integer, String> windows = new TreeMap<Integer, String>();
+		for(String s: value.split(",")) {
+			s = s.trim().toLowerCase();
+			if(s.length()==0) continue;
+			long multiplier = 1000L;
+			String amount = s;
+			if(s.endsWith("s") || s.endsWith("m") || s.endsWith("h")) {
+				char suffix = s.charAt(s.length()-1);
+				multiplier = suffix=='h' ? 3600000L : suffix=='m' ? 60000L : 1000L;
+				amount = s.substring(0, s.length()-1).trim();
+			}
+			try {
+				long durationMs = Long.parseLong(amount) * multiplier;
+				if(durationMs < 1) throw new NumberFormatException();
+				int periods = (int)Math.max(1, (durationMs + schedulePeriod - 1) / schedulePeriod);
+				windows.put(periods, s);
+			} catch (NumberFormatException e) {
+				log.warn("Invalid rolling window [", s, "]. Ignoring.");
+			}
+		}
+		if(windows.isEmpty()) return null;
+		int[] periods = new int[windows.size()];
+		String[] labels = new String[windows.size()];
+		String[][] names = new String[windows.size()][];
+		String label = getParameter(PERCENTILE_ELAPSED, "Average Elapsed Time (ms)");
+		int w = 0;
+		for(Map.Entry<Integer, String> window: windows.entrySet()) {
+			periods[w] = window.getKey();
+			labels[w] = window.getValue();
+			names[w] = new String[percentiles.length];
+			for(int i = 0; i < percentiles.length; i++) {
+				names[w][i] = getCtileResourceName(formattedResource, "Percentile " + formatPercentile(percentiles[i]) + "|Rolling " + labels[w]) + label;
+			}
+			w++;
+		}
+		log.info("Rolling windows ", Arrays.toString(labels), " over ", Arrays.toString(periods), " periods of [", schedulePeriod, "] ms");
+		return new RollingWindows(periods, labels, names, compression);
+	}
+	
+	/**
+	 * Parses the heatmap parameter and builds the bucket count metric names. Boundaries are configured in the publish unit
+	 * and converted to the record unit. Boundaries that are invalid, or that convert to a repeated value, are logged and skipped.
+	 * @param value The comma separated list of boundaries, or <code>exp:start,factor,count</code>, or null
+	 * @return the heatmap bucket boundaries, or null if none are configured
+	 */
+	protected HeatmapBuckets initHeatmap(String value) {
+		if(value==null) return null;
+		Set<Long> parsed = new TreeSet<Long>();
+		String spec = value.trim().toLowerCase();
+		if(spec.startsWith(HEATMAP_EXP_PREFIX)) {
+			String[] frags = spec.substring(HEATMAP_EXP_PREFIX.length()).split(",");
+			try {
+				if(frags.length!=3) throw new IllegalArgumentException("Expected start,factor,count", new Throwable());
+				for(long b: HeatmapBuckets.exponential(Long.parseLong(frags[0].trim()), Double.parseDouble(frags[1].trim()), Integer.parseInt(frags[2].trim()))) {
+					parsed.add(b);
+				}
+			} catch (IllegalArgumentException e) {
+				log.warn("Invalid exponential heatmap [", value, "]:", e.getMessage(), ". Ignoring.");
+				return null;
+			}
+		} else {
+			for(String s: spec.split(",")) {
+				s = s.trim();
+				if(s.length()==0) continue;
+				try {
+					long b = Long.parseLong(s);
+					if(b < 1) throw new NumberFormatException();
+					parsed.add(b);
+				} catch (NumberFormatException e) {
+					log.warn("Invalid heatmap boundary [", s, "]. Ignoring.");
+				}
+			}
+		}
+		if(parsed.size() > HeatmapBuckets.MAX_BOUNDARIES) {
+			log.warn("Heatmap [", value, "] has more than [", HeatmapBuckets.MAX_BOUNDARIES, "] boundaries. Ignoring.");
+			return null;
+		}
+		long[] boundaries = new long[parsed.size()];
+		List<String> names = new ArrayList<String>(parsed.size() + 1);
+		String prefix = getCtileResourceName(formattedResource, "Heatmap");
+		String unit = " " + unitLabel(publishUnit);
+		int count = 0;
+		for(Long b: parsed) {
+			long converted = recordUnit.convert(b, publishUnit);
+			if(converted < 1 || (count > 0 && converted <= boundaries[count-1])) {
+				log.warn("Heatmap boundary [", b, unit, "] is below the [", unitLabel(recordUnit), "] resolution. Ignoring.");
+				continue;
+			}
+			boundaries[count++] = converted;
+			names.add(prefix + "Count <= " + b + unit);
+		}
+		if(count==0) return null;
+		names.add(prefix + "Count > " + publishUnit.convert(boundaries[count-1], recordUnit) + unit);
+		heatmapNames = names.toArray(new String[names.size()]);
+		HeatmapBuckets buckets = new HeatmapBuckets(Arrays.copyOf(boundaries, count));
+		log.info("Heatmap buckets ", Arrays.toString(buckets.getBoundaries()), " in [", unitLabel(recordUnit), "]");
+		return buckets;
+	}
+
+	/**
+	 * Parses the expected interval parameter and builds the corrected percentile metric names. The expected interval is
+	 * configured in the publish unit and converted to the record unit.
+	 * @param value The expected interval between calls, or null
+	 * @return the expected interval in the record unit, or 0 if none is configured or the mode does not support corrections
+	 */
+	protected long initExpectedInterval(String value) {
+		if(value==null || value.trim().length()==0) return 0;
+		if(!MODE_HISTOGRAM.equals(mode) && !MODE_SKETCH.equals(mode)) {
+			log.warn("Corrected percentiles require mode [", MODE_HISTOGRAM, "] or [", MODE_SKETCH, "]. Ignoring expected interval [", value, "]");
+			return 0;
+		}
+		long interval = 0;
+		try {
+			interval = recordUnit.convert(Long.parseLong(value.trim()), publishUnit);
+		} catch (NumberFormatException e) {
+		}
+		if(interval < 1) {
+			log.warn("Invalid expected interval [", value, "]. Ignoring.");
+			return 0;
+		}
+		String label = getParameter(PERCENTILE_ELAPSED, "Average Elapsed Time (ms)");
+		String[] names = new String[percentiles.length];
+		for(int i = 0; i < percentiles.length; i++) {
+			names[i] = getCtileResourceName(formattedResource, "Percentile " + formatPercentile(percentiles[i]) + "|Corrected") + label;
+		}
+		ctileMetricNameMap.put(CORRECTED_PERCENTILE_ELAPSED, names);
+		log.info("Publishing coordinated omission corrected percentiles for an expected interval of [", interval, "] ", unitLabel(recordUnit));
+		return interval;
+	}
+
+	/**
+	 * Validates the exemplars parameter and parses the exemplar argument indexes
+	 * @param count The number of slowest invocations to retain per metric per interval
+	 * @param args The comma separated argument indexes, or null
+	 */
+	protected void initExemplars(int count, String args) {
+		if(count < 1) return;
+		if(count > ExemplarHeap.MAX_EXEMPLARS) {
+			log.warn("Exemplars [", count, "] above maximum. Defaulting to [", ExemplarHeap.MAX_EXEMPLARS, "]");
+			count = ExemplarHeap.MAX_EXEMPLARS;
+		}
+		exemplarCount = count;
+		if(args==null) return;
+		TIntArrayList indexes = new TIntArrayList();
+		for(String s: args.split(",")) {
+			s = s.trim();
+			if(s.length()==0) continue;
+			try {
+				int index = Integer.parseInt(s);
+				if(index < 0) throw new NumberFormatException();
+				indexes.add(index);
+			} catch (NumberFormatException e) {
+				log.warn("Invalid exemplar argument index [", s, "]. Ignoring.");
+			}
+		}
+		if(!indexes.isEmpty()) {
+			exemplarArgs = indexes.toArray();
+		}
+	}
+
+	/**
+	 * Collects the details of an invocation retained as one of the slowest of its interval
+	 * @param time The elapsed time in the record unit
+	 * @param timeMs The elapsed time in ms
+	 * @param data The invocation data
+	 * @return the exemplar
+	 */
+	protected ExemplarHeap.Exemplar newExemplar(long time, int timeMs, InvocationData data) {
+		long startTime = highRes ? System.currentTimeMillis() - timeMs : data.getWallClockStartTime();
+		String arguments = null;
+		if(exemplarArgs!=null) {
+			StringBuilder b = new StringBuilder();
+			for(int index: exemplarArgs) {
+				if(b.length() > 0) b.append(", ");
+				String arg = null;
+				try {
+					arg = data.getInvocationParameterAsString(index);
+				} catch (Exception e) {
+					arg = "?";
+				}
+				if(arg!=null && arg.length() > MAX_EXEMPLAR_ARG_LENGTH) {
+					arg = arg.substring(0, MAX_EXEMPLAR_ARG_LENGTH) + "...";
+				}
+				b.append(arg);
+			}
+			arguments = b.toString();
+		}
+		return new ExemplarHeap.Exemplar(time, startTime, Thread.currentThread().getName(), arguments);
+	}
+
+	/**
+	 * Returns the slowest invocations of a metric in the last calculated interval
+	 * @param metricName The resolved metric name
+	 * @return the slowest invocations, slowest first, empty if the metric is not traced or none were retained
+	 */
+	public ExemplarHeap.Exemplar[] getExemplars(String metricName) {
+		CtileMetricAccumulator cma = registry.get(metricName);
+		return cma==null ? ExemplarHeap.EMPTY : cma.getLastExemplars();
+	}
+
+	/**
+	 * Creates the interval log if a directory is configured
+	 * @param value The interval log directory, or null
+	 * @return the interval log, or null if none is configured or it cannot be created
+	 */
+	protected IntervalLog initIntervalLog(String value) {
+		if(value==null || value.trim().length()==0) return null;
+		File directory = new File(value.trim());
+		if(!directory.isAbsolute()) {
+			String profile = System.getProperty(AGENT_PROFILE_PROP);
+			File base = profile==null ? null : new File(profile).getAbsoluteFile().getParentFile();
+			directory = new File(base==null ? new File(System.getProperty("user.dir")) : base, value.trim());
+		}
+		long segment = parseBytes(getParameter(INTERVAL_LOG_SEGMENT_PARAM, DEFAULT_INTERVAL_LOG_SEGMENT), parseBytes(DEFAULT_INTERVAL_LOG_SEGMENT, 0));
+		long max = parseBytes(getParameter(INTERVAL_LOG_MAX_PARAM, DEFAULT_INTERVAL_LOG_MAX), parseBytes(DEFAULT_INTERVAL_LOG_MAX, 0));
+		try {
+			IntervalLog intervals = new IntervalLog(directory, formattedResource, segment, max, schedulePeriod, recordUnit, highestTrackableValue, significantDigits, log);
+			log.info("Logging interval histograms to [", directory, "] in [", segment, "] byte segments up to [", max, "] bytes");
+			return intervals;
+		} catch (Exception e) {
+			log.warn("Failed to create interval log in [", directory, "]. Intervals will not be logged.", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the short label of a time unit used in metric names
+	 * @param unit The time unit
+	 * @return <code>ms</code>, <code>us</code> or <code>ns</code>
+	 */
+	protected static String unitLabel(TimeUnit unit) {
+		return unit==TimeUnit.NANOSECONDS ? "ns" : unit==TimeUnit.MICROSECONDS ? "us" : "ms";
+	}
+
+	/**
+	 * Parses a byte size parameter. Accepts a number of bytes optionally suffixed with <code>k</code>, <code>m</code> or <code>g</code>.
+	 * @param value The byte size parameter value
+	 * @param defaultBytes The size to return if the value is null or invalid
+	 * @return the byte size
+	 */
+	protected long parseBytes(String value, long defaultBytes) {
+		if(value==null) return defaultBytes;
+		String s = value.trim().toLowerCase();
+		long multiplier = 1;
+		if(s.endsWith("k") || s.endsWith("m") || s.endsWith("g")) {
+			char suffix = s.charAt(s.length()-1);
+			multiplier = suffix=='g' ? 1L << 30 : suffix=='m' ? 1L << 20 : 1L << 10;
+			s = s.substring(0, s.length()-1).trim();
+		}
+		try {
+			long bytes = Long.parseLong(s) * multiplier;
+			if(bytes < 0) throw new NumberFormatException();
+			return bytes;
+		} catch (NumberFormatException e) {
+			log.warn("Invalid byte size [", value, "]. Defaulting to [", defaultBytes, "]");
+			return defaultBytes;
+		}
+	}
+	
+	/**
+	 * Parses a time unit parameter. Accepts <code>ms</code>, <code>us</code> and <code>ns</code> or a {@link TimeUnit} name
+	 * of milliseconds or finer.
+	 * @param value The time unit parameter value
+	 * @param defaultUnit The unit to return if the value is null or unrecognized
+	 * @return the time unit
+	 */
+	protected TimeUnit parseTimeUnit(String value, TimeUnit defaultUnit) {
+		if(value==null) return defaultUnit;
+		String unit = value.trim().toLowerCase();
+		if("ms".equals(unit) || "milliseconds".equals(unit)) return TimeUnit.MILLISECONDS;
+		if("us".equals(unit) || "microseconds".equals(unit)) return TimeUnit.MICROSECONDS;
+		if("ns".equals(unit) || "nanoseconds".equals(unit)) return TimeUnit.NANOSECONDS;
+		log.warn("Unrecognized time unit [", value, "]. Defaulting to [", defaultUnit, "]");
+		return defaultUnit;
+	}
+	
+	/**
+	 * Formats a percentile for a resource name, omitting the fraction of whole percentiles. e.g. <code>90</code> or <code>99.9</code>.
+	 * @param percentile The percentile
+	 * @return the formatted percentile
+	 */
+	protected static String formatPercentile(float percentile) {
+		return percentile==(int)percentile ? String.valueOf((int)percentile) : String.valueOf(percentile);
+	}
+
 	/**
 	 * Callback from the agent scheduler on every percentile window period.
 	 * 
@@ -181,18 +844,37 @@ public class MethodTimerCtile extends BaseSingleMetricTracerFactory {
 	 * @see com.wily.util.heartbeat.ITimestampedRunnable#ITimestampedRunnable_execute(long)
 	 */
 	public void ITimestampedRunnable_execute(long t) {
+		// The heartbeat may fire before the constructor completes
+		if(publisher==null) return;
+		if(calculator!=null) {
+			calculator.tick(t);
+			return;
+		}
 		long start = System.currentTimeMillis();
 		int count = 0;
-		alternator.set(!alternator.get());
-		for (Entry<String, CtileMetricAccumulator> acc : accumulators.entrySet()) {
-			try {
-				log.debug("Interval Calc Percentile Issuing for [" , acc.getKey() , "]");
-				acc.getValue().calcAndPublishInterval(metricNameMap);
-				count++;
-			} catch (Exception e) {
-				log.error("Interval Calc Percentile Failure for [" , acc.getKey(), "]", e);				
+		phaser.readerLock();
+		try {
+			// Switches writers to the other interval accumulators and waits for in-flight writers of the closing interval
+			phaser.flipPhase();
+			// Read the count before the array so every counted id is present
+			int metrics = registry.getMetricCount();
+			CtileMetricAccumulator[] byId = registry.getAccumulators();
+			for (int metricId = 0; metricId < metrics; metricId++) {
+				CtileMetricAccumulator acc = byId[metricId];
+				// Evicted metric ids are empty until reused
+				if(acc==null) continue;
+				try {
+					log.debug("Interval Calc Percentile Issuing for [" , acc.getMetricName() , "]");
+					acc.calcAndPublishInterval(publisher, t);
+					count++;
+				} catch (Exception e) {
+					log.error("Interval Calc Percentile Failure for [" , acc.getMetricName(), "]", e);				
+				}
 			}
+		} finally {
+			phaser.readerUnlock();
 		}
+		maintain();
 //		long elapsed = System.currentTimeMillis() - start;
 //		if (debug) {
 //			getDataAccumulatorFactory().safeGetLongAverageDataAccumulator(
@@ -208,22 +890,176 @@ public class MethodTimerCtile extends BaseSingleMetricTracerFactory {
 	}
 
 	/**
-	 * Acquires the current interval accumulator.
-	 * @param counterName
-	 * @return
+	 * Resolves the interval accumulator for an invocation. When metric names are constant per probe, the metric id
+	 * is cached against the invocation's probe information and the accumulator is read from the id indexed array,
+	 * so the name is only formatted on the first invocation of each probe.
+	 * @param data The invocation data
+	 * @return the interval accumulator
 	 */
-	protected CtileMetricAccumulator getCtileMetricAccumulator(String counterName) {
-		CtileMetricAccumulator cma = accumulators.get(counterName);
-		if (cma == null) {
-			log.debug("Creating CtileMetricAccumulator for [", counterName, "]" );
-			try {
-				cma = new CtileMetricAccumulator(percentile, alternator, tracePerformance, DEBUG, log);
-				accumulators.put(counterName, cma);
-			} catch (Throwable e) {
-				e.printStackTrace(System.err);
-				throw new RuntimeException("Failed to create CtileMetricAccumulator for [" + counterName + "]", e);
+	protected CtileMetricAccumulator resolveCtileMetricAccumulator(InvocationData data) {
+		Object probeKey = probeMetricIds==null ? null : data.getProbeInformation();
+		if(probeKey!=null) {
+			int metricId = probeMetricIds.get(probeKey);
+			if(metricId!=IdentityIntCache.NO_VALUE) {
+				CtileMetricAccumulator cma = registry.getAccumulators()[metricId];
+				// Null if evicted since the id was cached
+				if(cma!=null) return cma;
 			}
 		}
+		CtileMetricAccumulator cma = getCtileMetricAccumulator(nameFormatter.INameFormatter_format(formattedResource, data));
+		if(probeKey!=null) {
+			probeMetricIds.put(probeKey, cma.getMetricId());
+		}
+		return cma;
+	}
+
+	/**
+	 * Evicts the accumulators that saw no elapsed times for the configured number of idle periods, and every
+	 * {@link #TRIM_PERIODS} passes shrinks the buffers of the rest. Evicted ids are quarantined for one pass before reuse,
+	 * so a writer that read an id from the probe cache just before it was cleared cannot record into the id's next metric.
+	 * Runs after each interval calculation, never concurrently with one.
+	 */
+	protected void maintain() {
+		boolean trim = ++maintenancePasses % TRIM_PERIODS == 0;
+		int evicted = 0, shrunk = 0, live = 0;
+		synchronized(registry) {
+			registry.releaseQuarantined();
+			int metrics = registry.getMetricCount();
+			CtileMetricAccumulator[] byId = registry.getAccumulators();
+			for(int metricId = 0; metricId < metrics; metricId++) {
+				CtileMetricAccumulator acc = byId[metricId];
+				if(acc==null) continue;
+				if(idlePeriods > 0 && acc.getIdlePeriods() >= idlePeriods) {
+					registry.evict(metricId);
+					evicted++;
+				} else {
+					live++;
+					if(trim) shrunk += acc.trimBuffers();
+				}
+			}
+			if(evicted > 0 && probeMetricIds!=null) {
+				probeMetricIds.clear();
+			}
+			if(governor!=null) {
+				govern(byId, metrics);
+			}
+		}
+		if(evicted > 0) {
+			log.debug("Evicted [", evicted, "] idle metrics. [", live, "] metrics remain.");
+		}
+		IntervalPublisher.publish(evictedCounter, evicted);
+		if(trim) IntervalPublisher.publish(shrunkCounter, shrunk);
+		IntervalPublisher.publish(metricsCounter, live);
+		IntervalPublisher.publish(foldedCounter, registry.drainFoldedCount());
+	}
+
+	/**
+	 * Reports the memory retained by the accumulators to the governor and, if a budget is exceeded, replaces the heaviest
+	 * unbounded accumulators with histogram accumulators. A replacement keeps the metric id and absorbs the elapsed times
+	 * its predecessor buffered in the current interval at the next calculation. Called during maintenance, under the registry's monitor.
+	 * @param byId The accumulators indexed by metric id
+	 * @param metrics The number of assigned metric ids
+	 */
+	protected void govern(CtileMetricAccumulator[] byId, int metrics) {
+		long[] retained = new long[metrics];
+		long total = 0;
+		int bounded = 0;
+		for(int metricId = 0; metricId < metrics; metricId++) {
+			CtileMetricAccumulator acc = byId[metricId];
+			if(acc==null) {
+				retained[metricId] = -1;
+				continue;
+			}
+			long bytes = acc.getRetainedBytes();
+			total += bytes;
+			if(acc.isBounded()) {
+				retained[metricId] = -1;
+				bounded++;
+			} else {
+				retained[metricId] = bytes;
+			}
+		}
+		long excess = governor.report(total);
+		int[] selected = governor.select(retained, boundedBytes, excess);
+		for(int metricId: selected) {
+			CtileMetricAccumulator acc = byId[metricId];
+			CtileMetricAccumulator replacement = newCtileMetricAccumulator(MODE_HISTOGRAM);
+			replacement.setMetric(metricId, acc.getMetricName());
+			replacement.bindAccumulators(dataAccumulatorFactory);
+			replacement.replace(acc);
+			registry.replace(metricId, replacement);
+			bounded++;
+		}
+		if(selected.length > 0) {
+			log.warn("Retained buffer memory [", total, "] bytes exceeds the budget by [", excess, "] bytes. Switched [", selected.length, "] metrics to histograms.");
+		}
+		IntervalPublisher.publish(retainedCounter, (int)Math.min(Integer.MAX_VALUE, total >> 10));
+		IntervalPublisher.publish(triggersCounter, (int)Math.min(Integer.MAX_VALUE, governor.getTriggers()));
+		IntervalPublisher.publish(boundedCounter, bounded);
+	}
+
+	/**
+	 * Returns the interval accumulator for the passed metric id
+	 * @param metricId The dense metric id
+	 * @return the interval accumulator or null if the id is not assigned or was evicted
+	 */
+	public CtileMetricAccumulator getCtileMetricAccumulator(int metricId) {
+		return registry.get(metricId);
+	}
+
+	/**
+	 * Acquires the current interval accumulator, creating it and assigning it the next metric id if it does not exist.
+	 * Names past the cardinality cap fold into the overflow metric.
+	 * @param counterName The metric name
+	 * @return the interval accumulator
+	 */
+	protected CtileMetricAccumulator getCtileMetricAccumulator(String counterName) {
+		return registry.getOrCreate(counterName);
+	}
+	
+	/**
+	 * Creates a new CtileMetricAccumulator for the configured mode.
+	 * @return a new CtileMetricAccumulator
+	 */
+	protected CtileMetricAccumulator newCtileMetricAccumulator() {
+		return newCtileMetricAccumulator(mode);
+	}
+	
+	/**
+	 * Creates a new CtileMetricAccumulator for the passed mode.
+	 * @param mode The accumulator mode
+	 * @return a new CtileMetricAccumulator
+	 */
+	protected CtileMetricAccumulator newCtileMetricAccumulator(String mode) {
+		CtileMetricAccumulator cma = null;
+		if(MODE_HISTOGRAM.equals(mode)) {
+			cma = new HistogramCtileMetricAccumulator(percentiles, phaser, recordUnit, publishUnit, highestTrackableValue, significantDigits, tracePerformance, DEBUG, log);
+		} else if(MODE_SKETCH.equals(mode)) {
+			cma = new SketchCtileMetricAccumulator(percentiles, phaser, recordUnit, publishUnit, compression, tracePerformance, DEBUG, log);
+		} else if(MODE_SAMPLING.equals(mode)) {
+			cma = new SamplingCtileMetricAccumulator(percentiles, phaser, recordUnit, publishUnit, sampleSize, tracePerformance, DEBUG, log);
+		} else if(MODE_OFFHEAP.equals(mode)) {
+			cma = new OffHeapCtileMetricAccumulator(percentiles, phaser, recordUnit, publishUnit, tracePerformance, DEBUG, log);
+		} else if(highRes) {
+			cma = new HighResCtileMetricAccumulator(percentiles, phaser, recordUnit, publishUnit, tracePerformance, DEBUG, log);
+		} else {
+			cma = new CtileMetricAccumulator(percentiles, phaser, recordUnit, publishUnit, tracePerformance, DEBUG, log);
+		}
+		if(rollingWindows!=null) {
+			cma.setRollingWindows(rollingWindows);
+		}
+		if(heatmap!=null) {
+			cma.setHeatmap(heatmap);
+		}
+		if(intervalLog!=null) {
+			cma.setIntervalLog(intervalLog);
+		}
+		if(exemplarCount > 0) {
+			cma.setExemplars(exemplarCount);
+		}
+		if(expectedInterval > 0 && cma.isCorrectable()) {
+			cma.setExpectedInterval(expectedInterval);
+		}
 		return cma;
 	}
 	
@@ -289,7 +1125,11 @@ public class MethodTimerCtile extends BaseSingleMetricTracerFactory {
 	 *      com.wily.introscope.agent.trace.InvocationData)
 	 */
 	public void ITracer_startTrace(int tracerIndex, InvocationData data) {
-		data.storeWallClockStartTime();		
+		if(highRes) {
+			timerStack.push();
+		} else {
+			data.storeWallClockStartTime();
+		}
 	}
 
 	/**
@@ -301,13 +1141,25 @@ public class MethodTimerCtile extends BaseSingleMetricTracerFactory {
 	 *      com.wily.introscope.agent.trace.InvocationData)
 	 */
 	public void ITracer_finishTrace(int tracerIndex, InvocationData data) {
-		int time = data.getWallClockElapsedTimeAsInt();
-		String metricName = nameFormatter.INameFormatter_format(formattedResource, data);
-		IIntegerAverageDataAccumulator average = (IIntegerAverageDataAccumulator) dataAccumulatorFactory.safeGetIntegerAverageDataAccumulator(metricName + ":Average Elapsed Time (ms)");
-		if (!average.IDataAccumulator_isShutOff()) {
-			average.IIntegerAggregatingDataAccumulator_recordDataPoint(time);
-		}		
-		getCtileMetricAccumulator(metricName).addElapsedTime(time);
+		long time;
+		int timeMs;
+		if(highRes) {
+			long elapsedNs = timerStack.pop();
+			// No start time was pushed for this invocation on this thread
+			if(elapsedNs==NanoTimerStack.NO_START) return;
+			time = recordUnit.convert(elapsedNs, TimeUnit.NANOSECONDS);
+			timeMs = (int)TimeUnit.NANOSECONDS.toMillis(elapsedNs);
+		} else {
+			timeMs = data.getWallClockElapsedTimeAsInt();
+			time = timeMs;
+		}
+		CtileMetricAccumulator cma = resolveCtileMetricAccumulator(data);
+		cma.recordAverage(timeMs);
+		cma.addElapsedTime(time);
+		// Only invocations slower than the interval's retained exemplars collect their details
+		if(exemplarCount > 0 && cma.admitsExemplar(time)) {
+			cma.addExemplar(newExemplar(time, timeMs, data));
+		}
 	}
 
 
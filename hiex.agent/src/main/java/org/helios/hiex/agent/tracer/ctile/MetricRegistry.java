@@ -0,0 +1,259 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.agent.tracer.ctile;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.helios.hiex.util.FlexiLogger;
+
+/**
+ * <p>Title: MetricRegistry</p>
+ * <p>Description: The interval accumulators of a ctile tracer, by metric name and by dense metric id. An accumulator is created
+ * atomically on the first lookup of its name, so concurrent first calls share one accumulator, and is assigned the lowest free
+ * metric id. Once the cardinality cap is reached, further names fold into the overflow metric. Ids freed by eviction are
+ * quarantined for one maintenance pass before reuse. Creation, eviction and replacement are guarded by the registry's monitor.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.agent.tracer.ctile.MetricRegistry</code></p>
+ */
+public abstract class MetricRegistry {
+	/** Metric name --> interval accumulator map */
+	protected final Map<String, CtileMetricAccumulator> accumulators = new ConcurrentHashMap<String, CtileMetricAccumulator>(100);
+	/** The interval accumulators indexed by dense metric id. Replaced when grown. */
+	protected volatile CtileMetricAccumulator[] accumulatorsById = new CtileMetricAccumulator[16];
+	/** The number of assigned metric ids */
+	protected volatile int metricCount = 0;
+	/** Evicted metric ids that can be reused */
+	protected final TIntArrayList freeMetricIds = new TIntArrayList();
+	/** Metric ids evicted since the last maintenance pass, reusable after the next one */
+	protected final TIntArrayList quarantinedMetricIds = new TIntArrayList();
+	/** The maximum number of distinct metrics, excluding the overflow metric. 0 is unbounded. */
+	protected final int maxMetrics;
+	/** The number of live metrics, excluding the overflow metric */
+	protected volatile int liveMetrics = 0;
+	/** The name of the overflow metric that names past the cardinality cap fold into */
+	protected final String otherMetricName;
+	/** The distinct names folded into the overflow metric since the last drain, bounded by {@link #MAX_FOLDED_NAMES} */
+	protected final Set<String> foldedNames = new HashSet<String>();
+	/** Indicates if the cardinality cap has been reported */
+	protected volatile boolean capReported = false;
+	/** The agent logger */
+	protected final FlexiLogger log;
+
+	/** The maximum number of distinct folded names counted per maintenance pass */
+	public static final int MAX_FOLDED_NAMES = 10000;
+
+	/**
+	 * Creates a new MetricRegistry
+	 * @param maxMetrics The maximum number of distinct metrics, excluding the overflow metric. 0 is unbounded.
+	 * @param otherMetricName The name of the overflow metric
+	 * @param log The agent logger
+	 */
+	public MetricRegistry(int maxMetrics, String otherMetricName, FlexiLogger log) {
+		this.maxMetrics = Math.max(0, maxMetrics);
+		this.otherMetricName = otherMetricName;
+		this.log = log;
+	}
+
+	/**
+	 * Creates the interval accumulator of a new metric. Called under the registry's monitor.
+	 * @param metricId The metric id assigned to the metric
+	 * @param metricName The metric name
+	 * @return the new accumulator, ready to be published to writers
+	 */
+	protected abstract CtileMetricAccumulator newAccumulator(int metricId, String metricName);
+
+	/**
+	 * Returns the interval accumulator for the passed metric id
+	 * @param metricId The dense metric id
+	 * @return the interval accumulator or null if the id is not assigned or was evicted
+	 */
+	public CtileMetricAccumulator get(int metricId) {
+		if(metricId < 0 || metricId >= metricCount) return null;
+		return accumulatorsById[metricId];
+	}
+
+	/**
+	 * Returns the interval accumulator for the passed metric name without creating it
+	 * @param metricName The metric name
+	 * @return the interval accumulator or null if the name is not traced
+	 */
+	public CtileMetricAccumulator get(String metricName) {
+		return accumulators.get(metricName);
+	}
+
+	/**
+	 * Acquires the interval accumulator for the passed metric name, creating it and assigning it the next metric id if it
+	 * does not exist. Creation is atomic, so concurrent first calls for a name share one accumulator. Names past the
+	 * cardinality cap fold into the overflow metric.
+	 * @param metricName The metric name
+	 * @return the interval accumulator
+	 */
+	public CtileMetricAccumulator getOrCreate(String metricName) {
+		CtileMetricAccumulator cma = accumulators.get(metricName);
+		if (cma == null) {
+			if (overCardinality(metricName)) return fold(metricName);
+			synchronized(this) {
+				cma = accumulators.get(metricName);
+				if (cma == null) {
+					if (overCardinality(metricName)) return fold(metricName);
+					log.debug("Creating CtileMetricAccumulator for [", metricName, "]" );
+					try {
+						boolean reused = !freeMetricIds.isEmpty();
+						int metricId = reused ? freeMetricIds.get(freeMetricIds.size()-1) : metricCount;
+						cma = newAccumulator(metricId, metricName);
+						if(reused) freeMetricIds.removeAt(freeMetricIds.size()-1);
+						CtileMetricAccumulator[] byId = accumulatorsById;
+						if(metricId==byId.length) {
+							byId = Arrays.copyOf(byId, metricId << 1);
+						}
+						byId[metricId] = cma;
+						accumulatorsById = byId;
+						if(metricId==metricCount) {
+							metricCount = metricId + 1;
+						}
+						if(!metricName.equals(otherMetricName)) {
+							liveMetrics++;
+						}
+						accumulators.put(metricName, cma);
+					} catch (Throwable e) {
+						throw new RuntimeException("Failed to create CtileMetricAccumulator for [" + metricName + "]", e);
+					}
+				}
+			}
+		}
+		return cma;
+	}
+
+	/**
+	 * Determines if a metric name that has no accumulator is past the cardinality cap
+	 * @param metricName The metric name
+	 * @return true if the name should be folded into the overflow metric
+	 */
+	protected boolean overCardinality(String metricName) {
+		return maxMetrics > 0 && liveMetrics >= maxMetrics && !metricName.equals(otherMetricName);
+	}
+
+	/**
+	 * Folds a metric name past the cardinality cap into the overflow metric
+	 * @param metricName The folded metric name
+	 * @return the overflow metric's accumulator
+	 */
+	protected CtileMetricAccumulator fold(String metricName) {
+		if(!capReported) {
+			capReported = true;
+			log.warn("Metric cardinality cap of [", maxMetrics, "] reached. Further names fold into [", otherMetricName, "]");
+		}
+		synchronized(foldedNames) {
+			if(foldedNames.size() < MAX_FOLDED_NAMES) foldedNames.add(metricName);
+		}
+		return getOrCreate(otherMetricName);
+	}
+
+	/**
+	 * Evicts the accumulator with the passed metric id. Its id is quarantined until the next {@link #releaseQuarantined()}.
+	 * Must be called under the registry's monitor.
+	 * @param metricId The metric id
+	 */
+	public void evict(int metricId) {
+		CtileMetricAccumulator acc = accumulatorsById[metricId];
+		if(acc==null) return;
+		accumulators.remove(acc.getMetricName());
+		accumulatorsById[metricId] = null;
+		if(!acc.getMetricName().equals(otherMetricName)) {
+			liveMetrics--;
+		}
+		quarantinedMetricIds.add(metricId);
+	}
+
+	/**
+	 * Replaces the accumulator with the passed metric id. Must be called under the registry's monitor.
+	 * @param metricId The metric id
+	 * @param replacement The replacement accumulator, for the same metric name
+	 */
+	public void replace(int metricId, CtileMetricAccumulator replacement) {
+		accumulatorsById[metricId] = replacement;
+		accumulators.put(replacement.getMetricName(), replacement);
+	}
+
+	/**
+	 * Makes the ids evicted before the last call reusable. Called once per maintenance pass, under the registry's monitor,
+	 * so a writer that read an id from a probe cache just before it was evicted cannot record into the id's next metric.
+	 */
+	public void releaseQuarantined() {
+		freeMetricIds.addAll(quarantinedMetricIds);
+		quarantinedMetricIds.resetQuick();
+	}
+
+	/**
+	 * Returns and resets the number of distinct names folded into the overflow metric since the last call
+	 * @return the number of folded names
+	 */
+	public int drainFoldedCount() {
+		synchronized(foldedNames) {
+			int folded = foldedNames.size();
+			foldedNames.clear();
+			return folded;
+		}
+	}
+
+	/**
+	 * Returns the number of assigned metric ids. Read before {@link #getAccumulators()} so every counted id is present.
+	 * @return the metric count
+	 */
+	public int getMetricCount() {
+		return metricCount;
+	}
+
+	/**
+	 * Returns the accumulators indexed by metric id. Evicted ids are null until reused.
+	 * @return the accumulators
+	 */
+	public CtileMetricAccumulator[] getAccumulators() {
+		return accumulatorsById;
+	}
+
+	/**
+	 * Returns the number of live metrics, excluding the overflow metric
+	 * @return the live metric count
+	 */
+	public int getLiveMetrics() {
+		return liveMetrics;
+	}
+
+	/**
+	 * Returns the name of the overflow metric
+	 * @return the overflow metric name
+	 */
+	public String getOtherMetricName() {
+		return otherMetricName;
+	}
+}
@@ -0,0 +1,186 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.agent.tracer.ctile;
+
+import java.nio.IntBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.helios.hiex.util.FlexiLogger;
+import org.helios.hiex.util.collections.DirectIntRecorder;
+import org.helios.hiex.util.collections.DirectIntSelection;
+import org.helios.hiex.util.collections.LongSummary;
+import org.helios.hiex.util.collections.StripedIntRecorder;
+import org.helios.hiex.util.concurrency.WriterReaderPhaser;
+import org.helios.hiex.util.math.LogLinearHistogram;
+import org.helios.hiex.util.math.TDigest;
+
+/**
+ * <p>Title: OffHeapCtileMetricAccumulator</p>
+ * <p>Description: Exact mode CtileMetricAccumulator that buffers elapsed times off heap. Writers append to pooled direct
+ * segments (see {@link DirectIntRecorder}), and each interval the segments are copied into a reused off heap buffer, returned
+ * to the pool, and the percentiles and summary statistics are calculated in place in that buffer. Once the pool and the buffer
+ * have grown to the traffic, buffering and calculating an interval allocates no heap memory, regardless of the call rate.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.agent.tracer.ctile.OffHeapCtileMetricAccumulator</code></p>
+ */
+public class OffHeapCtileMetricAccumulator extends CtileMetricAccumulator {
+	/** The off heap interval accumulator pair used to accumulate elapsed times during an interval window. */
+	protected final DirectIntRecorder[] directIntervalAccumulators = new DirectIntRecorder[] {
+			new DirectIntRecorder(), new DirectIntRecorder() };
+	/** The reader owned off heap buffer the last interval is drained into and calculated in, or null until first used */
+	protected IntBuffer scratch = null;
+	/** The largest number of elapsed times drained since the last trim. Only accessed by the reader. */
+	protected int peak = 0;
+
+	/**
+	 * Creates a new OffHeapCtileMetricAccumulator
+	 * @param percentiles The percentiles to calculate on, in ascending order.
+	 * @param phaser The interval phaser.
+	 * @param recordUnit The unit elapsed times are recorded in.
+	 * @param publishUnit The unit elapsed time metrics are published in.
+	 * @param tracePerformance  Indicates if the percentile calc. elapsed time should be traced
+	 * @param debug Indicates if debug output should be traced
+	 * @param log The agent logger.
+	 */
+	public OffHeapCtileMetricAccumulator(float[] percentiles, WriterReaderPhaser phaser, TimeUnit recordUnit, TimeUnit publishUnit, boolean tracePerformance, boolean debug, FlexiLogger log) {
+		super(percentiles, phaser, recordUnit, publishUnit, tracePerformance, debug, log, null);
+	}
+
+	/**
+	 * The alternate interval's off heap interval Accumulator. Owned by the reader between phase flips.
+	 * @return the alternate DirectIntRecorder
+	 */
+	public DirectIntRecorder getAltDirectIntervalAccumulator() {
+		return directIntervalAccumulators[phaser.inactiveIndex()];
+	}
+
+	/**
+	 * Records an elapsed time in the off heap interval accumulator for the passed phase.
+	 * @param phaseIndex The phase index of the interval accumulator to record into
+	 * @param time The elapsed time of the method invocation in the record unit.
+	 */
+	@Override
+	protected void record(int phaseIndex, long time) {
+		directIntervalAccumulators[phaseIndex].add(toInt(time));
+	}
+
+	/**
+	 * Drains the last interval into the scratch buffer
+	 * @return the number of drained elapsed times
+	 */
+	protected int drainToScratch() {
+		scratch = getAltDirectIntervalAccumulator().drain(scratch);
+		int count = scratch.limit();
+		if(count > peak) peak = count;
+		return count;
+	}
+
+	/**
+	 * Calculates the statistics of the last interval's elapsed times in place in the off heap scratch buffer.
+	 * @param publisher The tracer's publication stage, which assigns the slots
+	 * @param values The zeroed slot values to write into
+	 * @return the number of elapsed times in the interval
+	 * @throws Exception thrown on any calculation error
+	 * @see org.helios.hiex.agent.tracer.ctile.CtileMetricAccumulator#calcInterval(org.helios.hiex.agent.tracer.ctile.IntervalPublisher, int[])
+	 */
+	@Override
+	protected long calcInterval(IntervalPublisher publisher, int[] values) throws Exception {
+		int total = drainToScratch();
+		LogLinearHistogram logged = logHistogram();
+		if(logged!=null) {
+			for(int i = 0; i < total; i++) logged.recordValue(scratch.get(i));
+		}
+		if(rollingWindows!=null) {
+			rollWindows(periodDigest(scratch, total), publisher, values);
+		}
+		if(total < 2) {
+			if(total==1) populateSingle(publisher, values, scratch.get(0));
+			return total;
+		}
+		long[] ctiles = DirectIntSelection.of(scratch, total).percentileRankValues(percentiles);
+		LongSummary summary = DirectIntSelection.summarize(scratch, total, ctiles);
+		populateSlots(publisher, values, ctiles, total, summary.getCountsAtOrBelow(), summary.getMean(), summary.getStdDeviation());
+		return total;
+	}
+
+	/**
+	 * Summarizes a period's off heap elapsed times into the scratch period digest
+	 * @param buffer The period's elapsed times
+	 * @param count The number of elapsed times
+	 * @return the scratch period digest
+	 */
+	protected TDigest periodDigest(IntBuffer buffer, int count) {
+		periodDigest.reset();
+		for(int i = 0; i < count; i++) {
+			periodDigest.add(buffer.get(i));
+		}
+		return periodDigest;
+	}
+
+	/**
+	 * Releases the off heap scratch buffer if it is more than {@link StripedIntRecorder#SHRINK_FACTOR} times larger than the largest
+	 * interval drained since the last trim. The segments are returned to the pool every interval, so there is nothing else to shrink.
+	 * @return 1 if the scratch buffer was released, 0 otherwise
+	 * @see org.helios.hiex.agent.tracer.ctile.CtileMetricAccumulator#trimBuffers()
+	 */
+	@Override
+	public int trimBuffers() {
+		int released = 0;
+		if(scratch!=null && scratch.capacity() > StripedIntRecorder.DEFAULT_STRIPE_CAPACITY && scratch.capacity() > StripedIntRecorder.SHRINK_FACTOR * peak) {
+			// Reallocated at the next drain at the size of that interval
+			scratch = null;
+			released = 1;
+		}
+		peak = 0;
+		return released;
+	}
+
+	/**
+	 * Returns the approximate number of off heap bytes retained by the scratch buffer and the held segments, and the heap bytes of the rolling window ring and carried elapsed times
+	 * @return the retained bytes
+	 * @see org.helios.hiex.agent.tracer.ctile.CtileMetricAccumulator#getRetainedBytes()
+	 */
+	@Override
+	public long getRetainedBytes() {
+		IntBuffer s = scratch;
+		return (s==null ? 0 : (long)s.capacity() * 4) + directIntervalAccumulators[0].getRetainedBytes() + directIntervalAccumulators[1].getRetainedBytes() + getWindowBytes() + getCarriedBytes();
+	}
+
+	/**
+	 * Drains the elapsed times buffered off heap during the last interval
+	 * @return the drained elapsed times in the record unit
+	 * @see org.helios.hiex.agent.tracer.ctile.CtileMetricAccumulator#drainLastInterval()
+	 */
+	@Override
+	protected long[] drainLastInterval() {
+		int count = drainToScratch();
+		long[] longValues = new long[count];
+		for(int i = 0; i < count; i++) {
+			longValues[i] = scratch.get(i);
+		}
+		return longValues;
+	}
+}
@@ -0,0 +1,103 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.agent.tracer.ctile;
+
+/**
+ * <p>Title: RollingWindows</p>
+ * <p>Description: The immutable configuration of the rolling percentile windows published by a ctile tracer's accumulators.
+ * Each window covers a whole number of schedule periods. The windows are held in ascending order so each window contains the
+ * periods of the windows before it, which lets the accumulators merge the period ring once for all the windows.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.agent.tracer.ctile.RollingWindows</code></p>
+ */
+public class RollingWindows {
+	/** The number of periods covered by each window, in ascending order */
+	protected final int[] periods;
+	/** The window labels, indexed by window */
+	protected final String[] labels;
+	/** The full metric names of the windowed percentiles, indexed by window and percentile */
+	protected final String[][] metricNames;
+	/** The compression of the per period digests */
+	protected final double compression;
+
+	/**
+	 * Creates a new RollingWindows
+	 * @param periods The number of periods covered by each window, in ascending order
+	 * @param labels The window labels, indexed by window
+	 * @param metricNames The full metric names of the windowed percentiles, indexed by window and percentile
+	 * @param compression The compression of the per period digests
+	 */
+	public RollingWindows(int[] periods, String[] labels, String[][] metricNames, double compression) {
+		if(periods.length==0) throw new IllegalArgumentException("No windows defined", new Throwable());
+		for(int i = 0; i < periods.length; i++) {
+			if(periods[i] < 1 || (i > 0 && periods[i] < periods[i-1])) throw new IllegalArgumentException("Window periods must be positive and ascending", new Throwable());
+		}
+		this.periods = periods;
+		this.labels = labels;
+		this.metricNames = metricNames;
+		this.compression = compression;
+	}
+
+	/**
+	 * Returns the number of periods covered by each window
+	 * @return the number of periods covered by each window, in ascending order
+	 */
+	public int[] getPeriods() {
+		return periods;
+	}
+
+	/**
+	 * Returns the window labels
+	 * @return the window labels, indexed by window
+	 */
+	public String[] getLabels() {
+		return labels;
+	}
+
+	/**
+	 * Returns the full metric names of the windowed percentiles
+	 * @return the full metric names, indexed by window and percentile
+	 */
+	public String[][] getMetricNames() {
+		return metricNames;
+	}
+
+	/**
+	 * Returns the compression of the per period digests
+	 * @return the compression of the per period digests
+	 */
+	public double getCompression() {
+		return compression;
+	}
+
+	/**
+	 * Returns the number of periods retained in the ring, the number covered by the largest window
+	 * @return the ring size
+	 */
+	public int getRingSize() {
+		return periods[periods.length-1];
+	}
+}
@@ -0,0 +1,238 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.agent.tracer.ctile;
+
+import java.util.concurrent.TimeUnit;
+
+import org.helios.hiex.util.FlexiLogger;
+import org.helios.hiex.util.collections.LongReservoir;
+import org.helios.hiex.util.collections.LongSelection;
+import org.helios.hiex.util.collections.LongSummary;
+import org.helios.hiex.util.concurrency.StripedCounter;
+import org.helios.hiex.util.concurrency.WriterReaderPhaser;
+import org.helios.hiex.util.math.LogLinearHistogram;
+import org.helios.hiex.util.math.SimpleMath;
+
+/**
+ * <p>Title: SamplingCtileMetricAccumulator</p>
+ * <p>Description: CtileMetricAccumulator for extremely hot crosscuts that buffers only a sample of the elapsed times.
+ * Every call is counted and its elapsed time totalled in a {@link StripedCounter}, so the count and mean stay exact, but only
+ * about 1 in N calls, selected pseudo randomly, is offered to a {@link LongReservoir}. N is adapted at each interval close from the call
+ * volume of the closing interval so the offered calls approach the target size. The reservoir holds at most twice the target and keeps
+ * a uniform sample of everything offered, so a traffic surge or a latency shift late in the interval is represented as well as the
+ * start of the interval. The percentiles and standard deviation are estimated from the sample and the counts at or below each
+ * percentile are scaled from the sample to the exact count.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.agent.tracer.ctile.SamplingCtileMetricAccumulator</code></p>
+ */
+public class SamplingCtileMetricAccumulator extends HighResCtileMetricAccumulator {
+	/** The exact call counters and elapsed time totals for each phase */
+	protected final StripedCounter[] callCounters = new StripedCounter[] {
+			new StripedCounter(), new StripedCounter() };
+	/** The sample reservoirs for each phase */
+	protected final LongReservoir[] reservoirs;
+	/** The target number of samples per interval */
+	protected final int targetSamples;
+	/** The maximum number of samples retained per interval */
+	protected final int maxSamples;
+	/** The number of calls of uncalculated intervals carried into the next calculation. Only accessed by the reader. */
+	protected long carriedCalls = 0;
+	/** The total elapsed time of uncalculated intervals carried into the next calculation. Only accessed by the reader. */
+	protected long carriedElapsed = 0;
+	/** The current sampling interval. 1 in this many calls counted by each counter cell is sampled. */
+	protected volatile int samplingInterval = 1;
+
+	/**
+	 * Creates a new SamplingCtileMetricAccumulator
+	 * @param percentiles The percentiles to calculate on, in ascending order.
+	 * @param phaser The interval phaser.
+	 * @param recordUnit The unit elapsed times are recorded in.
+	 * @param publishUnit The unit elapsed time metrics are published in.
+	 * @param targetSamples The target number of samples per interval.
+	 * @param tracePerformance  Indicates if the percentile calc. elapsed time should be traced
+	 * @param debug Indicates if debug output should be traced
+	 * @param log The agent logger.
+	 */
+	public SamplingCtileMetricAccumulator(float[] percentiles, WriterReaderPhaser phaser, TimeUnit recordUnit, TimeUnit publishUnit, int targetSamples, boolean tracePerformance, boolean debug, FlexiLogger log) {
+		super(percentiles, phaser, recordUnit, publishUnit, tracePerformance, debug, log, null);
+		if(targetSamples < 2) throw new IllegalArgumentException("Target samples must be > 1 [" + targetSamples + "]", new Throwable());
+		this.targetSamples = targetSamples;
+		maxSamples = targetSamples > Integer.MAX_VALUE / 2 ? Integer.MAX_VALUE : targetSamples * 2;
+		reservoirs = new LongReservoir[] { new LongReservoir(maxSamples), new LongReservoir(maxSamples) };
+	}
+
+	/**
+	 * Counts the call and offers its elapsed time to the sample reservoir if it is sampled.
+	 * @param phaseIndex The phase index of the counters and reservoir to record into
+	 * @param time The elapsed time of the method invocation in the record unit.
+	 */
+	@Override
+	protected void record(int phaseIndex, long time) {
+		long calls = callCounters[phaseIndex].record(time);
+		// Pseudo random rather than every Nth call, which would alias with periodic workloads
+		if(samplingInterval > 1 && SimpleMath.mix(calls) % samplingInterval != 0) return;
+		reservoirs[phaseIndex].offer(time);
+	}
+
+	/**
+	 * Indicates if the memory this accumulator retains is bounded regardless of traffic
+	 * @return true, the samples buffered per interval are capped
+	 * @see org.helios.hiex.agent.tracer.ctile.CtileMetricAccumulator#isBounded()
+	 */
+	@Override
+	public boolean isBounded() {
+		return true;
+	}
+
+	/**
+	 * The reservoirs are bounded, so there is nothing to shrink
+	 * @return zero
+	 * @see org.helios.hiex.agent.tracer.ctile.HighResCtileMetricAccumulator#trimBuffers()
+	 */
+	@Override
+	public int trimBuffers() {
+		return 0;
+	}
+
+	/**
+	 * Returns the approximate number of bytes retained by the reservoirs, the rolling window ring and the carried sample
+	 * @return the retained bytes
+	 * @see org.helios.hiex.agent.tracer.ctile.HighResCtileMetricAccumulator#getRetainedBytes()
+	 */
+	@Override
+	public long getRetainedBytes() {
+		return reservoirs[0].getRetainedBytes() + reservoirs[1].getRetainedBytes() + getWindowBytes() + getCarriedBytes();
+	}
+
+	/**
+	 * Drains the last interval's sample. The unsampled calls are not represented.
+	 * @return the sampled elapsed times in the record unit
+	 * @see org.helios.hiex.agent.tracer.ctile.HighResCtileMetricAccumulator#drainLastInterval()
+	 */
+	@Override
+	protected long[] drainLastInterval() {
+		return reservoirs[phaser.inactiveIndex()].drain();
+	}
+
+	/**
+	 * Moves the last interval's exact call count and total into the carried totals and its sample into the carried sample
+	 * @see org.helios.hiex.agent.tracer.ctile.CtileMetricAccumulator#carryLastInterval()
+	 */
+	@Override
+	protected void carryLastInterval() {
+		int phaseIndex = phaser.inactiveIndex();
+		carriedCalls += callCounters[phaseIndex].getCount();
+		carriedElapsed += callCounters[phaseIndex].getTotal();
+		callCounters[phaseIndex].reset();
+		super.carryLastInterval();
+	}
+
+	/**
+	 * Offers the carried sample to the last interval's reservoir. The carried calls are counted exactly, but each carried sample
+	 * is offered as a single call, so the percentiles of an interval that absorbs a carried one are approximate.
+	 * @see org.helios.hiex.agent.tracer.ctile.CtileMetricAccumulator#absorbCarried()
+	 */
+	@Override
+	protected void absorbCarried() {
+		long[] samples = carried;
+		if(samples==null) return;
+		carried = null;
+		LongReservoir reservoir = reservoirs[phaser.inactiveIndex()];
+		for(long v: samples) {
+			reservoir.offer(v);
+		}
+	}
+
+	/**
+	 * Returns the current sampling interval
+	 * @return the current sampling interval
+	 */
+	public int getSamplingInterval() {
+		return samplingInterval;
+	}
+
+	/**
+	 * Calculates the interval statistics from the last interval's sample and exact counters into the passed slots, and adapts
+	 * the sampling interval to the last interval's call volume.
+	 * @param publisher The tracer's publication stage, which assigns the slots
+	 * @param values The zeroed slot values to write into
+	 * @return the number of elapsed times in the interval
+	 * @throws Exception thrown on any calculation error
+	 * @see org.helios.hiex.agent.tracer.ctile.HighResCtileMetricAccumulator#calcInterval(org.helios.hiex.agent.tracer.ctile.IntervalPublisher, int[])
+	 */
+	@Override
+	protected long calcInterval(IntervalPublisher publisher, int[] values) throws Exception {
+		int phaseIndex = phaser.inactiveIndex();
+		long calls = callCounters[phaseIndex].getCount() + carriedCalls;
+		long totalElapsed = callCounters[phaseIndex].getTotal() + carriedElapsed;
+		callCounters[phaseIndex].reset();
+		carriedCalls = 0;
+		carriedElapsed = 0;
+		long[] samples = reservoirs[phaseIndex].drain();
+		samplingInterval = (int)Math.min(Integer.MAX_VALUE, Math.max(1L, (calls + targetSamples - 1) / targetSamples));
+		// The number of calls each sample stands for
+		double scale = samples.length==0 ? 0 : (double)calls / samples.length;
+		LogLinearHistogram logged = logHistogram();
+		if(logged!=null) {
+			// Each sample stands for its share of the calls, rounded cumulatively so the logged count is exact
+			long recorded = 0;
+			for(int i = 0; i < samples.length; i++) {
+				long upTo = Math.round((i + 1) * scale);
+				logged.recordValue(samples[i], upTo - recorded);
+				recorded = upTo;
+			}
+		}
+		if(rollingWindows!=null) {
+			periodDigest.reset();
+			for(long v: samples) {
+				periodDigest.add(v, scale);
+			}
+			rollWindows(periodDigest, publisher, values);
+		}
+		if(calls==0) return 0;
+		if(samples.length==0) {
+			// Too few calls to sample any, but the count and mean are exact
+			if(publisher.countSlot!=IntervalPublisher.NO_SLOT) {
+				values[publisher.countSlot] = toInt(calls);
+			}
+			if(publisher.meanSlot!=IntervalPublisher.NO_SLOT) {
+				values[publisher.meanSlot] = toInt(publish((double)totalElapsed / calls));
+			}
+			return calls;
+		}
+		long[] ctiles = LongSelection.percentileRankValues(samples, percentiles);
+		LongSummary summary = LongSummary.summarize(samples, ctiles);
+		int[] below = new int[percentiles.length];
+		for(int i = 0; i < percentiles.length; i++) {
+			below[i] = toInt(Math.min(calls, Math.round(summary.getCountsAtOrBelow()[i] * scale)));
+		}
+		populateSlots(publisher, values, ctiles, toInt(calls), below, (double)totalElapsed / calls, summary.getStdDeviation());
+		if(publisher.sampleRateSlot!=IntervalPublisher.NO_SLOT) {
+			values[publisher.sampleRateSlot] = toInt(Math.round(scale));
+		}
+		return calls;
+	}
+}
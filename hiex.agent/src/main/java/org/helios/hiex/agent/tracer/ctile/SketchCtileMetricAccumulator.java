@@ -0,0 +1,271 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.agent.tracer.ctile;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.helios.hiex.util.FlexiLogger;
+import org.helios.hiex.util.concurrency.WriterReaderPhaser;
+import org.helios.hiex.util.math.LogLinearHistogram;
+import org.helios.hiex.util.math.TDigest;
+
+/**
+ * <p>Title: SketchCtileMetricAccumulator</p>
+ * <p>Description: CtileMetricAccumulator that records elapsed times into {@link TDigest} sketches. The footprint is bounded
+ * by the compression and is independent of the number of elapsed times and of their range, and the tail percentiles stay
+ * accurate across a very large dynamic range. Writers record into one of a small number of striped digests per phase,
+ * claimed with a CAS so no monitor is taken, and the striped digests are merged into a single interval digest when the interval closes.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.agent.tracer.ctile.SketchCtileMetricAccumulator</code></p>
+ */
+public class SketchCtileMetricAccumulator extends CtileMetricAccumulator {
+	/** The striped digests for each phase, allocated on first use */
+	protected final TDigest[][] stripeDigests;
+	/** The stripe busy flags, padded to keep the flags of adjacent stripes on separate cache lines */
+	protected final AtomicIntegerArray busy;
+	/** The stripe index mask */
+	protected final int mask;
+	/** The digest compression */
+	protected final double compression;
+	/** The digest the last interval's striped digests are merged into. Only accessed by the reader. */
+	protected final TDigest intervalDigest;
+	/** The digest the coordinated omission corrected interval is calculated in, created on first use. Only accessed by the reader. */
+	protected TDigest correctedDigest = null;
+	/** The digest uncalculated intervals are carried in, created on first use. Only accessed by the reader. */
+	protected TDigest carriedDigest = null;
+
+	/** The maximum number of stripes per phase. Digests are large relative to a recorder stripe so fewer are kept. */
+	public static final int MAX_STRIPES = 8;
+	/** The number of flag slots per stripe to pad the busy flags by */
+	private static final int PAD = 16;
+
+	/**
+	 * Creates a new SketchCtileMetricAccumulator
+	 * @param percentiles The percentiles to calculate on, in ascending order.
+	 * @param phaser The interval phaser.
+	 * @param recordUnit The unit elapsed times are recorded in.
+	 * @param publishUnit The unit elapsed time metrics are published in.
+	 * @param compression The digest compression.
+	 * @param tracePerformance  Indicates if the percentile calc. elapsed time should be traced
+	 * @param debug Indicates if debug output should be traced
+	 * @param log The agent logger.
+	 */
+	public SketchCtileMetricAccumulator(float[] percentiles, WriterReaderPhaser phaser, TimeUnit recordUnit, TimeUnit publishUnit, double compression, boolean tracePerformance, boolean debug, FlexiLogger log) {
+		super(percentiles, phaser, recordUnit, publishUnit, tracePerformance, debug, log, null);
+		this.compression = compression;
+		intervalDigest = new TDigest(compression);
+		int stripes = 1;
+		while(stripes < Math.min(MAX_STRIPES, Runtime.getRuntime().availableProcessors())) stripes <<= 1;
+		stripeDigests = new TDigest[2][stripes];
+		busy = new AtomicIntegerArray(2 * stripes * PAD);
+		mask = stripes - 1;
+	}
+
+	/**
+	 * Records an elapsed time in one of the passed phase's striped digests. The calling thread claims its preferred stripe,
+	 * or the next unclaimed stripe.
+	 * @param phaseIndex The phase index of the digests to record into
+	 * @param time The elapsed time of the method invocation in the record unit.
+	 */
+	@Override
+	protected void record(int phaseIndex, long time) {
+		TDigest[] digests = stripeDigests[phaseIndex];
+		long id = Thread.currentThread().getId();
+		int index = (int)(id ^ (id >>> 32)) * 0x9E3779B9;
+		index ^= index >>> 16;
+		for(int attempts = 0;; attempts++) {
+			int stripe = index & mask;
+			int flag = (phaseIndex * digests.length + stripe) * PAD;
+			if(busy.get(flag)==0 && busy.compareAndSet(flag, 0, 1)) {
+				try {
+					TDigest digest = digests[stripe];
+					if(digest==null) {
+						digest = digests[stripe] = new TDigest(compression);
+					}
+					digest.add(time);
+				} finally {
+					busy.lazySet(flag, 0);
+				}
+				return;
+			}
+			index++;
+			if(attempts > mask) {
+				// Every stripe was claimed. Back off before the next sweep.
+				attempts = 0;
+				Thread.yield();
+			}
+		}
+	}
+
+	/**
+	 * Merges the carried digest and the last interval's striped digests into the interval digest and resets them.
+	 * The phaser guarantees no writer is recording into the inactive phase's digests.
+	 * @return the merged interval digest
+	 */
+	protected TDigest mergeInterval() {
+		int phaseIndex = phaser.inactiveIndex();
+		TDigest[] digests = stripeDigests[phaseIndex];
+		intervalDigest.reset();
+		if(carriedDigest!=null && carriedDigest.getTotalCount() > 0) {
+			intervalDigest.add(carriedDigest);
+			carriedDigest.reset();
+		}
+		for(int stripe = 0; stripe < digests.length; stripe++) {
+			int flag = (phaseIndex * digests.length + stripe) * PAD;
+			// Acquire the stripe's last writes
+			busy.get(flag);
+			TDigest digest = digests[stripe];
+			if(digest!=null) {
+				intervalDigest.add(digest);
+				digest.reset();
+			}
+		}
+		return intervalDigest;
+	}
+
+	/**
+	 * Merges the last interval's striped digests into the carried digest
+	 * @see org.helios.hiex.agent.tracer.ctile.CtileMetricAccumulator#carryLastInterval()
+	 */
+	@Override
+	protected void carryLastInterval() {
+		TDigest lastInterval = mergeInterval();
+		if(carriedDigest==null) {
+			carriedDigest = new TDigest(compression);
+		}
+		carriedDigest.add(lastInterval);
+	}
+
+	/**
+	 * Calculates the interval statistics from the merged interval digest into the passed slots.
+	 * @param publisher The tracer's publication stage, which assigns the slots
+	 * @param values The zeroed slot values to write into
+	 * @return the number of elapsed times in the interval
+	 * @throws Exception thrown on any calculation error
+	 * @see org.helios.hiex.agent.tracer.ctile.CtileMetricAccumulator#calcInterval(org.helios.hiex.agent.tracer.ctile.IntervalPublisher, int[])
+	 */
+	@Override
+	protected long calcInterval(IntervalPublisher publisher, int[] values) throws Exception {
+		TDigest lastInterval = mergeInterval();
+		LogLinearHistogram logged = logHistogram();
+		if(logged!=null) {
+			lastInterval.addTo(logged);
+		}
+		if(rollingWindows!=null) {
+			rollWindows(lastInterval, publisher, values);
+		}
+		long total = lastInterval.getTotalCount();
+		if(total > 0 && expectedInterval > 0 && publisher.correctedSlots!=null) {
+			calcCorrected(lastInterval, publisher, values);
+		}
+		if(total < 2) {
+			if(total==1) populateSingle(publisher, values, Math.round(lastInterval.getMean()));
+			return total;
+		}
+		double[] estimates = lastInterval.percentiles(percentiles);
+		long[] ctiles = new long[percentiles.length];
+		int[] below = new int[percentiles.length];
+		for(int i = 0; i < percentiles.length; i++) {
+			ctiles[i] = Math.round(estimates[i]);
+			below[i] = toInt(Math.round(lastInterval.countAtOrBelow(ctiles[i])));
+		}
+		populateSlots(publisher, values, ctiles, toInt(total), below, lastInterval.getMean(), lastInterval.getStdDeviation());
+		return total;
+	}
+
+	/**
+	 * Indicates if this accumulator calculates coordinated omission corrected percentiles
+	 * @return true
+	 * @see org.helios.hiex.agent.tracer.ctile.CtileMetricAccumulator#isCorrectable()
+	 */
+	@Override
+	public boolean isCorrectable() {
+		return true;
+	}
+
+	/**
+	 * Calculates the coordinated omission corrected percentiles of the last interval into the corrected percentile slots.
+	 * Calculated even for a single elapsed time, since a single stall is what the correction accounts for.
+	 * @param lastInterval The last interval's merged digest
+	 * @param publisher The tracer's publication stage, which assigns the slots
+	 * @param values The slot values to write into
+	 */
+	protected void calcCorrected(TDigest lastInterval, IntervalPublisher publisher, int[] values) {
+		TDigest corrected = correctedDigest;
+		if(corrected==null) {
+			corrected = correctedDigest = new TDigest(compression);
+		} else {
+			corrected.reset();
+		}
+		corrected.addCorrected(lastInterval, expectedInterval);
+		double[] estimates = corrected.percentiles(percentiles);
+		long[] ctiles = new long[percentiles.length];
+		for(int i = 0; i < percentiles.length; i++) {
+			ctiles[i] = Math.round(estimates[i]);
+		}
+		populateCorrectedSlots(publisher, values, ctiles);
+	}
+
+	/**
+	 * The stripe digests are bounded by the compression, so there is nothing to shrink
+	 * @return zero
+	 * @see org.helios.hiex.agent.tracer.ctile.CtileMetricAccumulator#trimBuffers()
+	 */
+	@Override
+	public int trimBuffers() {
+		return 0;
+	}
+
+	/**
+	 * Returns the approximate number of bytes retained by the stripe digests, the interval, corrected and carried digests and the rolling window ring
+	 * @return the retained bytes
+	 * @see org.helios.hiex.agent.tracer.ctile.CtileMetricAccumulator#getRetainedBytes()
+	 */
+	@Override
+	public long getRetainedBytes() {
+		long bytes = intervalDigest.getEstimatedFootprintInBytes() + getWindowBytes();
+		TDigest corrected = correctedDigest, carriedOver = carriedDigest;
+		if(corrected!=null) bytes += corrected.getEstimatedFootprintInBytes();
+		if(carriedOver!=null) bytes += carriedOver.getEstimatedFootprintInBytes();
+		for(TDigest[] phase: stripeDigests) {
+			for(TDigest digest: phase) {
+				if(digest!=null) bytes += digest.getEstimatedFootprintInBytes();
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Indicates if the memory this accumulator retains is bounded regardless of traffic
+	 * @return true, digests are bounded by the compression
+	 * @see org.helios.hiex.agent.tracer.ctile.CtileMetricAccumulator#isBounded()
+	 */
+	@Override
+	public boolean isBounded() {
+		return true;
+	}
+}
@@ -0,0 +1,165 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.agent.tracer.sla;
+
+import java.util.Arrays;
+
+import org.helios.hiex.util.concurrency.StripedCounter;
+
+/**
+ * <p>Title: SlaCounters</p>
+ * <p>Description: Counts elapsed times into the buckets between a fixed, ascending set of boundaries in ms. Bucket <code>i</code>
+ * counts elapsed times above boundary <code>i-1</code> and at or below boundary <code>i</code>, and the last bucket counts
+ * elapsed times above the highest boundary. Elapsed times up to {@link #MAX_LOOKUP} ms are mapped to their bucket by a
+ * lookup table, so recording is an array read and a striped counter increment and the memory retained does not depend on traffic.
+ * The bucket counts are cumulative and never reset, so an interval's counts are the difference from the previous interval's and
+ * no concurrently recorded elapsed time is lost.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.agent.tracer.sla.SlaCounters</code></p>
+ */
+public class SlaCounters {
+	/** The ascending, distinct bucket boundaries in ms */
+	protected final int[] boundaries;
+	/** The bucket counters, one more than the number of boundaries */
+	protected final StripedCounter[] counters;
+	/** The bucket index of every elapsed time from 0 up to the highest boundary, or null if the highest boundary exceeds {@link #MAX_LOOKUP} */
+	protected final byte[] lookup;
+	/** The cumulative bucket counts at the end of the last interval. Only accessed by the reader. */
+	protected final long[] lastCounts;
+
+	/** The highest boundary in ms mapped by a lookup table. Higher boundaries are searched for. */
+	public static final int MAX_LOOKUP = 65536;
+	/** The most boundaries supported, so a bucket index fits in a byte */
+	public static final int MAX_BOUNDARIES = 127;
+
+	/**
+	 * Creates a new SlaCounters
+	 * @param boundaries The bucket boundaries in ms. Sorted and de-duplicated.
+	 */
+	public SlaCounters(int... boundaries) {
+		if(boundaries==null || boundaries.length==0) throw new IllegalArgumentException("At least one boundary is required", new Throwable());
+		int[] b = boundaries.clone();
+		Arrays.sort(b);
+		int count = 0;
+		for(int i = 0; i < b.length; i++) {
+			if(b[i] < 0) throw new IllegalArgumentException("Boundaries must be >= 0 [" + b[i] + "]", new Throwable());
+			if(count==0 || b[count-1]!=b[i]) b[count++] = b[i];
+		}
+		if(count > MAX_BOUNDARIES) throw new IllegalArgumentException("Too many boundaries [" + count + "]. The maximum is [" + MAX_BOUNDARIES + "]", new Throwable());
+		this.boundaries = Arrays.copyOf(b, count);
+		counters = new StripedCounter[count + 1];
+		for(int i = 0; i <= count; i++) {
+			counters[i] = new StripedCounter();
+		}
+		lastCounts = new long[count + 1];
+		int highest = this.boundaries[count-1];
+		if(highest <= MAX_LOOKUP) {
+			lookup = new byte[highest + 1];
+			int bucket = 0;
+			for(int t = 0; t <= highest; t++) {
+				if(t > this.boundaries[bucket]) bucket++;
+				lookup[t] = (byte)bucket;
+			}
+		} else {
+			lookup = null;
+		}
+	}
+
+	/**
+	 * Returns the bucket index of an elapsed time
+	 * @param elapsedMs The elapsed time in ms
+	 * @return the bucket index
+	 */
+	public int bucketOf(int elapsedMs) {
+		if(elapsedMs < 0) elapsedMs = 0;
+		if(elapsedMs > boundaries[boundaries.length-1]) return boundaries.length;
+		if(lookup!=null) return lookup[elapsedMs];
+		int index = Arrays.binarySearch(boundaries, elapsedMs);
+		return index < 0 ? -index - 1 : index;
+	}
+
+	/**
+	 * Counts an elapsed time in its bucket
+	 * @param elapsedMs The elapsed time in ms
+	 */
+	public void record(int elapsedMs) {
+		counters[bucketOf(elapsedMs)].record(elapsedMs);
+	}
+
+	/**
+	 * Returns the number of elapsed times counted in each bucket since the last call. Must only be called by one thread at a time.
+	 * @return the interval bucket counts
+	 */
+	public long[] interval() {
+		long[] counts = new long[counters.length];
+		for(int i = 0; i < counters.length; i++) {
+			long cumulative = counters[i].getCount();
+			counts[i] = cumulative - lastCounts[i];
+			lastCounts[i] = cumulative;
+		}
+		return counts;
+	}
+
+	/**
+	 * Returns the index of a boundary
+	 * @param boundary The boundary in ms
+	 * @return the boundary's index, or a negative value if it is not a boundary
+	 */
+	public int indexOf(int boundary) {
+		return Arrays.binarySearch(boundaries, boundary);
+	}
+
+	/**
+	 * Sums the interval bucket counts at or below a boundary
+	 * @param counts The interval bucket counts
+	 * @param boundaryIndex The boundary's index
+	 * @return the number of elapsed times at or below the boundary
+	 */
+	public static long countAtOrBelow(long[] counts, int boundaryIndex) {
+		long count = 0;
+		for(int i = 0; i <= boundaryIndex; i++) {
+			count += counts[i];
+		}
+		return count;
+	}
+
+	/**
+	 * Sums all the interval bucket counts
+	 * @param counts The interval bucket counts
+	 * @return the number of elapsed times in the interval
+	 */
+	public static long total(long[] counts) {
+		return countAtOrBelow(counts, counts.length-1);
+	}
+
+	/**
+	 * Returns the bucket boundaries
+	 * @return a copy of the ascending bucket boundaries in ms
+	 */
+	public int[] getBoundaries() {
+		return boundaries.clone();
+	}
+}
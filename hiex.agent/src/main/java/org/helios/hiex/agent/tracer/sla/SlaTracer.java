@@ -0,0 +1,222 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.agent.tracer.sla;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.helios.hiex.agent.tracer.base.BaseSingleMetricTracerFactory;
+import org.helios.hiex.agent.tracer.ctile.IntervalPublisher;
+
+import com.wily.introscope.agent.IAgent;
+import com.wily.introscope.agent.stat.IIntegerFluctuatingCounterDataAccumulator;
+import com.wily.introscope.agent.trace.InvocationData;
+import com.wily.introscope.agent.trace.ProbeIdentification;
+import com.wily.util.properties.AttributeListing;
+
+/**
+ * <p>Title: SlaTracer</p>
+ * <p>Description: Tracer that counts the calls exceeding a list of elapsed time thresholds and calculates an Apdex score from a
+ * satisfied and tolerating threshold pair, without buffering elapsed times. Each call increments one striped bucket counter
+ * (see {@link SlaCounters}), and every schedule period the tracer publishes the count and percentage of calls over each threshold,
+ * the satisfied, tolerating and frustrated counts and the Apdex score, <code>(satisfied + tolerating/2) / count</code>, scaled to 0-100. An interval with no calls
+ * scores 100, since no call missed the SLA, so an idle crosscut never reads as frustrated or repeats a previous interval's score.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.agent.tracer.sla.SlaTracer</code></p>
+ */
+
+public class SlaTracer extends BaseSingleMetricTracerFactory {
+	/** The elapsed time bucket counters */
+	protected final SlaCounters counters;
+	/** The exceedance thresholds in ms, ascending */
+	protected final int[] thresholds;
+	/** The boundary index of each exceedance threshold */
+	protected final int[] thresholdIndexes;
+	/** The boundary index of the satisfied threshold */
+	protected final int satisfiedIndex;
+	/** The boundary index of the tolerating threshold */
+	protected final int toleratingIndex;
+
+	/** The count of calls over each threshold */
+	protected final IIntegerFluctuatingCounterDataAccumulator[] overCounters;
+	/** The percentage of calls over each threshold */
+	protected final IIntegerFluctuatingCounterDataAccumulator[] overPercentCounters;
+	/** The count of calls */
+	protected final IIntegerFluctuatingCounterDataAccumulator countCounter;
+	/** The count of satisfied calls */
+	protected final IIntegerFluctuatingCounterDataAccumulator satisfiedCounter;
+	/** The count of tolerating calls */
+	protected final IIntegerFluctuatingCounterDataAccumulator toleratingCounter;
+	/** The count of frustrated calls */
+	protected final IIntegerFluctuatingCounterDataAccumulator frustratedCounter;
+	/** The Apdex score, scaled to 0-100 */
+	protected final IIntegerFluctuatingCounterDataAccumulator apdexCounter;
+
+	/** Configuration param name for the comma separated exceedance thresholds in ms */
+	public static final String THRESHOLDS_PARAM = "thresholds";
+	/** Configuration param name for the Apdex satisfied threshold in ms */
+	public static final String SATISFIED_PARAM = "satisfied";
+	/** Configuration param name for the Apdex tolerating threshold in ms. Defaults to 4 times the satisfied threshold. */
+	public static final String TOLERATING_PARAM = "tolerating";
+	/** The default Apdex satisfied threshold in ms */
+	public static final int DEFAULT_SATISFIED = 500;
+	/** The default ratio of the tolerating threshold to the satisfied threshold */
+	public static final int TOLERATING_RATIO = 4;
+
+	/**
+	 * Creates a new SlaTracer
+	 * @param agent A reference to the agent
+	 * @param parameters The tracer configuration parameters
+	 * @param probe The crosscut details
+	 * @param sampleTracedObject A sample instance of the crosscut method's class
+	 */
+	public SlaTracer(IAgent agent, AttributeListing parameters, ProbeIdentification probe, Object sampleTracedObject) {
+		super(agent, parameters, probe, sampleTracedObject);
+		thresholds = parseThresholds(getParameter(THRESHOLDS_PARAM, null));
+		int satisfied = getParameter(SATISFIED_PARAM, DEFAULT_SATISFIED);
+		if(satisfied < 0) {
+			log.warn("Satisfied threshold [", satisfied, "] must be >= 0. Defaulting to [", DEFAULT_SATISFIED, "]");
+			satisfied = DEFAULT_SATISFIED;
+		}
+		int tolerating = getParameter(TOLERATING_PARAM, satisfied * TOLERATING_RATIO);
+		if(tolerating < satisfied) {
+			log.warn("Tolerating threshold [", tolerating, "] must be >= the satisfied threshold [", satisfied, "]. Defaulting to [", satisfied * TOLERATING_RATIO, "]");
+			tolerating = satisfied * TOLERATING_RATIO;
+		}
+		int[] boundaries = Arrays.copyOf(thresholds, thresholds.length + 2);
+		boundaries[thresholds.length] = satisfied;
+		boundaries[thresholds.length + 1] = tolerating;
+		counters = new SlaCounters(boundaries);
+		thresholdIndexes = new int[thresholds.length];
+		overCounters = new IIntegerFluctuatingCounterDataAccumulator[thresholds.length];
+		overPercentCounters = new IIntegerFluctuatingCounterDataAccumulator[thresholds.length];
+		String name = getFormattedName();
+		List<String> metricNames = new ArrayList<String>();
+		for(int i = 0; i < thresholds.length; i++) {
+			thresholdIndexes[i] = counters.indexOf(thresholds[i]);
+			overCounters[i] = IntervalPublisher.counter(dataAccumulatorFactory, metricName(name, "Count Over " + thresholds[i] + " ms", metricNames));
+			overPercentCounters[i] = IntervalPublisher.counter(dataAccumulatorFactory, metricName(name, "% Over " + thresholds[i] + " ms", metricNames));
+		}
+		satisfiedIndex = counters.indexOf(satisfied);
+		toleratingIndex = counters.indexOf(tolerating);
+		countCounter = IntervalPublisher.counter(dataAccumulatorFactory, metricName(name, "Count", metricNames));
+		satisfiedCounter = IntervalPublisher.counter(dataAccumulatorFactory, metricName(name, "Satisfied Count", metricNames));
+		toleratingCounter = IntervalPublisher.counter(dataAccumulatorFactory, metricName(name, "Tolerating Count", metricNames));
+		frustratedCounter = IntervalPublisher.counter(dataAccumulatorFactory, metricName(name, "Frustrated Count", metricNames));
+		apdexCounter = IntervalPublisher.counter(dataAccumulatorFactory, metricName(name, "Apdex Score", metricNames));
+		registerMetricGroup(name, metricNames);
+		if(schedulePeriod < 1) {
+			log.warn("No schedule period configured. SLA metrics will not be published.");
+		}
+		log.info("SLA thresholds ", Arrays.toString(thresholds), " ms, Apdex satisfied [", satisfied, "] ms, tolerating [", tolerating, "] ms");
+	}
+
+	/**
+	 * Parses a comma separated list of thresholds in ms, skipping invalid entries
+	 * @param value The comma separated list
+	 * @return the distinct thresholds, ascending
+	 */
+	protected int[] parseThresholds(String value) {
+		if(value==null || value.trim().length()==0) return new int[0];
+		String[] frags = value.split(",");
+		int[] parsed = new int[frags.length];
+		int count = 0;
+		for(String frag: frags) {
+			try {
+				int threshold = Integer.parseInt(frag.trim());
+				if(threshold < 0) throw new NumberFormatException();
+				parsed[count++] = threshold;
+			} catch (NumberFormatException e) {
+				log.warn("Invalid threshold [", frag, "]. Ignoring.");
+			}
+		}
+		parsed = Arrays.copyOf(parsed, count);
+		Arrays.sort(parsed);
+		count = 0;
+		for(int i = 0; i < parsed.length; i++) {
+			if(count==0 || parsed[count-1]!=parsed[i]) parsed[count++] = parsed[i];
+		}
+		return Arrays.copyOf(parsed, count);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.wily.introscope.agent.trace.ITracer#ITracer_startTrace(int, com.wily.introscope.agent.trace.InvocationData)
+	 */
+	@Override
+	public void ITracer_startTrace(int tracerIndex, InvocationData data) {
+		data.storeWallClockStartTime();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.wily.introscope.agent.trace.ITracer#ITracer_finishTrace(int, com.wily.introscope.agent.trace.InvocationData)
+	 */
+	@Override
+	public void ITracer_finishTrace(int tracerIndex, InvocationData data) {
+		counters.record(data.getWallClockElapsedTimeAsInt());
+	}
+
+	/**
+	 * Publishes the interval's exceedance counts and percentages and the Apdex score.
+	 * An interval with no calls publishes an Apdex score of 100, so an idle crosscut raises no SLA alert and never repeats a previous interval's score.
+	 * @param timestamp The heartbeat timestamp
+	 * @see com.wily.util.heartbeat.ITimestampedRunnable#ITimestampedRunnable_execute(long)
+	 */
+	@Override
+	public void ITimestampedRunnable_execute(long timestamp) {
+		long[] counts = counters.interval();
+		long total = SlaCounters.total(counts);
+		for(int i = 0; i < thresholds.length; i++) {
+			long over = total - SlaCounters.countAtOrBelow(counts, thresholdIndexes[i]);
+			IntervalPublisher.publish(overCounters[i], over);
+			IntervalPublisher.publish(overPercentCounters[i], total==0 ? 0 : (int)Math.round(over * 100d / total));
+		}
+		long satisfied = SlaCounters.countAtOrBelow(counts, satisfiedIndex);
+		long tolerating = SlaCounters.countAtOrBelow(counts, toleratingIndex) - satisfied;
+		IntervalPublisher.publish(countCounter, total);
+		IntervalPublisher.publish(satisfiedCounter, satisfied);
+		IntervalPublisher.publish(toleratingCounter, tolerating);
+		IntervalPublisher.publish(frustratedCounter, total - satisfied - tolerating);
+		IntervalPublisher.publish(apdexCounter, apdex(satisfied, tolerating, total));
+		if(DEBUG) {
+			log.info("SLA interval buckets ", Arrays.toString(counts), " over boundaries ", Arrays.toString(counters.getBoundaries()));
+		}
+	}
+
+	/**
+	 * Calculates an Apdex score scaled to 0-100
+	 * @param satisfied The count of satisfied calls
+	 * @param tolerating The count of tolerating calls
+	 * @param total The count of all calls
+	 * @return the scaled Apdex score, 100 if there were no calls
+	 */
+	public static int apdex(long satisfied, long tolerating, long total) {
+		if(total < 1) return 100;
+		return (int)Math.round((satisfied + tolerating / 2d) * 100d / total);
+	}
+}
@@ -0,0 +1,225 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.util.collections;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * <p>Title: DirectIntRecorder</p>
+ * <p>Description: The off heap twin of {@link StripedIntRecorder}. Writers claim the same {@link StripedRecorder} stripes, but each stripe appends
+ * its values to a chain of fixed size segments taken from a {@link DirectSegmentPool} instead of a growing int array. The reader
+ * copies the stripes' segments into a single reader owned off heap buffer and returns the segments to the pool, so the values
+ * never touch the heap and the segments are reused from one interval to the next.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.util.collections.DirectIntRecorder</code></p>
+ */
+public class DirectIntRecorder {
+	/** The stripes */
+	protected final Stripe[] stripes;
+	/** The pool segments are taken from and returned to */
+	protected final DirectSegmentPool pool;
+
+	/**
+	 * Creates a new DirectIntRecorder with the default number of stripes on the agent wide segment pool
+	 */
+	public DirectIntRecorder() {
+		this(StripedRecorder.DEFAULT_STRIPES, DirectSegmentPool.getInstance());
+	}
+
+	/**
+	 * Creates a new DirectIntRecorder
+	 * @param stripeCount The number of stripes. Rounded up to the nearest power of 2.
+	 * @param pool The pool segments are taken from and returned to
+	 */
+	public DirectIntRecorder(int stripeCount, DirectSegmentPool pool) {
+		if(stripeCount < 1) throw new IllegalArgumentException("Stripe count must be > 0 [" + stripeCount + "]", new Throwable());
+		if(pool==null) throw new IllegalArgumentException("The passed pool was null", new Throwable());
+		int count = StripedRecorder.powerOfTwo(stripeCount);
+		stripes = new Stripe[count];
+		for(int i = 0; i < count; i++) {
+			stripes[i] = new Stripe();
+		}
+		this.pool = pool;
+	}
+
+	/**
+	 * Records a value. The calling thread claims its preferred stripe, or the next unclaimed stripe, and appends the value.
+	 * @param value The value to record
+	 */
+	public void add(int value) {
+		Stripe stripe = StripedRecorder.claim(stripes);
+		try {
+			stripe.append(value, pool);
+		} finally {
+			stripe.release();
+		}
+	}
+
+	/**
+	 * Returns the approximate number of recorded values
+	 * @return the approximate number of recorded values
+	 */
+	public int size() {
+		int size = 0;
+		for(Stripe stripe: stripes) {
+			size += stripe.size;
+		}
+		return size;
+	}
+
+	/**
+	 * Drains all the recorded values from each stripe into the passed reader owned buffer, from index 0, and returns the
+	 * stripes' segments to the pool. If the buffer is too small, a larger one is allocated and returned in its place.
+	 * @param target The reader owned buffer to drain into, or null to allocate one
+	 * @return the buffer holding the drained values, with its position at 0 and its limit at the number of values
+	 */
+	public IntBuffer drain(IntBuffer target) {
+		int size = size();
+		if(target==null || target.capacity() < size) {
+			target = DirectSegmentPool.allocate(Math.max(size, target==null ? pool.getSegmentInts() : target.capacity() << 1));
+		}
+		int count = 0;
+		for(Stripe stripe: stripes) {
+			stripe.claim();
+			try {
+				if(stripe.size==0) continue;
+				if(count + stripe.size > target.capacity()) {
+					// Values were added concurrently with the drain
+					IntBuffer larger = DirectSegmentPool.allocate(Math.max(count + stripe.size, target.capacity() << 1));
+					target.clear().limit(count);
+					larger.put(target);
+					target = larger;
+				}
+				target.clear().position(count);
+				count += stripe.size;
+				stripe.drainTo(target, pool);
+			} finally {
+				stripe.release();
+			}
+		}
+		target.clear().limit(count);
+		return target;
+	}
+
+	/**
+	 * Discards all the recorded values and returns the stripes' segments to the pool.
+	 */
+	public void reset() {
+		for(Stripe stripe: stripes) {
+			stripe.claim();
+			try {
+				stripe.releaseSegments(pool);
+			} finally {
+				stripe.release();
+			}
+		}
+	}
+
+	/**
+	 * Returns the approximate number of off heap bytes held by the stripes' segments
+	 * @return the held bytes
+	 */
+	public long getRetainedBytes() {
+		long segments = 0;
+		for(Stripe stripe: stripes) {
+			segments += stripe.segmentCount;
+		}
+		return segments * pool.getSegmentInts() * 4;
+	}
+
+	/**
+	 * Returns the number of stripes
+	 * @return the number of stripes
+	 */
+	public int getStripeCount() {
+		return stripes.length;
+	}
+
+	/**
+	 * <p>Title: Stripe</p>
+	 * <p>Description: A single striped chain of segments. The stripe's buffer is its array of segments.</p>
+	 * <p><code>org.helios.hiex.util.collections.DirectIntRecorder.Stripe</code></p>
+	 */
+	protected static final class Stripe extends StripedRecorder.Stripe<IntBuffer[]> {
+		/** The number of segments in use */
+		int segmentCount = 0;
+		/** The number of values in the last segment */
+		int position = 0;
+
+		/**
+		 * Appends a value to the stripe's last segment, taking a new segment from the pool if it is full. Must be called while the stripe is claimed.
+		 * @param value The value to append
+		 * @param pool The segment pool
+		 */
+		void append(int value, DirectSegmentPool pool) {
+			IntBuffer segment;
+			if(segmentCount==0 || position==pool.getSegmentInts()) {
+				segment = pool.acquire();
+				if(values==null) {
+					values = new IntBuffer[4];
+				} else if(segmentCount==values.length) {
+					values = Arrays.copyOf(values, segmentCount << 1);
+				}
+				values[segmentCount++] = segment;
+				position = 0;
+			} else {
+				segment = values[segmentCount-1];
+			}
+			segment.put(position++, value);
+			size++;
+		}
+
+		/**
+		 * Copies the stripe's values to the target at its position and returns the segments to the pool. Must be called while the stripe is claimed.
+		 * @param target The target, with room for the stripe's values
+		 * @param pool The segment pool
+		 */
+		void drainTo(IntBuffer target, DirectSegmentPool pool) {
+			int segmentInts = pool.getSegmentInts();
+			for(int i = 0; i < segmentCount; i++) {
+				IntBuffer segment = values[i];
+				segment.clear().limit(i==segmentCount-1 ? position : segmentInts);
+				target.put(segment);
+			}
+			releaseSegments(pool);
+		}
+
+		/**
+		 * Returns the segments to the pool and empties the stripe. Must be called while the stripe is claimed.
+		 * @param pool The segment pool
+		 */
+		void releaseSegments(DirectSegmentPool pool) {
+			for(int i = 0; i < segmentCount; i++) {
+				pool.release(values[i]);
+				values[i] = null;
+			}
+			segmentCount = 0;
+			position = 0;
+			size = 0;
+		}
+	}
+}
@@ -0,0 +1,215 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.util.collections;
+
+import java.nio.IntBuffer;
+
+/**
+ * <p>Title: DirectIntSelection</p>
+ * <p>Description: Selection based percentile calculations and summary statistics on the first <code>count</code> ints of an
+ * int buffer, the buffer valued twins of the static percentile methods in {@link StatsIntArray} and of {@link LongSummary#summarize(int[], long[])}.
+ * Used to calculate over off heap buffers in place, without copying the values to the heap. The buffers are reordered in place
+ * so they must be owned by the caller. Only absolute gets and puts are used, so the buffer's position and limit are ignored.
+ * The selection itself is the shared {@link LongSelection} introselect. This class only supplies its buffer access, partitioning and sorting.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.util.collections.DirectIntSelection</code></p>
+ */
+public class DirectIntSelection {
+	/** The range size below which a range is sorted by insertion */
+	private static final int INSERTION_SORT_THRESHOLD = 16;
+
+	/**
+	 * Static methods only
+	 */
+	private DirectIntSelection() {
+	}
+
+	/**
+	 * Creates a selection over the first <code>count</code> ints of an int buffer. Degenerate ranges are heap sorted,
+	 * so the selection needs no memory beyond the buffer.
+	 * @param values The values to reorder in place
+	 * @param count The number of values, from index 0
+	 * @return the selection
+	 */
+	public static LongSelection of(final IntBuffer values, int count) {
+		return new LongSelection(count) {
+			@Override
+			public long get(int index) {
+				return values.get(index);
+			}
+			@Override
+			protected void swap(int i, int j) {
+				DirectIntSelection.swap(values, i, j);
+			}
+			@Override
+			protected void partition(int lo, int hi, long pivot) {
+				int p = (int)pivot;
+				int i = lo, j = hi;
+				while(i <= j) {
+					while(values.get(i) < p) i++;
+					while(values.get(j) > p) j--;
+					if(i <= j) {
+						DirectIntSelection.swap(values, i++, j--);
+					}
+				}
+				lower = j;
+				upper = i;
+			}
+			@Override
+			protected void sort(int from, int to) {
+				if(to - from <= INSERTION_SORT_THRESHOLD) {
+					insertionSort(values, from, to);
+				} else {
+					heapSort(values, from, to);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Calculates the threshold values for the given percentiles by selection rather than sorting.
+	 * @param values The values. Reordered so that each percentile's ranks hold their order statistics.
+	 * @param count The number of values, from index 0
+	 * @param percentiles The percentiles to calc the thresholds for.
+	 * @return the threshold values, indexed by percentile. Ascending if the percentiles are ascending.
+	 * @see StatsIntArray#percentileRankValues(int[], float[])
+	 */
+	public static int[] percentileRankValues(IntBuffer values, int count, float[] percentiles) {
+		long[] selected = of(values, count).percentileRankValues(percentiles);
+		int[] ctiles = new int[selected.length];
+		for(int i = 0; i < selected.length; i++) {
+			ctiles[i] = (int)selected[i];
+		}
+		return ctiles;
+	}
+
+	/**
+	 * Calculates the threshold value for the given percentile from values sorted in ascending order,
+	 * or in which the percentile's ranks have been selected by {@link #percentileRankValues(IntBuffer, int, float[])}.
+	 * @param sorted The values
+	 * @param count The number of values, from index 0
+	 * @param percentile the percentile to calc the threshold for.
+	 * @return the threshold value for the percentile or zero if there are no values.
+	 * @see StatsIntArray#percentileRankValue(int[], float)
+	 */
+	public static int percentileRankValue(IntBuffer sorted, int count, float percentile) {
+		return (int)of(sorted, count).percentileRankValue(percentile);
+	}
+
+	/**
+	 * Summarizes the values in one traversal
+	 * @param values The values. Need not be ordered.
+	 * @param count The number of values, from index 0
+	 * @param thresholds The thresholds to count the values at or below, in ascending order. May be empty.
+	 * @return the summary of the values
+	 * @see LongSummary#summarize(int[], long[])
+	 */
+	public static LongSummary summarize(IntBuffer values, int count, long[] thresholds) {
+		LongSummary.Accumulator accumulator = new LongSummary.Accumulator(thresholds);
+		for(int i = 0; i < count; i++) {
+			accumulator.add(values.get(i));
+		}
+		return accumulator.summary();
+	}
+
+	/**
+	 * Selects the kth smallest value of a range in place
+	 * @param values The values to reorder in place
+	 * @param from The first index of the range, inclusive
+	 * @param to The last index of the range, exclusive
+	 * @param k The 0 based rank to select, within the range
+	 * @return the kth smallest value
+	 * @see LongSelection#select(int, int, int)
+	 */
+	public static int select(IntBuffer values, int from, int to, int k) {
+		return (int)of(values, to).select(from, to, k);
+	}
+
+	/**
+	 * Sorts a small range by insertion
+	 * @param values The values
+	 * @param from The first index of the range, inclusive
+	 * @param to The last index of the range, exclusive
+	 */
+	private static void insertionSort(IntBuffer values, int from, int to) {
+		for(int i = from + 1; i < to; i++) {
+			int v = values.get(i);
+			int j = i - 1;
+			while(j >= from && values.get(j) > v) {
+				values.put(j + 1, values.get(j));
+				j--;
+			}
+			values.put(j + 1, v);
+		}
+	}
+
+	/**
+	 * Sorts a range by heap sort, in O(n log n) with no extra memory
+	 * @param values The values
+	 * @param from The first index of the range, inclusive
+	 * @param to The last index of the range, exclusive
+	 */
+	private static void heapSort(IntBuffer values, int from, int to) {
+		int n = to - from;
+		for(int i = (n >>> 1) - 1; i >= 0; i--) {
+			siftDown(values, from, i, n);
+		}
+		for(int end = n - 1; end > 0; end--) {
+			swap(values, from, from + end);
+			siftDown(values, from, 0, end);
+		}
+	}
+
+	/**
+	 * Sifts a value down a max heap laid out from an offset
+	 * @param values The values
+	 * @param offset The index of the heap root
+	 * @param i The heap index to sift down from
+	 * @param n The heap size
+	 */
+	private static void siftDown(IntBuffer values, int offset, int i, int n) {
+		int v = values.get(offset + i);
+		for(int child; (child = (i << 1) + 1) < n; i = child) {
+			if(child + 1 < n && values.get(offset + child + 1) > values.get(offset + child)) child++;
+			int c = values.get(offset + child);
+			if(c <= v) break;
+			values.put(offset + i, c);
+		}
+		values.put(offset + i, v);
+	}
+
+	/**
+	 * Swaps two values in a buffer
+	 * @param values The buffer
+	 * @param i The index of the first value
+	 * @param j The index of the second value
+	 */
+	private static void swap(IntBuffer values, int i, int j) {
+		int t = values.get(i);
+		values.put(i, values.get(j));
+		values.put(j, t);
+	}
+}
@@ -0,0 +1,162 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.util.collections;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Title: DirectSegmentPool</p>
+ * <p>Description: A pool of fixed size, off heap int segments backed by direct byte buffers. Segments released to the pool are
+ * handed out again rather than reallocated, so buffering values in pooled segments creates no garbage once the pool is warm.
+ * The pool retains up to a configurable number of bytes of free segments. Segments released past that are dropped and their
+ * memory is freed when the buffer objects are collected.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.util.collections.DirectSegmentPool</code></p>
+ */
+public class DirectSegmentPool {
+	/** The free segments */
+	protected final ConcurrentLinkedQueue<IntBuffer> free = new ConcurrentLinkedQueue<IntBuffer>();
+	/** The number of free segments */
+	protected final AtomicInteger freeCount = new AtomicInteger(0);
+	/** The number of segments handed out and not yet released */
+	protected final AtomicInteger inUse = new AtomicInteger(0);
+	/** The number of segments allocated */
+	protected final AtomicLong allocations = new AtomicLong(0);
+	/** The number of ints in each segment */
+	protected final int segmentInts;
+	/** The maximum number of free segments retained */
+	protected volatile int maxFree;
+
+	/** The default number of ints in each segment (2 KB) */
+	public static final int DEFAULT_SEGMENT_INTS = 512;
+	/** The default maximum bytes of free segments retained (32 MB) */
+	public static final long DEFAULT_MAX_POOLED_BYTES = 32L << 20;
+
+	/** The agent wide pool */
+	private static final DirectSegmentPool instance = new DirectSegmentPool(DEFAULT_SEGMENT_INTS, DEFAULT_MAX_POOLED_BYTES);
+
+	/**
+	 * Returns the agent wide pool
+	 * @return the agent wide pool
+	 */
+	public static DirectSegmentPool getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Creates a new DirectSegmentPool
+	 * @param segmentInts The number of ints in each segment
+	 * @param maxPooledBytes The maximum bytes of free segments retained
+	 */
+	public DirectSegmentPool(int segmentInts, long maxPooledBytes) {
+		if(segmentInts < 1) throw new IllegalArgumentException("Segment size must be > 0 [" + segmentInts + "]", new Throwable());
+		this.segmentInts = segmentInts;
+		setMaxPooledBytes(maxPooledBytes);
+	}
+
+	/**
+	 * Takes a free segment, or allocates one if none are free. The segment's position is 0 and its limit its capacity.
+	 * @return a segment
+	 */
+	public IntBuffer acquire() {
+		inUse.incrementAndGet();
+		IntBuffer segment = free.poll();
+		if(segment!=null) {
+			freeCount.decrementAndGet();
+			segment.clear();
+			return segment;
+		}
+		allocations.incrementAndGet();
+		return allocate(segmentInts);
+	}
+
+	/**
+	 * Returns a segment to the pool. The segment must not be used by the caller afterwards.
+	 * @param segment The segment acquired from this pool
+	 */
+	public void release(IntBuffer segment) {
+		inUse.decrementAndGet();
+		if(freeCount.incrementAndGet() <= maxFree) {
+			free.offer(segment);
+		} else {
+			freeCount.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Allocates an off heap int buffer in the native byte order
+	 * @param ints The number of ints
+	 * @return the buffer
+	 */
+	public static IntBuffer allocate(int ints) {
+		return ByteBuffer.allocateDirect(ints << 2).order(ByteOrder.nativeOrder()).asIntBuffer();
+	}
+
+	/**
+	 * Sets the maximum bytes of free segments retained. Free segments past the maximum are dropped as they are released.
+	 * @param maxPooledBytes The maximum bytes of free segments retained
+	 */
+	public void setMaxPooledBytes(long maxPooledBytes) {
+		maxFree = (int)Math.min(Integer.MAX_VALUE, Math.max(0, maxPooledBytes) / ((long)segmentInts << 2));
+	}
+
+	/**
+	 * Returns the number of ints in each segment
+	 * @return the segment size in ints
+	 */
+	public int getSegmentInts() {
+		return segmentInts;
+	}
+
+	/**
+	 * Returns the number of segments handed out and not yet released
+	 * @return the segments in use
+	 */
+	public int getInUse() {
+		return inUse.get();
+	}
+
+	/**
+	 * Returns the number of free segments retained
+	 * @return the free segments
+	 */
+	public int getFree() {
+		return freeCount.get();
+	}
+
+	/**
+	 * Returns the number of segments allocated since the pool was created
+	 * @return the segment allocations
+	 */
+	public long getAllocations() {
+		return allocations.get();
+	}
+}
@@ -0,0 +1,154 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.util.collections;
+
+import java.util.Arrays;
+
+/**
+ * <p>Title: IdentityIntCache</p>
+ * <p>Description: A small, bounded, copy-on-write cache of object references to int values, intended for hot path lookups
+ * where the number of distinct keys is small and stable. Keys are compared by identity with a linear scan of an immutable
+ * snapshot, so a lookup takes no lock, computes no hash and allocates nothing. Additions copy the snapshot and are refused
+ * once the capacity is reached.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.util.collections.IdentityIntCache</code></p>
+ */
+public class IdentityIntCache {
+	/** The current snapshot of cached keys and values */
+	protected volatile Snapshot snapshot = Snapshot.EMPTY;
+	/** The maximum number of cached keys */
+	protected final int capacity;
+
+	/** The value returned for a key that is not cached */
+	public static final int NO_VALUE = -1;
+	/** The default maximum number of cached keys */
+	public static final int DEFAULT_CAPACITY = 64;
+
+	/**
+	 * Creates a new IdentityIntCache with the default capacity
+	 */
+	public IdentityIntCache() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a new IdentityIntCache
+	 * @param capacity The maximum number of cached keys
+	 */
+	public IdentityIntCache(int capacity) {
+		if(capacity < 1) throw new IllegalArgumentException("Capacity must be > 0 [" + capacity + "]", new Throwable());
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Returns the value cached for the passed key
+	 * @param key The key
+	 * @return the cached value or {@link #NO_VALUE} if the key is not cached
+	 */
+	public int get(Object key) {
+		Snapshot s = snapshot;
+		Object[] k = s.keys;
+		for(int i = 0; i < k.length; i++) {
+			if(k[i]==key) return s.values[i];
+		}
+		return NO_VALUE;
+	}
+
+	/**
+	 * Caches a value for the passed key. An existing value for the key is replaced.
+	 * @param key The key. Must not be null.
+	 * @param value The value. Must not be {@link #NO_VALUE}.
+	 * @return true if the value was cached, false if the cache is full
+	 */
+	public synchronized boolean put(Object key, int value) {
+		if(key==null) throw new IllegalArgumentException("Key was null", new Throwable());
+		if(value==NO_VALUE) throw new IllegalArgumentException("Value cannot be NO_VALUE", new Throwable());
+		Snapshot s = snapshot;
+		Object[] k = s.keys;
+		for(int i = 0; i < k.length; i++) {
+			if(k[i]==key) {
+				int[] v = s.values.clone();
+				v[i] = value;
+				snapshot = new Snapshot(k, v);
+				return true;
+			}
+		}
+		if(k.length >= capacity) return false;
+		int[] v = Arrays.copyOf(s.values, k.length + 1);
+		v[k.length] = value;
+		k = Arrays.copyOf(k, k.length + 1);
+		k[k.length - 1] = key;
+		snapshot = new Snapshot(k, v);
+		return true;
+	}
+
+	/**
+	 * Removes all cached keys
+	 */
+	public synchronized void clear() {
+		snapshot = Snapshot.EMPTY;
+	}
+
+	/**
+	 * Returns the number of cached keys
+	 * @return the number of cached keys
+	 */
+	public int size() {
+		return snapshot.keys.length;
+	}
+
+	/**
+	 * Returns the maximum number of cached keys
+	 * @return the capacity
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * <p>Title: Snapshot</p>
+	 * <p>Description: An immutable set of cached keys and their values, indexed by key position.</p>
+	 * <p><code>org.helios.hiex.util.collections.IdentityIntCache.Snapshot</code></p>
+	 */
+	protected static final class Snapshot {
+		/** The empty snapshot */
+		static final Snapshot EMPTY = new Snapshot(new Object[0], new int[0]);
+		/** The cached keys */
+		final Object[] keys;
+		/** The cached values */
+		final int[] values;
+
+		/**
+		 * Creates a new Snapshot
+		 * @param keys The cached keys
+		 * @param values The cached values
+		 */
+		Snapshot(Object[] keys, int[] values) {
+			this.keys = keys;
+			this.values = values;
+		}
+	}
+}
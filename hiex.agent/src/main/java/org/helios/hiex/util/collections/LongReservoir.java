@@ -0,0 +1,138 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.util.collections;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.helios.hiex.util.math.SimpleMath;
+
+/**
+ * <p>Title: LongReservoir</p>
+ * <p>Description: A multi-producer, single-consumer uniform random sample of a fixed maximum size of the long values offered
+ * since the last drain (Vitter's Algorithm R). Each offer claims the next sequence number with a single atomic increment.
+ * The first <code>capacity</code> values fill the reservoir, and the nth value after that replaces a random slot with
+ * probability <code>capacity / n</code>, so every offered value is equally likely to be in the drained sample, whenever in the
+ * period it was offered. The random slot is a hash of the sequence number salted per drain, so no random generator is shared.
+ * The slots are allocated in chunks on first use, so a reservoir that sees little traffic stays small.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.util.collections.LongReservoir</code></p>
+ */
+public class LongReservoir {
+	/** The maximum number of values retained */
+	protected final int capacity;
+	/** The slot chunks, allocated on first use */
+	protected final AtomicReferenceArray<AtomicLongArray> chunks;
+	/** The number of values offered since the last drain */
+	protected final AtomicLong offered = new AtomicLong(0);
+	/** The salt of the replacement slot hash, changed at each drain */
+	protected volatile long salt = 0;
+
+	/** The number of bits of a slot index addressing the slot within its chunk */
+	public static final int CHUNK_SHIFT = 10;
+	/** The number of slots per chunk */
+	public static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+	/**
+	 * Creates a new LongReservoir
+	 * @param capacity The maximum number of values retained
+	 */
+	public LongReservoir(int capacity) {
+		if(capacity < 1) throw new IllegalArgumentException("Capacity must be > 0 [" + capacity + "]", new Throwable());
+		this.capacity = capacity;
+		chunks = new AtomicReferenceArray<AtomicLongArray>(((capacity - 1) >>> CHUNK_SHIFT) + 1);
+	}
+
+	/**
+	 * Offers a value to the sample
+	 * @param value The value
+	 */
+	public void offer(long value) {
+		long n = offered.getAndIncrement();
+		long slot = n < capacity ? n : SimpleMath.mix(n ^ salt) % (n + 1);
+		if(slot >= capacity) return;
+		int index = (int)slot;
+		chunk(index >>> CHUNK_SHIFT).lazySet(index & (CHUNK_SIZE - 1), value);
+	}
+
+	/**
+	 * Returns a slot chunk, allocating it on first use
+	 * @param index The chunk index
+	 * @return the chunk
+	 */
+	protected AtomicLongArray chunk(int index) {
+		AtomicLongArray chunk = chunks.get(index);
+		if(chunk==null) {
+			chunks.compareAndSet(index, null, new AtomicLongArray(Math.min(CHUNK_SIZE, capacity - (index << CHUNK_SHIFT))));
+			chunk = chunks.get(index);
+		}
+		return chunk;
+	}
+
+	/**
+	 * Returns the number of values offered since the last drain
+	 * @return the number of offered values
+	 */
+	public long getOffered() {
+		return offered.get();
+	}
+
+	/**
+	 * Returns the maximum number of values retained
+	 * @return the capacity
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Copies the sample out and empties the reservoir. Must not be called concurrently with {@link #offer(long)}.
+	 * @return the sampled values, at most the capacity of them, in no particular order
+	 */
+	public long[] drain() {
+		int size = (int)Math.min(capacity, offered.getAndSet(0));
+		long[] values = new long[size];
+		for(int i = 0; i < size; i++) {
+			values[i] = chunks.get(i >>> CHUNK_SHIFT).get(i & (CHUNK_SIZE - 1));
+		}
+		salt = SimpleMath.mix(salt + 1);
+		return values;
+	}
+
+	/**
+	 * Returns the approximate number of bytes retained by the allocated slot chunks
+	 * @return the retained bytes
+	 */
+	public long getRetainedBytes() {
+		long bytes = 0;
+		for(int i = 0; i < chunks.length(); i++) {
+			AtomicLongArray chunk = chunks.get(i);
+			if(chunk!=null) bytes += (long)chunk.length() * 8;
+		}
+		return bytes;
+	}
+}
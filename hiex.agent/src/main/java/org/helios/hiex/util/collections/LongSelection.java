@@ -0,0 +1,314 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.util.collections;
+
+import java.util.Arrays;
+
+/**
+ * <p>Title: LongSelection</p>
+ * <p>Description: Selection based percentile calculations over int or long values, read as longs. The values are reordered
+ * in place so they must be owned by the caller. The rank selection and introselect are implemented once here. Each value type
+ * only implements reading, swapping, partitioning around a pivot and sorting a small or degenerate range, so the per value
+ * loops stay typed while the algorithm is shared.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.util.collections.LongSelection</code></p>
+ */
+public abstract class LongSelection {
+	/** The number of values, from index 0 */
+	protected final int count;
+	/** The last index of the lower side of the last partition */
+	protected int lower;
+	/** The first index of the upper side of the last partition */
+	protected int upper;
+
+	/** The range size below which selection sorts the remaining range */
+	private static final int SELECT_SORT_THRESHOLD = 16;
+
+	/**
+	 * Creates a new LongSelection
+	 * @param count The number of values, from index 0
+	 */
+	protected LongSelection(int count) {
+		this.count = count;
+	}
+
+	/**
+	 * Creates a selection over a long array
+	 * @param values The values to reorder in place
+	 * @return the selection
+	 */
+	public static LongSelection of(final long[] values) {
+		return new LongSelection(values.length) {
+			@Override
+			public long get(int index) {
+				return values[index];
+			}
+			@Override
+			protected void swap(int i, int j) {
+				long t = values[i];
+				values[i] = values[j];
+				values[j] = t;
+			}
+			@Override
+			protected void partition(int lo, int hi, long pivot) {
+				int i = lo, j = hi;
+				while(i <= j) {
+					while(values[i] < pivot) i++;
+					while(values[j] > pivot) j--;
+					if(i <= j) {
+						long t = values[i];
+						values[i++] = values[j];
+						values[j--] = t;
+					}
+				}
+				lower = j;
+				upper = i;
+			}
+			@Override
+			protected void sort(int from, int to) {
+				Arrays.sort(values, from, to);
+			}
+		};
+	}
+
+	/**
+	 * Creates a selection over an int array
+	 * @param values The values to reorder in place
+	 * @return the selection
+	 */
+	public static LongSelection of(final int[] values) {
+		return new LongSelection(values.length) {
+			@Override
+			public long get(int index) {
+				return values[index];
+			}
+			@Override
+			protected void swap(int i, int j) {
+				int t = values[i];
+				values[i] = values[j];
+				values[j] = t;
+			}
+			@Override
+			protected void partition(int lo, int hi, long pivot) {
+				int p = (int)pivot;
+				int i = lo, j = hi;
+				while(i <= j) {
+					while(values[i] < p) i++;
+					while(values[j] > p) j--;
+					if(i <= j) {
+						int t = values[i];
+						values[i++] = values[j];
+						values[j--] = t;
+					}
+				}
+				lower = j;
+				upper = i;
+			}
+			@Override
+			protected void sort(int from, int to) {
+				Arrays.sort(values, from, to);
+			}
+		};
+	}
+
+	/**
+	 * Calculates the threshold values for the given percentiles of long values by selection rather than sorting.
+	 * @param values The values. Reordered so that each percentile's ranks hold their order statistics.
+	 * @param percentiles The percentiles to calc the thresholds for.
+	 * @return the threshold values, indexed by percentile. Ascending if the percentiles are ascending.
+	 */
+	public static long[] percentileRankValues(long[] values, float[] percentiles) {
+		return of(values).percentileRankValues(percentiles);
+	}
+
+	/**
+	 * Calculates the threshold value for the given percentile from a long array sorted in ascending order,
+	 * or in which the percentile's ranks have been selected by {@link #percentileRankValues(long[], float[])}.
+	 * @param sorted The values sorted in ascending order
+	 * @param percentile the percentile to calc the threshold for.
+	 * @return the threshold value for the percentile or zero if the array is empty.
+	 */
+	public static long percentileRankValue(long[] sorted, float percentile) {
+		return of(sorted).percentileRankValue(percentile);
+	}
+
+	/**
+	 * Returns a value
+	 * @param index The index of the value
+	 * @return the value
+	 */
+	public abstract long get(int index);
+
+	/**
+	 * Swaps two values
+	 * @param i The index of the first value
+	 * @param j The index of the second value
+	 */
+	protected abstract void swap(int i, int j);
+
+	/**
+	 * Partitions a range around a pivot value in the range, leaving the values at or below the pivot up to {@link #lower}
+	 * and the values at or above the pivot from {@link #upper}. Anything in between equals the pivot.
+	 * @param lo The first index of the range, inclusive
+	 * @param hi The last index of the range, inclusive
+	 * @param pivot The pivot value
+	 */
+	protected abstract void partition(int lo, int hi, long pivot);
+
+	/**
+	 * Sorts a range in ascending order
+	 * @param from The first index of the range, inclusive
+	 * @param to The last index of the range, exclusive
+	 */
+	protected abstract void sort(int from, int to);
+
+	/**
+	 * Returns the number of values
+	 * @return the number of values
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Calculates the threshold values for the given percentiles by selection rather than sorting.
+	 * The values are reordered so that each percentile's ranks hold their order statistics.
+	 * @param percentiles The percentiles to calc the thresholds for.
+	 * @return the threshold values, indexed by percentile. Ascending if the percentiles are ascending.
+	 */
+	public long[] percentileRankValues(float[] percentiles) {
+		long[] ctiles = new long[percentiles.length];
+		if(count==0) return ctiles;
+		// The 0 based ranks read by the interpolation of each percentile
+		int[] ranks = new int[percentiles.length*2];
+		for(int i = 0; i < percentiles.length; i++) {
+			int ir = (int)Math.floor((percentiles[i]/100f)*(count+1));
+			ranks[i*2] = Math.min(Math.max(ir-1, 0), count-1);
+			ranks[i*2+1] = Math.min(Math.max(ir, 0), count-1);
+		}
+		Arrays.sort(ranks);
+		int distinct = 0;
+		for(int i = 0; i < ranks.length; i++) {
+			if(distinct==0 || ranks[i]!=ranks[distinct-1]) ranks[distinct++] = ranks[i];
+		}
+		selectRanks(0, count, ranks, 0, distinct);
+		for(int i = 0; i < percentiles.length; i++) {
+			ctiles[i] = percentileRankValue(percentiles[i]);
+		}
+		return ctiles;
+	}
+
+	/**
+	 * Calculates the threshold value for the given percentile from values sorted in ascending order,
+	 * or in which the percentile's ranks have been selected by {@link #percentileRankValues(float[])}.
+	 * @param percentile the percentile to calc the threshold for.
+	 * @return the threshold value for the percentile or zero if there are no values.
+	 */
+	public long percentileRankValue(float percentile) {
+		if(count==0) return 0;
+		double rank = (percentile/100f)*(count+1);
+		int ir = (int)Math.floor(rank);
+		if(ir < 1) return get(0);
+		if(ir >= count) return get(count-1);
+		double fr = rank-ir;
+		long ir1 = get(ir-1), ir2 = get(ir);
+		double interpolated = fr*(ir2-ir1)+ir1;
+		return Math.round(interpolated);
+	}
+
+	/**
+	 * Selects each of the passed ranks in one recursive partitioning of the values, so that each rank holds the value it would
+	 * hold if the values were sorted, with no greater values before it and no lesser values after it.
+	 * Each partition step serves all the ranks on its side, so the cost is O(n log m) for m ranks rather than the O(n log n) of a sort.
+	 * @param from The first index of the range to select in, inclusive
+	 * @param to The last index of the range to select in, exclusive
+	 * @param ranks The distinct 0 based ranks to select, in ascending order and within the range
+	 * @param rankFrom The first index of the ranks to select, inclusive
+	 * @param rankTo The last index of the ranks to select, exclusive
+	 */
+	public void selectRanks(int from, int to, int[] ranks, int rankFrom, int rankTo) {
+		if(rankFrom >= rankTo) return;
+		int mid = (rankFrom + rankTo) >>> 1;
+		int k = ranks[mid];
+		select(from, to, k);
+		selectRanks(from, k, ranks, rankFrom, mid);
+		selectRanks(k+1, to, ranks, mid+1, rankTo);
+	}
+
+	/**
+	 * Selects the kth smallest value of a range in place using introselect: quickselect with a median of 3 pivot that falls back
+	 * to sorting the remaining range if the partitioning degenerates, bounding the worst case to O(n log n).
+	 * On return, no value before k in the range is greater and no value after k is lesser than the value at k.
+	 * @param from The first index of the range, inclusive
+	 * @param to The last index of the range, exclusive
+	 * @param k The 0 based rank to select, within the range
+	 * @return the kth smallest value
+	 */
+	public long select(int from, int to, int k) {
+		if(k < from || k >= to) throw new IllegalArgumentException("Rank [" + k + "] outside range [" + from + "-" + to + ")", new Throwable());
+		int lo = from, hi = to-1;
+		int depthLimit = 2 * (32 - Integer.numberOfLeadingZeros(to-from));
+		while(hi > lo) {
+			if(hi - lo < SELECT_SORT_THRESHOLD || --depthLimit < 0) {
+				sort(lo, hi+1);
+				break;
+			}
+			int mid = (lo + hi) >>> 1;
+			if(get(mid) < get(lo)) swap(mid, lo);
+			if(get(hi) < get(lo)) swap(hi, lo);
+			if(get(hi) < get(mid)) swap(hi, mid);
+			partition(lo, hi, get(mid));
+			// [lo, lower] <= pivot, [upper, hi] >= pivot and anything between equals the pivot
+			if(k <= lower) {
+				hi = lower;
+			} else if(k >= upper) {
+				lo = upper;
+			} else {
+				break;
+			}
+		}
+		return get(k);
+	}
+
+	/**
+	 * Returns the index of the first threshold at or above the passed value
+	 * @param thresholds The thresholds in ascending order
+	 * @param value The value, which must not be above the highest threshold
+	 * @return the index of the first threshold at or above the value
+	 */
+	static int thresholdIndex(long[] thresholds, long value) {
+		int low = 0, high = thresholds.length-1;
+		while(low < high) {
+			int mid = (low + high) >>> 1;
+			if(thresholds[mid] < value) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+}
@@ -0,0 +1,238 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.util.collections;
+
+/**
+ * <p>Title: LongSummary</p>
+ * <p>Description: The summary statistics of a set of int or long values computed in a single traversal: the count, the sum,
+ * the min and max, the mean and variance (accumulated with Welford's method) and the number of values at or below each of a
+ * set of thresholds. Every value type is summarized by the same {@link Accumulator}, so only the traversal is typed.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.util.collections.LongSummary</code></p>
+ */
+public class LongSummary {
+	/** The number of values */
+	protected final int count;
+	/** The sum of the values */
+	protected final long sum;
+	/** The minimum value */
+	protected final long min;
+	/** The maximum value */
+	protected final long max;
+	/** The mean of the values */
+	protected final double mean;
+	/** The population variance of the values */
+	protected final double variance;
+	/** The number of values at or below each threshold, indexed by threshold */
+	protected final int[] countsAtOrBelow;
+
+	/**
+	 * Creates a new LongSummary
+	 * @param count The number of values
+	 * @param sum The sum of the values
+	 * @param min The minimum value
+	 * @param max The maximum value
+	 * @param mean The mean of the values
+	 * @param variance The population variance of the values
+	 * @param countsAtOrBelow The number of values at or below each threshold
+	 */
+	protected LongSummary(int count, long sum, long min, long max, double mean, double variance, int[] countsAtOrBelow) {
+		this.count = count;
+		this.sum = sum;
+		this.min = min;
+		this.max = max;
+		this.mean = mean;
+		this.variance = variance;
+		this.countsAtOrBelow = countsAtOrBelow;
+	}
+
+	/**
+	 * Summarizes the passed values in one traversal with no intermediate arrays.
+	 * @param values The values to summarize. Need not be ordered.
+	 * @param thresholds The thresholds to count the values at or below, in ascending order. May be empty.
+	 * @return the summary of the values. The min, max, mean and variance are zero if there are no values.
+	 */
+	public static LongSummary summarize(long[] values, long[] thresholds) {
+		Accumulator accumulator = new Accumulator(thresholds);
+		for(long v: values) {
+			accumulator.add(v);
+		}
+		return accumulator.summary();
+	}
+
+	/**
+	 * Summarizes the passed int values in one traversal with no intermediate arrays.
+	 * @param values The values to summarize. Need not be ordered.
+	 * @param thresholds The thresholds to count the values at or below, in ascending order. May be empty.
+	 * @return the summary of the values. The min, max, mean and variance are zero if there are no values.
+	 */
+	public static LongSummary summarize(int[] values, long[] thresholds) {
+		Accumulator accumulator = new Accumulator(thresholds);
+		for(int v: values) {
+			accumulator.add(v);
+		}
+		return accumulator.summary();
+	}
+
+	/**
+	 * Returns the number of values
+	 * @return the number of values
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the sum of the values
+	 * @return the sum of the values
+	 */
+	public long getSum() {
+		return sum;
+	}
+
+	/**
+	 * Returns the minimum value
+	 * @return the minimum value
+	 */
+	public long getMin() {
+		return min;
+	}
+
+	/**
+	 * Returns the maximum value
+	 * @return the maximum value
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * Returns the mean of the values
+	 * @return the mean of the values
+	 */
+	public double getMean() {
+		return mean;
+	}
+
+	/**
+	 * Returns the population variance of the values
+	 * @return the population variance of the values
+	 */
+	public double getVariance() {
+		return variance;
+	}
+
+	/**
+	 * Returns the population standard deviation of the values
+	 * @return the population standard deviation of the values
+	 */
+	public double getStdDeviation() {
+		return Math.sqrt(variance);
+	}
+
+	/**
+	 * Returns the number of values at or below each threshold
+	 * @return the number of values at or below each threshold, indexed by threshold
+	 */
+	public int[] getCountsAtOrBelow() {
+		return countsAtOrBelow;
+	}
+
+	/**
+	 * Returns a string of the summary values
+	 * @return a string of the summary values
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return new StringBuilder("LongSummary [count:").append(count).append(", sum:").append(sum)
+			.append(", min:").append(min).append(", max:").append(max)
+			.append(", mean:").append(mean).append(", stddev:").append(getStdDeviation()).append("]").toString();
+	}
+
+	/**
+	 * <p>Title: Accumulator</p>
+	 * <p>Description: Accumulates the summary statistics of values added one at a time.</p>
+	 * <p><code>org.helios.hiex.util.collections.LongSummary.Accumulator</code></p>
+	 */
+	public static final class Accumulator {
+		/** The thresholds to count the values at or below, in ascending order */
+		private final long[] thresholds;
+		/** The highest threshold */
+		private final long highest;
+		/** The number of values at each threshold index */
+		private final int[] counts;
+		/** The number of values */
+		private int count = 0;
+		/** The sum of the values */
+		private long sum = 0;
+		/** The minimum value */
+		private long min = Long.MAX_VALUE;
+		/** The maximum value */
+		private long max = Long.MIN_VALUE;
+		/** The running mean */
+		private double mean = 0D;
+		/** The running sum of squared differences from the mean */
+		private double m2 = 0D;
+
+		/**
+		 * Creates a new Accumulator
+		 * @param thresholds The thresholds to count the values at or below, in ascending order. May be empty.
+		 */
+		public Accumulator(long[] thresholds) {
+			this.thresholds = thresholds;
+			highest = thresholds.length==0 ? Long.MIN_VALUE : thresholds[thresholds.length-1];
+			counts = new int[thresholds.length];
+		}
+
+		/**
+		 * Adds a value
+		 * @param v The value
+		 */
+		public void add(long v) {
+			count++;
+			sum += v;
+			if(v < min) min = v;
+			if(v > max) max = v;
+			double delta = v - mean;
+			mean += delta / count;
+			m2 += delta * (v - mean);
+			if(v <= highest) counts[LongSelection.thresholdIndex(thresholds, v)]++;
+		}
+
+		/**
+		 * Returns the summary of the added values. Called once, after the last value is added.
+		 * @return the summary. The min, max, mean and variance are zero if no values were added.
+		 */
+		public LongSummary summary() {
+			if(count==0) return new LongSummary(0, 0, 0, 0, 0D, 0D, counts);
+			for(int i = 1; i < counts.length; i++) {
+				counts[i] += counts[i-1];
+			}
+			return new LongSummary(count, sum, min, max, mean, m2 / count, counts);
+		}
+	}
+}
@@ -49,6 +49,8 @@ import java.util.Random;
  */
 public class StatsIntArray  {
 	public static final String CR = "\n";
+	/** An empty thresholds array for summaries that count nothing at or below */
+	private static final long[] NO_THRESHOLDS = new long[0];
 	protected TIntArrayList inner = null;
 	/**
 	 * 
@@ -76,14 +78,16 @@ public class StatsIntArray  {
 	 * @return the arithmetical mean 
 	 */
 	public int mean() {
-		int mean = 0;
-		int total = 0;
-		int[] values = inner.toArray();
-		for(int i: values) {
-			total += i;
-		}
-		mean = total/values.length;
-		return mean;
+		LongSummary summary = summarize();
+		return summary.getCount()==0 ? 0 : (int)(summary.getSum()/summary.getCount());
+	}
+	
+	/**
+	 * Computes the count, sum, min, max, mean and variance of all the int values in one traversal.
+	 * @return the summary of the values
+	 */
+	public LongSummary summarize() {
+		return LongSummary.summarize(inner.toArray(), NO_THRESHOLDS);
 	}
 	
 	/**
@@ -105,15 +109,7 @@ public class StatsIntArray  {
 	 * @return the standard deviation of the ints.
 	 */
 	public int stddev() {
-		int stddev = 0;
-		int[] deviations = deviations();
-		for(int i = 0; i < deviations.length; i++) {
-			deviations[i] = deviations[i]*deviations[i]; 
-		}
-		StatsIntArray arr = new StatsIntArray(deviations);
-		int meanOfSquaresOfDeviations = arr.mean();
-		stddev = (int)Math.round(Math.sqrt(meanOfSquaresOfDeviations));
-		return stddev;
+		return (int)Math.round(summarize().getStdDeviation());
 	}
 	
 	/**
@@ -160,9 +156,7 @@ public class StatsIntArray  {
 	 * @return the percentileRank
 	 */
 	public double percentileRank(float percentile) {
-		TIntArrayList arr = new TIntArrayList(toArray());
-		arr.sort();
-		double rank = (percentile/100f)*(arr.size()+1);
+		double rank = (percentile/100f)*(inner.size()+1);
 		return rank;		
 	}
 	
@@ -198,22 +192,82 @@ public class StatsIntArray  {
 	 * @return the threshold value for the percentile.
 	 */
 	public int percentileRankValue(float percentile) {		
-		TIntArrayList arr = new TIntArrayList(toArray());
-		arr.sort();
-		double rank = (percentile/100f)*(arr.size()+1);
-		int ir = (int)Math.floor(rank);
-		double fr = rank-ir;
-		int ir1=0, ir2=0;
-		if(arr.size() >= ir) {
-			ir1 = arr.get(ir-1 >= 0 ? ir-1 : ir);
-			if(arr.size() > ir) {
-				ir2 = arr.get(ir);
+		return percentileRankValues(toArray(), new float[]{percentile})[0];		
+	}
+	
+	/**
+	 * Calculates the threshold values for the given percentiles by selection rather than sorting.
+	 * The passed array is partially reordered in place so it must be owned by the caller.
+	 * @param values The values. Reordered so that each percentile's ranks hold their order statistics.
+	 * @param percentiles The percentiles to calc the thresholds for.
+	 * @return the threshold values, indexed by percentile. Ascending if the percentiles are ascending.
+	 * @see LongSelection#percentileRankValues(float[])
+	 */
+	public static int[] percentileRankValues(int[] values, float[] percentiles) {
+		long[] longCtiles = LongSelection.of(values).percentileRankValues(percentiles);
+		int[] ctiles = new int[longCtiles.length];
+		for(int i = 0; i < ctiles.length; i++) {
+			ctiles[i] = (int)longCtiles[i];
+		}
+		return ctiles;
+	}
+	
+	/**
+	 * Calculates the threshold value for the given percentile from an array sorted in ascending order,
+	 * or in which the percentile's ranks have been selected by {@link #percentileRankValues(int[], float[])}.
+	 * @param sorted The values sorted in ascending order
+	 * @param percentile the percentile to calc the threshold for.
+	 * @return the threshold value for the percentile or zero if the array is empty.
+	 */
+	public static int percentileRankValue(int[] sorted, float percentile) {
+		return (int)LongSelection.of(sorted).percentileRankValue(percentile);
+	}
+	
+	/**
+	 * Counts the values at or below each of the passed thresholds in one pass. The values need not be ordered.
+	 * @param values The values
+	 * @param thresholds The thresholds in ascending order
+	 * @return the number of values at or below each threshold, indexed by threshold
+	 */
+	public static int[] countsAtOrBelow(int[] values, int[] thresholds) {
+		long[] longThresholds = new long[thresholds.length];
+		for(int i = 0; i < thresholds.length; i++) {
+			longThresholds[i] = thresholds[i];
+		}
+		return LongSummary.summarize(values, longThresholds).getCountsAtOrBelow();
+	}
+	
+	/**
+	 * Selects the kth smallest value of a range in place. 
+	 * On return, no value before k in the range is greater and no value after k is lesser than the value at k.
+	 * @param values The values to reorder in place
+	 * @param from The first index of the range, inclusive
+	 * @param to The last index of the range, exclusive
+	 * @param k The 0 based rank to select, within the range
+	 * @return the kth smallest value
+	 * @see LongSelection#select(int, int, int)
+	 */
+	public static int select(int[] values, int from, int to, int k) {
+		return (int)LongSelection.of(values).select(from, to, k);
+	}
+	
+	/**
+	 * Counts the values at or below the passed value in an array sorted in ascending order.
+	 * @param sorted The values sorted in ascending order
+	 * @param value The value to count at or below
+	 * @return the number of values at or below the passed value
+	 */
+	public static int countAtOrBelow(int[] sorted, int value) {
+		int low = 0, high = sorted.length;
+		while(low < high) {
+			int mid = (low + high) >>> 1;
+			if(sorted[mid] <= value) {
+				low = mid + 1;
 			} else {
-				ir2 = ir1;
+				high = mid;
 			}
 		}
-		double interpolated = fr*(ir2-ir1)+ir1;
-		return (int)Math.round(interpolated);		
+		return low;
 	}
 
 	/**
@@ -0,0 +1,102 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.util.collections;
+
+import java.util.Arrays;
+
+/**
+ * <p>Title: StripedLongRecorder</p>
+ * <p>Description: A {@link StripedRecorder} of long values.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.util.collections.StripedLongRecorder</code></p>
+ */
+public class StripedLongRecorder extends StripedRecorder<long[]> {
+
+	/**
+	 * Creates a new StripedLongRecorder with the default number of stripes and stripe capacity
+	 */
+	public StripedLongRecorder() {
+		this(DEFAULT_STRIPES, DEFAULT_STRIPE_CAPACITY);
+	}
+
+	/**
+	 * Creates a new StripedLongRecorder
+	 * @param stripeCount The number of stripes. Rounded up to the nearest power of 2.
+	 * @param initialStripeCapacity The initial capacity of each stripe's buffer
+	 */
+	public StripedLongRecorder(int stripeCount, int initialStripeCapacity) {
+		super(stripeCount, initialStripeCapacity);
+	}
+
+	/**
+	 * Records a value. The calling thread claims its preferred stripe, or the next unclaimed stripe, and appends the value.
+	 * @param value The value to record
+	 */
+	public void add(long value) {
+		Stripe<long[]> stripe = claim(stripes);
+		try {
+			appendBuffer(stripe)[stripe.size++] = value;
+		} finally {
+			stripe.release();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.hiex.util.collections.StripedRecorder#newBuffer(int)
+	 */
+	@Override
+	protected long[] newBuffer(int capacity) {
+		return new long[capacity];
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.hiex.util.collections.StripedRecorder#length(java.lang.Object)
+	 */
+	@Override
+	protected int length(long[] buffer) {
+		return buffer.length;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.hiex.util.collections.StripedRecorder#copyOf(java.lang.Object, int)
+	 */
+	@Override
+	protected long[] copyOf(long[] buffer, int capacity) {
+		return Arrays.copyOf(buffer, capacity);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.hiex.util.collections.StripedRecorder#valueBytes()
+	 */
+	@Override
+	protected int valueBytes() {
+		return 8;
+	}
+}
@@ -0,0 +1,307 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.util.collections;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * <p>Title: StripedRecorder</p>
+ * <p>Description: A multi-producer, single-consumer recorder that spreads writers across a power of 2 number of
+ * striped buffers. A writer claims a stripe with a single CAS on the stripe's busy flag and, if the stripe is already claimed,
+ * moves on to the next stripe rather than waiting, so no monitor is taken on the write path. The reader drains and merges the
+ * stripes one at a time into a single owned array. The striping, claiming, draining and trimming are implemented once here for
+ * any primitive array type. Subclasses only append their typed values and allocate and copy their typed arrays.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.util.collections.StripedRecorder</code></p>
+ * @param <B> The primitive array type values are buffered in
+ */
+public abstract class StripedRecorder<B> {
+	/** The stripes */
+	protected final Stripe<B>[] stripes;
+	/** The stripe index mask */
+	protected final int mask;
+	/** The initial capacity of each stripe's buffer */
+	protected final int initialStripeCapacity;
+
+	/** A stripe's buffer is shrunk by {@link #trim()} when its capacity exceeds this multiple of the stripe's peak use */
+	public static final int SHRINK_FACTOR = 4;
+	/** The default initial capacity of each stripe's buffer */
+	public static final int DEFAULT_STRIPE_CAPACITY = 64;
+	/** The default number of stripes, the smallest power of 2 at or above twice the number of available processors */
+	public static final int DEFAULT_STRIPES = powerOfTwo(Runtime.getRuntime().availableProcessors() * 2);
+
+	/**
+	 * Creates a new StripedRecorder
+	 * @param stripeCount The number of stripes. Rounded up to the nearest power of 2.
+	 * @param initialStripeCapacity The initial capacity of each stripe's buffer
+	 */
+	protected StripedRecorder(int stripeCount, int initialStripeCapacity) {
+		stripes = newStripes(stripeCount);
+		if(initialStripeCapacity < 1) throw new IllegalArgumentException("Stripe capacity must be > 0 [" + initialStripeCapacity + "]", new Throwable());
+		for(int i = 0; i < stripes.length; i++) {
+			stripes[i] = new Stripe<B>();
+		}
+		mask = stripes.length - 1;
+		this.initialStripeCapacity = initialStripeCapacity;
+	}
+
+	/**
+	 * Allocates an empty stripe array
+	 * @param stripeCount The number of stripes. Rounded up to the nearest power of 2.
+	 * @return the stripe array
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	protected static <T extends Stripe<?>> T[] newStripes(int stripeCount) {
+		if(stripeCount < 1) throw new IllegalArgumentException("Stripe count must be > 0 [" + stripeCount + "]", new Throwable());
+		return (T[])new Stripe[powerOfTwo(stripeCount)];
+	}
+
+	/**
+	 * Returns the smallest power of 2 at or above the passed value
+	 * @param value The value
+	 * @return the power of 2
+	 */
+	protected static int powerOfTwo(int value) {
+		int p = 1;
+		while(p < value) p <<= 1;
+		return p;
+	}
+
+	/**
+	 * Claims the calling thread's preferred stripe, or the next unclaimed stripe. The caller appends to the stripe and then
+	 * releases it with {@link Stripe#release()}.
+	 * @param stripes The stripes, a power of 2 number of them
+	 * @return the claimed stripe
+	 */
+	protected static <T extends Stripe<?>> T claim(T[] stripes) {
+		int mask = stripes.length - 1;
+		long id = Thread.currentThread().getId();
+		int index = (int)(id ^ (id >>> 32)) * 0x9E3779B9;
+		index ^= index >>> 16;
+		for(int attempts = 0;; attempts++) {
+			T stripe = stripes[index & mask];
+			if(stripe.tryClaim()) return stripe;
+			index++;
+			if(attempts > mask) {
+				// Every stripe was claimed. Back off before the next sweep.
+				attempts = 0;
+				Thread.yield();
+			}
+		}
+	}
+
+	/**
+	 * Returns the buffer a value is appended to at the claimed stripe's size, allocating or doubling it if it is full.
+	 * Must be called while the stripe is claimed.
+	 * @param stripe The claimed stripe
+	 * @return the stripe's buffer, with room for one more value
+	 */
+	protected final B appendBuffer(Stripe<B> stripe) {
+		B v = stripe.values;
+		if(v==null) {
+			v = stripe.values = newBuffer(initialStripeCapacity);
+		} else if(stripe.size==length(v)) {
+			v = stripe.values = copyOf(v, stripe.size << 1);
+		}
+		return v;
+	}
+
+	/**
+	 * Allocates a buffer
+	 * @param capacity The capacity of the buffer
+	 * @return the new buffer
+	 */
+	protected abstract B newBuffer(int capacity);
+
+	/**
+	 * Returns the capacity of a buffer
+	 * @param buffer The buffer
+	 * @return the capacity
+	 */
+	protected abstract int length(B buffer);
+
+	/**
+	 * Copies a buffer into a new buffer of a different capacity, truncating or zero padding it
+	 * @param buffer The buffer
+	 * @param capacity The capacity of the copy
+	 * @return the copy
+	 */
+	protected abstract B copyOf(B buffer, int capacity);
+
+	/**
+	 * Returns the number of bytes each buffered value occupies
+	 * @return the bytes per value
+	 */
+	protected abstract int valueBytes();
+
+	/**
+	 * Returns the approximate number of recorded values
+	 * @return the approximate number of recorded values
+	 */
+	public int size() {
+		int size = 0;
+		for(Stripe<B> stripe: stripes) {
+			size += stripe.size;
+		}
+		return size;
+	}
+
+	/**
+	 * Drains all the recorded values from each stripe into a single array and resets the stripes.
+	 * Values recorded concurrently with the drain are either included or retained for the next drain.
+	 * @return an array of the drained values
+	 */
+	public B drain() {
+		B values = newBuffer(size());
+		int count = 0;
+		for(Stripe<B> stripe: stripes) {
+			stripe.claim();
+			try {
+				int size = stripe.size;
+				if(size==0) continue;
+				if(count + size > length(values)) {
+					values = copyOf(values, count + size);
+				}
+				System.arraycopy(stripe.values, 0, values, count, size);
+				count += size;
+				if(size > stripe.peak) stripe.peak = size;
+				stripe.size = 0;
+			} finally {
+				stripe.release();
+			}
+		}
+		return count==length(values) ? values : copyOf(values, count);
+	}
+
+	/**
+	 * Discards all the recorded values.
+	 */
+	public void reset() {
+		for(Stripe<B> stripe: stripes) {
+			stripe.claim();
+			stripe.size = 0;
+			stripe.release();
+		}
+	}
+
+	/**
+	 * Shrinks the buffers of stripes whose capacity exceeds {@link #SHRINK_FACTOR} times the largest number of values drained
+	 * from the stripe since the last trim, and releases the buffers of stripes that were not used at all. A shrunk buffer keeps
+	 * twice the peak use, and never less than the initial capacity. Starts a new peak use window.
+	 * @return the number of stripe buffers shrunk or released
+	 */
+	public int trim() {
+		int shrunk = 0;
+		for(Stripe<B> stripe: stripes) {
+			stripe.claim();
+			try {
+				B v = stripe.values;
+				int peak = Math.max(stripe.peak, stripe.size);
+				if(v!=null && peak==0) {
+					stripe.values = null;
+					shrunk++;
+				} else if(v!=null && length(v) > initialStripeCapacity && length(v) > SHRINK_FACTOR * peak) {
+					stripe.values = copyOf(v, Math.max(initialStripeCapacity, powerOfTwo(peak << 1)));
+					shrunk++;
+				}
+				stripe.peak = 0;
+			} finally {
+				stripe.release();
+			}
+		}
+		return shrunk;
+	}
+
+	/**
+	 * Returns the approximate number of bytes retained by the stripe buffers
+	 * @return the retained bytes
+	 */
+	public long getRetainedBytes() {
+		long bytes = 0;
+		for(Stripe<B> stripe: stripes) {
+			B v = stripe.values;
+			if(v!=null) bytes += (long)length(v) * valueBytes();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Returns the number of stripes
+	 * @return the number of stripes
+	 */
+	public int getStripeCount() {
+		return stripes.length;
+	}
+
+	/**
+	 * <p>Title: Stripe</p>
+	 * <p>Description: A single striped buffer, padded to keep the busy flags of adjacent stripes on separate cache lines.</p>
+	 * <p><code>org.helios.hiex.util.collections.StripedRecorder.Stripe</code></p>
+	 * @param <B> The type of the stripe's buffer
+	 */
+	protected static class Stripe<B> {
+		/** Leading cache line padding */
+		long p0, p1, p2, p3, p4, p5, p6;
+		/** The stripe busy flag. 1 if claimed, 0 if free */
+		volatile int busy = 0;
+		/** The stripe's buffer. Only accessed while the stripe is claimed */
+		B values = null;
+		/** The number of values in the stripe. Only updated while the stripe is claimed, so the busy flag orders access */
+		int size = 0;
+		/** The largest number of values drained from the stripe since the last trim. Only accessed while the stripe is claimed. */
+		int peak = 0;
+		/** Trailing cache line padding */
+		long q0, q1, q2, q3, q4, q5, q6;
+
+		/** The busy flag updater */
+		@SuppressWarnings("rawtypes")
+		private static final AtomicIntegerFieldUpdater<Stripe> BUSY = AtomicIntegerFieldUpdater.newUpdater(Stripe.class, "busy");
+
+		/**
+		 * Attempts to claim this stripe without waiting
+		 * @return true if the stripe was claimed, false if it is claimed by another thread
+		 */
+		boolean tryClaim() {
+			return busy==0 && BUSY.compareAndSet(this, 0, 1);
+		}
+
+		/**
+		 * Claims this stripe, spinning until it is released by any current holder
+		 */
+		void claim() {
+			while(!tryClaim()) {
+				Thread.yield();
+			}
+		}
+
+		/**
+		 * Releases this stripe
+		 */
+		void release() {
+			BUSY.lazySet(this, 0);
+		}
+	}
+}
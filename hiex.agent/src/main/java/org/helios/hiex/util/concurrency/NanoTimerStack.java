@@ -0,0 +1,100 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.util.concurrency;
+
+import java.util.Arrays;
+
+/**
+ * <p>Title: NanoTimerStack</p>
+ * <p>Description: A per-thread stack of {@link System#nanoTime()} start times for timing properly nested invocations.
+ * Each thread pushes a start time on entry and pops its elapsed time on exit, so reentrant and nested invocations on the same
+ * thread are each timed against their own start time. The stacks are thread confined so no synchronization is needed.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.util.concurrency.NanoTimerStack</code></p>
+ */
+public class NanoTimerStack {
+	/** The per thread start time stacks */
+	protected final ThreadLocal<Frames> frames = new ThreadLocal<Frames>() {
+		@Override
+		protected Frames initialValue() {
+			return new Frames();
+		}
+	};
+
+	/** The elapsed time returned by {@link #pop()} when the calling thread has no start time on the stack */
+	public static final long NO_START = -1L;
+	/** The initial depth of each thread's stack */
+	public static final int INITIAL_DEPTH = 8;
+
+	/**
+	 * Pushes the current nano time onto the calling thread's stack
+	 */
+	public void push() {
+		frames.get().push(System.nanoTime());
+	}
+
+	/**
+	 * Pops the calling thread's most recent start time and returns the elapsed time since it
+	 * @return the elapsed time in ns, or {@link #NO_START} if the calling thread's stack is empty
+	 */
+	public long pop() {
+		long now = System.nanoTime();
+		Frames f = frames.get();
+		if(f.depth==0) return NO_START;
+		return now - f.starts[--f.depth];
+	}
+
+	/**
+	 * Returns the depth of the calling thread's stack
+	 * @return the depth of the calling thread's stack
+	 */
+	public int depth() {
+		return frames.get().depth;
+	}
+
+	/**
+	 * <p>Title: Frames</p>
+	 * <p>Description: A single thread's stack of start times.</p>
+	 * <p><code>org.helios.hiex.util.concurrency.NanoTimerStack.Frames</code></p>
+	 */
+	protected static final class Frames {
+		/** The start times */
+		long[] starts = new long[INITIAL_DEPTH];
+		/** The number of start times on the stack */
+		int depth = 0;
+
+		/**
+		 * Pushes a start time, growing the stack if necessary
+		 * @param start The start time
+		 */
+		void push(long start) {
+			if(depth==starts.length) {
+				starts = Arrays.copyOf(starts, depth << 1);
+			}
+			starts[depth++] = start;
+		}
+	}
+}
@@ -0,0 +1,144 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.util.concurrency;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * <p>Title: StripedCounter</p>
+ * <p>Description: A striped event counter and value totaller. Each writer updates a padded cell selected by its thread,
+ * so concurrent writers rarely share a cache line, and readers sum the cells. Used where an exact count and total must be
+ * kept on a hot path that only records a sample of the values themselves.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.util.concurrency.StripedCounter</code></p>
+ */
+public class StripedCounter {
+	/** The counter cells */
+	protected final Cell[] cells;
+	/** The cell index mask */
+	protected final int mask;
+
+	/** The default number of cells, the smallest power of 2 at or above twice the number of available processors */
+	public static final int DEFAULT_CELLS = WriterReaderPhaser.DEFAULT_CELLS;
+
+	/**
+	 * Creates a new StripedCounter with the default number of cells
+	 */
+	public StripedCounter() {
+		this(DEFAULT_CELLS);
+	}
+
+	/**
+	 * Creates a new StripedCounter
+	 * @param cellCount The number of cells. Rounded up to the nearest power of 2.
+	 */
+	public StripedCounter(int cellCount) {
+		if(cellCount < 1) throw new IllegalArgumentException("Cell count must be > 0 [" + cellCount + "]", new Throwable());
+		int count = 1;
+		while(count < cellCount) count <<= 1;
+		cells = new Cell[count];
+		for(int i = 0; i < count; i++) {
+			cells[i] = new Cell();
+		}
+		mask = count - 1;
+	}
+
+	/**
+	 * Returns the calling thread's cell
+	 * @return the calling thread's cell
+	 */
+	protected Cell cell() {
+		long id = Thread.currentThread().getId();
+		int h = (int)(id ^ (id >>> 32)) * 0x9E3779B9;
+		return cells[(h ^ (h >>> 16)) & mask];
+	}
+
+	/**
+	 * Counts an event and adds its value to the total
+	 * @param value The event's value
+	 * @return the number of events counted by the calling thread's cell, including this one
+	 */
+	public long record(long value) {
+		Cell cell = cell();
+		Cell.TOTAL.addAndGet(cell, value);
+		return Cell.COUNT.incrementAndGet(cell);
+	}
+
+	/**
+	 * Returns the number of events counted
+	 * @return the number of events counted
+	 */
+	public long getCount() {
+		long count = 0;
+		for(Cell cell: cells) {
+			count += cell.count;
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the total of the counted events' values
+	 * @return the total of the counted events' values
+	 */
+	public long getTotal() {
+		long total = 0;
+		for(Cell cell: cells) {
+			total += cell.total;
+		}
+		return total;
+	}
+
+	/**
+	 * Zeros the counts and totals. Not atomic with respect to concurrent writers.
+	 */
+	public void reset() {
+		for(Cell cell: cells) {
+			Cell.COUNT.set(cell, 0);
+			Cell.TOTAL.set(cell, 0);
+		}
+	}
+
+	/**
+	 * <p>Title: Cell</p>
+	 * <p>Description: A padded count and total for the writers mapped to it.</p>
+	 * <p><code>org.helios.hiex.util.concurrency.StripedCounter.Cell</code></p>
+	 */
+	protected static final class Cell {
+		/** Leading cache line padding */
+		long p0, p1, p2, p3, p4, p5, p6;
+		/** The number of events */
+		volatile long count = 0;
+		/** The total of the events' values */
+		volatile long total = 0;
+		/** Trailing cache line padding */
+		long q0, q1, q2, q3, q4, q5, q6;
+
+		/** The count updater */
+		static final AtomicLongFieldUpdater<Cell> COUNT = AtomicLongFieldUpdater.newUpdater(Cell.class, "count");
+		/** The total updater */
+		static final AtomicLongFieldUpdater<Cell> TOTAL = AtomicLongFieldUpdater.newUpdater(Cell.class, "total");
+	}
+}
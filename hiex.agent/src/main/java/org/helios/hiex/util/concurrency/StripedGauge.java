@@ -0,0 +1,205 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.util.concurrency;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * <p>Title: StripedGauge</p>
+ * <p>Description: A striped in-flight gauge. A call is added to a padded cell selected by its thread when it starts and removed
+ * from the same cell when it finishes on the same thread, so concurrent callers rarely share a cache line and the current in-flight
+ * count is the sum of the cells. Each cell packs its in-flight count and its in-flight time ledger, the sum of its calls' finish
+ * times less the sum of their start times, into one long, so a start or a finish is a single atomic add and the cell is always read
+ * consistently. The ledger plus the in-flight count times the current time is the cell's in-flight time to date, including the calls
+ * still running, and each interval settles it, so the average in-flight count (Little's law) counts a long call in every interval it
+ * spans rather than only the one it finishes in. Each cell also keeps the high-water mark of its own in-flight count, raised by a start
+ * from the count its atomic add returned, so a start never reads another cell. The interval peak is the sum of the cells' high-water
+ * marks. It is approximate: exact when the cells peak together, as under a burst, and otherwise an upper bound, since cells that peak
+ * at different times are summed as if they peaked at once.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.util.concurrency.StripedGauge</code></p>
+ */
+public class StripedGauge {
+	/** The gauge cells */
+	protected final Cell[] cells;
+	/** The cell index mask */
+	protected final int mask;
+	/** The time the ledger times are measured from, in ms */
+	protected final long origin;
+
+	/** The default number of cells, the smallest power of 2 at or above twice the number of available processors */
+	public static final int DEFAULT_CELLS = WriterReaderPhaser.DEFAULT_CELLS;
+	/** The number of low bits of a cell's state holding its in-flight count */
+	public static final int IN_FLIGHT_BITS = 16;
+	/**
+	 * The largest number of calls a cell can hold in flight. Callers must not exceed it, and must only call {@link #finish(long)}
+	 * after a matching {@link #start(long)} on the same thread, since the count shares its long with the in-flight time ledger.
+	 * A finish with no call in flight in its cell is detected and undone rather than borrowing from the ledger.
+	 */
+	public static final long MAX_CELL_IN_FLIGHT = (1L << IN_FLIGHT_BITS) - 1;
+	/** The index of the current in-flight count in {@link #interval(long)} */
+	public static final int CURRENT = 0;
+	/** The index of the interval peak in {@link #interval(long)} */
+	public static final int PEAK = 1;
+	/** The index of the interval's in-flight time in {@link #interval(long)} */
+	public static final int BUSY = 2;
+
+	/**
+	 * Creates a new StripedGauge with the default number of cells
+	 */
+	public StripedGauge() {
+		this(DEFAULT_CELLS);
+	}
+
+	/**
+	 * Creates a new StripedGauge
+	 * @param cellCount The number of cells. Rounded up to the nearest power of 2.
+	 */
+	public StripedGauge(int cellCount) {
+		if(cellCount < 1) throw new IllegalArgumentException("Cell count must be > 0 [" + cellCount + "]", new Throwable());
+		int count = 1;
+		while(count < cellCount) count <<= 1;
+		cells = new Cell[count];
+		for(int i = 0; i < count; i++) {
+			cells[i] = new Cell();
+		}
+		mask = count - 1;
+		origin = System.currentTimeMillis();
+	}
+
+	/**
+	 * Returns the calling thread's cell
+	 * @return the calling thread's cell
+	 */
+	protected Cell cell() {
+		long id = Thread.currentThread().getId();
+		int h = (int)(id ^ (id >>> 32)) * 0x9E3779B9;
+		return cells[(h ^ (h >>> 16)) & mask];
+	}
+
+	/**
+	 * Counts a call as in flight. Must be matched by {@link #finish(long)} on the same thread.
+	 * @param now The call's start time in ms, on the clock passed to {@link #interval(long)}
+	 */
+	public void start(long now) {
+		Cell cell = cell();
+		long inFlight = Cell.STATE.addAndGet(cell, 1 - ((now - origin) << IN_FLIGHT_BITS)) & MAX_CELL_IN_FLIGHT;
+		for(long p; inFlight > (p = cell.peak);) {
+			if(Cell.PEAK.compareAndSet(cell, p, inFlight)) return;
+		}
+	}
+
+	/**
+	 * Counts an in-flight call as finished
+	 * @param now The call's finish time in ms, on the clock passed to {@link #interval(long)}
+	 */
+	public void finish(long now) {
+		Cell cell = cell();
+		long delta = ((now - origin) << IN_FLIGHT_BITS) - 1;
+		// A count of all ones after a decrement can only be a finish without a start, which borrowed from the ledger
+		if((Cell.STATE.addAndGet(cell, delta) & MAX_CELL_IN_FLIGHT)==MAX_CELL_IN_FLIGHT) {
+			Cell.STATE.addAndGet(cell, -delta);
+		}
+	}
+
+	/**
+	 * Returns the number of calls in flight. The cells are not read atomically, so the sum is approximate while calls start and finish.
+	 * @return the number of calls in flight
+	 */
+	public long getCurrent() {
+		long current = 0;
+		for(Cell cell: cells) {
+			current += cell.state & MAX_CELL_IN_FLIGHT;
+		}
+		return current;
+	}
+
+	/**
+	 * Closes the current interval. Each cell's in-flight time to the passed time, including the calls still in flight, is settled
+	 * out of its ledger into the interval's, so a call in flight across the rollover counts towards both intervals. Each cell's
+	 * high-water mark restarts at its current in-flight count.
+	 * @param now The end of the interval in ms, on the clock the calls' start and finish times are taken from
+	 * @return the current in-flight count, the interval peak and the interval's in-flight time in ms, indexed by
+	 * {@link #CURRENT}, {@link #PEAK} and {@link #BUSY}
+	 */
+	public long[] interval(long now) {
+		long elapsed = now - origin;
+		long current = 0;
+		long busy = 0;
+		long peak = 0;
+		for(Cell cell: cells) {
+			long state = cell.state;
+			long inFlight = state & MAX_CELL_IN_FLIGHT;
+			// The ledger plus the running calls' time to now. A start or finish racing this read stays in the ledger for the next interval.
+			long settled = (state >> IN_FLIGHT_BITS) + inFlight * elapsed;
+			Cell.STATE.addAndGet(cell, -(settled << IN_FLIGHT_BITS));
+			current += inFlight;
+			busy += settled;
+			// A start racing the reset leaves its count in the state, so the next interval's mark is at most one call low
+			peak += Math.max(Cell.PEAK.getAndSet(cell, inFlight), inFlight);
+		}
+		return new long[]{current, Math.max(peak, current), busy};
+	}
+
+	/**
+	 * Calculates the average in-flight count of an interval from its in-flight time, by Little's law
+	 * @param busy The interval's in-flight time
+	 * @param elapsed The interval's length, in the same unit
+	 * @return the average in-flight count
+	 */
+	public static double average(long busy, long elapsed) {
+		return elapsed < 1 || busy < 1 ? 0D : (double)busy / elapsed;
+	}
+
+	/**
+	 * Returns the number of cells
+	 * @return the number of cells
+	 */
+	public int getCellCount() {
+		return cells.length;
+	}
+
+	/**
+	 * <p>Title: Cell</p>
+	 * <p>Description: A padded in-flight count and in-flight time ledger, packed into one long, and in-flight high-water mark for the callers mapped to it.</p>
+	 * <p><code>org.helios.hiex.util.concurrency.StripedGauge.Cell</code></p>
+	 */
+	protected static final class Cell {
+		/** Leading cache line padding */
+		long p0, p1, p2, p3, p4, p5, p6;
+		/** The in-flight count in the low {@link StripedGauge#IN_FLIGHT_BITS} bits, and above them the unsettled finish times less start times in ms since the origin */
+		volatile long state = 0;
+		/** The highest in-flight count of this cell in the current interval */
+		volatile long peak = 0;
+		/** Trailing cache line padding */
+		long q0, q1, q2, q3, q4, q5, q6;
+
+		/** The state updater */
+		static final AtomicLongFieldUpdater<Cell> STATE = AtomicLongFieldUpdater.newUpdater(Cell.class, "state");
+		/** The high-water mark updater */
+		static final AtomicLongFieldUpdater<Cell> PEAK = AtomicLongFieldUpdater.newUpdater(Cell.class, "peak");
+	}
+}
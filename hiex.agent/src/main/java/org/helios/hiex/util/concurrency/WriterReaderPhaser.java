@@ -0,0 +1,220 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.util.concurrency;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>Title: WriterReaderPhaser</p>
+ * <p>Description: A striped writer-reader phaser used to roll over double buffered interval data without losing
+ * samples. Writers wrap each write in {@link #writerCriticalSectionEnter()} / {@link #writerCriticalSectionExit(long)}
+ * and write into the buffer at {@link #phaseIndex(long)} of the value returned on entry. Both calls are a single
+ * atomic increment on an epoch cell selected by the writer's thread, so writers never block and do not share a cache line.
+ * The reader, holding the reader lock, calls {@link #flipPhase()} which switches all new writers to the other buffer
+ * and waits only until every writer that entered the closing phase has exited. After the flip, the buffer at
+ * {@link #inactiveIndex()} is owned by the reader until the next flip.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.util.concurrency.WriterReaderPhaser</code></p>
+ */
+public class WriterReaderPhaser {
+	/** The epoch cells */
+	protected final Cell[] cells;
+	/** The cell index mask */
+	protected final int mask;
+	/** The reader lock */
+	protected final ReentrantLock readerLock = new ReentrantLock();
+	/** Indicates if the current phase is odd */
+	protected volatile boolean oddPhase = false;
+
+	/** The default number of cells, the smallest power of 2 at or above twice the number of available processors */
+	public static final int DEFAULT_CELLS = powerOfTwo(Runtime.getRuntime().availableProcessors() * 2);
+	/** The default time to park between checks for writers of the closing phase to exit, in ns */
+	public static final long DEFAULT_YIELD_NS = 10000L;
+
+	/**
+	 * Creates a new WriterReaderPhaser with the default number of cells
+	 */
+	public WriterReaderPhaser() {
+		this(DEFAULT_CELLS);
+	}
+
+	/**
+	 * Creates a new WriterReaderPhaser
+	 * @param cellCount The number of epoch cells. Rounded up to the nearest power of 2.
+	 */
+	public WriterReaderPhaser(int cellCount) {
+		if(cellCount < 1) throw new IllegalArgumentException("Cell count must be > 0 [" + cellCount + "]", new Throwable());
+		int count = powerOfTwo(cellCount);
+		cells = new Cell[count];
+		for(int i = 0; i < count; i++) {
+			cells[i] = new Cell();
+		}
+		mask = count - 1;
+	}
+
+	/**
+	 * Returns the smallest power of 2 at or above the passed value
+	 * @param value The value
+	 * @return the power of 2
+	 */
+	protected static int powerOfTwo(int value) {
+		int p = 1;
+		while(p < value) p <<= 1;
+		return p;
+	}
+
+	/**
+	 * Returns the calling thread's epoch cell
+	 * @return the calling thread's epoch cell
+	 */
+	protected Cell cell() {
+		long id = Thread.currentThread().getId();
+		int h = (int)(id ^ (id >>> 32)) * 0x9E3779B9;
+		return cells[(h ^ (h >>> 16)) & mask];
+	}
+
+	/**
+	 * Enters a writer critical section
+	 * @return the value to pass to {@link #writerCriticalSectionExit(long)} and {@link #phaseIndex(long)}
+	 */
+	public long writerCriticalSectionEnter() {
+		return Cell.START.getAndIncrement(cell());
+	}
+
+	/**
+	 * Exits a writer critical section
+	 * @param criticalValueAtEnter The value returned by the matching {@link #writerCriticalSectionEnter()}
+	 */
+	public void writerCriticalSectionExit(long criticalValueAtEnter) {
+		(criticalValueAtEnter < 0 ? Cell.ODD_END : Cell.EVEN_END).getAndIncrement(cell());
+	}
+
+	/**
+	 * Returns the buffer index a writer should write to
+	 * @param criticalValueAtEnter The value returned by {@link #writerCriticalSectionEnter()}
+	 * @return the buffer index, 0 or 1
+	 */
+	public static int phaseIndex(long criticalValueAtEnter) {
+		return criticalValueAtEnter < 0 ? 1 : 0;
+	}
+
+	/**
+	 * Returns the buffer index new writers are writing to
+	 * @return the active buffer index, 0 or 1
+	 */
+	public int activeIndex() {
+		return oddPhase ? 1 : 0;
+	}
+
+	/**
+	 * Returns the buffer index of the last closed phase, which is owned by the reader until the next flip
+	 * @return the inactive buffer index, 0 or 1
+	 */
+	public int inactiveIndex() {
+		return oddPhase ? 0 : 1;
+	}
+
+	/**
+	 * Acquires the reader lock
+	 */
+	public void readerLock() {
+		readerLock.lock();
+	}
+
+	/**
+	 * Releases the reader lock
+	 */
+	public void readerUnlock() {
+		readerLock.unlock();
+	}
+
+	/**
+	 * Flips the phase, parking for {@link #DEFAULT_YIELD_NS} between checks for writers of the closing phase
+	 * @see #flipPhase(long)
+	 */
+	public void flipPhase() {
+		flipPhase(DEFAULT_YIELD_NS);
+	}
+
+	/**
+	 * Switches new writers to the other phase and waits until every writer that entered the closing phase has exited.
+	 * The caller must hold the reader lock.
+	 * @param yieldTimeNs The time to park between checks. If zero, the thread yields instead.
+	 */
+	public void flipPhase(long yieldTimeNs) {
+		if(!readerLock.isHeldByCurrentThread()) throw new IllegalStateException("flipPhase() called without holding the reader lock", new Throwable());
+		final boolean nextPhaseIsEven = oddPhase;
+		final long initialStartValue = nextPhaseIsEven ? 0 : Long.MIN_VALUE;
+		final long[] startValuesAtFlip = new long[cells.length];
+		for(int i = 0; i < cells.length; i++) {
+			Cell cell = cells[i];
+			if(nextPhaseIsEven) {
+				Cell.EVEN_END.lazySet(cell, initialStartValue);
+			} else {
+				Cell.ODD_END.lazySet(cell, initialStartValue);
+			}
+			startValuesAtFlip[i] = Cell.START.getAndSet(cell, initialStartValue);
+		}
+		oddPhase = !nextPhaseIsEven;
+		for(int i = 0; i < cells.length; i++) {
+			Cell cell = cells[i];
+			while((nextPhaseIsEven ? cell.oddEndEpoch : cell.evenEndEpoch) != startValuesAtFlip[i]) {
+				if(yieldTimeNs==0) {
+					Thread.yield();
+				} else {
+					LockSupport.parkNanos(yieldTimeNs);
+				}
+			}
+		}
+	}
+
+	/**
+	 * <p>Title: Cell</p>
+	 * <p>Description: A padded set of phase epochs for the writers mapped to it.</p>
+	 * <p><code>org.helios.hiex.util.concurrency.WriterReaderPhaser.Cell</code></p>
+	 */
+	protected static final class Cell {
+		/** Leading cache line padding */
+		long p0, p1, p2, p3, p4, p5, p6;
+		/** The start epoch, incremented on writer entry */
+		volatile long startEpoch = 0;
+		/** The even phase end epoch, incremented on even phase writer exit */
+		volatile long evenEndEpoch = 0;
+		/** The odd phase end epoch, incremented on odd phase writer exit */
+		volatile long oddEndEpoch = Long.MIN_VALUE;
+		/** Trailing cache line padding */
+		long q0, q1, q2, q3, q4, q5, q6;
+
+		/** The start epoch updater */
+		static final AtomicLongFieldUpdater<Cell> START = AtomicLongFieldUpdater.newUpdater(Cell.class, "startEpoch");
+		/** The even end epoch updater */
+		static final AtomicLongFieldUpdater<Cell> EVEN_END = AtomicLongFieldUpdater.newUpdater(Cell.class, "evenEndEpoch");
+		/** The odd end epoch updater */
+		static final AtomicLongFieldUpdater<Cell> ODD_END = AtomicLongFieldUpdater.newUpdater(Cell.class, "oddEndEpoch");
+	}
+}
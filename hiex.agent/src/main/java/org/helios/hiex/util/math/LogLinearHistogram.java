@@ -0,0 +1,547 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.util.math;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Title: LogLinearHistogram</p>
+ * <p>Description: A fixed memory histogram of positive long values using log-linear buckets.
+ * Values are grouped into power of 2 buckets, each of which is linearly divided into enough sub-buckets
+ * to maintain the configured number of significant decimal digits. The relative error of any value
+ * derived from the histogram (percentiles, counts at or below a value) is therefore bounded by
+ * <code>10<sup>-significantDigits</sup></code> of the value. The footprint depends only on the significant
+ * digits and the highest trackable value, never on the number of recorded values.</p>
+ * <p>Recording is a bucket index computation and an atomic increment, so the histogram is safe for
+ * concurrent writers without locking. Reads are not atomic with respect to concurrent writes.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.util.math.LogLinearHistogram</code></p>
+ */
+public class LogLinearHistogram {
+	/** The highest value that can be tracked. Larger values are recorded as this value. */
+	protected final long highestTrackableValue;
+	/** The number of significant decimal digits maintained */
+	protected final int significantDigits;
+	/** The number of sub buckets in each bucket */
+	protected final int subBucketCount;
+	/** Half the number of sub buckets in each bucket */
+	protected final int subBucketHalfCount;
+	/** log2 of subBucketHalfCount */
+	protected final int subBucketHalfCountMagnitude;
+	/** The mask used to force values into the first bucket */
+	protected final long subBucketMask;
+	/** The leading zero count base used to compute a value's bucket index */
+	protected final int leadingZeroCountBase;
+	/** The bucket counts */
+	protected final AtomicLongArray counts;
+
+	/** The default number of significant digits */
+	public static final int DEFAULT_SIGNIFICANT_DIGITS = 2;
+	/** The maximum supported number of significant digits */
+	public static final int MAX_SIGNIFICANT_DIGITS = 5;
+
+	/**
+	 * Creates a new LogLinearHistogram
+	 * @param highestTrackableValue The highest value that can be tracked. Must be at least 2.
+	 * @param significantDigits The number of significant decimal digits to maintain. [0 - 5]
+	 */
+	public LogLinearHistogram(long highestTrackableValue, int significantDigits) {
+		if(highestTrackableValue < 2) throw new IllegalArgumentException("Highest trackable value must be >= 2 [" + highestTrackableValue + "]", new Throwable());
+		if(significantDigits < 0 || significantDigits > MAX_SIGNIFICANT_DIGITS) throw new IllegalArgumentException("Significant digits must be between 0 and " + MAX_SIGNIFICANT_DIGITS + " [" + significantDigits + "]", new Throwable());
+		this.highestTrackableValue = highestTrackableValue;
+		this.significantDigits = significantDigits;
+		long largestValueWithSingleUnitResolution = 2 * (long)Math.pow(10, significantDigits);
+		int subBucketCountMagnitude = (int)Math.ceil(Math.log(largestValueWithSingleUnitResolution)/Math.log(2));
+		subBucketHalfCountMagnitude = (subBucketCountMagnitude > 1 ? subBucketCountMagnitude : 1) - 1;
+		subBucketCount = 1 << (subBucketHalfCountMagnitude + 1);
+		subBucketHalfCount = subBucketCount / 2;
+		subBucketMask = subBucketCount - 1;
+		leadingZeroCountBase = 64 - subBucketHalfCountMagnitude - 1;
+		counts = new AtomicLongArray((bucketsNeededFor(highestTrackableValue) + 1) * subBucketHalfCount);
+	}
+
+	/**
+	 * Creates a new LogLinearHistogram with the same configuration as the passed histogram
+	 * @param template The histogram to copy the configuration from
+	 */
+	public LogLinearHistogram(LogLinearHistogram template) {
+		this(template.highestTrackableValue, template.significantDigits);
+	}
+
+	/**
+	 * Computes the number of buckets required to cover the passed value
+	 * @param value The highest value to cover
+	 * @return the number of buckets
+	 */
+	private int bucketsNeededFor(long value) {
+		long smallestUntrackableValue = subBucketCount;
+		int bucketsNeeded = 1;
+		while(smallestUntrackableValue <= value) {
+			if(smallestUntrackableValue > Long.MAX_VALUE/2) return bucketsNeeded + 1;
+			smallestUntrackableValue <<= 1;
+			bucketsNeeded++;
+		}
+		return bucketsNeeded;
+	}
+
+	/**
+	 * Records a value. Negative values are recorded as zero and values greater than the highest trackable value
+	 * are recorded as the highest trackable value.
+	 * @param value The value to record
+	 */
+	public void recordValue(long value) {
+		counts.incrementAndGet(countsIndexFor(value));
+	}
+
+	/**
+	 * Records a value multiple times.
+	 * @param value The value to record
+	 * @param count The number of times to record it
+	 */
+	public void recordValue(long value, long count) {
+		if(count<1) return;
+		counts.addAndGet(countsIndexFor(value), count);
+	}
+
+	/**
+	 * Returns the counts array index for the passed value
+	 * @param value The value
+	 * @return the counts array index
+	 */
+	protected int countsIndexFor(long value) {
+		if(value < 0) value = 0;
+		else if(value > highestTrackableValue) value = highestTrackableValue;
+		int bucketIndex = leadingZeroCountBase - Long.numberOfLeadingZeros(value | subBucketMask);
+		int subBucketIndex = (int)(value >>> bucketIndex);
+		return ((bucketIndex + 1) << subBucketHalfCountMagnitude) + (subBucketIndex - subBucketHalfCount);
+	}
+
+	/**
+	 * Returns the lowest value that is equivalent to the values counted at the passed counts array index
+	 * @param index The counts array index
+	 * @return the lowest equivalent value
+	 */
+	protected long lowestValueAt(int index) {
+		int bucketIndex = (index >> subBucketHalfCountMagnitude) - 1;
+		int subBucketIndex = (index & (subBucketHalfCount - 1)) + subBucketHalfCount;
+		if(bucketIndex < 0) {
+			subBucketIndex -= subBucketHalfCount;
+			bucketIndex = 0;
+		}
+		return ((long)subBucketIndex) << bucketIndex;
+	}
+
+	/**
+	 * Returns the size of the range of values equivalent to the values counted at the passed counts array index
+	 * @param index The counts array index
+	 * @return the size of the equivalent value range
+	 */
+	protected long rangeSizeAt(int index) {
+		int bucketIndex = (index >> subBucketHalfCountMagnitude) - 1;
+		return 1L << (bucketIndex < 0 ? 0 : bucketIndex);
+	}
+
+	/**
+	 * Returns the highest value that is equivalent to the values counted at the passed counts array index
+	 * @param index The counts array index
+	 * @return the highest equivalent value
+	 */
+	protected long highestValueAt(int index) {
+		return lowestValueAt(index) + rangeSizeAt(index) - 1;
+	}
+
+	/**
+	 * Returns the median value of the values equivalent to the values counted at the passed counts array index
+	 * @param index The counts array index
+	 * @return the median equivalent value
+	 */
+	protected long medianValueAt(int index) {
+		return lowestValueAt(index) + (rangeSizeAt(index) >> 1);
+	}
+
+	/**
+	 * Returns the lowest value that is equivalent to the passed value in this histogram
+	 * @param value The value
+	 * @return the lowest equivalent value
+	 */
+	public long lowestEquivalentValue(long value) {
+		return lowestValueAt(countsIndexFor(value));
+	}
+
+	/**
+	 * Returns the highest value that is equivalent to the passed value in this histogram
+	 * @param value The value
+	 * @return the highest equivalent value
+	 */
+	public long highestEquivalentValue(long value) {
+		return highestValueAt(countsIndexFor(value));
+	}
+
+	/**
+	 * Returns the total number of recorded values
+	 * @return the total count
+	 */
+	public long getTotalCount() {
+		long total = 0;
+		final int length = counts.length();
+		for(int i = 0; i < length; i++) {
+			total += counts.get(i);
+		}
+		return total;
+	}
+
+	/**
+	 * Returns the value at the passed percentile. The returned value is the highest value equivalent
+	 * to the value at the percentile rank, so it is within the histogram's relative error of the exact value.
+	 * @param percentile The percentile [0 - 100]
+	 * @return the value at the percentile or zero if the histogram is empty
+	 */
+	public long getValueAtPercentile(double percentile) {
+		return getValuesAtPercentiles(new double[]{percentile}, getTotalCount())[0];
+	}
+
+	/**
+	 * Returns the values at the passed percentiles in one pass over the counts
+	 * @param percentiles The percentiles [0 - 100] in ascending order
+	 * @param totalCount The total count of the histogram
+	 * @return an array of the values at each percentile
+	 */
+	public long[] getValuesAtPercentiles(double[] percentiles, long totalCount) {
+		long[] values = new long[percentiles.length];
+		if(totalCount < 1) return values;
+		final int length = counts.length();
+		int p = 0;
+		long cumulative = 0;
+		for(int i = 0; i < length && p < percentiles.length; i++) {
+			cumulative += counts.get(i);
+			while(p < percentiles.length && cumulative >= countAtPercentile(percentiles[p], totalCount)) {
+				values[p++] = Math.min(highestValueAt(i), highestTrackableValue);
+			}
+		}
+		while(p < percentiles.length) {
+			values[p++] = highestTrackableValue;
+		}
+		return values;
+	}
+
+	/**
+	 * Returns the rank of the value at the passed percentile
+	 * @param percentile The percentile [0 - 100]
+	 * @param totalCount The total count of the histogram
+	 * @return the 1 based rank of the percentile value
+	 */
+	private static long countAtPercentile(double percentile, long totalCount) {
+		double p = percentile < 0 ? 0 : (percentile > 100 ? 100 : percentile);
+		long rank = (long)Math.ceil((p / 100D) * totalCount);
+		return rank < 1 ? 1 : rank;
+	}
+
+	/**
+	 * Returns the number of recorded values that are equivalent to or less than the passed value
+	 * @param value The value
+	 * @return the count at or below the value
+	 */
+	public long getCountAtOrBelow(long value) {
+		final int upTo = countsIndexFor(value);
+		long total = 0;
+		for(int i = 0; i <= upTo; i++) {
+			total += counts.get(i);
+		}
+		return total;
+	}
+
+	/**
+	 * Returns the number of recorded values that are equivalent to or less than each of the passed values in one pass over the counts
+	 * @param values The values in ascending order
+	 * @return an array of the counts at or below each value
+	 */
+	public long[] getCountsAtOrBelow(long[] values) {
+		long[] below = new long[values.length];
+		int v = 0;
+		long cumulative = 0;
+		for(int i = 0; v < values.length; i++) {
+			cumulative += counts.get(i);
+			while(v < values.length && countsIndexFor(values[v])==i) {
+				below[v++] = cumulative;
+			}
+		}
+		return below;
+	}
+
+	/**
+	 * Computes the mean of the recorded values using the median equivalent value of each bucket
+	 * @return the mean or zero if the histogram is empty
+	 */
+	public double getMean() {
+		final int length = counts.length();
+		long total = 0;
+		double sum = 0;
+		for(int i = 0; i < length; i++) {
+			long count = counts.get(i);
+			if(count==0) continue;
+			total += count;
+			sum += (double)medianValueAt(i) * count;
+		}
+		return total==0 ? 0D : sum / total;
+	}
+
+	/**
+	 * Computes the standard deviation of the recorded values using the median equivalent value of each bucket
+	 * @return the standard deviation or zero if the histogram is empty
+	 */
+	public double getStdDeviation() {
+		final int length = counts.length();
+		final double mean = getMean();
+		long total = 0;
+		double geometricDeviationTotal = 0;
+		for(int i = 0; i < length; i++) {
+			long count = counts.get(i);
+			if(count==0) continue;
+			total += count;
+			double deviation = medianValueAt(i) - mean;
+			geometricDeviationTotal += (deviation * deviation) * count;
+		}
+		return total==0 ? 0D : Math.sqrt(geometricDeviationTotal / total);
+	}
+
+	/**
+	 * Returns the highest equivalent value of the highest recorded value
+	 * @return the maximum value or zero if the histogram is empty
+	 */
+	public long getMaxValue() {
+		for(int i = counts.length()-1; i >= 0; i--) {
+			if(counts.get(i)!=0) return Math.min(highestValueAt(i), highestTrackableValue);
+		}
+		return 0;
+	}
+
+	/**
+	 * Returns the lowest equivalent value of the lowest recorded value
+	 * @return the minimum value or zero if the histogram is empty
+	 */
+	public long getMinValue() {
+		final int length = counts.length();
+		for(int i = 0; i < length; i++) {
+			if(counts.get(i)!=0) return lowestValueAt(i);
+		}
+		return 0;
+	}
+
+	/**
+	 * Adds the counts of the passed histogram to this histogram.
+	 * Both histograms must have the same configuration.
+	 * @param other The histogram to add
+	 */
+	public void add(LogLinearHistogram other) {
+		if(other.counts.length()!=counts.length() || other.significantDigits!=significantDigits) {
+			throw new IllegalArgumentException("Incompatible histogram configuration", new Throwable());
+		}
+		final int length = counts.length();
+		for(int i = 0; i < length; i++) {
+			long count = other.counts.get(i);
+			if(count!=0) counts.addAndGet(i, count);
+		}
+	}
+
+	/**
+	 * Adds the counts of the passed histogram to this histogram, corrected for coordinated omission. Each value above the
+	 * expected interval between calls is taken to have delayed the calls that should have started during it, so its count is
+	 * also added at each of <code>value - expectedInterval</code>, <code>value - 2 * expectedInterval</code>, ... down to the
+	 * expected interval. The values are the median equivalent values of the passed histogram's buckets, and the synthetic counts
+	 * that fall in the same bucket are added in one step, so the cost is bounded by the number of buckets.
+	 * Both histograms must have the same configuration.
+	 * @param other The histogram to add. Must not be this histogram.
+	 * @param expectedInterval The expected interval between calls, in the recorded unit. Must be positive.
+	 */
+	public void addCorrected(LogLinearHistogram other, long expectedInterval) {
+		if(other==this) throw new IllegalArgumentException("Cannot add a corrected copy of a histogram to itself", new Throwable());
+		if(expectedInterval < 1) throw new IllegalArgumentException("Expected interval must be > 0 [" + expectedInterval + "]", new Throwable());
+		add(other);
+		final int length = other.counts.length();
+		for(int i = 0; i < length; i++) {
+			long count = other.counts.get(i);
+			if(count==0) continue;
+			long missing = other.medianValueAt(i) - expectedInterval;
+			while(missing >= expectedInterval) {
+				// The synthetic values from missing down to the bucket's lowest value, or the expected interval, share a bucket
+				int index = countsIndexFor(missing);
+				long lowest = Math.max(lowestValueAt(index), expectedInterval);
+				long n = (missing - lowest) / expectedInterval + 1;
+				counts.addAndGet(index, n * count);
+				missing -= n * expectedInterval;
+			}
+		}
+	}
+
+	/**
+	 * Zeros all the counts in this histogram
+	 */
+	public void reset() {
+		final int length = counts.length();
+		for(int i = 0; i < length; i++) {
+			counts.set(i, 0);
+		}
+	}
+
+	/**
+	 * Adds the counts of each non empty bucket to the passed digest at the bucket's median equivalent value.
+	 * The cost depends on the number of buckets, not the number of recorded values.
+	 * @param digest The digest to add the counts to
+	 */
+	public void addTo(TDigest digest) {
+		for(int i = 0; i < counts.length(); i++) {
+			long count = counts.get(i);
+			if(count > 0) {
+				digest.add(medianValueAt(i), count);
+			}
+		}
+	}
+
+	/**
+	 * Writes the non empty buckets to the passed buffer as pairs of unsigned variable length integers: the distance of the
+	 * bucket's counts index from the previous non empty bucket's, and the bucket's count, terminated by a zero distance.
+	 * A sparse interval typically encodes in a few hundred bytes. The encoding can only be decoded by a histogram with the
+	 * same highest trackable value and significant digits.
+	 * @param target The buffer to write to, with at least {@link #getMaxEncodedLength()} bytes remaining
+	 */
+	public void encodeInto(ByteBuffer target) {
+		int previous = -1;
+		final int length = counts.length();
+		for(int i = 0; i < length; i++) {
+			long count = counts.get(i);
+			if(count > 0) {
+				putVarLong(target, i - previous);
+				putVarLong(target, count);
+				previous = i;
+			}
+		}
+		putVarLong(target, 0);
+	}
+
+	/**
+	 * Adds the counts encoded by {@link #encodeInto(ByteBuffer)} to this histogram
+	 * @param source The buffer to read from, positioned at the start of the encoding. Positioned after it on return.
+	 */
+	public void decodeFrom(ByteBuffer source) {
+		int index = -1;
+		final int length = counts.length();
+		for(long distance; (distance = getVarLong(source))!=0;) {
+			long count = getVarLong(source);
+			if(distance < 0 || index + distance >= length || count < 0) {
+				throw new IllegalArgumentException("Corrupt or incompatible histogram encoding at counts index [" + (index + distance) + "]", new Throwable());
+			}
+			index += (int)distance;
+			counts.addAndGet(index, count);
+		}
+	}
+
+	/**
+	 * Returns the largest number of bytes {@link #encodeInto(ByteBuffer)} can write
+	 * @return the maximum encoded length
+	 */
+	public int getMaxEncodedLength() {
+		return counts.length() * 15 + 1;
+	}
+
+	/**
+	 * Writes an unsigned variable length long, 7 bits per byte, least significant first
+	 * @param target The buffer to write to
+	 * @param value The non negative value
+	 */
+	private static void putVarLong(ByteBuffer target, long value) {
+		while((value & ~0x7FL)!=0) {
+			target.put((byte)((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		target.put((byte)value);
+	}
+
+	/**
+	 * Reads an unsigned variable length long written by {@link #putVarLong(ByteBuffer, long)}
+	 * @param source The buffer to read from
+	 * @return the value
+	 */
+	private static long getVarLong(ByteBuffer source) {
+		long value = 0;
+		for(int shift = 0; shift < 64; shift += 7) {
+			byte b = source.get();
+			value |= (long)(b & 0x7F) << shift;
+			if((b & 0x80)==0) return value;
+		}
+		throw new IllegalArgumentException("Malformed variable length long", new Throwable());
+	}
+
+	/**
+	 * Returns the relative error bound of values derived from this histogram
+	 * @return the relative error bound
+	 */
+	public double getRelativeError() {
+		return 1D / subBucketHalfCount;
+	}
+
+	/**
+	 * Returns the number of counts slots in this histogram
+	 * @return the number of counts slots
+	 */
+	public int getCountsLength() {
+		return counts.length();
+	}
+
+	/**
+	 * Returns the approximate number of bytes retained by this histogram's counts
+	 * @return the estimated footprint in bytes
+	 */
+	public long getEstimatedFootprintInBytes() {
+		return 8L * counts.length();
+	}
+
+	/**
+	 * Returns the highest value that can be tracked
+	 * @return the highest trackable value
+	 */
+	public long getHighestTrackableValue() {
+		return highestTrackableValue;
+	}
+
+	/**
+	 * Returns the number of significant decimal digits maintained
+	 * @return the number of significant digits
+	 */
+	public int getSignificantDigits() {
+		return significantDigits;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return new StringBuilder("LogLinearHistogram [highestTrackableValue=").append(highestTrackableValue)
+			.append(", significantDigits=").append(significantDigits)
+			.append(", countsLength=").append(counts.length()).append("]").toString();
+	}
+}
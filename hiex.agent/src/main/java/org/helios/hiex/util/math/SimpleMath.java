@@ -57,4 +57,19 @@ public class SimpleMath {
 		return (int)p;
 	}
 	
+	/**
+	 * Scrambles a value so that consecutive values map to pseudo random, uniformly distributed values. (The MurmurHash3 64 bit finalizer)
+	 * @param value The value
+	 * @return the scrambled, non negative value
+	 */
+	public static long mix(long value) {
+		long h = value;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h & Long.MAX_VALUE;
+	}
+	
 }
@@ -0,0 +1,502 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.util.math;
+
+import java.util.Arrays;
+
+/**
+ * <p>Title: TDigest</p>
+ * <p>Description: A merging t-digest streaming quantile sketch. Values are summarized as weighted centroids whose
+ * maximum weight is bounded by the arcsine scale function, so centroids near the tails stay small (often single values)
+ * and the tail quantiles stay accurate. The number of centroids, and therefore the footprint, is bounded by the
+ * compression parameter (roughly 2 x compression centroids) and is independent of both the number of values and their range.</p>
+ * <p>Digests are mergeable: {@link #add(TDigest)} folds another digest's centroids, count, mean and variance into this one,
+ * so digests recorded on different threads or in different intervals can be combined without the raw values.
+ * The mean and standard deviation are tracked exactly rather than estimated from the centroids.</p>
+ * <p>Not thread safe.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.util.math.TDigest</code></p>
+ */
+public class TDigest {
+	/** The compression. Larger values keep more centroids and give more accurate quantiles. */
+	protected final double compression;
+	/** The centroid means, in ascending order */
+	protected double[] mean;
+	/** The centroid weights */
+	protected double[] weight;
+	/** The number of centroids */
+	protected int centroidCount = 0;
+	/** The means of the values buffered since the last merge */
+	protected final double[] bufferMean;
+	/** The weights of the values buffered since the last merge */
+	protected final double[] bufferWeight;
+	/** The number of buffered values */
+	protected int bufferCount = 0;
+	/** The merge scratch means */
+	protected double[] mergeMean;
+	/** The merge scratch weights */
+	protected double[] mergeWeight;
+	/** The total weight of the centroids and buffered values */
+	protected double totalWeight = 0;
+	/** The minimum value */
+	protected double min = Double.POSITIVE_INFINITY;
+	/** The maximum value */
+	protected double max = Double.NEGATIVE_INFINITY;
+	/** The running mean of the values */
+	protected double runningMean = 0;
+	/** The running sum of squared deviations from the mean */
+	protected double m2 = 0;
+
+	/** The default compression */
+	public static final double DEFAULT_COMPRESSION = 100;
+	/** The minimum compression */
+	public static final double MIN_COMPRESSION = 10;
+
+	/**
+	 * Creates a new TDigest
+	 * @param compression The compression. Must be at least {@link #MIN_COMPRESSION}.
+	 */
+	public TDigest(double compression) {
+		this(compression, 2 * (int)Math.ceil(compression) + 10, 2 * (2 * (int)Math.ceil(compression) + 10));
+	}
+
+	/**
+	 * Creates a new TDigest with the passed array capacities
+	 * @param compression The compression. Must be at least {@link #MIN_COMPRESSION}.
+	 * @param centroidCapacity The initial capacity of the centroid arrays
+	 * @param bufferCapacity The capacity of the buffer arrays
+	 */
+	protected TDigest(double compression, int centroidCapacity, int bufferCapacity) {
+		if(compression < MIN_COMPRESSION) throw new IllegalArgumentException("Compression must be >= " + MIN_COMPRESSION + " [" + compression + "]", new Throwable());
+		this.compression = compression;
+		mean = new double[centroidCapacity];
+		weight = new double[centroidCapacity];
+		bufferMean = new double[bufferCapacity];
+		bufferWeight = new double[bufferCapacity];
+		mergeMean = new double[centroidCapacity + bufferCapacity];
+		mergeWeight = new double[centroidCapacity + bufferCapacity];
+	}
+
+	/**
+	 * Creates a new TDigest with the same compression as the passed digest
+	 * @param template The digest to copy the compression from
+	 */
+	public TDigest(TDigest template) {
+		this(template.compression);
+	}
+
+	/**
+	 * Returns a copy of this digest whose arrays are sized to its centroids, for retaining many digests such as a ring of
+	 * interval digests. The copy is a fully functional digest but merges on every added value, so it is best used as
+	 * the source of {@link #add(TDigest)} rather than recorded into.
+	 * @return a compact copy of this digest
+	 */
+	public TDigest compactCopy() {
+		compress();
+		TDigest copy = new TDigest(compression, Math.max(centroidCount, 1), 1);
+		System.arraycopy(mean, 0, copy.mean, 0, centroidCount);
+		System.arraycopy(weight, 0, copy.weight, 0, centroidCount);
+		copy.centroidCount = centroidCount;
+		copy.totalWeight = totalWeight;
+		copy.min = min;
+		copy.max = max;
+		copy.runningMean = runningMean;
+		copy.m2 = m2;
+		return copy;
+	}
+
+	/**
+	 * Adds a value
+	 * @param value The value to add
+	 */
+	public void add(double value) {
+		add(value, 1D);
+	}
+
+	/**
+	 * Adds a value with the passed weight
+	 * @param value The value to add
+	 * @param w The weight of the value. Must be positive.
+	 */
+	public void add(double value, double w) {
+		if(Double.isNaN(value)) throw new IllegalArgumentException("Cannot add NaN", new Throwable());
+		if(w <= 0) return;
+		buffer(value, w);
+		totalWeight += w;
+		if(value < min) min = value;
+		if(value > max) max = value;
+		double delta = value - runningMean;
+		runningMean += delta * w / totalWeight;
+		m2 += w * delta * (value - runningMean);
+	}
+
+	/**
+	 * Merges the passed digest into this digest. The passed digest is compressed but otherwise unchanged.
+	 * @param other The digest to merge
+	 */
+	public void add(TDigest other) {
+		if(other.totalWeight==0) return;
+		other.compress();
+		for(int i = 0; i < other.centroidCount; i++) {
+			buffer(other.mean[i], other.weight[i]);
+		}
+		double total = totalWeight + other.totalWeight;
+		double delta = other.runningMean - runningMean;
+		runningMean += delta * other.totalWeight / total;
+		m2 += other.m2 + delta * delta * totalWeight * other.totalWeight / total;
+		totalWeight = total;
+		if(other.min < min) min = other.min;
+		if(other.max > max) max = other.max;
+	}
+
+	/**
+	 * Merges the passed digest into this digest, corrected for coordinated omission. Each centroid above the expected interval
+	 * between calls is taken to have delayed the calls that should have started during it, so its weight is also added at each of
+	 * <code>mean - expectedInterval</code>, <code>mean - 2 * expectedInterval</code>, ... down to the expected interval. When a
+	 * centroid implies more synthetic values than the compression, consecutive synthetic values are added as at most compression
+	 * groups at their mean, so the cost is bounded by the number of centroids and the compression.
+	 * @param other The digest to merge. Must not be this digest.
+	 * @param expectedInterval The expected interval between calls. Must be positive.
+	 */
+	public void addCorrected(TDigest other, double expectedInterval) {
+		if(other==this) throw new IllegalArgumentException("Cannot add a corrected copy of a digest to itself", new Throwable());
+		if(!(expectedInterval > 0)) throw new IllegalArgumentException("Expected interval must be > 0 [" + expectedInterval + "]", new Throwable());
+		add(other);
+		int groups = (int)Math.ceil(compression);
+		for(int i = 0; i < other.centroidCount; i++) {
+			// The synthetic values are mean - k * expectedInterval for k = 1 to n
+			long n = (long)Math.floor(other.mean[i] / expectedInterval) - 1;
+			if(n < 1) continue;
+			long step = (n + groups - 1) / groups;
+			for(long k = 1; k <= n; k += step) {
+				long last = Math.min(n, k + step - 1);
+				add(other.mean[i] - expectedInterval * (k + last) / 2D, other.weight[i] * (last - k + 1));
+			}
+		}
+	}
+
+	/**
+	 * Appends a weighted value to the buffer, merging the buffer into the centroids when it is full
+	 * @param value The value
+	 * @param w The weight
+	 */
+	protected void buffer(double value, double w) {
+		if(bufferCount==bufferMean.length) {
+			compress();
+		}
+		bufferMean[bufferCount] = value;
+		bufferWeight[bufferCount] = w;
+		bufferCount++;
+	}
+
+	/**
+	 * Merges the buffered values into the centroids
+	 */
+	public void compress() {
+		if(bufferCount==0) return;
+		sort(bufferMean, bufferWeight, 0, bufferCount-1);
+		// Merge the sorted centroids and buffer into the scratch arrays
+		int n = centroidCount + bufferCount;
+		if(mergeMean.length < n) {
+			mergeMean = new double[n];
+			mergeWeight = new double[n];
+		}
+		int c = 0, b = 0;
+		for(int i = 0; i < n; i++) {
+			if(b==bufferCount || (c < centroidCount && mean[c] <= bufferMean[b])) {
+				mergeMean[i] = mean[c];
+				mergeWeight[i] = weight[c++];
+			} else {
+				mergeMean[i] = bufferMean[b];
+				mergeWeight[i] = bufferWeight[b++];
+			}
+		}
+		// Greedily merge adjacent centroids while the merged weight stays within the scale function's limit
+		double total = 0;
+		for(int i = 0; i < n; i++) total += mergeWeight[i];
+		int out = 0;
+		mean[0] = mergeMean[0];
+		weight[0] = mergeWeight[0];
+		double weightSoFar = 0;
+		double weightLimit = total * integratedQ(integratedLocation(0) + 1);
+		for(int i = 1; i < n; i++) {
+			double proposed = weight[out] + mergeWeight[i];
+			if(weightSoFar + proposed <= weightLimit) {
+				weight[out] = proposed;
+				mean[out] += (mergeMean[i] - mean[out]) * mergeWeight[i] / proposed;
+			} else {
+				weightSoFar += weight[out];
+				weightLimit = total * integratedQ(integratedLocation(weightSoFar / total) + 1);
+				out++;
+				if(out==mean.length) {
+					mean = Arrays.copyOf(mean, out * 2);
+					weight = Arrays.copyOf(weight, out * 2);
+				}
+				mean[out] = mergeMean[i];
+				weight[out] = mergeWeight[i];
+			}
+		}
+		centroidCount = out + 1;
+		bufferCount = 0;
+	}
+
+	/**
+	 * The arcsine scale function, mapping a quantile to its location on the [0, compression] k scale
+	 * @param q The quantile
+	 * @return the k scale location
+	 */
+	protected double integratedLocation(double q) {
+		return compression * (Math.asin(2 * q - 1) + Math.PI / 2) / Math.PI;
+	}
+
+	/**
+	 * The inverse of the scale function, mapping a k scale location to its quantile
+	 * @param k The k scale location
+	 * @return the quantile
+	 */
+	protected double integratedQ(double k) {
+		return (Math.sin(Math.min(k, compression) * Math.PI / compression - Math.PI / 2) + 1) / 2;
+	}
+
+	/**
+	 * Estimates the value at the passed quantile. The estimate interpolates linearly between the minimum, the centroid
+	 * means (each placed at the midpoint of its weight) and the maximum.
+	 * @param q The quantile [0 - 1]
+	 * @return the estimated value, or NaN if the digest is empty
+	 */
+	public double quantile(double q) {
+		if(q < 0 || q > 1) throw new IllegalArgumentException("Quantile must be between 0 and 1 [" + q + "]", new Throwable());
+		compress();
+		if(totalWeight==0) return Double.NaN;
+		double index = q * totalWeight;
+		double prevValue = min, prevWeight = 0, cumulative = 0;
+		for(int i = 0; i < centroidCount; i++) {
+			double mid = cumulative + weight[i] / 2;
+			if(index <= mid) return interpolate(prevValue, prevWeight, mean[i], mid, index);
+			prevValue = mean[i];
+			prevWeight = mid;
+			cumulative += weight[i];
+		}
+		return interpolate(prevValue, prevWeight, max, totalWeight, index);
+	}
+
+	/**
+	 * Estimates the values at the passed percentiles
+	 * @param percentiles The percentiles [0 - 100]
+	 * @return the estimated values, indexed by percentile
+	 */
+	public double[] percentiles(float[] percentiles) {
+		double[] values = new double[percentiles.length];
+		for(int i = 0; i < percentiles.length; i++) {
+			values[i] = quantile(percentiles[i] / 100D);
+		}
+		return values;
+	}
+
+	/**
+	 * Estimates the weight of the values at or below the passed value. The inverse of {@link #quantile(double)}.
+	 * @param value The value
+	 * @return the estimated weight at or below the value
+	 */
+	public double countAtOrBelow(double value) {
+		compress();
+		if(totalWeight==0 || value < min) return 0;
+		if(value >= max) return totalWeight;
+		double prevValue = min, prevWeight = 0, cumulative = 0;
+		for(int i = 0; i < centroidCount; i++) {
+			double mid = cumulative + weight[i] / 2;
+			if(value < mean[i]) return interpolate(prevWeight, prevValue, mid, mean[i], value);
+			prevValue = mean[i];
+			prevWeight = mid;
+			cumulative += weight[i];
+		}
+		return interpolate(prevWeight, prevValue, totalWeight, max, value);
+	}
+
+	/**
+	 * Linearly interpolates y at x between (x0, y0) and (x1, y1), written as y0, x0, y1, x1
+	 * @param y0 The y of the first point
+	 * @param x0 The x of the first point
+	 * @param y1 The y of the second point
+	 * @param x1 The x of the second point
+	 * @param x The x to interpolate at
+	 * @return the interpolated y
+	 */
+	private static double interpolate(double y0, double x0, double y1, double x1, double x) {
+		if(x1 <= x0) return y1;
+		return y0 + (y1 - y0) * (x - x0) / (x1 - x0);
+	}
+
+	/**
+	 * Sorts the paired mean and weight arrays by mean
+	 * @param m The means
+	 * @param w The weights
+	 * @param lo The first index, inclusive
+	 * @param hi The last index, inclusive
+	 */
+	private static void sort(double[] m, double[] w, int lo, int hi) {
+		while(hi - lo > 16) {
+			double pivot = m[(lo + hi) >>> 1];
+			int i = lo, j = hi;
+			while(i <= j) {
+				while(m[i] < pivot) i++;
+				while(m[j] > pivot) j--;
+				if(i <= j) {
+					double t = m[i]; m[i] = m[j]; m[j] = t;
+					t = w[i]; w[i] = w[j]; w[j] = t;
+					i++; j--;
+				}
+			}
+			// Recurse into the smaller side to bound the stack depth
+			if(j - lo < hi - i) {
+				sort(m, w, lo, j);
+				lo = i;
+			} else {
+				sort(m, w, i, hi);
+				hi = j;
+			}
+		}
+		for(int i = lo + 1; i <= hi; i++) {
+			double km = m[i], kw = w[i];
+			int j = i - 1;
+			while(j >= lo && m[j] > km) {
+				m[j+1] = m[j];
+				w[j+1] = w[j];
+				j--;
+			}
+			m[j+1] = km;
+			w[j+1] = kw;
+		}
+	}
+
+	/**
+	 * Records each centroid in the passed histogram at its rounded mean. The weights are rounded cumulatively so the
+	 * histogram's total count matches the digest's.
+	 * @param histogram The histogram to record into
+	 */
+	public void addTo(LogLinearHistogram histogram) {
+		compress();
+		double cumulative = 0;
+		long recorded = 0;
+		for(int i = 0; i < centroidCount; i++) {
+			cumulative += weight[i];
+			long count = Math.round(cumulative) - recorded;
+			if(count > 0) {
+				histogram.recordValue(Math.round(mean[i]), count);
+				recorded += count;
+			}
+		}
+	}
+
+	/**
+	 * Returns the total weight, the number of values added with unit weight
+	 * @return the total weight
+	 */
+	public long getTotalCount() {
+		return Math.round(totalWeight);
+	}
+
+	/**
+	 * Returns the exact mean of the values
+	 * @return the mean of the values, or zero if the digest is empty
+	 */
+	public double getMean() {
+		return runningMean;
+	}
+
+	/**
+	 * Returns the exact population standard deviation of the values
+	 * @return the standard deviation of the values, or zero if the digest is empty
+	 */
+	public double getStdDeviation() {
+		return totalWeight==0 ? 0 : Math.sqrt(m2 / totalWeight);
+	}
+
+	/**
+	 * Returns the minimum value
+	 * @return the minimum value, or positive infinity if the digest is empty
+	 */
+	public double getMin() {
+		return min;
+	}
+
+	/**
+	 * Returns the maximum value
+	 * @return the maximum value, or negative infinity if the digest is empty
+	 */
+	public double getMax() {
+		return max;
+	}
+
+	/**
+	 * Returns the number of centroids after merging any buffered values
+	 * @return the number of centroids
+	 */
+	public int getCentroidCount() {
+		compress();
+		return centroidCount;
+	}
+
+	/**
+	 * Returns the compression
+	 * @return the compression
+	 */
+	public double getCompression() {
+		return compression;
+	}
+
+	/**
+	 * Returns the approximate footprint of the digest's arrays in bytes
+	 * @return the approximate footprint in bytes
+	 */
+	public long getEstimatedFootprintInBytes() {
+		return 8L * (mean.length + weight.length + bufferMean.length + bufferWeight.length + mergeMean.length + mergeWeight.length);
+	}
+
+	/**
+	 * Discards all the values
+	 */
+	public void reset() {
+		centroidCount = 0;
+		bufferCount = 0;
+		totalWeight = 0;
+		min = Double.POSITIVE_INFINITY;
+		max = Double.NEGATIVE_INFINITY;
+		runningMean = 0;
+		m2 = 0;
+	}
+
+	/**
+	 * Returns a string of the digest's summary values
+	 * @return a string of the digest's summary values
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return new StringBuilder("TDigest [compression:").append(compression).append(", count:").append(getTotalCount())
+			.append(", centroids:").append(centroidCount).append(", min:").append(min).append(", max:").append(max).append("]").toString();
+	}
+}
@@ -0,0 +1,150 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.agent.tracer.ctile;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.helios.hiex.util.FlexiLogger;
+import org.helios.hiex.util.concurrency.WriterReaderPhaser;
+import org.helios.hiex.util.math.LogLinearHistogram;
+import org.helios.hiex.util.math.TDigest;
+import org.junit.Test;
+
+import com.wily.util.feedback.SeverityLevel;
+
+/**
+ * <p>Title: CtileMetricAccumulatorTestCase</p>
+ * <p>Description: Verifies that every accumulator mode publishes an interval of a single call rather than reading it as no traffic.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.agent.tracer.ctile.CtileMetricAccumulatorTestCase</code></p>
+ */
+
+public class CtileMetricAccumulatorTestCase {
+	/** The configured percentiles */
+	private static final float[] PERCENTILES = new float[]{50, 90};
+	/** A logger that discards everything */
+	private static final FlexiLogger LOG = new FlexiLogger(null, null) {
+		@Override
+		protected void log(SeverityLevel level, Throwable t, Object... args) {
+		}
+	};
+
+	/**
+	 * Records one call in exact mode
+	 */
+	@Test
+	public void testSingleCallExact() throws Exception {
+		WriterReaderPhaser phaser = new WriterReaderPhaser();
+		assertSingleCall(phaser, new CtileMetricAccumulator(PERCENTILES, phaser, TimeUnit.MILLISECONDS, TimeUnit.MILLISECONDS, false, false, LOG));
+	}
+
+	/**
+	 * Records one call in high resolution mode
+	 */
+	@Test
+	public void testSingleCallHighRes() throws Exception {
+		WriterReaderPhaser phaser = new WriterReaderPhaser();
+		assertSingleCall(phaser, new HighResCtileMetricAccumulator(PERCENTILES, phaser, TimeUnit.MILLISECONDS, TimeUnit.MILLISECONDS, false, false, LOG));
+	}
+
+	/**
+	 * Records one call in histogram mode
+	 */
+	@Test
+	public void testSingleCallHistogram() throws Exception {
+		WriterReaderPhaser phaser = new WriterReaderPhaser();
+		assertSingleCall(phaser, new HistogramCtileMetricAccumulator(PERCENTILES, phaser, TimeUnit.MILLISECONDS, TimeUnit.MILLISECONDS, 3600000L, LogLinearHistogram.DEFAULT_SIGNIFICANT_DIGITS, false, false, LOG));
+	}
+
+	/**
+	 * Records one call in sketch mode
+	 */
+	@Test
+	public void testSingleCallSketch() throws Exception {
+		WriterReaderPhaser phaser = new WriterReaderPhaser();
+		assertSingleCall(phaser, new SketchCtileMetricAccumulator(PERCENTILES, phaser, TimeUnit.MILLISECONDS, TimeUnit.MILLISECONDS, TDigest.DEFAULT_COMPRESSION, false, false, LOG));
+	}
+
+	/**
+	 * Records one call in off heap mode
+	 */
+	@Test
+	public void testSingleCallOffHeap() throws Exception {
+		WriterReaderPhaser phaser = new WriterReaderPhaser();
+		assertSingleCall(phaser, new OffHeapCtileMetricAccumulator(PERCENTILES, phaser, TimeUnit.MILLISECONDS, TimeUnit.MILLISECONDS, false, false, LOG));
+	}
+
+	/**
+	 * Records one call of 42 ms, then calculates that interval and an empty one
+	 * @param phaser The interval phaser
+	 * @param acc The accumulator
+	 */
+	private static void assertSingleCall(WriterReaderPhaser phaser, CtileMetricAccumulator acc) {
+		Map<String, String> names = new HashMap<String, String>();
+		names.put(MethodTimerCtile.COUNT_ELAPSED, "count");
+		names.put(MethodTimerCtile.MEAN_ELAPSED, "mean");
+		Map<String, String[]> ctileNames = new HashMap<String, String[]>();
+		ctileNames.put(MethodTimerCtile.PERCENTILE_ELAPSED, new String[]{"p50", "p90"});
+		ctileNames.put(MethodTimerCtile.COUNT_LTOE_PERCENTILE, new String[]{"b50", "b90"});
+		ctileNames.put(MethodTimerCtile.COUNT_GT_PERCENTILE, new String[]{"a50", "a90"});
+		IntervalPublisher publisher = new IntervalPublisher(2, names, ctileNames, null, null, null);
+		acc.addElapsedTime(42);
+		int[] results = calc(phaser, acc, publisher);
+		assertEquals(1, results[publisher.getSlot("count")]);
+		assertEquals(42, results[publisher.getSlot("mean")]);
+		assertEquals(42, results[publisher.getSlot("p50")]);
+		assertEquals(42, results[publisher.getSlot("p90")]);
+		assertEquals(1, results[publisher.getSlot("b50")]);
+		assertEquals(1, results[publisher.getSlot("b90")]);
+		assertEquals(0, results[publisher.getSlot("a90")]);
+		// The next, empty, interval still publishes zeros
+		results = calc(phaser, acc, publisher);
+		for(int i = 0; i < publisher.getSlotCount(); i++) {
+			assertEquals(publisher.getSlotName(i), 0, results[i]);
+		}
+	}
+
+	/**
+	 * Closes the current interval and calculates it
+	 * @param phaser The interval phaser
+	 * @param acc The accumulator
+	 * @param publisher The publisher
+	 * @return the published values
+	 */
+	private static int[] calc(WriterReaderPhaser phaser, CtileMetricAccumulator acc, IntervalPublisher publisher) {
+		phaser.readerLock();
+		try {
+			phaser.flipPhase();
+			return acc.calcAndPublishInterval(publisher, System.currentTimeMillis());
+		} finally {
+			phaser.readerUnlock();
+		}
+	}
+}
@@ -0,0 +1,94 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.agent.tracer.ctile;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * <p>Title: ExemplarHeapTestCase</p>
+ * <p>Description: Verifies that the exemplar heap retains the slowest invocations and admits few of the rest.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.agent.tracer.ctile.ExemplarHeapTestCase</code></p>
+ */
+
+public class ExemplarHeapTestCase {
+
+	/**
+	 * Offers shuffled elapsed times from several threads and validates the drained slowest
+	 */
+	@Test
+	public void testSlowest() throws Exception {
+		final ExemplarHeap heap = new ExemplarHeap(5);
+		final List<Long> times = new ArrayList<Long>();
+		for(long i = 1; i <= 100000; i++) times.add(i);
+		Collections.shuffle(times, new Random(7));
+		final AtomicInteger admitted = new AtomicInteger();
+		final int threads = 4;
+		final CountDownLatch done = new CountDownLatch(threads);
+		for(int t = 0; t < threads; t++) {
+			final int offset = t;
+			new Thread("Worker-" + t) {
+				public void run() {
+					for(int i = offset; i < times.size(); i += threads) {
+						long time = times.get(i);
+						if(heap.admits(time)) {
+							admitted.incrementAndGet();
+							heap.offer(new ExemplarHeap.Exemplar(time, i, getName(), null));
+						}
+					}
+					done.countDown();
+				}
+			}.start();
+		}
+		done.await();
+		// Expected admissions are about N * ln(calls / N) per thread
+		assertTrue("Admitted " + admitted.get(), admitted.get() < 1000);
+		ExemplarHeap.Exemplar[] slowest = heap.drain();
+		assertEquals(5, slowest.length);
+		for(int i = 0; i < slowest.length; i++) {
+			assertEquals(100000 - i, slowest[i].getElapsed());
+			assertTrue(slowest[i].getThreadName().startsWith("Worker-"));
+		}
+		// Draining reopens the heap
+		assertTrue(heap.admits(1));
+		assertEquals(0, heap.drain().length);
+		heap.offer(new ExemplarHeap.Exemplar(3, 0, "main", "ACC1"));
+		heap.offer(new ExemplarHeap.Exemplar(9, 0, "main", null));
+		slowest = heap.drain();
+		assertEquals(2, slowest.length);
+		assertEquals(9, slowest[0].getElapsed());
+		assertEquals("ACC1", slowest[1].getArguments());
+	}
+}
@@ -0,0 +1,85 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.agent.tracer.ctile;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * <p>Title: HeatmapBucketsTestCase</p>
+ * <p>Description: Verifies the heatmap bucket mapping against a linear scan of the boundaries and the exponential boundary builder.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.agent.tracer.ctile.HeatmapBucketsTestCase</code></p>
+ */
+
+public class HeatmapBucketsTestCase {
+
+	/**
+	 * Validates that every elapsed time maps to the same bucket as a linear scan, for dense and exponential boundaries
+	 */
+	@Test
+	public void testBucketOf() throws Exception {
+		long[][] configs = {{1, 2, 3, 5, 8, 13, 21, 34, 55, 89}, HeatmapBuckets.exponential(1, 2, 20), {1000, 1001, 5000000}};
+		Random random = new Random(7);
+		for(long[] boundaries: configs) {
+			HeatmapBuckets buckets = new HeatmapBuckets(boundaries);
+			for(int i = 0; i < 10000; i++) {
+				long time = i < 200 ? i - 1 : (long)(random.nextDouble() * boundaries[boundaries.length-1] * 2);
+				assertEquals(Arrays.toString(boundaries) + " " + time, linear(boundaries, time), buckets.bucketOf(time));
+			}
+			for(long b: boundaries) {
+				assertEquals(linear(boundaries, b), buckets.bucketOf(b));
+				assertEquals(linear(boundaries, b + 1), buckets.bucketOf(b + 1));
+			}
+			assertEquals(boundaries.length, buckets.bucketOf(Long.MAX_VALUE));
+		}
+	}
+
+	/**
+	 * Validates the exponential boundaries and the skipping of repeated rounded values
+	 */
+	@Test
+	public void testExponential() throws Exception {
+		assertEquals("[1, 2, 4, 8]", Arrays.toString(HeatmapBuckets.exponential(1, 2, 4)));
+		assertEquals("[1, 2, 3, 5]", Arrays.toString(HeatmapBuckets.exponential(1, 1.5, 5)));
+	}
+
+	/**
+	 * Finds the bucket of an elapsed time with a linear scan
+	 * @param boundaries The ascending boundaries
+	 * @param time The elapsed time
+	 * @return the bucket index
+	 */
+	protected static int linear(long[] boundaries, long time) {
+		int i = 0;
+		while(i < boundaries.length && time > boundaries[i]) i++;
+		return i;
+	}
+}
@@ -0,0 +1,292 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.agent.tracer.ctile;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.helios.hiex.util.FlexiLogger;
+import org.helios.hiex.util.concurrency.WriterReaderPhaser;
+import org.helios.hiex.util.math.LogLinearHistogram;
+import org.helios.hiex.util.math.TDigest;
+import org.junit.Test;
+
+import com.wily.util.feedback.SeverityLevel;
+
+/**
+ * <p>Title: IntervalCalculatorTestCase</p>
+ * <p>Description: Verifies that intervals not calculated before the deadline are carried into the next calculation and that overrunning ticks are skipped.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.agent.tracer.ctile.IntervalCalculatorTestCase</code></p>
+ */
+
+public class IntervalCalculatorTestCase {
+	/** The configured percentiles */
+	private static final float[] PERCENTILES = new float[]{50, 90};
+	/** A logger that discards everything */
+	private static final FlexiLogger LOG = new FlexiLogger(null, null) {
+		@Override
+		protected void log(SeverityLevel level, Throwable t, Object... args) {
+		}
+	};
+
+	/**
+	 * Carries two intervals of each mode, calculates them with a third and validates that the carried elapsed times, heatmap
+	 * bucket counts and slowest invocations are published with the third and not with the interval after it
+	 */
+	@Test
+	public void testCarryOver() throws Exception {
+		WriterReaderPhaser phaser = new WriterReaderPhaser();
+		TimeUnit ms = TimeUnit.MILLISECONDS;
+		CtileMetricAccumulator[] accs = new CtileMetricAccumulator[] {
+			new CtileMetricAccumulator(PERCENTILES, phaser, ms, ms, false, false, LOG),
+			new HighResCtileMetricAccumulator(PERCENTILES, phaser, ms, ms, false, false, LOG),
+			new OffHeapCtileMetricAccumulator(PERCENTILES, phaser, ms, ms, false, false, LOG),
+			new HistogramCtileMetricAccumulator(PERCENTILES, phaser, ms, ms, 3600000L, LogLinearHistogram.DEFAULT_SIGNIFICANT_DIGITS, false, false, LOG),
+			new SketchCtileMetricAccumulator(PERCENTILES, phaser, ms, ms, TDigest.DEFAULT_COMPRESSION, false, false, LOG),
+			new SamplingCtileMetricAccumulator(PERCENTILES, phaser, ms, ms, 1000, false, false, LOG)
+		};
+		HeatmapBuckets heatmap = new HeatmapBuckets(100);
+		IntervalPublisher publisher = newPublisher(new String[]{"h0", "h1"});
+		for(CtileMetricAccumulator acc: accs) {
+			String mode = acc.getClass().getSimpleName();
+			acc.setHeatmap(heatmap);
+			acc.setExemplars(6);
+			record(acc, 4, 10);
+			carryOver(phaser, acc);
+			record(acc, 2, 20);
+			carryOver(phaser, acc);
+			record(acc, 4, 1000);
+			int[] results = calc(phaser, acc, publisher);
+			assertEquals(mode, 10, results[publisher.getSlot("count")]);
+			// The histogram and sketch means are estimated from their buckets and centroids
+			assertEquals(mode, 408, results[publisher.getSlot("mean")], 5);
+			assertEquals(mode, 6, results[publisher.getSlot("h0")]);
+			assertEquals(mode, 4, results[publisher.getSlot("h1")]);
+			ExemplarHeap.Exemplar[] exemplars = acc.getLastExemplars();
+			assertEquals(mode, 6, exemplars.length);
+			assertEquals(mode, 1000, exemplars[3].getElapsed());
+			assertEquals(mode, 20, exemplars[4].getElapsed());
+			assertEquals(mode, 20, exemplars[5].getElapsed());
+			// Nothing carried is left in the buffers writers switch to
+			results = calc(phaser, acc, publisher);
+			for(int i = 0; i < publisher.getSlotCount(); i++) {
+				assertEquals(mode + " " + publisher.getSlotName(i), 0, results[i]);
+			}
+		}
+	}
+
+	/**
+	 * Runs a tick whose first accumulator outlasts the deadline and validates that the second accumulator's interval is
+	 * published with its next interval by the next tick, which starts with it, and not again by the tick after
+	 */
+	@Test
+	public void testDeadlineCarriesOver() throws Exception {
+		WriterReaderPhaser phaser = new WriterReaderPhaser();
+		RecordingAccumulator first = new RecordingAccumulator(phaser), second = new RecordingAccumulator(phaser);
+		TestCalculator calculator = new TestCalculator(phaser, newPublisher(null), 50, first, second);
+		first.delay = 200;
+		record(first, 3, 10);
+		record(second, 5, 10);
+		calculator.run();
+		assertEquals(1, first.results.size());
+		assertEquals(3, first.results.get(0)[calculator.publisher.getSlot("count")]);
+		assertTrue(second.results.isEmpty());
+		first.delay = 0;
+		record(second, 2, 10);
+		calculator.run();
+		assertEquals(1, second.results.size());
+		assertEquals(7, second.results.get(0)[calculator.publisher.getSlot("count")]);
+		assertEquals(0, first.results.get(1)[calculator.publisher.getSlot("count")]);
+		calculator.run();
+		assertEquals(0, second.results.get(1)[calculator.publisher.getSlot("count")]);
+	}
+
+	/**
+	 * Hands a tick to the pool while the previous one is still running and validates that it is skipped, and that ticks run again once the previous one completes
+	 */
+	@Test
+	public void testOverrunSkipsTick() throws Exception {
+		WriterReaderPhaser phaser = new WriterReaderPhaser();
+		RecordingAccumulator acc = new RecordingAccumulator(phaser);
+		TestCalculator calculator = new TestCalculator(phaser, newPublisher(null), 5000, acc);
+		acc.delay = 200;
+		calculator.tick(System.currentTimeMillis());
+		calculator.tick(System.currentTimeMillis());
+		assertEquals(1, calculator.skipped.get());
+		awaitTick(calculator);
+		assertEquals(1, acc.results.size());
+		acc.delay = 0;
+		calculator.tick(System.currentTimeMillis());
+		awaitTick(calculator);
+		assertEquals(2, acc.results.size());
+	}
+
+	/**
+	 * Waits for the running tick to complete
+	 * @param calculator The calculator
+	 */
+	private static void awaitTick(IntervalCalculator calculator) throws InterruptedException {
+		long timeout = System.currentTimeMillis() + 5000;
+		while(calculator.running.get()) {
+			assertTrue("Tick did not complete", System.currentTimeMillis() < timeout);
+			Thread.sleep(10);
+		}
+	}
+
+	/**
+	 * Records the same elapsed time a number of times, offering each as a slowest invocation if admitted
+	 * @param acc The accumulator
+	 * @param count The number of calls
+	 * @param time The elapsed time
+	 */
+	private static void record(CtileMetricAccumulator acc, int count, long time) {
+		for(int i = 0; i < count; i++) {
+			acc.addElapsedTime(time);
+			if(acc.admitsExemplar(time)) {
+				acc.addExemplar(new ExemplarHeap.Exemplar(time, System.currentTimeMillis(), "main", null));
+			}
+		}
+	}
+
+	/**
+	 * Closes the current interval and carries it over, as a tick does for an accumulator it does not claim before the deadline
+	 * @param phaser The interval phaser
+	 * @param acc The accumulator
+	 */
+	private static void carryOver(WriterReaderPhaser phaser, CtileMetricAccumulator acc) {
+		phaser.readerLock();
+		try {
+			phaser.flipPhase();
+			acc.carryOver();
+		} finally {
+			phaser.readerUnlock();
+		}
+	}
+
+	/**
+	 * Closes the current interval and calculates it
+	 * @param phaser The interval phaser
+	 * @param acc The accumulator
+	 * @param publisher The publisher
+	 * @return the published values
+	 */
+	private static int[] calc(WriterReaderPhaser phaser, CtileMetricAccumulator acc, IntervalPublisher publisher) {
+		phaser.readerLock();
+		try {
+			phaser.flipPhase();
+			return acc.calcAndPublishInterval(publisher, System.currentTimeMillis());
+		} finally {
+			phaser.readerUnlock();
+		}
+	}
+
+	/**
+	 * Creates a publisher of the count, mean and percentiles
+	 * @param heatmapNames The heatmap bucket count metric names, or null
+	 * @return the publisher
+	 */
+	private static IntervalPublisher newPublisher(String[] heatmapNames) {
+		Map<String, String> names = new HashMap<String, String>();
+		names.put(MethodTimerCtile.COUNT_ELAPSED, "count");
+		names.put(MethodTimerCtile.MEAN_ELAPSED, "mean");
+		Map<String, String[]> ctileNames = new HashMap<String, String[]>();
+		ctileNames.put(MethodTimerCtile.PERCENTILE_ELAPSED, new String[]{"p50", "p90"});
+		return new IntervalPublisher(2, names, ctileNames, null, heatmapNames, null);
+	}
+
+	/**
+	 * <p>Title: RecordingAccumulator</p>
+	 * <p>Description: An accumulator that keeps the values of each calculated interval and optionally outlasts the deadline.</p> 
+	 */
+	private static class RecordingAccumulator extends CtileMetricAccumulator {
+		/** The values of each calculated interval */
+		final List<int[]> results = Collections.synchronizedList(new ArrayList<int[]>());
+		/** The time each calculation sleeps for in ms */
+		volatile long delay = 0;
+
+		RecordingAccumulator(WriterReaderPhaser phaser) {
+			super(PERCENTILES, phaser, TimeUnit.MILLISECONDS, TimeUnit.MILLISECONDS, false, false, LOG);
+		}
+
+		@Override
+		public int[] calcAndPublishInterval(IntervalPublisher publisher, long timestamp) {
+			int[] values = super.calcAndPublishInterval(publisher, timestamp);
+			results.add(values.clone());
+			if(delay > 0) {
+				try { Thread.sleep(delay); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+			}
+			return values;
+		}
+	}
+
+	/**
+	 * <p>Title: TestCalculator</p>
+	 * <p>Description: A single threaded calculator of a fixed set of accumulators with no tracer.</p> 
+	 */
+	private static class TestCalculator extends IntervalCalculator {
+		final WriterReaderPhaser phaser;
+		final IntervalPublisher publisher;
+		final CtileMetricAccumulator[] accs;
+
+		TestCalculator(WriterReaderPhaser phaser, IntervalPublisher publisher, long deadline, CtileMetricAccumulator... accs) {
+			super(null, 1, deadline, "", null, LOG);
+			this.phaser = phaser;
+			this.publisher = publisher;
+			this.accs = accs;
+		}
+
+		@Override
+		protected WriterReaderPhaser getPhaser() {
+			return phaser;
+		}
+
+		@Override
+		protected int getMetricCount() {
+			return accs.length;
+		}
+
+		@Override
+		protected CtileMetricAccumulator[] getAccumulators() {
+			return accs;
+		}
+
+		@Override
+		protected IntervalPublisher getPublisher() {
+			return publisher;
+		}
+
+		@Override
+		protected void maintain() {
+		}
+	}
+}
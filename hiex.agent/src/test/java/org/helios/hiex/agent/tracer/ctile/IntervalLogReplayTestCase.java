@@ -0,0 +1,154 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.agent.tracer.ctile;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.helios.hiex.util.math.LogLinearHistogram;
+import org.junit.Test;
+
+/**
+ * <p>Title: IntervalLogReplayTestCase</p>
+ * <p>Description: Verifies that replaying interval log segments recomputes the windowed percentiles of the filtered metrics.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.agent.tracer.ctile.IntervalLogReplayTestCase</code></p>
+ */
+
+public class IntervalLogReplayTestCase {
+
+	/**
+	 * Replays several segments of two metrics, filtered to one metric, over a time range in 10 interval windows
+	 */
+	@Test
+	public void testReplay() throws Exception {
+		File dir = File.createTempFile("intervalreplay", "");
+		dir.delete();
+		IntervalLog log = new IntervalLog(dir, "ECS|Compute Margin", 4096, 1024 * 1024, 1000, TimeUnit.MILLISECONDS, 3600000L, 2, null);
+		try {
+			for(int interval = 0; interval < 100; interval++) {
+				for(int metric = 0; metric < 2; metric++) {
+					LogLinearHistogram h = log.histogram();
+					// Each interval's elapsed times are 1 to 10, plus the interval number
+					for(int v = 1; v <= 10; v++) h.recordValue((v + interval) * (metric + 1));
+					log.append(1000L * interval, metric, "processAccount" + metric);
+				}
+			}
+		} finally {
+			log.close();
+		}
+		try {
+			File[] segments = IntervalLogReplay.listSegments(dir);
+			assertTrue(segments.length > 1);
+			IntervalLogReplay replay = new IntervalLogReplay(segments, Pattern.compile("processAccount0$"), 20000, 60000, 10000, 3);
+			SortedMap<String, SortedMap<Long, LogLinearHistogram>> merged = replay.replay();
+			assertEquals(40, replay.getRecords());
+			assertEquals(1, merged.size());
+			SortedMap<Long, LogLinearHistogram> windows = merged.get("ECS|Compute Margin:processAccount0");
+			assertNotNull(windows);
+			assertEquals(4, windows.size());
+			assertEquals(20000L, windows.firstKey().longValue());
+			for(long start = 20000; start < 60000; start += 10000) {
+				LogLinearHistogram h = windows.get(start);
+				assertEquals(100, h.getTotalCount());
+				long lastInterval = start / 1000 + 9;
+				assertEquals(start / 1000 + 1, h.getMinValue(), 1);
+				assertEquals(lastInterval + 10, h.getValueAtPercentile(100), 1);
+			}
+			// The whole range of both metrics
+			merged = new IntervalLogReplay(segments, null, Long.MIN_VALUE, Long.MAX_VALUE, 0, 2).replay();
+			assertEquals(2, merged.size());
+			assertEquals(1000, merged.get("ECS|Compute Margin:processAccount1").get(IntervalLogReplay.ALL_WINDOWS).getTotalCount());
+		} finally {
+			for(File f: dir.listFiles()) f.delete();
+			dir.delete();
+		}
+	}
+
+	/**
+	 * Replays several segments, one of which is torn part way through its first record, and checks that the other segments
+	 * are still merged and the torn one is counted as truncated
+	 */
+	@Test
+	public void testTornSegment() throws Exception {
+		File dir = File.createTempFile("intervalreplay", "");
+		dir.delete();
+		IntervalLog log = new IntervalLog(dir, "ECS|Compute Margin", 4096, 1024 * 1024, 1000, TimeUnit.MILLISECONDS, 3600000L, 2, null);
+		try {
+			for(int interval = 0; interval < 400; interval++) {
+				LogLinearHistogram h = log.histogram();
+				for(int v = 1; v <= 10; v++) h.recordValue(v + interval);
+				log.append(1000L * interval, 0, "processAccount");
+			}
+		} finally {
+			log.close();
+		}
+		try {
+			File[] segments = IntervalLogReplay.listSegments(dir);
+			assertTrue(segments.length > 1);
+			IntervalLogReplay first = new IntervalLogReplay(new File[]{segments[0]}, null, Long.MIN_VALUE, Long.MAX_VALUE, 0, 1);
+			first.replay();
+			long tornRecords = first.getRecords();
+			assertTrue(tornRecords > 0);
+			// Cut the first segment off in the middle of its first record, after the header's resource and unit
+			RandomAccessFile raf = new RandomAccessFile(segments[0], "rw");
+			try {
+				raf.seek(24);
+				raf.skipBytes(raf.readUnsignedShort());
+				raf.skipBytes(raf.readUnsignedShort());
+				raf.setLength(raf.getFilePointer() + 12 + 3);
+			} finally {
+				raf.close();
+			}
+			IntervalLogReplay replay = new IntervalLogReplay(segments, null, Long.MIN_VALUE, Long.MAX_VALUE, 0, 2);
+			SortedMap<String, SortedMap<Long, LogLinearHistogram>> merged = replay.replay();
+			assertEquals(1, replay.getTruncated());
+			assertEquals(400 - tornRecords, replay.getRecords());
+			assertEquals((400 - tornRecords) * 10, merged.get("ECS|Compute Margin:processAccount").get(IntervalLogReplay.ALL_WINDOWS).getTotalCount());
+		} finally {
+			for(File f: dir.listFiles()) f.delete();
+			dir.delete();
+		}
+	}
+
+	/**
+	 * Validates the command line time and duration formats
+	 */
+	@Test
+	public void testParse() throws Exception {
+		assertEquals(1234567890123L, IntervalLogReplay.parseTime("1234567890123"));
+		assertEquals(new java.text.SimpleDateFormat("yyyy-MM-dd HH:mm").parse("2012-03-04 10:02").getTime(), IntervalLogReplay.parseTime("2012-03-04 10:02"));
+		assertEquals(IntervalLogReplay.parseTime("10:07") + 30000, IntervalLogReplay.parseTime("10:07:30"));
+		assertEquals(300000, IntervalLogReplay.parseDuration("5m"));
+		assertEquals(15000, IntervalLogReplay.parseDuration("15"));
+		assertArrayEquals(new float[]{50, 99, 99.9f}, IntervalLogReplay.parsePercentiles("99.9, 50,99"), 0f);
+	}
+}
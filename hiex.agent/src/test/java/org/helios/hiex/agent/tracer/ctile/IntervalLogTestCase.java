@@ -0,0 +1,128 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.agent.tracer.ctile;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.helios.hiex.util.math.LogLinearHistogram;
+import org.junit.Test;
+
+/**
+ * <p>Title: IntervalLogTestCase</p>
+ * <p>Description: Verifies the interval log's record layout, segment rotation and total size cap.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.agent.tracer.ctile.IntervalLogTestCase</code></p>
+ */
+
+public class IntervalLogTestCase {
+
+	/**
+	 * Appends enough intervals to rotate several times and reads back the newest segment
+	 */
+	@Test
+	public void testAppendAndRotate() throws Exception {
+		File dir = File.createTempFile("intervallog", "");
+		dir.delete();
+		IntervalLog log = new IntervalLog(dir, "ECS|Compute Margin", 4096, 8192, 15000, TimeUnit.MILLISECONDS, 3600000L, 2, null);
+		try {
+			for(int interval = 0; interval < 200; interval++) {
+				for(int metric = 0; metric < 3; metric++) {
+					LogLinearHistogram h = log.histogram();
+					for(int v = 1; v <= 100; v++) h.recordValue(v * (metric + 1));
+					log.append(1000L * interval, metric, "Metric " + metric);
+				}
+				// Empty intervals are not logged
+				log.histogram();
+				log.append(1000L * interval, 3, "Idle");
+			}
+			assertEquals(600, log.getRecords());
+			assertEquals(0, log.getDropped());
+		} finally {
+			log.close();
+		}
+		File[] segments = dir.listFiles();
+		assertEquals(2, segments.length);
+		java.util.Arrays.sort(segments);
+		RandomAccessFile raf = new RandomAccessFile(segments[1], "r");
+		try {
+			MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			assertEquals(IntervalLog.MAGIC, buffer.getInt());
+			assertEquals(IntervalLog.VERSION, buffer.getInt());
+			buffer.getLong();
+			assertEquals(15000, buffer.getLong());
+			skipUtf(buffer);
+			skipUtf(buffer);
+			assertEquals(3600000L, buffer.getLong());
+			assertEquals(2, buffer.getInt());
+			int metrics = 0, intervals = 0;
+			long lastTimestamp = -1;
+			for(byte type; buffer.hasRemaining() && (type = buffer.get())!=IntervalLog.RECORD_END;) {
+				if(type==IntervalLog.RECORD_METRIC) {
+					buffer.getInt();
+					skipUtf(buffer);
+					metrics++;
+				} else {
+					assertEquals(IntervalLog.RECORD_INTERVAL, type);
+					long timestamp = buffer.getLong();
+					assertTrue(timestamp >= lastTimestamp);
+					lastTimestamp = timestamp;
+					int metricId = buffer.getInt();
+					int length = buffer.getInt();
+					int end = buffer.position() + length;
+					LogLinearHistogram h = new LogLinearHistogram(3600000L, 2);
+					h.decodeFrom(buffer);
+					assertEquals(end, buffer.position());
+					assertEquals(100, h.getTotalCount());
+					assertEquals(100 * (metricId + 1), h.getValueAtPercentile(100), 1);
+					intervals++;
+				}
+			}
+			assertEquals(3, metrics);
+			assertTrue(intervals > 0);
+			assertEquals(199000L, lastTimestamp);
+		} finally {
+			raf.close();
+			for(File f: dir.listFiles()) f.delete();
+			dir.delete();
+		}
+	}
+
+	/**
+	 * Skips a length prefixed UTF-8 string
+	 * @param buffer The buffer positioned at the string's length
+	 */
+	private static void skipUtf(ByteBuffer buffer) {
+		int length = buffer.getShort() & 0xFFFF;
+		buffer.position(buffer.position() + length);
+	}
+}
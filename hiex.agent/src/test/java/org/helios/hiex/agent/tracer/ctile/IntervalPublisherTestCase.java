@@ -0,0 +1,146 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.agent.tracer.ctile;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import com.wily.introscope.agent.stat.DataAccumulatorFactory;
+import com.wily.introscope.agent.stat.IIntegerFluctuatingCounterDataAccumulator;
+import com.wily.introscope.agent.stat.ILongAverageDataAccumulator;
+
+/**
+ * <p>Title: IntervalPublisherTestCase</p>
+ * <p>Description: Verifies the publisher's slot assignment, slot name mapping and that only configured sub metrics are resolved and published.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.agent.tracer.ctile.IntervalPublisherTestCase</code></p>
+ */
+
+public class IntervalPublisherTestCase {
+
+	/**
+	 * Configures the percentiles, counts at or below, mean, count and calculation performance, and leaves the rest unconfigured
+	 */
+	@Test
+	public void testSlots() throws Exception {
+		final Map<String, Integer> published = new TreeMap<String, Integer>();
+		final Map<String, Long> perf = new TreeMap<String, Long>();
+		DataAccumulatorFactory factory = new DataAccumulatorFactory() {
+			@Override
+			public IIntegerFluctuatingCounterDataAccumulator safeGetIntegerFluctuatingCounterDataAccumulator(final String metricName) {
+				published.put(metricName, null);
+				return accumulator(IIntegerFluctuatingCounterDataAccumulator.class, new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						if(method.getName().equals("IDataAccumulator_isShutOff")) return false;
+						published.put(metricName, (Integer)args[0]);
+						return null;
+					}
+				});
+			}
+			@Override
+			public ILongAverageDataAccumulator safeGetLongAverageDataAccumulator(final String metricName) {
+				perf.put(metricName, null);
+				return accumulator(ILongAverageDataAccumulator.class, new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						if(method.getName().equals("IDataAccumulator_isShutOff")) return false;
+						perf.put(metricName, (Long)args[0]);
+						return null;
+					}
+				});
+			}
+		};
+		Map<String, String> names = new HashMap<String, String>();
+		names.put(MethodTimerCtile.MEAN_ELAPSED, "m:mean");
+		names.put(MethodTimerCtile.COUNT_ELAPSED, "m:count");
+		names.put(MethodTimerCtile.PERCENTILE_PERF, "m:perf");
+		Map<String, String[]> ctileNames = new HashMap<String, String[]>();
+		ctileNames.put(MethodTimerCtile.PERCENTILE_ELAPSED, new String[]{"m:p50", "m:p99"});
+		ctileNames.put(MethodTimerCtile.COUNT_LTOE_PERCENTILE, new String[]{"m:b50", "m:b99"});
+		IntervalPublisher publisher = new IntervalPublisher(2, names, ctileNames, null, null, factory);
+		// The per percentile slots come first, in percentile order, then the percentile independent slots
+		assertEquals(7, publisher.getSlotCount());
+		assertArrayEquals(new int[]{0, 1}, publisher.percentileSlots);
+		assertArrayEquals(new int[]{2, 3}, publisher.countLtoeSlots);
+		assertEquals(4, publisher.meanSlot);
+		assertEquals(5, publisher.countSlot);
+		assertEquals(6, publisher.perfSlot);
+		assertNull(publisher.correctedSlots);
+		assertNull(publisher.countGtSlots);
+		assertNull(publisher.windowSlots);
+		assertNull(publisher.heatmapSlots);
+		assertEquals(IntervalPublisher.NO_SLOT, publisher.stddevSlot);
+		assertEquals(IntervalPublisher.NO_SLOT, publisher.sampleRateSlot);
+		for(int i = 0; i < publisher.getSlotCount(); i++) {
+			assertEquals(i, publisher.getSlot(publisher.getSlotName(i)));
+		}
+		assertEquals(IntervalPublisher.NO_SLOT, publisher.getSlot("m:stddev"));
+		// Only the configured sub metrics are resolved, and the performance slot is an average rather than a counter
+		assertEquals(6, published.size());
+		assertFalse(published.containsKey("m:perf"));
+		assertEquals(1, perf.size());
+		int[] values = publisher.newSlots();
+		for(int i = 0; i < values.length; i++) values[i] = (i + 1) * 10;
+		publisher.publish(values);
+		for(int i = 0; i < values.length; i++) {
+			if(i==publisher.perfSlot) continue;
+			assertEquals(publisher.getSlotName(i), Integer.valueOf(values[i]), published.get(publisher.getSlotName(i)));
+		}
+		assertEquals(Long.valueOf(70), perf.get("m:perf"));
+	}
+
+	/**
+	 * Calculates without a factory, which resolves nothing and publishes nothing
+	 */
+	@Test
+	public void testNoFactory() throws Exception {
+		Map<String, String[]> ctileNames = new HashMap<String, String[]>();
+		ctileNames.put(MethodTimerCtile.PERCENTILE_ELAPSED, new String[]{"m:p50"});
+		IntervalPublisher publisher = new IntervalPublisher(1, new HashMap<String, String>(), ctileNames, null, null, null);
+		assertEquals(1, publisher.getSlotCount());
+		assertEquals("m:p50", publisher.getSlotName(0));
+		assertNull(publisher.counters[0]);
+		assertNull(publisher.perfAccumulator);
+		publisher.publish(publisher.newSlots());
+	}
+
+	/**
+	 * Creates a data accumulator proxy
+	 * @param type The data accumulator interface
+	 * @param handler The invocation handler
+	 * @return the data accumulator
+	 */
+	private static <T> T accumulator(Class<T> type, InvocationHandler handler) {
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler));
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.agent.tracer.ctile;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * <p>Title: MemoryGovernorTestCase</p>
+ * <p>Description: Verifies the governor's budget accounting and its heaviest first selection of accumulators to bound.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.agent.tracer.ctile.MemoryGovernorTestCase</code></p>
+ */
+
+public class MemoryGovernorTestCase {
+
+	/**
+	 * Validates that only the heaviest candidates needed to reclaim the excess are selected, skipping those that cannot be bounded
+	 */
+	@Test
+	public void testSelectHeaviestFirst() throws Exception {
+		MemoryGovernor governor = new MemoryGovernor(1000);
+		long[] retained = new long[]{300, -1, 900, 50, 600};
+		long excess = governor.report(300 + 900 + 50 + 600);
+		assertEquals(850, excess);
+		// Bounding 900 to 100 reclaims 800, then 600 to 100 reclaims the rest
+		assertEquals("[2, 4]", Arrays.toString(governor.select(retained, 100, excess)));
+		assertEquals(1, governor.getTriggers());
+		// Nothing is selected within budget, or when nothing is larger than the bounded size
+		assertEquals(0, governor.select(retained, 100, 0).length);
+		assertEquals(0, governor.select(new long[]{50, -1}, 100, 10).length);
+		assertEquals(1, governor.getTriggers());
+		governor.report(0);
+	}
+
+	/**
+	 * Validates that the agent wide budget is enforced across governors
+	 */
+	@Test
+	public void testAgentBudget() throws Exception {
+		MemoryGovernor a = new MemoryGovernor(0), b = new MemoryGovernor(0);
+		MemoryGovernor.setAgentBudget(1000);
+		try {
+			assertTrue(a.report(700) <= 0);
+			assertEquals(200, b.report(500));
+			// Retained memory is reported as a replacement, not an increment
+			assertTrue(a.report(400) <= 0);
+		} finally {
+			a.report(0);
+			b.report(0);
+			MemoryGovernor.setAgentBudget(0);
+		}
+	}
+}
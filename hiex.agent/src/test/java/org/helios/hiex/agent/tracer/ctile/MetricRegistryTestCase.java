@@ -0,0 +1,162 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.agent.tracer.ctile;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.helios.hiex.util.FlexiLogger;
+import org.helios.hiex.util.concurrency.WriterReaderPhaser;
+import org.junit.Test;
+
+import com.wily.util.feedback.SeverityLevel;
+
+/**
+ * <p>Title: MetricRegistryTestCase</p>
+ * <p>Description: Verifies that concurrent first lookups of a name share one accumulator and that names past the cardinality cap fold into the overflow metric.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.agent.tracer.ctile.MetricRegistryTestCase</code></p>
+ */
+
+public class MetricRegistryTestCase {
+	/** The overflow metric name */
+	private static final String OTHER = "Other";
+	/** A logger that discards everything */
+	private static final FlexiLogger LOG = new FlexiLogger(null, null) {
+		@Override
+		protected void log(SeverityLevel level, Throwable t, Object... args) {
+		}
+	};
+
+	/**
+	 * Looks up the same names from several threads released together and validates that each name gets exactly one accumulator and one id
+	 */
+	@Test
+	public void testConcurrentGetOrCreate() throws Exception {
+		final int threads = 8, names = 200;
+		final CountingRegistry registry = new CountingRegistry(0);
+		final CyclicBarrier barrier = new CyclicBarrier(threads);
+		final AtomicReferenceArray<CtileMetricAccumulator> first = new AtomicReferenceArray<CtileMetricAccumulator>(names);
+		final AtomicInteger mismatches = new AtomicInteger(0);
+		Thread[] workers = new Thread[threads];
+		for(int t = 0; t < threads; t++) {
+			workers[t] = new Thread() {
+				public void run() {
+					try {
+						for(int i = 0; i < names; i++) {
+							// Release all threads on each name so their first lookups race
+							barrier.await();
+							CtileMetricAccumulator acc = registry.getOrCreate("Metric" + i);
+							if(!first.compareAndSet(i, null, acc) && first.get(i)!=acc) {
+								mismatches.incrementAndGet();
+							}
+						}
+					} catch (Exception e) {
+						mismatches.incrementAndGet();
+					}
+				}
+			};
+			workers[t].start();
+		}
+		for(Thread worker: workers) {
+			worker.join(10000);
+		}
+		assertEquals(0, mismatches.get());
+		assertEquals(names, registry.created.get());
+		assertEquals(names, registry.getMetricCount());
+		assertEquals(names, registry.getLiveMetrics());
+		Set<Integer> ids = new HashSet<Integer>();
+		for(int i = 0; i < names; i++) {
+			CtileMetricAccumulator acc = first.get(i);
+			assertTrue(ids.add(acc.getMetricId()));
+			assertSame(acc, registry.get(acc.getMetricId()));
+			assertSame(acc, registry.get("Metric" + i));
+		}
+	}
+
+	/**
+	 * Creates names past the cap and validates that they fold into the overflow metric, which does not count against the cap,
+	 * and that a name gets its own accumulator again once an eviction frees a place under the cap
+	 */
+	@Test
+	public void testFoldIntoOther() throws Exception {
+		CountingRegistry registry = new CountingRegistry(2);
+		CtileMetricAccumulator a = registry.getOrCreate("A"), b = registry.getOrCreate("B");
+		assertNotSame(a, b);
+		CtileMetricAccumulator c = registry.getOrCreate("C");
+		assertEquals(OTHER, c.getMetricName());
+		assertSame(c, registry.getOrCreate("D"));
+		assertSame(c, registry.getOrCreate("C"));
+		assertSame(a, registry.getOrCreate("A"));
+		assertNull(registry.get("C"));
+		assertEquals(2, registry.getLiveMetrics());
+		assertEquals(3, registry.getMetricCount());
+		assertEquals(2, registry.drainFoldedCount());
+		assertEquals(0, registry.drainFoldedCount());
+		synchronized(registry) {
+			registry.evict(a.getMetricId());
+		}
+		assertNull(registry.get(a.getMetricId()));
+		assertEquals(1, registry.getLiveMetrics());
+		CtileMetricAccumulator d = registry.getOrCreate("D");
+		assertEquals("D", d.getMetricName());
+		// The evicted id is quarantined until the next maintenance pass
+		assertEquals(3, d.getMetricId());
+		assertSame(c, registry.getOrCreate("E"));
+		synchronized(registry) {
+			registry.releaseQuarantined();
+			registry.evict(d.getMetricId());
+		}
+		assertEquals(a.getMetricId(), registry.getOrCreate("E").getMetricId());
+	}
+
+	/**
+	 * <p>Title: CountingRegistry</p>
+	 * <p>Description: A registry of exact mode accumulators that counts the accumulators it creates.</p> 
+	 */
+	private static class CountingRegistry extends MetricRegistry {
+		final WriterReaderPhaser phaser = new WriterReaderPhaser();
+		final AtomicInteger created = new AtomicInteger(0);
+
+		CountingRegistry(int maxMetrics) {
+			super(maxMetrics, OTHER, LOG);
+		}
+
+		@Override
+		protected CtileMetricAccumulator newAccumulator(int metricId, String metricName) {
+			created.incrementAndGet();
+			CtileMetricAccumulator acc = new CtileMetricAccumulator(new float[]{90}, phaser, TimeUnit.MILLISECONDS, TimeUnit.MILLISECONDS, false, false, LOG);
+			acc.setMetric(metricId, metricName);
+			return acc;
+		}
+	}
+}
@@ -0,0 +1,109 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.agent.tracer.ctile;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.helios.hiex.util.concurrency.WriterReaderPhaser;
+import org.junit.Test;
+
+/**
+ * <p>Title: RollingWindowsTestCase</p>
+ * <p>Description: Verifies that each rolling window's percentiles cover only its last periods and that expired periods drop out of the ring.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.agent.tracer.ctile.RollingWindowsTestCase</code></p>
+ */
+
+public class RollingWindowsTestCase {
+
+	/**
+	 * Records more periods than the ring holds, each at its own elapsed time, into 2 and 4 period windows
+	 */
+	@Test
+	public void testRollingWindows() throws Exception {
+		WriterReaderPhaser phaser = new WriterReaderPhaser();
+		CtileMetricAccumulator acc = new CtileMetricAccumulator(new float[]{1, 99}, phaser, TimeUnit.MILLISECONDS, TimeUnit.MILLISECONDS, false, false, null);
+		RollingWindows windows = new RollingWindows(new int[]{2, 4}, new String[]{"2p", "4p"}, new String[][]{{"w2p1", "w2p99"}, {"w4p1", "w4p99"}}, 100);
+		acc.setRollingWindows(windows);
+		assertEquals(4, windows.getRingSize());
+		Map<String, String[]> ctileNames = new HashMap<String, String[]>();
+		ctileNames.put(MethodTimerCtile.PERCENTILE_ELAPSED, new String[]{"p1", "p99"});
+		IntervalPublisher publisher = new IntervalPublisher(2, new HashMap<String, String>(), ctileNames, windows, null, null);
+		for(int period = 1; period <= 10; period++) {
+			// Every elapsed time of a period is 100 times the period number
+			for(int i = 0; i < 100; i++) {
+				acc.addElapsedTime(period * 100);
+			}
+			int[] results = calc(phaser, acc, publisher);
+			assertEquals(period * 100, results[publisher.getSlot("p1")]);
+			assertEquals(period * 100, results[publisher.getSlot("w2p99")]);
+			assertEquals(Math.max(1, period - 1) * 100, results[publisher.getSlot("w2p1")]);
+			assertEquals(period * 100, results[publisher.getSlot("w4p99")]);
+			assertEquals(Math.max(1, period - 3) * 100, results[publisher.getSlot("w4p1")]);
+		}
+		assertEquals(4, acc.windowRing.length);
+		// Empty periods push the recorded ones out of the smaller window first, then out of the ring
+		for(int period = 11; period <= 14; period++) {
+			int[] results = calc(phaser, acc, publisher);
+			assertEquals(0, results[publisher.getSlot("p1")]);
+			assertEquals(period <= 11 ? 1000 : 0, results[publisher.getSlot("w2p1")]);
+			assertEquals(period <= 13 ? 1000 : 0, results[publisher.getSlot("w4p99")]);
+			assertEquals(period <= 13 ? Math.max(period - 3, 7) * 100 : 0, results[publisher.getSlot("w4p1")]);
+		}
+		for(int i = 0; i < acc.windowRing.length; i++) {
+			assertEquals(0, acc.windowRing[i].getTotalCount());
+		}
+	}
+
+	/**
+	 * Rejects windows that are not positive and ascending
+	 */
+	@Test(expected=IllegalArgumentException.class)
+	public void testDescendingWindows() throws Exception {
+		new RollingWindows(new int[]{4, 2}, new String[]{"4p", "2p"}, new String[][]{{"a"}, {"b"}}, 100);
+	}
+
+	/**
+	 * Closes the current interval and calculates it
+	 * @param phaser The interval phaser
+	 * @param acc The accumulator
+	 * @param publisher The publisher
+	 * @return the published values
+	 */
+	private static int[] calc(WriterReaderPhaser phaser, CtileMetricAccumulator acc, IntervalPublisher publisher) {
+		phaser.readerLock();
+		try {
+			phaser.flipPhase();
+			return acc.calcAndPublishInterval(publisher, System.currentTimeMillis());
+		} finally {
+			phaser.readerUnlock();
+		}
+	}
+}
@@ -0,0 +1,165 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.agent.tracer.ctile;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.helios.hiex.util.concurrency.WriterReaderPhaser;
+import org.junit.Test;
+
+/**
+ * <p>Title: SamplingCtileMetricAccumulatorTestCase</p>
+ * <p>Description: Verifies that sampling mode keeps exact counts and means while bounding and adapting a uniform sample.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.agent.tracer.ctile.SamplingCtileMetricAccumulatorTestCase</code></p>
+ */
+
+public class SamplingCtileMetricAccumulatorTestCase {
+
+	/**
+	 * Records two intervals of 100,000 calls with a target of 1,000 samples and validates the published values
+	 */
+	@Test
+	public void testExactCountsAndAdaptiveRate() throws Exception {
+		WriterReaderPhaser phaser = new WriterReaderPhaser();
+		SamplingCtileMetricAccumulator acc = new SamplingCtileMetricAccumulator(new float[]{50, 90}, phaser, TimeUnit.MILLISECONDS, TimeUnit.MILLISECONDS, 1000, false, false, null);
+		Map<String, String> names = new HashMap<String, String>();
+		names.put(MethodTimerCtile.COUNT_ELAPSED, "count");
+		names.put(MethodTimerCtile.MEAN_ELAPSED, "mean");
+		names.put(MethodTimerCtile.SAMPLE_RATE, "rate");
+		Map<String, String[]> ctileNames = new HashMap<String, String[]>();
+		ctileNames.put(MethodTimerCtile.PERCENTILE_ELAPSED, new String[]{"p50", "p90"});
+		ctileNames.put(MethodTimerCtile.COUNT_LTOE_PERCENTILE, new String[]{"b50", "b90"});
+		IntervalPublisher publisher = new IntervalPublisher(2, names, ctileNames, null, null, null);
+		for(int interval = 0; interval < 2; interval++) {
+			for(int i = 0; i < 100000; i++) {
+				acc.addElapsedTime(i % 1000);
+			}
+			phaser.readerLock();
+			int[] results;
+			try {
+				phaser.flipPhase();
+				results = acc.calcAndPublishInterval(publisher, System.currentTimeMillis());
+			} finally {
+				phaser.readerUnlock();
+			}
+			assertEquals(100000, results[publisher.getSlot("count")]);
+			assertEquals(500, results[publisher.getSlot("mean")]);
+			// The first interval is capped at twice the target, the second is sampled about 1 in 100
+			assertEquals(interval==0 ? 50 : 100, results[publisher.getSlot("rate")], interval==0 ? 0 : 10);
+			assertEquals(500, results[publisher.getSlot("p50")], 50);
+			assertEquals(900, results[publisher.getSlot("p90")], 30);
+			assertEquals(90000, results[publisher.getSlot("b90")], 3000);
+			assertEquals(100, acc.getSamplingInterval());
+		}
+		// An empty interval publishes zeros rather than the previous interval's values
+		phaser.readerLock();
+		int[] results;
+		try {
+			phaser.flipPhase();
+			results = acc.calcAndPublishInterval(publisher, System.currentTimeMillis());
+		} finally {
+			phaser.readerUnlock();
+		}
+		for(int i = 0; i < publisher.getSlotCount(); i++) {
+			assertEquals(publisher.getSlotName(i), 0, results[i]);
+		}
+	}
+
+	/**
+	 * Records one call and validates that its exact count and mean are published
+	 */
+	@Test
+	public void testSingleCall() throws Exception {
+		WriterReaderPhaser phaser = new WriterReaderPhaser();
+		SamplingCtileMetricAccumulator acc = new SamplingCtileMetricAccumulator(new float[]{50, 90}, phaser, TimeUnit.MILLISECONDS, TimeUnit.MILLISECONDS, 1000, false, false, null);
+		IntervalPublisher publisher = newPublisher();
+		acc.addElapsedTime(42);
+		int[] results = calc(phaser, acc, publisher);
+		assertEquals(1, results[publisher.getSlot("count")]);
+		assertEquals(42, results[publisher.getSlot("mean")]);
+		assertEquals(42, results[publisher.getSlot("p90")]);
+		assertEquals(1, results[publisher.getSlot("b90")]);
+	}
+
+	/**
+	 * Records an interval whose latency steps from 10 to 1000 ms 70% of the way through, far more calls than the sample holds,
+	 * and validates that the sample represents the calls after the step as well as those before it
+	 */
+	@Test
+	public void testLatencyStep() throws Exception {
+		WriterReaderPhaser phaser = new WriterReaderPhaser();
+		SamplingCtileMetricAccumulator acc = new SamplingCtileMetricAccumulator(new float[]{50, 90}, phaser, TimeUnit.MILLISECONDS, TimeUnit.MILLISECONDS, 1000, false, false, null);
+		IntervalPublisher publisher = newPublisher();
+		for(int i = 0; i < 100000; i++) {
+			acc.addElapsedTime(i < 70000 ? 10 : 1000);
+		}
+		int[] results = calc(phaser, acc, publisher);
+		assertEquals(100000, results[publisher.getSlot("count")]);
+		assertEquals(307, results[publisher.getSlot("mean")]);
+		assertEquals(10, results[publisher.getSlot("p50")]);
+		assertEquals(1000, results[publisher.getSlot("p90")]);
+		// About 70% of the sample is from before the step
+		assertEquals(70000, results[publisher.getSlot("b50")], 3500);
+		assertEquals(100000, results[publisher.getSlot("b90")]);
+	}
+
+	/**
+	 * Creates a publisher of the count, mean, sample rate, percentiles and counts at or below
+	 * @return the publisher
+	 */
+	private static IntervalPublisher newPublisher() {
+		Map<String, String> names = new HashMap<String, String>();
+		names.put(MethodTimerCtile.COUNT_ELAPSED, "count");
+		names.put(MethodTimerCtile.MEAN_ELAPSED, "mean");
+		names.put(MethodTimerCtile.SAMPLE_RATE, "rate");
+		Map<String, String[]> ctileNames = new HashMap<String, String[]>();
+		ctileNames.put(MethodTimerCtile.PERCENTILE_ELAPSED, new String[]{"p50", "p90"});
+		ctileNames.put(MethodTimerCtile.COUNT_LTOE_PERCENTILE, new String[]{"b50", "b90"});
+		return new IntervalPublisher(2, names, ctileNames, null, null, null);
+	}
+
+	/**
+	 * Closes the current interval and calculates it
+	 * @param phaser The interval phaser
+	 * @param acc The accumulator
+	 * @param publisher The publisher
+	 * @return the published values
+	 */
+	private static int[] calc(WriterReaderPhaser phaser, CtileMetricAccumulator acc, IntervalPublisher publisher) {
+		phaser.readerLock();
+		try {
+			phaser.flipPhase();
+			return acc.calcAndPublishInterval(publisher, System.currentTimeMillis());
+		} finally {
+			phaser.readerUnlock();
+		}
+	}
+}
@@ -0,0 +1,89 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.agent.tracer.sla;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * <p>Title: SlaCountersTestCase</p>
+ * <p>Description: Verifies the SLA bucket mapping, the interval differencing of the cumulative counts and the Apdex score.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.agent.tracer.sla.SlaCountersTestCase</code></p>
+ */
+
+public class SlaCountersTestCase {
+
+	/**
+	 * Validates that the lookup table and the search map elapsed times to the same buckets
+	 */
+	@Test
+	public void testBucketOf() throws Exception {
+		SlaCounters lookup = new SlaCounters(1000, 250, 5000, 250);
+		SlaCounters search = new SlaCounters(250, 1000, 5000, SlaCounters.MAX_LOOKUP + 1);
+		assertEquals("[250, 1000, 5000]", Arrays.toString(lookup.getBoundaries()));
+		int[] times = {-5, 0, 250, 251, 999, 1000, 1001, 5000, 5001, 60000};
+		int[] expected = {0, 0, 0, 1, 1, 1, 2, 2, 3, 3};
+		for(int i = 0; i < times.length; i++) {
+			assertEquals("Lookup " + times[i], expected[i], lookup.bucketOf(times[i]));
+			assertEquals("Search " + times[i], expected[i], search.bucketOf(times[i]));
+		}
+	}
+
+	/**
+	 * Validates that each interval only reports the elapsed times counted since the last one
+	 */
+	@Test
+	public void testInterval() throws Exception {
+		SlaCounters counters = new SlaCounters(250, 1000);
+		for(int t: new int[]{10, 20, 300, 2000}) {
+			counters.record(t);
+		}
+		long[] counts = counters.interval();
+		assertEquals("[2, 1, 1]", Arrays.toString(counts));
+		assertEquals(4, SlaCounters.total(counts));
+		assertEquals(3, SlaCounters.countAtOrBelow(counts, counters.indexOf(1000)));
+		counters.record(900);
+		assertEquals("[0, 1, 0]", Arrays.toString(counters.interval()));
+		assertEquals("[0, 0, 0]", Arrays.toString(counters.interval()));
+	}
+
+	/**
+	 * Validates the scaled Apdex score, including that of an empty interval
+	 */
+	@Test
+	public void testApdex() throws Exception {
+		assertEquals(100, SlaTracer.apdex(10, 0, 10));
+		assertEquals(0, SlaTracer.apdex(0, 0, 10));
+		// (60 + 30/2) / 100
+		assertEquals(75, SlaTracer.apdex(60, 30, 100));
+		// An interval with no calls missed no SLA
+		assertEquals(100, SlaTracer.apdex(0, 0, 0));
+	}
+}
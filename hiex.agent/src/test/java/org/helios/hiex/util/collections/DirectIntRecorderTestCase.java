@@ -0,0 +1,121 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.util.collections;
+
+import static org.junit.Assert.*;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+/**
+ * <p>Title: DirectIntRecorderTestCase</p>
+ * <p>Description: Verifies that concurrently recorded off heap values are all drained exactly once, that segments are reused
+ * through the pool, and that the off heap percentiles match the heap array calculation.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.util.collections.DirectIntRecorderTestCase</code></p>
+ */
+
+public class DirectIntRecorderTestCase {
+
+	/**
+	 * Records from several threads while draining and validates the drained count and sum
+	 */
+	@Test
+	public void testConcurrentAddAndDrain() throws Exception {
+		final DirectIntRecorder recorder = new DirectIntRecorder(4, new DirectSegmentPool(64, 1 << 20));
+		final int threads = 8, perThread = 50000;
+		final CountDownLatch done = new CountDownLatch(threads);
+		for(int i = 0; i < threads; i++) {
+			new Thread() {
+				public void run() {
+					for(int x = 1; x <= perThread; x++) {
+						recorder.add(x);
+					}
+					done.countDown();
+				}
+			}.start();
+		}
+		long count = 0, sum = 0;
+		IntBuffer scratch = null;
+		while(done.getCount() > 0) {
+			scratch = recorder.drain(scratch);
+			for(int i = 0; i < scratch.limit(); i++) { count++; sum += scratch.get(i); }
+		}
+		scratch = recorder.drain(scratch);
+		for(int i = 0; i < scratch.limit(); i++) { count++; sum += scratch.get(i); }
+		assertEquals((long)threads * perThread, count);
+		assertEquals((long)threads * perThread * (perThread + 1) / 2, sum);
+		assertEquals(0, recorder.size());
+		assertEquals(0, recorder.getRetainedBytes());
+	}
+
+	/**
+	 * Validates that drained segments are reused rather than reallocated
+	 */
+	@Test
+	public void testSegmentReuse() throws Exception {
+		DirectSegmentPool pool = new DirectSegmentPool(16, 1 << 20);
+		DirectIntRecorder recorder = new DirectIntRecorder(1, pool);
+		IntBuffer scratch = null;
+		for(int interval = 0; interval < 10; interval++) {
+			for(int i = 0; i < 100; i++) recorder.add(i);
+			assertEquals(7, pool.getInUse());
+			scratch = recorder.drain(scratch);
+			assertEquals(100, scratch.limit());
+			assertEquals(99, scratch.get(99));
+			assertEquals(0, pool.getInUse());
+		}
+		assertEquals(7, pool.getAllocations());
+	}
+
+	/**
+	 * Validates the off heap percentiles and summary against the heap array calculation
+	 */
+	@Test
+	public void testSelection() throws Exception {
+		Random random = new Random(11);
+		float[] percentiles = {50f, 90f, 99f, 99.9f};
+		for(int size: new int[]{1, 2, 17, 1000, 25000}) {
+			int[] values = new int[size];
+			IntBuffer buffer = DirectSegmentPool.allocate(size);
+			for(int i = 0; i < size; i++) {
+				values[i] = random.nextInt(size < 100 ? 10 : 100000);
+				buffer.put(i, values[i]);
+			}
+			int[] expected = StatsIntArray.percentileRankValues(values.clone(), percentiles);
+			int[] ctiles = DirectIntSelection.percentileRankValues(buffer, size, percentiles);
+			assertEquals(Arrays.toString(expected), Arrays.toString(ctiles));
+			long[] thresholds = new long[ctiles.length];
+			for(int i = 0; i < ctiles.length; i++) thresholds[i] = ctiles[i];
+			assertEquals(Arrays.toString(LongSummary.summarize(values, thresholds).getCountsAtOrBelow()), Arrays.toString(DirectIntSelection.summarize(buffer, size, thresholds).getCountsAtOrBelow()));
+			assertEquals(LongSummary.summarize(values, thresholds).getMean(), DirectIntSelection.summarize(buffer, size, thresholds).getMean(), 1e-6);
+		}
+	}
+}
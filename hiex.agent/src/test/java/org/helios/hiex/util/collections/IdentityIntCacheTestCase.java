@@ -0,0 +1,73 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.util.collections;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * <p>Title: IdentityIntCacheTestCase</p>
+ * <p>Description: Verifies identity keyed lookups, replacement and the capacity bound of the IdentityIntCache.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.util.collections.IdentityIntCacheTestCase</code></p>
+ */
+
+public class IdentityIntCacheTestCase {
+
+	/**
+	 * Validates that keys are matched by identity rather than equality
+	 */
+	@Test
+	public void testIdentityLookup() throws Exception {
+		IdentityIntCache cache = new IdentityIntCache();
+		String key = new String("probe");
+		assertTrue(cache.put(key, 3));
+		assertEquals(3, cache.get(key));
+		assertEquals(IdentityIntCache.NO_VALUE, cache.get(new String("probe")));
+		assertTrue(cache.put(key, 7));
+		assertEquals(7, cache.get(key));
+		assertEquals(1, cache.size());
+	}
+
+	/**
+	 * Validates that puts beyond the capacity are refused without disturbing cached keys
+	 */
+	@Test
+	public void testCapacity() throws Exception {
+		IdentityIntCache cache = new IdentityIntCache(2);
+		Object a = new Object(), b = new Object(), c = new Object();
+		assertTrue(cache.put(a, 0));
+		assertTrue(cache.put(b, 1));
+		assertFalse(cache.put(c, 2));
+		assertEquals(0, cache.get(a));
+		assertEquals(1, cache.get(b));
+		assertEquals(IdentityIntCache.NO_VALUE, cache.get(c));
+		cache.clear();
+		assertEquals(IdentityIntCache.NO_VALUE, cache.get(a));
+		assertEquals(0, cache.size());
+	}
+}
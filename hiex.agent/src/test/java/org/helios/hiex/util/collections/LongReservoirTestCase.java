@@ -0,0 +1,101 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.util.collections;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * <p>Title: LongReservoirTestCase</p>
+ * <p>Description: Verifies the reservoir's size cap, uniform inclusion across the period and emptying at each drain.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.util.collections.LongReservoirTestCase</code></p>
+ */
+
+public class LongReservoirTestCase {
+
+	/**
+	 * Offers fewer and then more values than the capacity, which spans several chunks
+	 */
+	@Test
+	public void testCapacity() throws Exception {
+		LongReservoir reservoir = new LongReservoir(LongReservoir.CHUNK_SIZE * 2 + 10);
+		assertEquals(0, reservoir.getRetainedBytes());
+		for(int i = 0; i < 100; i++) reservoir.offer(i);
+		// Only the first chunk is allocated
+		assertEquals(LongReservoir.CHUNK_SIZE * 8, reservoir.getRetainedBytes());
+		long[] sample = reservoir.drain();
+		Arrays.sort(sample);
+		assertEquals(100, sample.length);
+		for(int i = 0; i < 100; i++) assertEquals(i, sample[i]);
+		for(int i = 0; i < 100000; i++) reservoir.offer(i);
+		assertEquals(100000, reservoir.getOffered());
+		sample = reservoir.drain();
+		assertEquals(reservoir.getCapacity(), sample.length);
+		// Each value is offered once, so each sampled value is distinct
+		Arrays.sort(sample);
+		for(int i = 1; i < sample.length; i++) assertTrue(sample[i] > sample[i-1]);
+		assertEquals((long)reservoir.getCapacity() * 8, reservoir.getRetainedBytes());
+	}
+
+	/**
+	 * Samples many periods from the fixed initial salt and checks that each tenth of a period is included at the same rate
+	 */
+	@Test
+	public void testUniformInclusion() throws Exception {
+		LongReservoir reservoir = new LongReservoir(1000);
+		int periods = 200;
+		int offers = 100000;
+		long[] included = new long[10];
+		for(int p = 0; p < periods; p++) {
+			for(int i = 0; i < offers; i++) reservoir.offer(i);
+			for(long v: reservoir.drain()) included[(int)(v * 10 / offers)]++;
+		}
+		// Each tenth of each period should contribute 100 of the 1000 samples
+		for(int i = 0; i < included.length; i++) {
+			assertEquals("Tenth [" + i + "]", periods * 100, included[i], periods * 100 * 0.05);
+		}
+	}
+
+	/**
+	 * Drains a full reservoir and checks that the next period's sample holds only its own values
+	 */
+	@Test
+	public void testResetBetweenIntervals() throws Exception {
+		LongReservoir reservoir = new LongReservoir(100);
+		for(int i = 0; i < 10000; i++) reservoir.offer(-1);
+		assertEquals(100, reservoir.drain().length);
+		assertEquals(0, reservoir.getOffered());
+		assertEquals(0, reservoir.drain().length);
+		for(int i = 0; i < 10; i++) reservoir.offer(i);
+		long[] sample = reservoir.drain();
+		Arrays.sort(sample);
+		assertArrayEquals(new long[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9}, sample);
+	}
+}
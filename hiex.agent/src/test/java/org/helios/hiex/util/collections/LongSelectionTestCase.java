@@ -0,0 +1,73 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.util.collections;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * <p>Title: LongSelectionTestCase</p>
+ * <p>Description: Verifies the long selection based percentiles and summary with nanosecond scale values.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.util.collections.LongSelectionTestCase</code></p>
+ */
+
+public class LongSelectionTestCase {
+
+	/**
+	 * Compares selected percentile values, counts at or below and the summary with values from a sorted copy
+	 * for values that do not fit in an int.
+	 */
+	@Test
+	public void testSelectionMatchesSort() {
+		Random random = new Random(11);
+		float[] percentiles = new float[]{50, 90, 99, 99.9f};
+		long[] values = new long[200001];
+		long sum = 0;
+		for(int i = 0; i < values.length; i++) {
+			values[i] = 3000000000L + (long)(random.nextDouble() * 100000000L);
+			sum += values[i];
+		}
+		long[] sorted = values.clone();
+		Arrays.sort(sorted);
+		long[] ctiles = LongSelection.percentileRankValues(values, percentiles);
+		LongSummary summary = LongSummary.summarize(values, ctiles);
+		for(int i = 0; i < percentiles.length; i++) {
+			assertEquals(LongSelection.percentileRankValue(sorted, percentiles[i]), ctiles[i]);
+			int below = 0;
+			while(below < sorted.length && sorted[below] <= ctiles[i]) below++;
+			assertEquals(below, summary.getCountsAtOrBelow()[i]);
+		}
+		assertEquals(sum, summary.getSum());
+		assertEquals(sorted[0], summary.getMin());
+		assertEquals(sorted[sorted.length-1], summary.getMax());
+		assertEquals((double)sum / values.length, summary.getMean(), 1e-3);
+	}
+}
@@ -0,0 +1,132 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.util.collections;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Title: RecorderContentionBenchmark</p>
+ * <p>Description: Contention benchmark comparing the throughput of {@link SynchronizedTIntArrayList#add(int)} and
+ * {@link StripedIntRecorder#add(int)} as the number of writing threads grows. A reader thread drains each recorder
+ * every 100 ms to mimic the interval rollover. Run with: <code>java ... RecorderContentionBenchmark [maxThreads] [runMs]</code></p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.util.collections.RecorderContentionBenchmark</code></p>
+ */
+public class RecorderContentionBenchmark {
+
+	/**
+	 * @param args [maxThreads] [runMs]
+	 */
+	public static void main(String[] args) throws Exception {
+		int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+		long runMs = args.length > 1 ? Long.parseLong(args[1]) : 2000;
+		log("RecorderContentionBenchmark. Processors:" + Runtime.getRuntime().availableProcessors() + " Stripes:" + StripedIntRecorder.DEFAULT_STRIPES);
+		// warmup
+		run(new SynchronizedRecorder(), 4, 500);
+		run(new StripedRecorder(), 4, 500);
+		log(String.format("%8s %22s %22s %8s", "Threads", "Synchronized (ops/s)", "Striped (ops/s)", "Ratio"));
+		for(int threads = 1; threads <= maxThreads; threads <<= 1) {
+			long sync = run(new SynchronizedRecorder(), threads, runMs);
+			long striped = run(new StripedRecorder(), threads, runMs);
+			log(String.format("%8d %22d %22d %8.2f", threads, sync, striped, (double)striped/sync));
+		}
+	}
+
+	/**
+	 * Runs one benchmark pass
+	 * @param recorder The recorder to exercise
+	 * @param threads The number of writer threads
+	 * @param runMs The run time in ms
+	 * @return the recorded operations per second
+	 */
+	protected static long run(final Recorder recorder, int threads, long runMs) throws InterruptedException {
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final AtomicLong ops = new AtomicLong(0);
+		final CountDownLatch done = new CountDownLatch(threads);
+		for(int i = 0; i < threads; i++) {
+			final int seed = i;
+			Thread t = new Thread("Writer#" + i) {
+				public void run() {
+					long count = 0;
+					int value = seed;
+					while(running.get()) {
+						for(int x = 0; x < 1000; x++) {
+							recorder.add(value++ & 0xFFFF);
+						}
+						count += 1000;
+					}
+					ops.addAndGet(count);
+					done.countDown();
+				}
+			};
+			t.setDaemon(true);
+			t.start();
+		}
+		long start = System.nanoTime();
+		long end = start + runMs * 1000000L;
+		while(System.nanoTime() < end) {
+			Thread.sleep(100);
+			recorder.drain();
+		}
+		running.set(false);
+		done.await();
+		long elapsedNs = System.nanoTime() - start;
+		recorder.drain();
+		return (long)(ops.get() / (elapsedNs / 1000000000D));
+	}
+
+	public static void log(Object msg) {
+		System.out.println(msg);
+	}
+
+	/** A common view of the benchmarked recorders */
+	static interface Recorder {
+		void add(int value);
+		int[] drain();
+	}
+
+	/** The synchronized list recorder, drained the way CtileMetricAccumulator drained it */
+	static class SynchronizedRecorder implements Recorder {
+		final SynchronizedTIntArrayList list = new SynchronizedTIntArrayList();
+		public void add(int value) { list.add(value); }
+		public int[] drain() {
+			synchronized(list) {
+				int[] values = list.toArray();
+				list.reset();
+				return values;
+			}
+		}
+	}
+
+	/** The striped recorder */
+	static class StripedRecorder implements Recorder {
+		final StripedIntRecorder recorder = new StripedIntRecorder();
+		public void add(int value) { recorder.add(value); }
+		public int[] drain() { return recorder.drain(); }
+	}
+}
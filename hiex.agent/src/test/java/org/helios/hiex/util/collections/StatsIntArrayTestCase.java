@@ -0,0 +1,126 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.util.collections;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * <p>Title: StatsIntArrayTestCase</p>
+ * <p>Description: Verifies the selection based percentile calculations against the sorted calculations.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.util.collections.StatsIntArrayTestCase</code></p>
+ */
+
+public class StatsIntArrayTestCase {
+	/** The percentiles to validate */
+	private static final float[] PERCENTILES = new float[]{0.1f, 1, 50, 90, 99, 99.9f, 100};
+
+	/**
+	 * Compares selected percentile values and counts at or below with the values from a sorted copy,
+	 * including arrays with few distinct values and already sorted arrays.
+	 */
+	@Test
+	public void testSelectionMatchesSort() {
+		Random random = new Random(42);
+		for(int size: new int[]{1, 2, 3, 17, 1000, 100001}) {
+			for(int limit: new int[]{3, 100000}) {
+				int[] values = new int[size];
+				for(int i = 0; i < size; i++) {
+					values[i] = random.nextInt(limit);
+				}
+				assertMatchesSort(values);
+				Arrays.sort(values);
+				assertMatchesSort(values);
+			}
+		}
+	}
+
+	/**
+	 * Validates that selecting a rank partitions the values around it
+	 */
+	@Test
+	public void testSelectPartitions() {
+		Random random = new Random(7);
+		int[] values = new int[5000];
+		for(int i = 0; i < values.length; i++) {
+			values[i] = random.nextInt(500);
+		}
+		int[] sorted = values.clone();
+		Arrays.sort(sorted);
+		int k = 1234;
+		assertEquals(sorted[k], StatsIntArray.select(values, 0, values.length, k));
+		for(int i = 0; i < k; i++) assertTrue(values[i] <= values[k]);
+		for(int i = k+1; i < values.length; i++) assertTrue(values[i] >= values[k]);
+	}
+
+	/**
+	 * Validates the single pass summary against two pass calculations, including sums that overflow an int
+	 */
+	@Test
+	public void testSummary() {
+		int[] values = new int[3000000];
+		Random random = new Random(3);
+		long sum = 0;
+		for(int i = 0; i < values.length; i++) {
+			values[i] = 1000 + random.nextInt(9000);
+			sum += values[i];
+		}
+		double mean = (double)sum / values.length, squares = 0;
+		for(int v: values) squares += (v - mean) * (v - mean);
+		LongSummary summary = LongSummary.summarize(values, new long[]{999, 5000, 20000});
+		assertEquals(values.length, summary.getCount());
+		assertEquals(sum, summary.getSum());
+		assertEquals(mean, summary.getMean(), 1e-6);
+		assertEquals(Math.sqrt(squares / values.length), summary.getStdDeviation(), 1e-6);
+		assertEquals(0, summary.getCountsAtOrBelow()[0]);
+		assertEquals(StatsIntArray.countsAtOrBelow(values, new int[]{5000})[0], summary.getCountsAtOrBelow()[1]);
+		assertEquals(values.length, summary.getCountsAtOrBelow()[2]);
+		StatsIntArray arr = new StatsIntArray(StatsIntArray.varg(3,7,7,19));
+		assertEquals(9, arr.mean());
+		assertEquals(6, arr.stddev());
+	}
+
+	/**
+	 * Asserts that the selected percentile values and counts match those calculated from a sorted copy
+	 * @param values The values
+	 */
+	private static void assertMatchesSort(int[] values) {
+		int[] sorted = values.clone();
+		Arrays.sort(sorted);
+		int[] ctiles = StatsIntArray.percentileRankValues(values.clone(), PERCENTILES);
+		int[] below = StatsIntArray.countsAtOrBelow(values, ctiles);
+		for(int i = 0; i < PERCENTILES.length; i++) {
+			int expected = StatsIntArray.percentileRankValue(sorted, PERCENTILES[i]);
+			assertEquals("p" + PERCENTILES[i] + " of " + values.length, expected, ctiles[i]);
+			assertEquals("p" + PERCENTILES[i] + " count of " + values.length, StatsIntArray.countAtOrBelow(sorted, expected), below[i]);
+		}
+	}
+}
@@ -0,0 +1,93 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.util.collections;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+/**
+ * <p>Title: StripedIntRecorderTestCase</p>
+ * <p>Description: Verifies that concurrently recorded values are all drained exactly once.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.util.collections.StripedIntRecorderTestCase</code></p>
+ */
+
+public class StripedIntRecorderTestCase {
+
+	/**
+	 * Records from several threads while draining and validates the drained count and sum
+	 */
+	@Test
+	public void testConcurrentAddAndDrain() throws Exception {
+		final StripedIntRecorder recorder = new StripedIntRecorder(4, 8);
+		final int threads = 8, perThread = 50000;
+		final CountDownLatch done = new CountDownLatch(threads);
+		for(int i = 0; i < threads; i++) {
+			new Thread() {
+				public void run() {
+					for(int x = 1; x <= perThread; x++) {
+						recorder.add(x);
+					}
+					done.countDown();
+				}
+			}.start();
+		}
+		long count = 0, sum = 0;
+		while(done.getCount() > 0) {
+			for(int v: recorder.drain()) { count++; sum += v; }
+		}
+		for(int v: recorder.drain()) { count++; sum += v; }
+		assertEquals((long)threads * perThread, count);
+		assertEquals((long)threads * perThread * (perThread + 1) / 2, sum);
+		assertEquals(0, recorder.size());
+	}
+
+	/**
+	 * Validates that trim shrinks a buffer grown by a spike once use drops, and releases unused buffers
+	 */
+	@Test
+	public void testTrim() throws Exception {
+		StripedIntRecorder recorder = new StripedIntRecorder(1, 8);
+		for(int i = 0; i < 10000; i++) recorder.add(i);
+		assertEquals(10000, recorder.drain().length);
+		long spike = recorder.getRetainedBytes();
+		assertTrue(spike >= 10000 * 4);
+		// The spike is the peak of the current window so nothing is shrunk yet
+		assertEquals(0, recorder.trim());
+		for(int i = 0; i < 10; i++) recorder.add(i);
+		assertEquals(10, recorder.drain().length);
+		assertEquals(1, recorder.trim());
+		assertEquals(32 * 4, recorder.getRetainedBytes());
+		// No use at all in the next window releases the buffer
+		assertEquals(1, recorder.trim());
+		assertEquals(0, recorder.getRetainedBytes());
+		recorder.add(1);
+		assertEquals(1, recorder.drain().length);
+	}
+}
@@ -0,0 +1,94 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.util.concurrency;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * <p>Title: NanoTimerStackTestCase</p>
+ * <p>Description: Verifies that the nano timer stack pairs each pop with its own push, across nesting and per thread.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.util.concurrency.NanoTimerStackTestCase</code></p>
+ */
+
+public class NanoTimerStackTestCase {
+
+	/**
+	 * Pops an empty stack, then pairs a single push and pop
+	 */
+	@Test
+	public void testPushPop() throws Exception {
+		NanoTimerStack stack = new NanoTimerStack();
+		assertEquals(NanoTimerStack.NO_START, stack.pop());
+		stack.push();
+		assertEquals(1, stack.depth());
+		Thread.sleep(5);
+		long elapsed = stack.pop();
+		assertTrue("Elapsed [" + elapsed + "]", elapsed >= 4000000L);
+		assertEquals(0, stack.depth());
+		assertEquals(NanoTimerStack.NO_START, stack.pop());
+	}
+
+	/**
+	 * Nests invocations past the initial depth and checks each is timed against its own start, and that threads have their own stacks
+	 */
+	@Test
+	public void testNested() throws Exception {
+		final NanoTimerStack stack = new NanoTimerStack();
+		int depth = NanoTimerStack.INITIAL_DEPTH * 2 + 1;
+		for(int i = 0; i < depth; i++) {
+			stack.push();
+		}
+		assertEquals(depth, stack.depth());
+		final int[] otherDepth = new int[2];
+		Thread other = new Thread() {
+			public void run() {
+				otherDepth[0] = stack.depth();
+				stack.push();
+				otherDepth[1] = stack.depth();
+			}
+		};
+		other.start();
+		other.join();
+		assertEquals(0, otherDepth[0]);
+		assertEquals(1, otherDepth[1]);
+		assertEquals(depth, stack.depth());
+		// An outer invocation started earlier, so it is never timed shorter than the invocations nested in it
+		long inner = stack.pop();
+		Thread.sleep(2);
+		long previous = inner;
+		for(int i = 1; i < depth; i++) {
+			long elapsed = stack.pop();
+			assertTrue("Outer [" + elapsed + "] inner [" + previous + "]", elapsed >= previous);
+			previous = elapsed;
+		}
+		assertTrue(previous >= inner + 1000000L);
+		assertEquals(0, stack.depth());
+		assertEquals(NanoTimerStack.NO_START, stack.pop());
+	}
+}
@@ -0,0 +1,82 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.util.concurrency;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+/**
+ * <p>Title: StripedCounterTestCase</p>
+ * <p>Description: Verifies that the striped counter sums every concurrent increment and resets between intervals.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.util.concurrency.StripedCounterTestCase</code></p>
+ */
+
+public class StripedCounterTestCase {
+
+	/**
+	 * Counts several rounds of concurrent increments from more threads than cells, summing and resetting after each round
+	 */
+	@Test
+	public void testConcurrentSumAndReset() throws Exception {
+		final StripedCounter counter = new StripedCounter(4);
+		final int threads = 8;
+		final int events = 50000;
+		for(int round = 1; round <= 3; round++) {
+			final int value = round;
+			final CountDownLatch start = new CountDownLatch(1);
+			Thread[] workers = new Thread[threads];
+			for(int i = 0; i < threads; i++) {
+				workers[i] = new Thread() {
+					public void run() {
+						try {
+							start.await();
+						} catch (InterruptedException e) {
+						}
+						long last = 0;
+						for(int e = 0; e < events; e++) {
+							long count = counter.record(value);
+							// The calling thread's cell only ever counts up between resets
+							if(count <= last) throw new IllegalStateException("Cell count went from [" + last + "] to [" + count + "]");
+							last = count;
+						}
+					}
+				};
+				workers[i].start();
+			}
+			start.countDown();
+			for(Thread worker: workers) worker.join();
+			assertEquals((long)threads * events, counter.getCount());
+			assertEquals((long)threads * events * value, counter.getTotal());
+			counter.reset();
+			assertEquals(0, counter.getCount());
+			assertEquals(0, counter.getTotal());
+		}
+	}
+}
@@ -0,0 +1,159 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.util.concurrency;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+/**
+ * <p>Title: StripedGaugeTestCase</p>
+ * <p>Description: Verifies the striped gauge's current, peak and finished in-flight time across intervals.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.util.concurrency.StripedGaugeTestCase</code></p>
+ */
+
+public class StripedGaugeTestCase {
+
+	/**
+	 * Holds several calls in flight at once, then finishes them and closes three intervals
+	 */
+	@Test
+	public void testInFlight() throws Exception {
+		final StripedGauge gauge = new StripedGauge(4);
+		final long base = System.currentTimeMillis();
+		final int threads = 8;
+		final CountDownLatch started = new CountDownLatch(threads);
+		final CountDownLatch release = new CountDownLatch(1);
+		Thread[] workers = new Thread[threads];
+		for(int i = 0; i < threads; i++) {
+			workers[i] = new Thread() {
+				public void run() {
+					gauge.start(base);
+					started.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+					}
+					gauge.finish(base + 100);
+				}
+			};
+			workers[i].start();
+		}
+		started.await();
+		assertEquals(threads, gauge.getCurrent());
+		release.countDown();
+		for(Thread worker: workers) worker.join();
+		assertEquals(0, gauge.getCurrent());
+		long[] interval = gauge.interval(base + 400);
+		assertEquals(0, interval[StripedGauge.CURRENT]);
+		assertEquals(threads, interval[StripedGauge.PEAK]);
+		assertEquals(threads * 100, interval[StripedGauge.BUSY]);
+		assertEquals(2D, StripedGauge.average(interval[StripedGauge.BUSY], 400), 0);
+		// A call in flight across the rollover counts towards both intervals and starts the next interval's peak
+		gauge.start(base + 500);
+		interval = gauge.interval(base + 800);
+		assertEquals(1, interval[StripedGauge.CURRENT]);
+		assertEquals(1, interval[StripedGauge.PEAK]);
+		assertEquals(300, interval[StripedGauge.BUSY]);
+		gauge.finish(base + 805);
+		interval = gauge.interval(base + 1200);
+		assertEquals(0, interval[StripedGauge.CURRENT]);
+		assertEquals(1, interval[StripedGauge.PEAK]);
+		assertEquals(5, interval[StripedGauge.BUSY]);
+		interval = gauge.interval(base + 1600);
+		assertEquals(0, interval[StripedGauge.PEAK]);
+		assertEquals(0, interval[StripedGauge.BUSY]);
+	}
+
+	/**
+	 * Holds a call in flight for several whole intervals and checks each one averages one call in flight
+	 */
+	@Test
+	public void testLongCall() throws Exception {
+		StripedGauge gauge = new StripedGauge();
+		long base = System.currentTimeMillis();
+		gauge.start(base + 250);
+		gauge.start(base + 500);
+		gauge.finish(base + 750);
+		long[] interval = gauge.interval(base + 1000);
+		assertEquals(2, interval[StripedGauge.PEAK]);
+		assertEquals(1000, interval[StripedGauge.BUSY]);
+		for(long end = base + 2000; end <= base + 4000; end += 1000) {
+			interval = gauge.interval(end);
+			assertEquals(1, interval[StripedGauge.CURRENT]);
+			assertEquals(1D, StripedGauge.average(interval[StripedGauge.BUSY], 1000), 0);
+		}
+		gauge.finish(base + 4500);
+		interval = gauge.interval(base + 5000);
+		assertEquals(0, interval[StripedGauge.CURRENT]);
+		assertEquals(500, interval[StripedGauge.BUSY]);
+	}
+
+	/**
+	 * Checks the peak sums the cells' high-water marks, overstating calls that peaked in different cells at different times
+	 */
+	@Test
+	public void testApproximatePeak() throws Exception {
+		final StripedGauge gauge = new StripedGauge(64);
+		final long base = System.currentTimeMillis();
+		gauge.start(base);
+		gauge.finish(base + 100);
+		Thread other = new Thread() {
+			public void run() {
+				gauge.start(base + 200);
+				gauge.finish(base + 300);
+			}
+		};
+		other.start();
+		other.join();
+		long[] interval = gauge.interval(base + 400);
+		assertEquals(0, interval[StripedGauge.CURRENT]);
+		assertTrue(interval[StripedGauge.PEAK] >= 1 && interval[StripedGauge.PEAK] <= 2);
+		assertEquals(200, interval[StripedGauge.BUSY]);
+		assertEquals(0, gauge.interval(base + 800)[StripedGauge.PEAK]);
+	}
+
+	/**
+	 * Checks a finish with no matching start leaves the in-flight count and time untouched
+	 */
+	@Test
+	public void testUnmatchedFinish() throws Exception {
+		StripedGauge gauge = new StripedGauge(4);
+		long base = System.currentTimeMillis();
+		gauge.finish(base + 100);
+		assertEquals(0, gauge.getCurrent());
+		gauge.start(base + 200);
+		gauge.finish(base + 300);
+		gauge.finish(base + 350);
+		long[] interval = gauge.interval(base + 400);
+		assertEquals(0, interval[StripedGauge.CURRENT]);
+		assertEquals(1, interval[StripedGauge.PEAK]);
+		assertEquals(100, interval[StripedGauge.BUSY]);
+	}
+}
@@ -0,0 +1,102 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.util.concurrency;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.helios.hiex.util.collections.StripedIntRecorder;
+import org.junit.Test;
+
+/**
+ * <p>Title: WriterReaderPhaserTestCase</p>
+ * <p>Description: Verifies that phase flips under concurrent writes neither lose nor double count samples.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.util.concurrency.WriterReaderPhaserTestCase</code></p>
+ */
+
+public class WriterReaderPhaserTestCase {
+
+	/**
+	 * Writers record into double buffered recorders while the reader flips and drains the inactive buffer
+	 */
+	@Test
+	public void testNoLossAcrossFlips() throws Exception {
+		final WriterReaderPhaser phaser = new WriterReaderPhaser(4);
+		final StripedIntRecorder[] recorders = new StripedIntRecorder[]{new StripedIntRecorder(4, 16), new StripedIntRecorder(4, 16)};
+		final int threads = 6, perThread = 100000;
+		final CountDownLatch done = new CountDownLatch(threads);
+		final AtomicBoolean failed = new AtomicBoolean(false);
+		for(int i = 0; i < threads; i++) {
+			new Thread() {
+				public void run() {
+					for(int x = 0; x < perThread; x++) {
+						long phase = phaser.writerCriticalSectionEnter();
+						try {
+							recorders[WriterReaderPhaser.phaseIndex(phase)].add(1);
+						} finally {
+							phaser.writerCriticalSectionExit(phase);
+						}
+					}
+					done.countDown();
+				}
+			}.start();
+		}
+		long total = 0;
+		int flips = 0;
+		while(done.getCount() > 0 || flips < 2) {
+			phaser.readerLock();
+			try {
+				phaser.flipPhase(0);
+				flips++;
+				total += recorders[phaser.inactiveIndex()].drain().length;
+				// No writer may touch the inactive recorder between flips
+				if(recorders[phaser.inactiveIndex()].size()!=0) failed.set(true);
+			} finally {
+				phaser.readerUnlock();
+			}
+		}
+		phaser.readerLock();
+		try {
+			phaser.flipPhase();
+			total += recorders[phaser.inactiveIndex()].drain().length;
+		} finally {
+			phaser.readerUnlock();
+		}
+		assertFalse("Writer touched the inactive recorder", failed.get());
+		assertEquals((long)threads * perThread, total);
+	}
+
+	/**
+	 * Validates that flipping without the reader lock is rejected
+	 */
+	@Test(expected=IllegalStateException.class)
+	public void testFlipRequiresReaderLock() {
+		new WriterReaderPhaser().flipPhase();
+	}
+}
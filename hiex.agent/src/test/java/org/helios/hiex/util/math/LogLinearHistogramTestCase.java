@@ -0,0 +1,154 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.util.math;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * <p>Title: LogLinearHistogramTestCase</p>
+ * <p>Description: Verifies the LogLinearHistogram's derived values against exact values computed from the raw samples.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.util.math.LogLinearHistogramTestCase</code></p>
+ */
+
+public class LogLinearHistogramTestCase {
+
+	/**
+	 * Validates that percentiles derived from the buckets are within the stated relative error
+	 */
+	@Test
+	public void testPercentilesWithinRelativeError() {
+		LogLinearHistogram histogram = new LogLinearHistogram(3600000L, 2);
+		Random random = new Random(42);
+		long[] values = new long[100000];
+		for(int i = 0; i < values.length; i++) {
+			values[i] = (long)Math.abs(random.nextGaussian() * 5000) + 1;
+			histogram.recordValue(values[i]);
+		}
+		Arrays.sort(values);
+		assertEquals(values.length, histogram.getTotalCount());
+		for(double p: new double[]{50, 90, 99, 99.9}) {
+			long exact = values[(int)Math.ceil(p/100 * values.length)-1];
+			long approx = histogram.getValueAtPercentile(p);
+			assertTrue("p" + p + " exact:" + exact + " approx:" + approx, Math.abs(approx-exact) <= exact * histogram.getRelativeError() + 1);
+		}
+	}
+
+	/**
+	 * Validates counts, min, max, mean and reset
+	 */
+	@Test
+	public void testCountsAndMoments() {
+		LogLinearHistogram histogram = new LogLinearHistogram(1000, 3);
+		for(int i = 1; i <= 100; i++) {
+			histogram.recordValue(i);
+		}
+		histogram.recordValue(5000);
+		assertEquals(101, histogram.getTotalCount());
+		assertEquals(1, histogram.getMinValue());
+		assertEquals(1000, histogram.getMaxValue());
+		assertEquals(50, histogram.getCountAtOrBelow(50));
+		assertEquals(100, histogram.getCountAtOrBelow(999));
+		long[] below = histogram.getCountsAtOrBelow(new long[]{50, 999, 1000});
+		assertEquals(50, below[0]);
+		assertEquals(100, below[1]);
+		assertEquals(101, below[2]);
+		histogram.reset();
+		assertEquals(0, histogram.getTotalCount());
+		for(int i = 1; i <= 100; i++) {
+			histogram.recordValue(i);
+		}
+		assertEquals(50.5D, histogram.getMean(), 0.01D);
+		assertEquals(28.87D, histogram.getStdDeviation(), 0.01D);
+	}
+
+	/**
+	 * Validates that adding histograms combines their counts
+	 */
+	@Test
+	public void testAdd() {
+		LogLinearHistogram a = new LogLinearHistogram(100000, 2);
+		LogLinearHistogram b = new LogLinearHistogram(a);
+		a.recordValue(10, 5);
+		b.recordValue(20000, 5);
+		a.add(b);
+		assertEquals(10, a.getTotalCount());
+		assertEquals(10, a.getValueAtPercentile(50));
+		assertEquals(a.highestEquivalentValue(20000), a.getValueAtPercentile(100));
+	}
+
+	/**
+	 * Validates that a decoded histogram has the encoded histogram's counts
+	 */
+	@Test
+	public void testEncodeDecode() {
+		LogLinearHistogram a = new LogLinearHistogram(3600000L, 2);
+		Random random = new Random(3);
+		for(int i = 0; i < 10000; i++) {
+			a.recordValue((long)Math.abs(random.nextGaussian() * 800));
+		}
+		a.recordValue(3600000L, 3);
+		ByteBuffer buffer = ByteBuffer.allocate(a.getMaxEncodedLength());
+		a.encodeInto(buffer);
+		assertTrue(buffer.position() < a.getMaxEncodedLength() / 10);
+		buffer.flip();
+		LogLinearHistogram b = new LogLinearHistogram(a);
+		b.decodeFrom(buffer);
+		assertEquals(0, buffer.remaining());
+		assertEquals(a.getTotalCount(), b.getTotalCount());
+		for(double p: new double[]{50, 90, 99, 99.9, 100}) {
+			assertEquals(a.getValueAtPercentile(p), b.getValueAtPercentile(p));
+		}
+	}
+
+	/**
+	 * Validates that a single 5 s stall in calls expected every 10 ms is back filled with the ~500 delayed calls
+	 */
+	@Test
+	public void testAddCorrected() {
+		LogLinearHistogram raw = new LogLinearHistogram(3600000L, 2);
+		raw.recordValue(1, 1000);
+		raw.recordValue(5000);
+		assertEquals(1, raw.getValueAtPercentile(99));
+		LogLinearHistogram corrected = new LogLinearHistogram(raw);
+		corrected.addCorrected(raw, 10);
+		// 1001 recorded plus 10, 20, ... 4990
+		assertEquals(1500, corrected.getTotalCount(), 5);
+		assertEquals(1, corrected.getValueAtPercentile(50));
+		assertEquals(4850, corrected.getValueAtPercentile(99), 4850 * 2 * raw.getRelativeError());
+		assertEquals(raw.getMaxValue(), corrected.getMaxValue());
+		// Values at or below the expected interval are not corrected
+		corrected.reset();
+		corrected.addCorrected(raw, 5000);
+		assertEquals(raw.getTotalCount(), corrected.getTotalCount());
+	}
+}
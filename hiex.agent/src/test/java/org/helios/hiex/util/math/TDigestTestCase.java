@@ -0,0 +1,152 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.hiex.util.math;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * <p>Title: TDigestTestCase</p>
+ * <p>Description: Verifies t-digest quantile accuracy, bounded size and merging.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.hiex.util.math.TDigestTestCase</code></p>
+ */
+
+public class TDigestTestCase {
+	/** The quantiles to validate */
+	private static final double[] QUANTILES = new double[]{0.5, 0.9, 0.99, 0.999};
+
+	/**
+	 * Validates quantile accuracy for a distribution spanning 1 us to 10 minutes in ns, recorded into one digest
+	 * and into four digests merged together.
+	 */
+	@Test
+	public void testQuantilesAndMerge() {
+		Random random = new Random(17);
+		double[] values = new double[200000];
+		TDigest digest = new TDigest(100);
+		TDigest[] parts = new TDigest[4];
+		for(int i = 0; i < parts.length; i++) parts[i] = new TDigest(digest);
+		double sum = 0;
+		for(int i = 0; i < values.length; i++) {
+			// log-uniform from 1 us (1e3 ns) to 10 min (6e11 ns)
+			values[i] = Math.pow(10, 3 + random.nextDouble() * 8.78);
+			sum += values[i];
+			digest.add(values[i]);
+			parts[i % parts.length].add(values[i]);
+		}
+		TDigest merged = new TDigest(digest);
+		for(TDigest part: parts) merged.add(part);
+		Arrays.sort(values);
+		for(TDigest d: new TDigest[]{digest, merged}) {
+			assertEquals(values.length, d.getTotalCount());
+			assertEquals(sum / values.length, d.getMean(), sum / values.length * 1e-9);
+			assertEquals(values[0], d.getMin(), 0);
+			assertEquals(values[values.length-1], d.getMax(), 0);
+			assertTrue("centroids:" + d.getCentroidCount(), d.getCentroidCount() <= 2 * 100 + 10);
+			for(double q: QUANTILES) {
+				double exact = values[(int)Math.ceil(q * values.length) - 1];
+				double estimate = d.quantile(q);
+				// Quantile error, measured in rank, is small and shrinks toward the tails
+				double rank = Arrays.binarySearch(values, estimate);
+				if(rank < 0) rank = -rank - 1;
+				assertTrue("q" + q + " exact:" + exact + " estimate:" + estimate, Math.abs(rank / values.length - q) <= 0.005 * Math.min(1, 4 * (1 - q) + 0.05));
+				assertEquals(q, d.countAtOrBelow(estimate) / values.length, 0.005);
+			}
+		}
+	}
+
+	/**
+	 * Validates that merging a ring of compact period copies matches a digest of all the periods' values
+	 */
+	@Test
+	public void testCompactCopyRing() {
+		Random random = new Random(5);
+		TDigest all = new TDigest(100), period = new TDigest(100), window = new TDigest(100);
+		TDigest[] ring = new TDigest[15];
+		for(int p = 0; p < ring.length; p++) {
+			period.reset();
+			for(int i = 0; i < 10000; i++) {
+				double v = Math.exp(random.nextGaussian() * 2 + 8);
+				period.add(v);
+				all.add(v);
+			}
+			ring[p] = period.compactCopy();
+			assertTrue(ring[p].getEstimatedFootprintInBytes() < period.getEstimatedFootprintInBytes());
+		}
+		for(TDigest d: ring) window.add(d);
+		assertEquals(all.getTotalCount(), window.getTotalCount());
+		assertEquals(all.getMean(), window.getMean(), all.getMean() * 1e-9);
+		assertEquals(all.getStdDeviation(), window.getStdDeviation(), all.getStdDeviation() * 1e-6);
+		for(double q: QUANTILES) {
+			assertEquals(q, all.countAtOrBelow(window.quantile(q)) / all.getTotalCount(), 0.005);
+		}
+	}
+
+	/**
+	 * Validates that a digest with few values returns them exactly
+	 */
+	@Test
+	public void testSmallDigestExact() {
+		TDigest digest = new TDigest(100);
+		for(int i = 1; i <= 10; i++) digest.add(i);
+		assertEquals(1D, digest.quantile(0), 0);
+		assertEquals(10D, digest.quantile(1), 0);
+		assertEquals(5D, digest.quantile(0.5), 0.5);
+		assertEquals(10D, digest.countAtOrBelow(10), 0);
+		assertEquals(0D, digest.countAtOrBelow(0.5), 0);
+		digest.reset();
+		assertEquals(0, digest.getTotalCount());
+		assertTrue(Double.isNaN(digest.quantile(0.5)));
+	}
+
+	/**
+	 * Validates that a single 5 s stall in calls expected every 10 ms is back filled with the ~500 delayed calls,
+	 * in a bounded number of grouped values
+	 */
+	@Test
+	public void testAddCorrected() {
+		TDigest raw = new TDigest(100);
+		for(int i = 0; i < 1000; i++) raw.add(1);
+		raw.add(5000);
+		TDigest corrected = new TDigest(raw);
+		corrected.addCorrected(raw, 10);
+		assertEquals(1500, corrected.getTotalCount());
+		assertEquals(1D, corrected.quantile(0.5), 0);
+		assertEquals(4850D, corrected.quantile(0.99), 4850 * 0.02);
+		assertEquals(5000D, corrected.getMax(), 0);
+		// A 1 hour stall adds 360K values as at most compression groups
+		raw.add(3600000);
+		corrected.reset();
+		corrected.addCorrected(raw, 10);
+		assertEquals(1500 + 360000, corrected.getTotalCount());
+		assertEquals(3600000D * 0.9, corrected.quantile(0.9), 3600000D * 0.02);
+	}
+}